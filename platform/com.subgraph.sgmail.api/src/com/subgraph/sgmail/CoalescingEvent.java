@@ -0,0 +1,14 @@
+package com.subgraph.sgmail;
+
+/**
+ * An event posted with {@link IEventBus#postAsync(Object)} which can be merged with an earlier
+ * event of the same class still waiting to be delivered, so that subscribers see a single event
+ * rather than a burst of them.
+ */
+public interface CoalescingEvent<E extends CoalescingEvent<E>> {
+	/**
+	 * Returns an event which has the same effect as delivering <code>pending</code> followed by
+	 * this event.
+	 */
+	E coalesce(E pending);
+}
@@ -0,0 +1,16 @@
+package com.subgraph.sgmail;
+
+public interface EventDispatchStatistics {
+	Class<?> getEventType();
+
+	long getPostedCount();
+
+	/** Number of events which were merged into an earlier event instead of being delivered */
+	long getCoalescedCount();
+
+	long getDeliveredCount();
+
+	/** Average time from posting an event until every subscriber has received it */
+	double getAverageLatencyMillis();
+	long getMaximumLatencyMillis();
+}
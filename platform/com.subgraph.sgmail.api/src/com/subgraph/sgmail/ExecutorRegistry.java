@@ -0,0 +1,30 @@
+package com.subgraph.sgmail;
+
+import java.util.List;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+public interface ExecutorRegistry {
+	enum Workload {
+		/** Long running IMAP synchronization of accounts and folders */
+		SYNC,
+		/** Adding messages to the search index */
+		INDEXING,
+		/** Decrypting, verifying and storing fetched messages */
+		CRYPTO,
+		/** Short tasks started from the user interface */
+		BACKGROUND,
+		/** Sending messages from the outbox */
+		SEND
+	}
+
+	/**
+	 * Returns the shared pool for a workload.  Pools have a bounded number of threads and a bounded
+	 * queue, and a task submitted while the queue is full runs on the submitting thread.  A task
+	 * submitted after shutdown is rejected with a RejectedExecutionException.  Pools must not be shut
+	 * down by their users.
+	 */
+	ListeningExecutorService getExecutor(Workload workload);
+
+	List<ExecutorStatistics> getExecutorStatistics();
+}
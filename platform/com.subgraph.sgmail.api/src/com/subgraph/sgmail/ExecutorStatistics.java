@@ -0,0 +1,26 @@
+package com.subgraph.sgmail;
+
+public interface ExecutorStatistics {
+	String getName();
+
+	int getThreadCount();
+	int getMaximumThreadCount();
+
+	/** Number of threads currently running a task */
+	int getActiveCount();
+
+	int getQueueDepth();
+	int getQueueCapacity();
+
+	long getCompletedTaskCount();
+
+	/** Number of tasks which ran on the submitting thread because the queue was full */
+	long getCallerRunsCount();
+
+	/** Average time completed tasks waited in the queue before starting */
+	double getAverageQueueMillis();
+	long getMaximumQueueMillis();
+
+	double getAverageExecutionMillis();
+	long getMaximumExecutionMillis();
+}
@@ -1,8 +1,26 @@
 package com.subgraph.sgmail;
 
+import java.util.Map;
 
 public interface IEventBus {
 	void register(Object object);
 	void unregister(Object object);
+
+	/**
+	 * Delivers an event to every subscriber on the calling thread before returning.
+	 */
 	void post(Object event);
+
+	/**
+	 * Delivers an event to subscribers on an event dispatch thread.  Events of the same class are
+	 * delivered in the order they are posted, and a {@link CoalescingEvent} is merged with an
+	 * earlier event of the same class which has not been delivered yet.  Subscribers which update
+	 * the user interface must pass the work to the display thread.
+	 */
+	void postAsync(Object event);
+
+	/**
+	 * Returns counters for each class of event posted so far.
+	 */
+	Map<Class<?>, EventDispatchStatistics> getDispatchStatistics();
 }
@@ -0,0 +1,24 @@
+package com.subgraph.sgmail;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.subgraph.sgmail.accounts.MailAccount;
+
+/**
+ * Messages waiting to be sent.  A queued message is stored in the database until the SMTP server
+ * of its account accepts it, so it is sent after a restart or once the network is available
+ * again.  The progress of each message is posted on the event bus as an
+ * {@link com.subgraph.sgmail.events.OutgoingMessageEvent}.
+ */
+public interface MailOutbox {
+
+	/**
+	 * Stores <code>message</code> in the outbox and starts sending it.
+	 *
+	 * @return the outbox id of the message, as reported by its progress events
+	 */
+	int queueMessage(MailAccount account, MimeMessage message) throws MessagingException;
+
+	int getQueuedMessageCount();
+}
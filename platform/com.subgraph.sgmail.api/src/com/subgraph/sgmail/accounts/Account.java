@@ -6,6 +6,7 @@ import com.subgraph.sgmail.database.Preferences;
 import com.subgraph.sgmail.messages.StoredFolder;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.messages.StoredMessageLabel;
+import com.subgraph.sgmail.messages.StoredMessageLabelIndex;
 
 import java.beans.PropertyChangeListener;
 import java.util.Collection;
@@ -17,6 +18,7 @@ public interface Account {
 //    PrivateIdentity getIdentity();
     List<StoredMessageLabel> getMessageLabels();
     StoredMessageLabel getMessageLabelByName(String name);
+    StoredMessageLabelIndex getLabelIndex();
 
     List<StoredFolder> getFolders();
     StoredFolder getFolderByName(String name);
@@ -24,7 +26,7 @@ public interface Account {
     Preferences getPreferences();
     void addMessages(Collection<StoredMessage> messages);
     void addMessage(StoredMessage message);
-    void removeDeletedMessages();
+    List<StoredMessage> removeDeletedMessages();
     void removeMessage(StoredMessage message);
     void removeMessages(Collection<StoredMessage> messages);
     EventList<StoredMessage> getMessageEventList();
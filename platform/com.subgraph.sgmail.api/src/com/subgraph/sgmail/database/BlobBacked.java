@@ -0,0 +1,15 @@
+package com.subgraph.sgmail.database;
+
+import java.io.IOException;
+
+/**
+ * Implemented by stored objects which keep their bulk data in the {@link BlobStore}.
+ */
+public interface BlobBacked {
+	/**
+	 * Move any data still held inline in the object database into the blob store.
+	 *
+	 * @return true if the object was modified and must be committed.
+	 */
+	boolean migrateToBlobStore(BlobStore blobStore) throws IOException;
+}
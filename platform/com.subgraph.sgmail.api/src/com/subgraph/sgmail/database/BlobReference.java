@@ -0,0 +1,37 @@
+package com.subgraph.sgmail.database;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a blob in the {@link BlobStore} by the SHA-256 digest of its content.  The segment
+ * and offset record where the blob was written and are only a hint, since compaction may move it.
+ */
+public class BlobReference {
+	private final byte[] digest;
+	private final int segment;
+	private final long offset;
+	private final int length;
+
+	public BlobReference(byte[] digest, int segment, long offset, int length) {
+		this.digest = digest;
+		this.segment = segment;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public byte[] getDigest() {
+		return Arrays.copyOf(digest, digest.length);
+	}
+
+	public int getSegment() {
+		return segment;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+}
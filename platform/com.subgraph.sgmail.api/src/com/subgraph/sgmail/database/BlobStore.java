@@ -0,0 +1,21 @@
+package com.subgraph.sgmail.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content addressed storage for large immutable byte arrays such as raw message bodies, kept
+ * outside of the object database in append-only segment files.  Storing the same content twice
+ * returns a reference to the existing copy.
+ */
+public interface BlobStore {
+	BlobReference store(byte[] data) throws IOException;
+	byte[] read(BlobReference reference) throws IOException;
+
+	/**
+	 * Returns a stream which reads the blob directly from the memory mapped segment without copying it.
+	 * The stream implements javax.mail.internet.SharedInputStream so that a MimeMessage parsed from it
+	 * also refers to the mapped segment rather than to a copy.
+	 */
+	InputStream openStream(BlobReference reference) throws IOException;
+}
@@ -14,6 +14,30 @@ public interface Database {
 	void store(Object ob);
 	void delete(Object ob);
 	void commit();
+
+	/**
+	 * Open a batch scope.  While any batch is open, calls to {@link #commit()}
+	 * are deferred and performed together as a group commit, either when
+	 * enough commits have accumulated, after a short delay, or when the
+	 * outermost batch is closed with {@link #endBatch()}.  Batches may be nested
+	 * and every call must be paired with a call to endBatch() in a finally block.
+	 *
+	 * The database has a single transaction shared by all threads, so a batch
+	 * defers commits made by any thread, not only by the thread that opened it.
+	 * Each group commit is atomic.  If the application exits abnormally, the
+	 * changes made since the last group commit are lost as a unit, and the
+	 * database is left as it was after that commit.  Callers that use batches must
+	 * therefore be able to repeat that work.  IMAP synchronization can do so, since
+	 * each folder UID map is committed together with the messages it lists.
+	 */
+	void beginBatch();
+
+	/**
+	 * Close a batch scope opened with {@link #beginBatch()}.  Closing the
+	 * outermost batch commits any deferred changes.
+	 */
+	void endBatch();
 	<T> T getSingleByPredicate(Predicate<T> predicate);
 	<T> List<T> getByPredicate(Predicate<T> predicate);
+	BlobStore getBlobStore();
 }
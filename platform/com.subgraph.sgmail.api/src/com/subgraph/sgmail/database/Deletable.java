@@ -0,0 +1,9 @@
+package com.subgraph.sgmail.database;
+
+/**
+ * Implemented by stored objects which own other stored objects that must be deleted along with them.
+ * {@link Database#delete(Object)} calls {@link #onDelete(Database)} before the object itself is deleted.
+ */
+public interface Deletable {
+	void onDelete(Database database);
+}
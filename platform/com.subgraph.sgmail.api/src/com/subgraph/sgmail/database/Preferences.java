@@ -4,6 +4,7 @@ public interface Preferences {
 	static final String ACCOUNT_DEFAULT_SIGN = "com.subgraph.sgmail.account.defaultSign";
 	static final String ACCOUNT_DEFAULT_ENCRYPT = "com.subgraph.sgmail.account.defaultEncrypt";
 	static final String IMAP_DEBUG_OUTPUT = "com.subgraph.sgmail.imap.debugOutput";
+	static final String IMAP_MAX_CONNECTIONS = "com.subgraph.sgmail.imap.maxConnections";
 	static final String DUMP_SELECTED_MESSAGE = "com.subgraph.sgmail.debug.dumpMessages";
 	static final String FETCH_KEYS_FROM_IDENTITY_SERVER = "com.subgraph.sgmail.autofetchKeys";
 	
@@ -1,20 +1,22 @@
 package com.subgraph.sgmail.events;
 
-import ca.odell.glazedlists.GroupingList;
+import ca.odell.glazedlists.EventList;
 import com.subgraph.sgmail.messages.StoredMessage;
 
+import java.util.List;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ConversationSourceSelectedEvent {
 
-    private final GroupingList<StoredMessage> conversationList;
+    private final EventList<List<StoredMessage>> conversationList;
 
 
-	public ConversationSourceSelectedEvent(GroupingList<StoredMessage> conversationList) {
+	public ConversationSourceSelectedEvent(EventList<List<StoredMessage>> conversationList) {
         this.conversationList = checkNotNull(conversationList);
 	}
 
-    public GroupingList<StoredMessage> getSelectedSource() {
+    public EventList<List<StoredMessage>> getSelectedSource() {
         return conversationList;
     }
 }
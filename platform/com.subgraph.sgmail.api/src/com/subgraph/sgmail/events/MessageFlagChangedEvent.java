@@ -0,0 +1,33 @@
+package com.subgraph.sgmail.events;
+
+import com.subgraph.sgmail.messages.StoredMessage;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Posted when the user sets or clears a flag of a message, so that the change can be written back
+ * to the server.  Flags changed by synchronizing with the server are not reported.
+ */
+public class MessageFlagChangedEvent {
+    private final StoredMessage message;
+    private final int flag;
+    private final boolean isSet;
+
+	public MessageFlagChangedEvent(StoredMessage message, int flag, boolean isSet) {
+		this.message = checkNotNull(message);
+		this.flag = flag;
+		this.isSet = isSet;
+	}
+
+	public StoredMessage getMessage() {
+		return message;
+	}
+
+	public int getFlag() {
+		return flag;
+	}
+
+	public boolean isSet() {
+		return isSet;
+	}
+}
@@ -1,18 +1,53 @@
 package com.subgraph.sgmail.events;
 
+import com.google.common.collect.ImmutableList;
+import com.subgraph.sgmail.CoalescingEvent;
 import com.subgraph.sgmail.messages.StoredMessage;
 
-public class MessageStateChangedEvent {
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
-	private final StoredMessage message;
+/**
+ * Posted when the flags or decryption state of messages change.  Events posted asynchronously
+ * are merged while they wait to be delivered, so a single event may cover many messages.
+ */
+public class MessageStateChangedEvent implements CoalescingEvent<MessageStateChangedEvent> {
+
+	private final List<StoredMessage> messages;
 
     public MessageStateChangedEvent(StoredMessage message) {
-		this.message = message;
+		this.messages = ImmutableList.of(message);
+	}
+
+	private MessageStateChangedEvent(List<StoredMessage> messages) {
+		this.messages = messages;
 	}
-	
+
+	/**
+	 * Returns the first message this event was posted for.
+	 */
 	public StoredMessage getMessage() {
-		return message;
+		return messages.get(0);
 	}
-}
 
+	public List<StoredMessage> getMessages() {
+		return messages;
+	}
+
+	public boolean containsMessage(StoredMessage message) {
+		for(StoredMessage m: messages) {
+			if(m == message) {
+				return true;
+			}
+		}
+		return false;
+	}
 
+	@Override
+	public MessageStateChangedEvent coalesce(MessageStateChangedEvent pending) {
+		final Set<StoredMessage> merged = new LinkedHashSet<>(pending.messages);
+		merged.addAll(messages);
+		return new MessageStateChangedEvent(ImmutableList.copyOf(merged));
+	}
+}
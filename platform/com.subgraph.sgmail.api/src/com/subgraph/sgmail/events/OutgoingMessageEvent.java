@@ -0,0 +1,55 @@
+package com.subgraph.sgmail.events;
+
+import com.subgraph.sgmail.accounts.MailAccount;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Posted as a message in the outbox is queued, sent, or fails to be sent.
+ */
+public class OutgoingMessageEvent {
+	public enum State {
+		/** Stored in the outbox */
+		QUEUED,
+		/** Being transmitted to the SMTP server */
+		SENDING,
+		/** Accepted by the SMTP server for every recipient it did not reject, and removed from the outbox */
+		SENT,
+		/** Not sent because of an error which may be temporary, and will be sent again later */
+		WAITING_TO_RETRY,
+		/** Rejected by the server or failed too many times, and removed from the outbox */
+		FAILED
+	}
+
+	private final int outboxId;
+	private final MailAccount account;
+	private final State state;
+	private final String errorMessage;
+
+	public OutgoingMessageEvent(int outboxId, MailAccount account, State state, String errorMessage) {
+		this.outboxId = outboxId;
+		this.account = checkNotNull(account);
+		this.state = checkNotNull(state);
+		this.errorMessage = errorMessage;
+	}
+
+	public int getOutboxId() {
+		return outboxId;
+	}
+
+	public MailAccount getAccount() {
+		return account;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * The reason the last attempt to send the message failed, or null.  For a message sent to only
+	 * some of its recipients, the recipients which the server rejected.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+}
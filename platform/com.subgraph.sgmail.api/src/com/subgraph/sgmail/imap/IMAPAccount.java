@@ -30,4 +30,12 @@ public interface IMAPAccount {
 
 	boolean isGmailAccount();
 
+	/**
+	 * Queues a change to a flag of a message in this account to be written back to the server.
+	 *
+	 * @return false if the message is not in a folder of this account or the flag is not an IMAP
+	 *         flag which can be changed by a client.
+	 */
+	boolean queueFlagChange(StoredMessage message, int flag, boolean isSet);
+
 }
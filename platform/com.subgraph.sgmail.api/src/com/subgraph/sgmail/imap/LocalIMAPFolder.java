@@ -1,10 +1,11 @@
 package com.subgraph.sgmail.imap;
 
-import java.util.Set;
+import java.util.List;
 
 import com.subgraph.sgmail.messages.StoredMessage;
 
 import gnu.trove.list.TLongList;
+import gnu.trove.set.TLongSet;
 
 public interface LocalIMAPFolder {
 
@@ -26,11 +27,33 @@ public interface LocalIMAPFolder {
 
 	StoredMessage getMessageByMessageNumber(int number);
 
+	/**
+	 * Returns the message with the given UID, or null if this folder contains no such message.
+	 */
+	StoredMessage getMessageByUID(long uid);
+
+	boolean containsUID(long uid);
+
+	/**
+	 * Returns the UID of <code>message</code> in this folder, or -1 if this folder does not contain
+	 * the message.
+	 */
+	long getUIDForMessage(StoredMessage message);
+
+	/**
+	 * Returns the UIDs in this folder from <code>start</code> to <code>end</code> inclusive in
+	 * ascending order.  An <code>end</code> value of -1 means no upper limit, like '*' in an IMAP
+	 * UID set.
+	 */
+	TLongList getUIDsInRange(long start, long end);
+
+	List<StoredMessage> getMessagesInRange(long start, long end);
+
 	void appendMessage(StoredMessage message, long messageUID);
 
 	int getMessageCount();
 
-	void expungeMessagesByUID(Set<Long> uids);
+	List<StoredMessage> expungeMessagesByUID(TLongSet uids);
 	
 	void commit();
 
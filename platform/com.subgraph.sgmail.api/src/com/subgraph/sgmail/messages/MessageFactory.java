@@ -7,4 +7,5 @@ public interface MessageFactory {
 	MessageUser createMessageUser(String username, String address);
 	boolean updateMessageWithDecryptedData(StoredMessage message, byte[] rawDecryptedMessage);
 	StoredMessage.Builder createStoredMessageBuilder(byte[] rawBytes);
+	ParsedMessageCacheStatistics getParsedMessageCacheStatistics();
 }
@@ -0,0 +1,16 @@
+package com.subgraph.sgmail.messages;
+
+/**
+ * Counts for the shared cache of parsed messages used by
+ * {@link StoredMessage#toMimeMessage(javax.mail.Session)}.
+ */
+public interface ParsedMessageCacheStatistics {
+	long getHitCount();
+	long getMissCount();
+
+	/** Number of parsed messages dropped from the cache to stay within its size bound */
+	long getEvictionCount();
+
+	/** Fraction of lookups answered from the cache, or 0 if there have been no lookups */
+	double getHitRate();
+}
@@ -1,6 +1,9 @@
 package com.subgraph.sgmail.messages;
 
 import ca.odell.glazedlists.EventList;
+import gnu.trove.list.TIntList;
+
+import java.util.List;
 
 public interface StoredFolder {
     String getName();
@@ -9,5 +12,13 @@ public interface StoredFolder {
     int getMessageCount();
     void addMessage(StoredMessage message);
     void expungeMessages();
+
+    /**
+     * Remove the messages at the given positions of the message list and release this folder's
+     * reference to each of them.  The positions must be in ascending order.
+     *
+     * @return the removed messages
+     */
+    List<StoredMessage> removeMessagesAt(TIntList positions);
     void clearFolder();
 }
@@ -0,0 +1,11 @@
+package com.subgraph.sgmail.messages;
+
+/**
+ * Index of which messages of an account carry each label, so that label membership and
+ * per label counts are answered without examining the messages themselves.
+ */
+public interface StoredMessageLabelIndex {
+    boolean containsLabel(StoredMessage message, StoredMessageLabel label);
+    int getMessageCount(StoredMessageLabel label);
+    int getUnreadMessageCount(StoredMessageLabel label);
+}
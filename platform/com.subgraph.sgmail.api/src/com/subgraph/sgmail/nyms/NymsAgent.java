@@ -1,17 +1,26 @@
 package com.subgraph.sgmail.nyms;
 
+import java.util.Collection;
+
 import javax.mail.internet.MimeMessage;
 
 public interface NymsAgent {
   enum MessageStatus { CLEAR, ENCRYPTED_MIME, SIGNED_MIME, ENCRYPTED_INLINE, SIGNED_INLINE };
 
   NymsAgentStatus getStatus();
+  NymsAgentStatistics getStatistics();
 	
   boolean hasSigningKey(String emailAddress) throws NymsAgentException;
   boolean hasKeyForAddress(String emailAddress) throws NymsAgentException;
   NymsKeyInfo getKeyInfo(String emailAddress) throws NymsAgentException;
   NymsKeyInfo getKeyInfoByKeyId(String keyId) throws NymsAgentException;
   byte[] getAvatarImage(String emailAddress) throws NymsAgentException;
+
+  /**
+   * Look up key info for every address which is not already cached, sending all of the
+   * lookups to the agent together rather than one at a time.
+   */
+  void prefetchKeyInfo(Collection<String> emailAddresses) throws NymsAgentException;
 	
   NymsIncomingProcessingResult processIncomingMessage(MimeMessage incomingMessage) throws NymsAgentException;
   NymsIncomingProcessingResult processIncomingMessage(MimeMessage incomingMessage, String passphrase) throws NymsAgentException;
@@ -0,0 +1,20 @@
+package com.subgraph.sgmail.nyms;
+
+public interface NymsAgentStatistics {
+  /** Number of nyms agent processes currently running */
+  int getProcessCount();
+
+  /** Number of requests which have been sent and are waiting for a response */
+  int getPendingRequestCount();
+
+  long getCompletedRequestCount();
+  long getFailedRequestCount();
+  double getAverageLatencyMillis();
+  long getMaximumLatencyMillis();
+
+  long getKeyInfoCacheHitCount();
+  long getKeyInfoCacheMissCount();
+
+  /** Fraction of key info lookups answered from the cache, or 0 if there have been no lookups */
+  double getKeyInfoCacheHitRate();
+}
@@ -4,12 +4,23 @@ import com.subgraph.sgmail.messages.StoredMessage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.function.BooleanSupplier;
 
 public interface MessageSearchIndex {
 	void setIndexDirectory(File indexDirectory);
     void addMessage(StoredMessage message) throws IOException;
     void removeMessage(StoredMessage message) throws IOException;
     SearchResult search(String queryString) throws IOException;
+
+    /**
+     * Search for a query which is being typed.  The last word of the query matches as a prefix, and
+     * when the query can only match a subset of the messages matched by <code>previousResult</code>
+     * only those messages are searched.  The search stops with a CancellationException as soon as
+     * <code>isCancelled</code> returns true.
+     */
+    SearchResult search(String queryString, SearchResult previousResult, BooleanSupplier isCancelled) throws IOException;
+
+    SearchStatistics getSearchStatistics();
     void commit();
     void close();
 }
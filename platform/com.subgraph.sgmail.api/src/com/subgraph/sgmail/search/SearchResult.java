@@ -6,5 +6,7 @@ public interface SearchResult {
     boolean resultContainsMessageId(int id);
     HighlightedString getHighlightedSubject(int uid);
     HighlightedString getHighlightedBody(int uid);
+    /** Compute highlights for a page of rows about to be displayed in one pass. */
+    void prefetchHighlights(int[] uids);
     void dispose();
 }
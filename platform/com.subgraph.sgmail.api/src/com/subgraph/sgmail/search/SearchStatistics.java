@@ -0,0 +1,19 @@
+package com.subgraph.sgmail.search;
+
+public interface SearchStatistics {
+    long getCompletedSearchCount();
+
+    /** Number of completed searches which only searched the messages of a previous result */
+    long getRefinedSearchCount();
+
+    long getCancelledSearchCount();
+
+    /**
+     * Latency of recently completed searches at <code>percentile</code> (0 to 100), or 0 if no
+     * searches have completed.
+     */
+    double getLatencyPercentileMillis(double percentile);
+
+    /** Latency percentile of recently completed searches which refined a previous result */
+    double getRefinedLatencyPercentileMillis(double percentile);
+}
@@ -1,10 +1,34 @@
 package com.subgraph.sgmail.internal;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import com.google.common.eventbus.EventBus;
+import com.subgraph.sgmail.EventDispatchStatistics;
 import com.subgraph.sgmail.IEventBus;
 
+/**
+ * Events posted asynchronously are spread over a small number of shards by event class, each of
+ * which delivers its events in order on a bounded pool of dispatch threads.  Since every event of
+ * a class goes to the same shard, events of one class are delivered in order while a slow
+ * subscriber to one class does not hold up the events of most other classes.
+ */
 public class EventBusService implements IEventBus {
+	private final static int SHARD_COUNT = 4;
+
 	private final EventBus eventBus = new EventBus();
+	private final InstrumentedThreadPool dispatchPool = new InstrumentedThreadPool("Event dispatch", SHARD_COUNT, SHARD_COUNT);
+	private final EventDispatchShard[] shards = new EventDispatchShard[SHARD_COUNT];
+	private final ConcurrentMap<Class<?>, EventTypeStatistics> statistics = new ConcurrentHashMap<>();
+
+	public EventBusService() {
+		for(int i = 0; i < SHARD_COUNT; i++) {
+			shards[i] = new EventDispatchShard(dispatchPool, this::deliver);
+		}
+	}
 
 	@Override
 	public void register(Object object) {
@@ -18,6 +42,40 @@ public class EventBusService implements IEventBus {
 
 	@Override
 	public void post(Object event) {
+		getStatistics(event.getClass()).recordPosted();
+		deliver(event, System.nanoTime());
+	}
+
+	@Override
+	public void postAsync(Object event) {
+		final EventTypeStatistics stats = getStatistics(event.getClass());
+		stats.recordPosted();
+		if(getShard(event.getClass()).post(event)) {
+			stats.recordCoalesced();
+		}
+	}
+
+	@Override
+	public Map<Class<?>, EventDispatchStatistics> getDispatchStatistics() {
+		return Collections.<Class<?>, EventDispatchStatistics>unmodifiableMap(new HashMap<>(statistics));
+	}
+
+	private void deliver(Object event, long postedAt) {
 		eventBus.post(event);
+		getStatistics(event.getClass()).recordDelivered(postedAt);
+	}
+
+	private EventDispatchShard getShard(Class<?> eventType) {
+		return shards[(eventType.hashCode() & Integer.MAX_VALUE) % SHARD_COUNT];
+	}
+
+	private EventTypeStatistics getStatistics(Class<?> eventType) {
+		final EventTypeStatistics stats = statistics.get(eventType);
+		if(stats != null) {
+			return stats;
+		}
+		final EventTypeStatistics created = new EventTypeStatistics(eventType);
+		final EventTypeStatistics existing = statistics.putIfAbsent(eventType, created);
+		return (existing == null) ? created : existing;
 	}
 }
@@ -0,0 +1,92 @@
+package com.subgraph.sgmail.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.subgraph.sgmail.CoalescingEvent;
+
+/**
+ * Delivers asynchronously posted events in the order they were posted.  At most one task for the
+ * shard is scheduled on the executor at a time, and it delivers every event which is waiting when
+ * it runs, so a burst of events costs a single task.  A {@link CoalescingEvent} posted while an
+ * event of the same class is waiting is merged into the waiting event.
+ */
+class EventDispatchShard implements Runnable {
+
+	interface Delivery {
+		void deliver(Object event, long postedAt);
+	}
+
+	private static class PendingEvent {
+		private Object event;
+		private final long postedAt;
+
+		PendingEvent(Object event, long postedAt) {
+			this.event = event;
+			this.postedAt = postedAt;
+		}
+	}
+
+	private final Executor executor;
+	private final Delivery delivery;
+	private final Map<Object, PendingEvent> pending = new LinkedHashMap<>();
+	private boolean isScheduled;
+
+	EventDispatchShard(Executor executor, Delivery delivery) {
+		this.executor = executor;
+		this.delivery = delivery;
+	}
+
+	/**
+	 * Queues an event for delivery.
+	 *
+	 * @return true if the event was merged into an event which is already waiting
+	 */
+	boolean post(Object event) {
+		final boolean schedule;
+		synchronized (this) {
+			if(event instanceof CoalescingEvent && coalesce(event)) {
+				return true;
+			}
+			final Object key = (event instanceof CoalescingEvent) ? event.getClass() : new Object();
+			pending.put(key, new PendingEvent(event, System.nanoTime()));
+			schedule = !isScheduled;
+			isScheduled = true;
+		}
+		if(schedule) {
+			executor.execute(this);
+		}
+		return false;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private boolean coalesce(Object event) {
+		final PendingEvent waiting = pending.get(event.getClass());
+		if(waiting == null) {
+			return false;
+		}
+		waiting.event = ((CoalescingEvent) event).coalesce((CoalescingEvent) waiting.event);
+		return true;
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			final List<PendingEvent> batch;
+			synchronized (this) {
+				if(pending.isEmpty()) {
+					isScheduled = false;
+					return;
+				}
+				batch = new ArrayList<>(pending.values());
+				pending.clear();
+			}
+			for(PendingEvent e: batch) {
+				delivery.deliver(e.event, e.postedAt);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.subgraph.sgmail.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.subgraph.sgmail.EventDispatchStatistics;
+
+class EventTypeStatistics implements EventDispatchStatistics {
+	private final Class<?> eventType;
+	private final AtomicLong postedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+	EventTypeStatistics(Class<?> eventType) {
+		this.eventType = eventType;
+	}
+
+	void recordPosted() {
+		postedCount.incrementAndGet();
+	}
+
+	void recordCoalesced() {
+		coalescedCount.incrementAndGet();
+	}
+
+	void recordDelivered(long postedAt) {
+		final long latency = System.nanoTime() - postedAt;
+		totalLatencyNanos.addAndGet(latency);
+		maxLatencyNanos.accumulateAndGet(latency, Math::max);
+		deliveredCount.incrementAndGet();
+	}
+
+	@Override
+	public Class<?> getEventType() {
+		return eventType;
+	}
+
+	@Override
+	public long getPostedCount() {
+		return postedCount.get();
+	}
+
+	@Override
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	@Override
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	@Override
+	public double getAverageLatencyMillis() {
+		final long count = deliveredCount.get();
+		if(count == 0) {
+			return 0;
+		}
+		return (totalLatencyNanos.get() / (double) count) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public long getMaximumLatencyMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+	}
+}
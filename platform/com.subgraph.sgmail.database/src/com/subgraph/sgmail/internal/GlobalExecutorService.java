@@ -1,10 +1,12 @@
 package com.subgraph.sgmail.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -12,18 +14,60 @@ import java.util.concurrent.TimeoutException;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.subgraph.sgmail.ExecutorRegistry;
+import com.subgraph.sgmail.ExecutorStatistics;
+
+/**
+ * Holds a bounded pool for each kind of workload.  Used as a ListeningExecutorService it runs tasks
+ * on the BACKGROUND pool, and its lifecycle methods apply to every pool.
+ */
+public class GlobalExecutorService implements ListeningExecutorService, ExecutorRegistry {
+	private final static int PROCESSOR_COUNT = Runtime.getRuntime().availableProcessors();
+
+	private final Map<Workload, InstrumentedThreadPool> pools = new EnumMap<>(Workload.class);
+	private final Map<Workload, ListeningExecutorService> executors = new EnumMap<>(Workload.class);
+	private final ListeningExecutorService executor;
+
+	public GlobalExecutorService() {
+		// synchronization tasks block on the network for their whole life, so the pool is sized for
+		// several accounts each with a few folder connections rather than for the processor count
+		addPool(Workload.SYNC, new InstrumentedThreadPool("IMAP sync", 16, 64));
+		addPool(Workload.INDEXING, new InstrumentedThreadPool("Message indexer", Math.max(1, Math.min(4, PROCESSOR_COUNT - 1)), 1024));
+		addPool(Workload.CRYPTO, new InstrumentedThreadPool("Message processing", Math.max(2, PROCESSOR_COUNT), 256));
+		addPool(Workload.BACKGROUND, new InstrumentedThreadPool("Background", 8, 512));
+		addPool(Workload.SEND, new InstrumentedThreadPool("Mail send", 4, 64));
+		executor = executors.get(Workload.BACKGROUND);
+	}
+
+	private void addPool(Workload workload, InstrumentedThreadPool pool) {
+		pools.put(workload, pool);
+		executors.put(workload, MoreExecutors.listeningDecorator(pool));
+	}
+
+	@Override
+	public ListeningExecutorService getExecutor(Workload workload) {
+		return executors.get(workload);
+	}
 
-public class GlobalExecutorService implements ListeningExecutorService {
-	private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+	@Override
+	public List<ExecutorStatistics> getExecutorStatistics() {
+		return new ArrayList<ExecutorStatistics>(pools.values());
+	}
 
 	@Override
 	public void shutdown() {
-		executor.shutdown();
+		for(InstrumentedThreadPool pool: pools.values()) {
+			pool.shutdown();
+		}
 	}
 
 	@Override
 	public List<Runnable> shutdownNow() {
-		return executor.shutdownNow();
+		final List<Runnable> pending = new ArrayList<>();
+		for(InstrumentedThreadPool pool: pools.values()) {
+			pending.addAll(pool.shutdownNow());
+		}
+		return pending;
 	}
 
 	@Override
@@ -33,13 +77,24 @@ public class GlobalExecutorService implements ListeningExecutorService {
 
 	@Override
 	public boolean isTerminated() {
-		return executor.isTerminated();
+		for(InstrumentedThreadPool pool: pools.values()) {
+			if(!pool.isTerminated()) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public boolean awaitTermination(long timeout, TimeUnit unit)
 			throws InterruptedException {
-		return executor.awaitTermination(timeout, unit);
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(InstrumentedThreadPool pool: pools.values()) {
+			if(!pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
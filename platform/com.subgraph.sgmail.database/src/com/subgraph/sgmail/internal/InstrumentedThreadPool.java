@@ -0,0 +1,168 @@
+package com.subgraph.sgmail.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.subgraph.sgmail.ExecutorStatistics;
+
+/**
+ * A thread pool with a fixed maximum number of named daemon threads and a bounded queue.  When the
+ * queue is full the task is run by the thread which submitted it, which slows the producer down to
+ * the rate the pool can sustain.  Idle threads exit after a minute.  A task submitted after the pool
+ * has been shut down is rejected with a {@link RejectedExecutionException}.
+ *
+ * The time each task waits in the queue and the time it runs are measured for diagnostics.
+ */
+class InstrumentedThreadPool extends ThreadPoolExecutor implements ExecutorStatistics {
+	private final static long KEEP_ALIVE_SECONDS = 60;
+
+	/** Wraps each task to carry the time it was queued. */
+	private static class TimedTask implements Runnable {
+		private final Runnable task;
+		private final long queuedAt = System.nanoTime();
+		private long startedAt;
+
+		TimedTask(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+	}
+
+	private static class CallerRunsCountingPolicy implements RejectedExecutionHandler {
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException("Task "+ r +" rejected from shut down pool");
+			}
+			count.incrementAndGet();
+			r.run();
+		}
+	}
+
+	private final String name;
+	private final int queueCapacity;
+	private final CallerRunsCountingPolicy callerRunsPolicy;
+	private final AtomicLong totalQueueNanos = new AtomicLong();
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+	private final AtomicLong startedTaskCount = new AtomicLong();
+	private final AtomicLong totalExecutionNanos = new AtomicLong();
+	private final AtomicLong maxExecutionNanos = new AtomicLong();
+	private final AtomicLong timedTaskCount = new AtomicLong();
+
+	InstrumentedThreadPool(String name, int threadCount, int queueCapacity) {
+		this(name, threadCount, queueCapacity, new CallerRunsCountingPolicy());
+	}
+
+	private InstrumentedThreadPool(String name, int threadCount, int queueCapacity, CallerRunsCountingPolicy policy) {
+		super(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), createThreadFactory(name), policy);
+		this.name = name;
+		this.queueCapacity = queueCapacity;
+		this.callerRunsPolicy = policy;
+		allowCoreThreadTimeOut(true);
+	}
+
+	private static ThreadFactory createThreadFactory(String name) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread(r, name + " "+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		super.execute(new TimedTask(command));
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		if(r instanceof TimedTask) {
+			final TimedTask task = (TimedTask) r;
+			task.startedAt = System.nanoTime();
+			final long waited = task.startedAt - task.queuedAt;
+			totalQueueNanos.addAndGet(waited);
+			maxQueueNanos.accumulateAndGet(waited, Math::max);
+			startedTaskCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		if(r instanceof TimedTask) {
+			final long elapsed = System.nanoTime() - ((TimedTask) r).startedAt;
+			totalExecutionNanos.addAndGet(elapsed);
+			maxExecutionNanos.accumulateAndGet(elapsed, Math::max);
+			timedTaskCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getThreadCount() {
+		return getPoolSize();
+	}
+
+	@Override
+	public int getMaximumThreadCount() {
+		return getMaximumPoolSize();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+
+	@Override
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	@Override
+	public long getCallerRunsCount() {
+		return callerRunsPolicy.count.get();
+	}
+
+	@Override
+	public double getAverageQueueMillis() {
+		return averageMillis(totalQueueNanos.get(), startedTaskCount.get());
+	}
+
+	@Override
+	public long getMaximumQueueMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get());
+	}
+
+	@Override
+	public double getAverageExecutionMillis() {
+		return averageMillis(totalExecutionNanos.get(), timedTaskCount.get());
+	}
+
+	@Override
+	public long getMaximumExecutionMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxExecutionNanos.get());
+	}
+
+	private static double averageMillis(long totalNanos, long count) {
+		if(count == 0) {
+			return 0;
+		}
+		return (totalNanos / (double) count) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
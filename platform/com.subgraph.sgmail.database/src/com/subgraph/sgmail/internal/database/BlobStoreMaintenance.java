@@ -0,0 +1,89 @@
+package com.subgraph.sgmail.internal.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.db4o.ObjectContainer;
+import com.subgraph.sgmail.database.BlobBacked;
+import com.subgraph.sgmail.database.BlobReference;
+
+/**
+ * Background jobs for the blob store: moving raw data still stored inline in an older database into
+ * the blob store, and compacting segments which hold mostly unreferenced blobs.
+ */
+class BlobStoreMaintenance {
+	private final static Logger logger = Logger.getLogger(BlobStoreMaintenance.class.getName());
+
+	private final static int MIGRATION_BATCH_SIZE = 200;
+
+	private final ObjectContainer db;
+	private final SegmentBlobStore blobStore;
+	private final GroupCommitter groupCommitter;
+
+	BlobStoreMaintenance(ObjectContainer db, SegmentBlobStore blobStore, GroupCommitter groupCommitter) {
+		this.db = db;
+		this.blobStore = blobStore;
+		this.groupCommitter = groupCommitter;
+	}
+
+	void migrateInlineData() {
+		try {
+			final int count = runMigration();
+			if(count > 0) {
+				logger.info("Moved inline message data of "+ count +" objects into the blob store");
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Error migrating message data to blob store: "+ e.getMessage(), e);
+		}
+	}
+
+	private int runMigration() throws IOException {
+		final List<BlobBacked> candidates = db.query(BlobBacked.class);
+		final List<BlobBacked> batch = new ArrayList<>();
+		int count = 0;
+		for(BlobBacked ob: candidates) {
+			if(ob.migrateToBlobStore(blobStore)) {
+				batch.add(ob);
+				count += 1;
+			}
+			if(batch.size() >= MIGRATION_BATCH_SIZE) {
+				commitBatch(batch);
+			}
+		}
+		commitBatch(batch);
+		return count;
+	}
+
+	private void commitBatch(List<BlobBacked> batch) {
+		if(batch.isEmpty()) {
+			return;
+		}
+		groupCommitter.commit();
+		groupCommitter.flush();
+		for(BlobBacked ob: batch) {
+			db.ext().deactivate(ob, 1);
+		}
+		batch.clear();
+	}
+
+	void compact() {
+		try {
+			final Set<ByteBuffer> referenced = new HashSet<>();
+			for(BlobReference ref: db.query(BlobReference.class)) {
+				referenced.add(ByteBuffer.wrap(ref.getDigest()));
+			}
+			final long reclaimed = blobStore.compact(referenced);
+			if(reclaimed > 0) {
+				logger.info("Blob store compaction reclaimed "+ reclaimed +" bytes");
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Error compacting blob store: "+ e.getMessage(), e);
+		}
+	}
+}
@@ -9,11 +9,16 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.osgi.framework.Bundle;
@@ -32,7 +37,9 @@ import com.db4o.ta.DeactivatingRollbackStrategy;
 import com.db4o.ta.TransparentPersistenceSupport;
 import com.google.common.collect.ImmutableSet;
 import com.subgraph.sgmail.IEventBus;
+import com.subgraph.sgmail.database.BlobStore;
 import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Deletable;
 import com.subgraph.sgmail.database.Storeable;
 import com.subgraph.sgmail.events.DatabaseOpenedEvent;
 import com.subgraph.sgmail.internal.model.StoredPreferencesImpl;
@@ -47,12 +54,17 @@ public class DatabaseService implements Database {
 	
 	private final static Set<String> MODEL_BUNDLE_NAMES = ImmutableSet.of(
 			"gnu.trove", "com.subgraph.sgmail.messages", "com.subgraph.sgmail.api",
-			"com.subgraph.sgmail.imap", "db4o_osgi");
+			"com.subgraph.sgmail.imap", "com.subgraph.sgmail.nyms", "db4o_osgi");
 	
 	private final static boolean ENABLE_DIAGNOSTICS = false;
 		
 		
 	private final static String DATABASE_FILENAME = "mail.db";
+	private final static int GROUP_COMMIT_MAX_PENDING = 500;
+	private final static long GROUP_COMMIT_MAX_DELAY_MILLIS = 2000;
+	private final static String BLOB_DIRECTORY_NAME = "blobs";
+	private final static long BLOB_MIGRATION_DELAY_SECONDS = 30;
+	private final static long BLOB_COMPACTION_INTERVAL_HOURS = 6;
 	private final Object dbLock = new Object();
 	
 	private IEventBus eventBus;
@@ -60,6 +72,9 @@ public class DatabaseService implements Database {
 	
 	private boolean isOpened;
 	private ObjectContainer db;
+	private ScheduledExecutorService groupCommitScheduler;
+	private GroupCommitter groupCommitter;
+	private SegmentBlobStore blobStore;
 	
 	void activate(BundleContext bundleContext) {
 		this.bundleContext = bundleContext;
@@ -80,12 +95,57 @@ public class DatabaseService implements Database {
 			
 			db = Db4oEmbedded.openFile(createConfiguration(), getDatabaseFilename(directory));
 			registerEvents(db);
+			blobStore = openBlobStore(directory);
+			groupCommitScheduler = Executors.newSingleThreadScheduledExecutor(this::createGroupCommitThread);
+			groupCommitter = new GroupCommitter(this::commitDatabase, GROUP_COMMIT_MAX_PENDING, GROUP_COMMIT_MAX_DELAY_MILLIS, groupCommitScheduler);
+			scheduleBlobMaintenance();
 			isOpened = true;
 			eventBus.post(new DatabaseOpenedEvent());
 			return true;
 		}
 	}
 	
+	private SegmentBlobStore openBlobStore(File directory) {
+		final SegmentBlobStore store = new SegmentBlobStore(new File(directory, BLOB_DIRECTORY_NAME), SegmentBlobStore.DEFAULT_MAX_SEGMENT_SIZE);
+		try {
+			store.open();
+			return store;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not open blob store, message data will be stored in the database: "+ e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private void scheduleBlobMaintenance() {
+		if(blobStore == null) {
+			return;
+		}
+		final BlobStoreMaintenance maintenance = new BlobStoreMaintenance(db, blobStore, groupCommitter);
+		groupCommitScheduler.schedule(maintenance::migrateInlineData, BLOB_MIGRATION_DELAY_SECONDS, TimeUnit.SECONDS);
+		groupCommitScheduler.scheduleWithFixedDelay(maintenance::compact, BLOB_COMPACTION_INTERVAL_HOURS, BLOB_COMPACTION_INTERVAL_HOURS, TimeUnit.HOURS);
+	}
+
+	/**
+	 * Blobs are forced to disk before the database commit so that a committed object never refers
+	 * to a blob lost in a crash.
+	 */
+	private void commitDatabase() {
+		if(blobStore != null) {
+			try {
+				blobStore.sync();
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Error writing blob store to disk: "+ e.getMessage(), e);
+			}
+		}
+		db.commit();
+	}
+
+	private Thread createGroupCommitThread(Runnable r) {
+		final Thread thread = new Thread(r, "Database group commit");
+		thread.setDaemon(true);
+		return thread;
+	}
+
 	private EmbeddedConfiguration createConfiguration() {
 		final EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
 		config.common().add(new TransparentPersistenceSupport(new DeactivatingRollbackStrategy()));
@@ -120,7 +180,12 @@ public class DatabaseService implements Database {
 	public void close() {
 		synchronized (dbLock) {
 			checkOpened();
+			groupCommitter.flush();
+			groupCommitScheduler.shutdownNow();
 			db.close();
+			if(blobStore != null) {
+				blobStore.close();
+			}
 			isOpened = false;
 		}
 	}
@@ -183,13 +248,34 @@ public class DatabaseService implements Database {
 	@Override
 	public void delete(Object ob) {
 		checkOpened();
-		db.delete(ob);;
+		if(ob instanceof Deletable) {
+			((Deletable) ob).onDelete(this);
+		}
+		db.delete(ob);
 	}
 
 	@Override
 	public void commit() {
 		checkOpened();
-		db.commit();
+		groupCommitter.commit();
+	}
+
+	@Override
+	public BlobStore getBlobStore() {
+		checkOpened();
+		return blobStore;
+	}
+
+	@Override
+	public void beginBatch() {
+		checkOpened();
+		groupCommitter.beginBatch();
+	}
+
+	@Override
+	public void endBatch() {
+		checkOpened();
+		groupCommitter.endBatch();
 	}
 	
 	private void registerEvents(final ObjectContainer db) {
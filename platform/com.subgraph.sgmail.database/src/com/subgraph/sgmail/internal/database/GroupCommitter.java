@@ -0,0 +1,101 @@
+package com.subgraph.sgmail.internal.database;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces commit requests made while a batch is open into a small number of real commits.
+ *
+ * Outside of a batch every commit request is performed immediately.  While one or more batches
+ * are open, commit requests are counted and a single commit is performed when either
+ * <code>maxPendingCommits</code> requests have accumulated, <code>maxDelayMillis</code> has
+ * passed since the first deferred request, or the outermost batch ends.
+ */
+class GroupCommitter {
+	private final static Logger logger = Logger.getLogger(GroupCommitter.class.getName());
+
+	private final Runnable commitAction;
+	private final int maxPendingCommits;
+	private final long maxDelayMillis;
+	private final ScheduledExecutorService scheduler;
+
+	private int batchDepth;
+	private int pendingCommits;
+	private ScheduledFuture<?> scheduledFlush;
+	private long groupCommitCount;
+
+	GroupCommitter(Runnable commitAction, int maxPendingCommits, long maxDelayMillis, ScheduledExecutorService scheduler) {
+		this.commitAction = commitAction;
+		this.maxPendingCommits = maxPendingCommits;
+		this.maxDelayMillis = maxDelayMillis;
+		this.scheduler = scheduler;
+	}
+
+	synchronized void beginBatch() {
+		batchDepth += 1;
+	}
+
+	synchronized void endBatch() {
+		if(batchDepth == 0) {
+			throw new IllegalStateException("endBatch() called without matching beginBatch()");
+		}
+		batchDepth -= 1;
+		if(batchDepth == 0) {
+			flush();
+		}
+	}
+
+	synchronized void commit() {
+		if(batchDepth == 0) {
+			commitAction.run();
+			pendingCommits = 0;
+			cancelScheduledFlush();
+			return;
+		}
+		pendingCommits += 1;
+		if(pendingCommits >= maxPendingCommits) {
+			flush();
+		} else if(scheduledFlush == null) {
+			scheduledFlush = scheduler.schedule(this::flushFromScheduler, maxDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void flush() {
+		cancelScheduledFlush();
+		if(pendingCommits == 0) {
+			return;
+		}
+		pendingCommits = 0;
+		groupCommitCount += 1;
+		commitAction.run();
+	}
+
+	synchronized boolean isBatchOpen() {
+		return batchDepth > 0;
+	}
+
+	synchronized long getGroupCommitCount() {
+		return groupCommitCount;
+	}
+
+	private void flushFromScheduler() {
+		try {
+			synchronized (this) {
+				scheduledFlush = null;
+				flush();
+			}
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Error performing scheduled group commit: "+ e, e);
+		}
+	}
+
+	private void cancelScheduledFlush() {
+		if(scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+	}
+}
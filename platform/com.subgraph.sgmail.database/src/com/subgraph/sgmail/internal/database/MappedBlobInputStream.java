@@ -0,0 +1,81 @@
+package com.subgraph.sgmail.internal.database;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * Reads a blob directly out of a memory mapped segment.  As a SharedInputStream it lets javax.mail
+ * parse a message into parts which reference ranges of the mapped segment instead of copies.
+ */
+class MappedBlobInputStream extends InputStream implements SharedInputStream {
+
+	private final ByteBuffer buffer;
+	private int mark;
+
+	MappedBlobInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(len == 0) {
+			return 0;
+		}
+		if(!buffer.hasRemaining()) {
+			return -1;
+		}
+		final int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark = buffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		buffer.position(mark);
+	}
+
+	@Override
+	public long getPosition() {
+		return buffer.position();
+	}
+
+	@Override
+	public InputStream newStream(long start, long end) {
+		if(start < 0) {
+			throw new IllegalArgumentException("start < 0");
+		}
+		final ByteBuffer dup = buffer.duplicate();
+		dup.limit((end == -1) ? buffer.limit() : (int) end);
+		dup.position((int) start);
+		return new MappedBlobInputStream(dup.slice());
+	}
+}
@@ -0,0 +1,351 @@
+package com.subgraph.sgmail.internal.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.subgraph.sgmail.database.BlobReference;
+import com.subgraph.sgmail.database.BlobStore;
+
+/**
+ * A {@link BlobStore} kept in a directory of append-only segment files which are memory mapped for reading.
+ *
+ * Each record in a segment is a header of a magic number, the data length and the SHA-256 digest of the
+ * data, followed by the data itself.  The digest index is rebuilt by scanning the record headers when the
+ * store is opened, and a partially written record at the end of the last segment is truncated.
+ *
+ * Compaction copies the blobs which are still referenced out of mostly unreferenced segments and then
+ * deletes those segments.  Since a blob may be written before the object referring to it is stored, a
+ * blob is only dropped once it has been found unreferenced by two consecutive compaction passes.
+ */
+class SegmentBlobStore implements BlobStore {
+	private final static Logger logger = Logger.getLogger(SegmentBlobStore.class.getName());
+
+	private final static int RECORD_MAGIC = 0x53474231;
+	private final static int DIGEST_LENGTH = 32;
+	private final static int HEADER_LENGTH = 4 + 4 + DIGEST_LENGTH;
+	private final static String SEGMENT_PREFIX = "blobs-";
+	private final static String SEGMENT_SUFFIX = ".seg";
+	private final static double COMPACTION_LIVE_RATIO = 0.5;
+	private final static long REMAP_THRESHOLD = 16L * 1024 * 1024;
+
+	final static long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+	private static class Segment {
+		private final int id;
+		private final File file;
+		private final FileChannel channel;
+		private long size;
+		private MappedByteBuffer mapped;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+	}
+
+	private final File directory;
+	private final long maxSegmentSize;
+	private final Map<ByteBuffer, BlobReference> index = new HashMap<>();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private Set<ByteBuffer> previouslyUnreferenced = new HashSet<>();
+	private Segment current;
+	private boolean needsSync;
+	private boolean isClosed;
+
+	SegmentBlobStore(File directory, long maxSegmentSize) {
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	synchronized void open() throws IOException {
+		directory.mkdirs();
+		final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if(files != null) {
+			for(File f: files) {
+				final int id = parseSegmentId(f.getName());
+				if(id >= 0) {
+					segments.put(id, new Segment(id, f));
+				}
+			}
+		}
+		for(Segment segment: segments.values()) {
+			scanSegment(segment);
+		}
+		current = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+	}
+
+	private static int parseSegmentId(String name) {
+		try {
+			return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void scanSegment(Segment segment) throws IOException {
+		final long fileSize = segment.channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		long position = 0;
+		while(position + HEADER_LENGTH <= fileSize) {
+			header.clear();
+			readFully(segment.channel, header, position);
+			header.flip();
+			final int magic = header.getInt();
+			final int length = header.getInt();
+			if(magic != RECORD_MAGIC || length < 0 || position + HEADER_LENGTH + length > fileSize) {
+				break;
+			}
+			final byte[] digest = new byte[DIGEST_LENGTH];
+			header.get(digest);
+			index.put(ByteBuffer.wrap(digest), new BlobReference(digest, segment.id, position, length));
+			position += HEADER_LENGTH + length;
+		}
+		if(position < fileSize) {
+			logger.warning("Truncating incomplete record at offset "+ position +" of blob segment "+ segment.file);
+			segment.channel.truncate(position);
+		}
+		segment.size = position;
+	}
+
+	@Override
+	public BlobReference store(byte[] data) throws IOException {
+		final byte[] digest = computeDigest(data);
+		synchronized (this) {
+			checkOpen();
+			final BlobReference existing = index.get(ByteBuffer.wrap(digest));
+			if(existing != null) {
+				// about to be referenced again, so must survive the next compaction pass
+				previouslyUnreferenced.remove(ByteBuffer.wrap(digest));
+				return copyReference(existing);
+			}
+			return copyReference(appendRecord(digest, ByteBuffer.wrap(data)));
+		}
+	}
+
+	/**
+	 * Each caller stores the returned reference as its own database object and deletes it with the
+	 * object which owns it, so references to deduplicated content must never be shared.
+	 */
+	private static BlobReference copyReference(BlobReference ref) {
+		return new BlobReference(ref.getDigest(), ref.getSegment(), ref.getOffset(), ref.getLength());
+	}
+
+	@Override
+	public byte[] read(BlobReference reference) throws IOException {
+		final ByteBuffer buffer = locate(reference);
+		final byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return data;
+	}
+
+	@Override
+	public InputStream openStream(BlobReference reference) throws IOException {
+		return new MappedBlobInputStream(locate(reference));
+	}
+
+	/**
+	 * Force written blobs to disk.  Called before every database commit so that no committed object can
+	 * refer to a blob which would be lost in a crash.
+	 */
+	synchronized void sync() throws IOException {
+		if(needsSync && !isClosed) {
+			current.channel.force(false);
+			needsSync = false;
+		}
+	}
+
+	/**
+	 * Remove blobs which are absent from <code>referencedDigests</code> now and were also absent on the previous pass.
+	 *
+	 * @return the number of bytes of segment files deleted.
+	 */
+	synchronized long compact(Set<ByteBuffer> referencedDigests) throws IOException {
+		checkOpen();
+		final Set<ByteBuffer> unreferenced = new HashSet<>();
+		for(ByteBuffer digest: index.keySet()) {
+			if(!referencedDigests.contains(digest)) {
+				unreferenced.add(digest);
+			}
+		}
+		long reclaimed = 0;
+		for(Segment segment: new ArrayList<>(segments.values())) {
+			if(segment != current) {
+				reclaimed += maybeCompactSegment(segment, unreferenced);
+			}
+		}
+		previouslyUnreferenced = unreferenced;
+		return reclaimed;
+	}
+
+	private long maybeCompactSegment(Segment segment, Set<ByteBuffer> unreferenced) throws IOException {
+		final List<BlobReference> retained = new ArrayList<>();
+		final List<ByteBuffer> dropped = new ArrayList<>();
+		long retainedBytes = 0;
+		for(Map.Entry<ByteBuffer, BlobReference> entry: index.entrySet()) {
+			if(entry.getValue().getSegment() != segment.id) {
+				continue;
+			}
+			if(unreferenced.contains(entry.getKey()) && previouslyUnreferenced.contains(entry.getKey())) {
+				dropped.add(entry.getKey());
+			} else {
+				retained.add(entry.getValue());
+				retainedBytes += HEADER_LENGTH + entry.getValue().getLength();
+			}
+		}
+		if(dropped.isEmpty() || retainedBytes > segment.size * COMPACTION_LIVE_RATIO) {
+			return 0;
+		}
+		for(BlobReference ref: retained) {
+			appendRecord(ref.getDigest(), slice(segment, ref));
+		}
+		for(ByteBuffer digest: dropped) {
+			index.remove(digest);
+		}
+		sync();
+		final long size = segment.size;
+		segments.remove(segment.id);
+		segment.mapped = null;
+		segment.channel.close();
+		if(!segment.file.delete()) {
+			logger.warning("Could not delete compacted blob segment "+ segment.file);
+		}
+		logger.info("Compacted blob segment "+ segment.file.getName() +", moved "+ retained.size() +" blobs and dropped "+ dropped.size());
+		return size;
+	}
+
+	synchronized void close() {
+		if(isClosed) {
+			return;
+		}
+		isClosed = true;
+		for(Segment segment: segments.values()) {
+			try {
+				if(segment == current) {
+					segment.channel.force(false);
+				}
+				segment.channel.close();
+			} catch (IOException e) {
+				logger.warning("Error closing blob segment "+ segment.file +": "+ e.getMessage());
+			}
+			segment.mapped = null;
+		}
+	}
+
+	synchronized int getBlobCount() {
+		return index.size();
+	}
+
+	synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	private BlobReference appendRecord(byte[] digest, ByteBuffer data) throws IOException {
+		final int length = data.remaining();
+		if(current.size > 0 && current.size + HEADER_LENGTH + length > maxSegmentSize) {
+			current.channel.force(false);
+			current = createSegment(current.id + 1);
+		}
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(RECORD_MAGIC).putInt(length).put(digest);
+		header.flip();
+		final long offset = current.size;
+		long position = offset;
+		while(header.hasRemaining()) {
+			position += current.channel.write(header, position);
+		}
+		while(data.hasRemaining()) {
+			position += current.channel.write(data, position);
+		}
+		current.size = position;
+		needsSync = true;
+		final BlobReference ref = new BlobReference(digest, current.id, offset, length);
+		index.put(ByteBuffer.wrap(digest), ref);
+		return ref;
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		final File file = new File(directory, String.format("%s%05d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+		final Segment segment = new Segment(id, file);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private synchronized ByteBuffer locate(BlobReference reference) throws IOException {
+		checkOpen();
+		final BlobReference actual = index.get(ByteBuffer.wrap(reference.getDigest()));
+		if(actual == null) {
+			throw new IOException("Blob not found in blob store at segment "+ reference.getSegment() + " offset "+ reference.getOffset());
+		}
+		return slice(segments.get(actual.getSegment()), actual);
+	}
+
+	private ByteBuffer slice(Segment segment, BlobReference ref) throws IOException {
+		final long start = ref.getOffset() + HEADER_LENGTH;
+		final long end = start + ref.getLength();
+		if(segment.mapped == null || segment.mapped.capacity() < end) {
+			if(segment == current && segment.mapped != null && segment.size - segment.mapped.capacity() < REMAP_THRESHOLD) {
+				return readRecordData(segment, start, ref.getLength());
+			}
+			segment.mapped = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+		}
+		final ByteBuffer dup = segment.mapped.duplicate();
+		dup.limit((int) end);
+		dup.position((int) start);
+		return dup.slice();
+	}
+
+	/**
+	 * Blobs appended to the current segment since it was last mapped are read into the heap rather than
+	 * remapping the whole segment for every new blob.
+	 */
+	private ByteBuffer readRecordData(Segment segment, long start, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(segment.channel, buffer, start);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void checkOpen() throws IOException {
+		if(isClosed) {
+			throw new IOException("Blob store is closed");
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			final int n = channel.read(buffer, position);
+			if(n < 0) {
+				return;
+			}
+			position += n;
+		}
+	}
+
+	static byte[] computeDigest(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	synchronized Set<ByteBuffer> getDigests() {
+		return new HashSet<>(index.keySet());
+	}
+}
@@ -31,7 +31,7 @@ public class JavamailUtilsService implements JavamailUtils {
 	
 	public void activate() {
 		attachmentExtractor = new AttachmentExtractor(messageFactory);
-		storedMessageAttachmentExtractor = new StoredMessageAttachmentExtractor(session);
+		storedMessageAttachmentExtractor = new StoredMessageAttachmentExtractor();
 		eventBus.register(this);
 	}
 	
@@ -0,0 +1,254 @@
+package com.subgraph.sgmail.internal.javamail;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Finds a single body part of a raw message by its mime path while reading the message as a
+ * stream.  Only the headers of the message and of the multipart containers along the path are
+ * parsed.  Everything else is skipped a line at a time looking for boundary delimiters, and the
+ * content of the requested part is returned as a stream which decodes the transfer encoding
+ * as it is read.
+ *
+ * A mime path lists the index of the body part to descend into at each level of multipart
+ * nesting, as produced by {@link AttachmentExtractor}.
+ */
+class MimePartLocator {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    /** Longest line which is examined as a possible boundary delimiter. RFC 2046 limits boundaries to 70 characters. */
+    private final static int MAX_DELIMITER_LINE = 1024;
+
+    private final static int NOT_DELIMITER = 0;
+    private final static int DELIMITER = 1;
+    private final static int CLOSE_DELIMITER = 2;
+
+    private final InputStream in;
+    private final byte[] lineBuffer = new byte[MAX_DELIMITER_LINE];
+    private boolean atLineStart = true;
+
+    MimePartLocator(InputStream rawMessage) {
+        this.in = new BufferedInputStream(rawMessage, BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a stream of the decoded content of the part at <code>mimePath</code>.  Closing the
+     * returned stream closes the raw message stream.
+     */
+    InputStream openPart(List<Integer> mimePath) throws IOException, MessagingException {
+        InternetHeaders headers = readHeaders();
+        String boundary = null;
+        for(int depth = 0; depth < mimePath.size(); depth++) {
+            boundary = getBoundary(headers, depth);
+            skipToPart(boundary, mimePath.get(depth));
+            headers = readHeaders();
+        }
+        if(boundary == null) {
+            throw new MessagingException("Empty mime path");
+        }
+        final String encoding = headers.getHeader("Content-Transfer-Encoding", null);
+        final InputStream body = new PartBodyInputStream(boundary);
+        return (encoding == null) ? body : MimeUtility.decode(body, encoding.trim());
+    }
+
+    private InternetHeaders readHeaders() throws MessagingException {
+        final InternetHeaders headers = new InternetHeaders(in);
+        atLineStart = true;
+        return headers;
+    }
+
+    private static String getBoundary(InternetHeaders headers, int depth) throws MessagingException {
+        final String value = headers.getHeader("Content-Type", null);
+        if(value == null) {
+            throw new MessagingException("Part at depth "+ depth +" of mime path has no content type");
+        }
+        final ContentType contentType = new ContentType(value);
+        final String boundary = contentType.getParameter("boundary");
+        if(!"multipart".equalsIgnoreCase(contentType.getPrimaryType()) || boundary == null) {
+            throw new MessagingException("Part at depth "+ depth +" of mime path is not multipart: "+ value);
+        }
+        return boundary;
+    }
+
+    /**
+     * Read past the delimiter which opens body part number <code>index</code> of the multipart
+     * with the given boundary, leaving the stream positioned at the headers of that part.
+     */
+    private void skipToPart(String boundary, int index) throws IOException, MessagingException {
+        final byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        int seen = 0;
+        while(true) {
+            final boolean lineStart = atLineStart;
+            final int n = readSegment();
+            if(n == -1) {
+                throw new MessagingException("Cannot extract attachment because mimePath element exceeds multipart count");
+            }
+            if(!lineStart) {
+                continue;
+            }
+            final int type = delimiterType(lineBuffer, n, delimiter);
+            if(type == CLOSE_DELIMITER) {
+                throw new MessagingException("Cannot extract attachment because mimePath element exceeds multipart count");
+            } else if(type == DELIMITER) {
+                if(seen == index) {
+                    return;
+                }
+                seen += 1;
+            }
+        }
+    }
+
+    private static int delimiterType(byte[] line, int length, byte[] delimiter) {
+        if(length < delimiter.length) {
+            return NOT_DELIMITER;
+        }
+        for(int i = 0; i < delimiter.length; i++) {
+            if(line[i] != delimiter[i]) {
+                return NOT_DELIMITER;
+            }
+        }
+        int i = delimiter.length;
+        int type = DELIMITER;
+        if(i + 1 < length && line[i] == '-' && line[i + 1] == '-') {
+            type = CLOSE_DELIMITER;
+            i += 2;
+        }
+        for(; i < length; i++) {
+            if(!isWhitespace(line[i])) {
+                return NOT_DELIMITER;
+            }
+        }
+        return type;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Read up to the end of the current line or until the line buffer is full.  A line longer than
+     * the buffer is returned in several segments and only the first segment is at a line start.
+     *
+     * @return the number of bytes read including any line terminator, or -1 at end of stream
+     */
+    private int readSegment() throws IOException {
+        int n = 0;
+        while(n < lineBuffer.length) {
+            final int b = in.read();
+            if(b == -1) {
+                break;
+            }
+            lineBuffer[n++] = (byte) b;
+            if(b == '\n') {
+                atLineStart = true;
+                return n;
+            }
+        }
+        atLineStart = false;
+        return (n == 0) ? -1 : n;
+    }
+
+    /**
+     * The content of a body part up to the next delimiter line.  The line break before a delimiter
+     * belongs to the delimiter, so the line terminator of each line is held back until the following
+     * line is known not to be a delimiter.
+     */
+    private class PartBodyInputStream extends InputStream {
+        private final byte[] delimiter;
+        private final byte[] heldTerminator = new byte[2];
+        private int heldLength;
+        private final byte[] output = new byte[MAX_DELIMITER_LINE + 2];
+        private int outputPosition;
+        private int outputLength;
+        private boolean isFinished;
+
+        PartBodyInputStream(String boundary) {
+            this.delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!fill()) {
+                return -1;
+            }
+            return output[outputPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            if(!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, outputLength - outputPosition);
+            System.arraycopy(output, outputPosition, b, off, n);
+            outputPosition += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean fill() throws IOException {
+            while(outputPosition == outputLength) {
+                if(isFinished) {
+                    return false;
+                }
+                readNextSegment();
+            }
+            return true;
+        }
+
+        private void readNextSegment() throws IOException {
+            final boolean lineStart = atLineStart;
+            final int n = readSegment();
+            outputPosition = outputLength = 0;
+            if(n == -1) {
+                // no closing delimiter, return the rest of the stream
+                appendHeld();
+                isFinished = true;
+                return;
+            }
+            if(lineStart && delimiterType(lineBuffer, n, delimiter) != NOT_DELIMITER) {
+                heldLength = 0;
+                isFinished = true;
+                return;
+            }
+            appendHeld();
+            final int terminatorLength = getTerminatorLength(n);
+            System.arraycopy(lineBuffer, 0, output, outputLength, n - terminatorLength);
+            outputLength += n - terminatorLength;
+            System.arraycopy(lineBuffer, n - terminatorLength, heldTerminator, 0, terminatorLength);
+            heldLength = terminatorLength;
+        }
+
+        private int getTerminatorLength(int n) {
+            if(n == 0 || lineBuffer[n - 1] != '\n') {
+                return 0;
+            } else if(n > 1 && lineBuffer[n - 2] == '\r') {
+                return 2;
+            } else {
+                return 1;
+            }
+        }
+
+        private void appendHeld() {
+            System.arraycopy(heldTerminator, 0, output, outputLength, heldLength);
+            outputLength += heldLength;
+            heldLength = 0;
+        }
+    }
+}
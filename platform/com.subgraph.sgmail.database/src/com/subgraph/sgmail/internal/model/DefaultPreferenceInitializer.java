@@ -20,6 +20,7 @@ public class DefaultPreferenceInitializer {
 
   private void initializeRootDefaults() {
     set(Preferences.IMAP_DEBUG_OUTPUT, false);
+    set(Preferences.IMAP_MAX_CONNECTIONS, "4");
     set(Preferences.DUMP_SELECTED_MESSAGE, false);
     set(Preferences.FETCH_KEYS_FROM_IDENTITY_SERVER, true);
     set(Preferences.IDENTITY_SERVER_ADDRESS, "pkx53pmulhqw3wkt.onion:12345");
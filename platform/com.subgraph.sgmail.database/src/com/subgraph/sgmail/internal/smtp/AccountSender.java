@@ -0,0 +1,255 @@
+package com.subgraph.sgmail.internal.smtp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import com.subgraph.sgmail.accounts.MailAccount;
+import com.subgraph.sgmail.events.OutgoingMessageEvent.State;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+/**
+ * Sends the messages of one account from the outbox.  Due messages are sent in batches of at most
+ * BATCH_SIZE over a single pooled connection.  Only one pass runs at a time for an account, and a
+ * message queued while a pass is running is sent by another pass which starts as soon as it
+ * finishes, usually over the same connection.
+ *
+ * A message rejected by the server with a permanent (5xx) reply is removed from the outbox.  Any
+ * other failure, such as the server being unreachable, is retried later, and when the connection
+ * itself fails the rest of the batch is retried with it.
+ *
+ * Messages are sent to the recipients the server accepts even if it rejects others.  Recipients
+ * rejected with a permanent reply are dropped and reported in the error message of the event for
+ * the message, and recipients refused with a temporary reply stay in the outbox to be retried.
+ */
+class AccountSender {
+	private final static Logger logger = Logger.getLogger(AccountSender.class.getName());
+
+	private final static int BATCH_SIZE = 20;
+
+	private final MailAccount account;
+	private final MailOutboxService outbox;
+	private final SMTPConnectionPool connectionPool;
+	private final Session session;
+	private final Executor executor;
+	private final ScheduledExecutorService scheduler;
+
+	private boolean isRunning;
+	private boolean isRequested;
+	private ScheduledFuture<?> scheduledRetry;
+
+	AccountSender(MailAccount account, MailOutboxService outbox, SMTPConnectionPool connectionPool, Session session, Executor executor, ScheduledExecutorService scheduler) {
+		this.account = account;
+		this.outbox = outbox;
+		this.connectionPool = connectionPool;
+		this.session = session;
+		this.executor = executor;
+		this.scheduler = scheduler;
+	}
+
+	synchronized void requestSend() {
+		if(isRunning) {
+			isRequested = true;
+			return;
+		}
+		isRunning = true;
+		executor.execute(this::run);
+	}
+
+	private void run() {
+		try {
+			while(true) {
+				sendDueMessages();
+				synchronized (this) {
+					if(!isRequested) {
+						isRunning = false;
+						break;
+					}
+					isRequested = false;
+				}
+			}
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				isRunning = false;
+			}
+			throw e;
+		} finally {
+			scheduleRetry();
+		}
+	}
+
+	private void sendDueMessages() {
+		List<StoredOutgoingMessage> due = outbox.getDueMessages(account, System.currentTimeMillis());
+		while(!due.isEmpty()) {
+			if(!sendBatch(due.subList(0, Math.min(BATCH_SIZE, due.size())))) {
+				return;
+			}
+			due = outbox.getDueMessages(account, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @return false if the connection could not be opened or was lost, in which case every
+	 *         unsent message of the batch has been scheduled to be retried
+	 */
+	private boolean sendBatch(List<StoredOutgoingMessage> batch) {
+		final Transport transport;
+		try {
+			transport = connectionPool.take(account);
+		} catch (MessagingException e) {
+			logger.warning("Could not connect to SMTP server of "+ account.getEmailAddress() +": "+ e.getMessage());
+			recordFailures(batch, e);
+			return false;
+		}
+		for(int i = 0; i < batch.size(); i++) {
+			final StoredOutgoingMessage message = batch.get(i);
+			outbox.postEvent(message, State.SENDING);
+			try {
+				transport.sendMessage(message.createMimeMessage(session), message.getRecipientAddresses());
+				outbox.removeMessage(message, State.SENT);
+			} catch (MessagingException e) {
+				if(isRecipientFailure(e)) {
+					recordRecipientFailure(message, (SendFailedException) e);
+					continue;
+				}
+				if(!isPermanentFailure(e) && !transport.isConnected()) {
+					connectionPool.discard(transport);
+					recordFailures(batch.subList(i, batch.size()), e);
+					return false;
+				}
+				recordFailure(message, e);
+			}
+		}
+		connectionPool.release(account, transport);
+		return true;
+	}
+
+	private void recordFailures(List<StoredOutgoingMessage> messages, MessagingException e) {
+		for(StoredOutgoingMessage m: messages) {
+			recordFailure(m, e);
+		}
+	}
+
+	private void recordFailure(StoredOutgoingMessage message, MessagingException e) {
+		final String error = e.getMessage();
+		if(isPermanentFailure(e) || !message.recordFailure(error, System.currentTimeMillis())) {
+			logger.warning("Sending message "+ message.getOutboxId() +" failed: "+ error);
+			outbox.removeMessage(message, State.FAILED, error);
+		} else {
+			outbox.updateMessage(message, State.WAITING_TO_RETRY);
+		}
+	}
+
+	private void recordRecipientFailure(StoredOutgoingMessage message, SendFailedException e) {
+		final String error = "Rejected recipients: "+ describeRejectedRecipients(e);
+		logger.warning("Sending message "+ message.getOutboxId() +" partially failed. "+ error);
+		final Address[] unsent = e.getValidUnsentAddresses();
+		if(unsent == null || unsent.length == 0) {
+			outbox.removeMessage(message, State.SENT, error);
+			return;
+		}
+		message.setRecipientAddresses(unsent);
+		if(message.recordFailure(error, System.currentTimeMillis())) {
+			outbox.updateMessage(message, State.WAITING_TO_RETRY);
+		} else {
+			outbox.removeMessage(message, State.FAILED, error);
+		}
+	}
+
+	/**
+	 * Schedules a pass for when the earliest message which failed is due to be sent again.
+	 */
+	private synchronized void scheduleRetry() {
+		if(scheduledRetry != null) {
+			scheduledRetry.cancel(false);
+			scheduledRetry = null;
+		}
+		final long nextAttemptTime = outbox.getNextAttemptTime(account);
+		if(nextAttemptTime == Long.MAX_VALUE || scheduler.isShutdown()) {
+			return;
+		}
+		final long delay = Math.max(0, nextAttemptTime - System.currentTimeMillis());
+		scheduledRetry = scheduler.schedule(this::requestSend, delay, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void cancel() {
+		if(scheduledRetry != null) {
+			scheduledRetry.cancel(false);
+			scheduledRetry = null;
+		}
+	}
+
+	/**
+	 * Returns true if the server rejected the message, its sender or any of its recipients with a
+	 * permanent negative reply, so sending it again can not succeed.
+	 */
+	static boolean isPermanentFailure(MessagingException e) {
+		Exception ex = e;
+		while(ex != null) {
+			final int code = getReturnCode(ex);
+			if(code >= 500 && code < 600) {
+				return true;
+			}
+			ex = (ex instanceof MessagingException) ? ((MessagingException) ex).getNextException() : null;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the server rejected some recipients with a permanent negative reply but
+	 * accepted the message for, or only temporarily refused, at least one other recipient.  The
+	 * sender and the message itself were not rejected.
+	 */
+	static boolean isRecipientFailure(MessagingException e) {
+		if(!(e instanceof SendFailedException) || getReturnCode(e) >= 400) {
+			return false;
+		}
+		final SendFailedException sfe = (SendFailedException) e;
+		return count(sfe.getInvalidAddresses()) > 0 &&
+				(count(sfe.getValidSentAddresses()) + count(sfe.getValidUnsentAddresses())) > 0;
+	}
+
+	private static int count(Address[] addresses) {
+		return (addresses == null) ? 0 : addresses.length;
+	}
+
+	private static String describeRejectedRecipients(SendFailedException e) {
+		final List<Address> invalid = Arrays.asList(e.getInvalidAddresses());
+		final StringBuilder sb = new StringBuilder();
+		Exception ex = e;
+		while(ex != null) {
+			if(ex instanceof SMTPAddressFailedException && invalid.contains(((SMTPAddressFailedException) ex).getAddress())) {
+				final SMTPAddressFailedException afe = (SMTPAddressFailedException) ex;
+				if(sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(afe.getAddress()).append(" (").append(afe.getMessage().trim()).append(")");
+			}
+			ex = (ex instanceof MessagingException) ? ((MessagingException) ex).getNextException() : null;
+		}
+		return sb.toString();
+	}
+
+	private static int getReturnCode(Exception e) {
+		if(e instanceof SMTPSendFailedException) {
+			return ((SMTPSendFailedException) e).getReturnCode();
+		} else if(e instanceof SMTPAddressFailedException) {
+			return ((SMTPAddressFailedException) e).getReturnCode();
+		} else if(e instanceof SMTPSenderFailedException) {
+			return ((SMTPSenderFailedException) e).getReturnCode();
+		}
+		return -1;
+	}
+}
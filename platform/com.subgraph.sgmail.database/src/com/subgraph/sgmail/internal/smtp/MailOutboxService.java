@@ -0,0 +1,210 @@
+package com.subgraph.sgmail.internal.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.eventbus.Subscribe;
+import com.subgraph.sgmail.ExecutorRegistry;
+import com.subgraph.sgmail.IEventBus;
+import com.subgraph.sgmail.MailOutbox;
+import com.subgraph.sgmail.accounts.MailAccount;
+import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Model;
+import com.subgraph.sgmail.events.DatabaseOpenedEvent;
+import com.subgraph.sgmail.events.OutgoingMessageEvent;
+import com.subgraph.sgmail.events.OutgoingMessageEvent.State;
+
+/**
+ * The outbox keeps queued messages in the database and hands them to an {@link AccountSender} for
+ * each account, which sends them over connections from a shared {@link SMTPConnectionPool}.
+ * Messages left in the outbox when the application exited are sent once the database is opened.
+ */
+public class MailOutboxService implements MailOutbox {
+	private final static int SOCKET_TIMEOUT_MILLIS = 60 * 1000;
+
+	private final Map<MailAccount, AccountSender> senders = new HashMap<>();
+	private final Session session = Session.getInstance(createSessionProperties());
+	private final SMTPConnectionPool connectionPool = new SMTPConnectionPool(session);
+
+	private Model model;
+	private IEventBus eventBus;
+	private ExecutorRegistry executorRegistry;
+	private ScheduledExecutorService scheduler;
+
+	private static Properties createSessionProperties() {
+		final Properties properties = new Properties();
+		properties.setProperty("mail.smtps.connectiontimeout", Integer.toString(SOCKET_TIMEOUT_MILLIS));
+		properties.setProperty("mail.smtps.timeout", Integer.toString(SOCKET_TIMEOUT_MILLIS));
+		// deliver to the accepted recipients when the server rejects some of them
+		properties.setProperty("mail.smtps.sendpartial", "true");
+		return properties;
+	}
+
+	void activate() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "Mail outbox scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(connectionPool::checkIdleConnections,
+				SMTPConnectionPool.KEEPALIVE_INTERVAL_SECONDS, SMTPConnectionPool.KEEPALIVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		eventBus.register(this);
+	}
+
+	void deactivate() {
+		eventBus.unregister(this);
+		synchronized (senders) {
+			for(AccountSender sender: senders.values()) {
+				sender.cancel();
+			}
+			senders.clear();
+		}
+		scheduler.shutdownNow();
+		connectionPool.closeAll();
+	}
+
+	void setModel(Model model) {
+		this.model = model;
+	}
+
+	void setEventBus(IEventBus eventBus) {
+		this.eventBus = eventBus;
+	}
+
+	void setExecutorRegistry(ExecutorRegistry executorRegistry) {
+		this.executorRegistry = executorRegistry;
+	}
+
+	@Subscribe
+	public void onDatabaseOpened(DatabaseOpenedEvent event) {
+		final List<MailAccount> accounts = new ArrayList<>();
+		for(StoredOutgoingMessage message: getDatabase().getAll(StoredOutgoingMessage.class)) {
+			if(!accounts.contains(message.getAccount())) {
+				accounts.add(message.getAccount());
+			}
+		}
+		for(MailAccount account: accounts) {
+			getSender(account).requestSend();
+		}
+	}
+
+	@Override
+	public int queueMessage(MailAccount account, MimeMessage message) throws MessagingException {
+		final Address[] recipients = message.getAllRecipients();
+		if(recipients == null || recipients.length == 0) {
+			throw new MessagingException("Message has no recipients");
+		}
+		final StoredOutgoingMessage stored = new StoredOutgoingMessage(model.getNextUniqueId(), account,
+				getMessageBytes(message), getAddressStrings(recipients), System.currentTimeMillis());
+		final Database database = getDatabase();
+		database.store(stored);
+		database.commit();
+		postEvent(stored, State.QUEUED);
+		getSender(account).requestSend();
+		return stored.getOutboxId();
+	}
+
+	private static byte[] getMessageBytes(MimeMessage message) throws MessagingException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			message.writeTo(out);
+		} catch (IOException e) {
+			throw new MessagingException("Error writing message to outbox", e);
+		}
+		return out.toByteArray();
+	}
+
+	static String[] getAddressStrings(Address[] addresses) {
+		final String[] result = new String[addresses.length];
+		for(int i = 0; i < addresses.length; i++) {
+			final Address a = addresses[i];
+			result[i] = (a instanceof InternetAddress) ? ((InternetAddress) a).getAddress() : a.toString();
+		}
+		return result;
+	}
+
+	@Override
+	public int getQueuedMessageCount() {
+		return getDatabase().getAll(StoredOutgoingMessage.class).size();
+	}
+
+	private AccountSender getSender(MailAccount account) {
+		synchronized (senders) {
+			AccountSender sender = senders.get(account);
+			if(sender == null) {
+				sender = new AccountSender(account, this, connectionPool, session,
+						executorRegistry.getExecutor(ExecutorRegistry.Workload.SEND), scheduler);
+				senders.put(account, sender);
+			}
+			return sender;
+		}
+	}
+
+	/** Returns the messages of <code>account</code> which are due to be sent, oldest first. */
+	List<StoredOutgoingMessage> getDueMessages(MailAccount account, long now) {
+		final List<StoredOutgoingMessage> due = new ArrayList<>();
+		for(StoredOutgoingMessage message: getDatabase().getAll(StoredOutgoingMessage.class)) {
+			if(message.getAccount() == account && message.isDue(now)) {
+				due.add(message);
+			}
+		}
+		due.sort(Comparator.comparingLong(StoredOutgoingMessage::getQueuedTime));
+		return due;
+	}
+
+	/** Returns the time the next message of <code>account</code> is due, or Long.MAX_VALUE if none */
+	long getNextAttemptTime(MailAccount account) {
+		long next = Long.MAX_VALUE;
+		for(StoredOutgoingMessage message: getDatabase().getAll(StoredOutgoingMessage.class)) {
+			if(message.getAccount() == account) {
+				next = Math.min(next, message.getNextAttemptTime());
+			}
+		}
+		return next;
+	}
+
+	void updateMessage(StoredOutgoingMessage message, State state) {
+		final Database database = getDatabase();
+		database.store(message);
+		database.commit();
+		postEvent(message, state, message.getLastError());
+	}
+
+	void removeMessage(StoredOutgoingMessage message, State state) {
+		removeMessage(message, state, null);
+	}
+
+	void removeMessage(StoredOutgoingMessage message, State state, String error) {
+		final Database database = getDatabase();
+		postEvent(message, state, error);
+		database.delete(message);
+		database.commit();
+	}
+
+	void postEvent(StoredOutgoingMessage message, State state) {
+		postEvent(message, state, null);
+	}
+
+	private void postEvent(StoredOutgoingMessage message, State state, String error) {
+		eventBus.postAsync(new OutgoingMessageEvent(message.getOutboxId(), message.getAccount(), state, error));
+	}
+
+	private Database getDatabase() {
+		return model.getDatabase();
+	}
+}
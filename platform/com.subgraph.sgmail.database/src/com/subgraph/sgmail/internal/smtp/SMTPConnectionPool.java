@@ -0,0 +1,132 @@
+package com.subgraph.sgmail.internal.smtp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import com.subgraph.sgmail.accounts.MailAccount;
+import com.subgraph.sgmail.accounts.ServerDetails;
+
+/**
+ * Keeps the authenticated SMTP connection of each account open between sends, so that messages
+ * sent in quick succession do not each pay for a TLS handshake and login.  An idle connection is
+ * checked with NOOP by {@link #checkIdleConnections()}, which also stops the server from timing it
+ * out, and is closed once it has been idle for MAX_IDLE_MILLIS.
+ */
+class SMTPConnectionPool {
+	private final static Logger logger = Logger.getLogger(SMTPConnectionPool.class.getName());
+
+	final static long KEEPALIVE_INTERVAL_SECONDS = 60;
+	private final static long MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private static class IdleConnection {
+		private final Transport transport;
+		private final long idleSince;
+
+		IdleConnection(Transport transport, long idleSince) {
+			this.transport = transport;
+			this.idleSince = idleSince;
+		}
+	}
+
+	private final Session session;
+	private final Map<MailAccount, IdleConnection> idleConnections = new HashMap<>();
+
+	SMTPConnectionPool(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * Returns a connected transport for the account, reusing the idle connection if the server
+	 * still answers on it.  The caller owns the transport until it passes it to
+	 * {@link #release} or {@link #discard}.
+	 */
+	Transport take(MailAccount account) throws MessagingException {
+		final IdleConnection idle;
+		synchronized (idleConnections) {
+			idle = idleConnections.remove(account);
+		}
+		if(idle != null) {
+			if(idle.transport.isConnected()) {
+				return idle.transport;
+			}
+			discard(idle.transport);
+		}
+		return connect(account);
+	}
+
+	private Transport connect(MailAccount account) throws MessagingException {
+		final ServerDetails smtp = account.getSMTPAccount();
+		final Transport transport = session.getTransport("smtps");
+		transport.connect(smtp.getHostname(), smtp.getPort(), smtp.getLogin(), smtp.getPassword());
+		return transport;
+	}
+
+	void release(MailAccount account, Transport transport) {
+		final IdleConnection replaced;
+		synchronized (idleConnections) {
+			replaced = idleConnections.put(account, new IdleConnection(transport, System.currentTimeMillis()));
+		}
+		if(replaced != null) {
+			discard(replaced.transport);
+		}
+	}
+
+	void discard(Transport transport) {
+		try {
+			transport.close();
+		} catch (MessagingException e) {
+			logger.fine("Error closing SMTP connection: "+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes connections which have been idle too long or which the server has dropped.  Each
+	 * connection is taken out of the pool while it is checked, so a sender never uses a connection
+	 * while a NOOP is outstanding on it.
+	 */
+	void checkIdleConnections() {
+		final long now = System.currentTimeMillis();
+		final Map<MailAccount, IdleConnection> checking;
+		synchronized (idleConnections) {
+			checking = new HashMap<>(idleConnections);
+			idleConnections.clear();
+		}
+		for(Map.Entry<MailAccount, IdleConnection> entry: checking.entrySet()) {
+			final IdleConnection idle = entry.getValue();
+			if(now - idle.idleSince > MAX_IDLE_MILLIS || !idle.transport.isConnected()) {
+				discard(idle.transport);
+			} else {
+				returnChecked(entry.getKey(), idle);
+			}
+		}
+	}
+
+	private void returnChecked(MailAccount account, IdleConnection idle) {
+		synchronized (idleConnections) {
+			if(!idleConnections.containsKey(account)) {
+				idleConnections.put(account, idle);
+				return;
+			}
+		}
+		discard(idle.transport);
+	}
+
+	void closeAll() {
+		final List<IdleConnection> closing;
+		synchronized (idleConnections) {
+			closing = new ArrayList<>(idleConnections.values());
+			idleConnections.clear();
+		}
+		for(IdleConnection idle: closing) {
+			discard(idle.transport);
+		}
+	}
+}
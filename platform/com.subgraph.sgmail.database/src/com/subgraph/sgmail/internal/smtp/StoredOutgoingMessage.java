@@ -0,0 +1,143 @@
+package com.subgraph.sgmail.internal.smtp;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.db4o.activation.ActivationPurpose;
+import com.db4o.activation.Activator;
+import com.db4o.ta.Activatable;
+import com.subgraph.sgmail.accounts.MailAccount;
+
+/**
+ * A message in the outbox.  The message is stored as the bytes it will be transmitted as, together
+ * with the envelope recipients, so that it is sent after a restart exactly as it was composed.
+ *
+ * After each failed attempt the message waits before it is sent again, for a delay which doubles
+ * with every failure up to MAX_RETRY_DELAY_MILLIS.
+ */
+public class StoredOutgoingMessage implements Activatable {
+	private final static long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private final static long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+	final static int MAX_ATTEMPTS = 12;
+
+	private final int outboxId;
+	private final MailAccount account;
+	private final byte[] messageBytes;
+	private final long queuedTime;
+
+	private String[] recipients;
+
+	private int failedAttemptCount;
+	private long nextAttemptTime;
+	private String lastError;
+
+	private transient Activator activator;
+
+	StoredOutgoingMessage(int outboxId, MailAccount account, byte[] messageBytes, String[] recipients, long queuedTime) {
+		this.outboxId = outboxId;
+		this.account = account;
+		this.messageBytes = messageBytes;
+		this.recipients = recipients;
+		this.queuedTime = queuedTime;
+		this.nextAttemptTime = queuedTime;
+	}
+
+	int getOutboxId() {
+		activate(ActivationPurpose.READ);
+		return outboxId;
+	}
+
+	MailAccount getAccount() {
+		activate(ActivationPurpose.READ);
+		return account;
+	}
+
+	long getQueuedTime() {
+		activate(ActivationPurpose.READ);
+		return queuedTime;
+	}
+
+	long getNextAttemptTime() {
+		activate(ActivationPurpose.READ);
+		return nextAttemptTime;
+	}
+
+	int getFailedAttemptCount() {
+		activate(ActivationPurpose.READ);
+		return failedAttemptCount;
+	}
+
+	String getLastError() {
+		activate(ActivationPurpose.READ);
+		return lastError;
+	}
+
+	boolean isDue(long now) {
+		return getNextAttemptTime() <= now;
+	}
+
+	MimeMessage createMimeMessage(Session session) throws MessagingException {
+		activate(ActivationPurpose.READ);
+		return new MimeMessage(session, new ByteArrayInputStream(messageBytes));
+	}
+
+	Address[] getRecipientAddresses() throws MessagingException {
+		activate(ActivationPurpose.READ);
+		final Address[] addresses = new Address[recipients.length];
+		for(int i = 0; i < recipients.length; i++) {
+			addresses[i] = new InternetAddress(recipients[i]);
+		}
+		return addresses;
+	}
+
+	/**
+	 * Replaces the envelope recipients, so that an attempt after a partial delivery only goes to
+	 * the recipients which did not receive the message.
+	 */
+	void setRecipientAddresses(Address[] addresses) {
+		activate(ActivationPurpose.WRITE);
+		recipients = MailOutboxService.getAddressStrings(addresses);
+	}
+
+	/**
+	 * Records a failed attempt to send the message and schedules the next attempt.
+	 *
+	 * @return false if the message has failed MAX_ATTEMPTS times and should not be sent again
+	 */
+	boolean recordFailure(String error, long now) {
+		activate(ActivationPurpose.WRITE);
+		failedAttemptCount += 1;
+		lastError = error;
+		nextAttemptTime = now + getRetryDelay(failedAttemptCount);
+		return failedAttemptCount < MAX_ATTEMPTS;
+	}
+
+	static long getRetryDelay(int failedAttemptCount) {
+		final int doublings = Math.min(Math.max(failedAttemptCount - 1, 0), 30);
+		return Math.min(MAX_RETRY_DELAY_MILLIS, INITIAL_RETRY_DELAY_MILLIS << doublings);
+	}
+
+	@Override
+	public void activate(ActivationPurpose activationPurpose) {
+		if(activator != null) {
+			activator.activate(activationPurpose);
+		}
+	}
+
+	@Override
+	public void bind(Activator activator) {
+		if(this.activator == activator) {
+			return;
+		}
+		if(activator != null  && this.activator != null) {
+			throw new IllegalStateException("Object can only be bound one to an activator");
+		}
+		this.activator = activator;
+	}
+}
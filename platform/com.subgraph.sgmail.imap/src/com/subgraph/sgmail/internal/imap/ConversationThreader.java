@@ -0,0 +1,103 @@
+package com.subgraph.sgmail.internal.imap;
+
+import gnu.trove.map.TLongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Assigns messages to conversations from their Message-ID, In-Reply-To and References headers,
+ * following the reference linking part of the JWZ threading algorithm.
+ *
+ * Every message id seen, either as the id of a message or as a reference to another message, is
+ * mapped to a conversation.  A referenced message which has not arrived yet is represented only
+ * by its entry in the map, like an empty container in JWZ threading, so that when it does arrive it
+ * joins the conversation of the replies which were seen before it.  Since a message is assigned to
+ * a conversation once, as it arrives, two conversations which are later found to be related
+ * are not merged and subjects are not used to group messages.
+ *
+ * Message ids are mapped by a 64 bit hash so the map can be stored compactly as primitives.
+ */
+class ConversationThreader {
+  private final static Pattern MESSAGE_ID_PATTERN = Pattern.compile("<[^<>\\s]+>");
+  private final static HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final TLongIntMap conversationsByMessageId;
+
+  ConversationThreader(TLongIntMap conversationsByMessageId) {
+    this.conversationsByMessageId = conversationsByMessageId;
+  }
+
+  int assignConversation(MimeMessage message, IntSupplier newConversationId) throws MessagingException {
+    return assignConversation(getMessageId(message), getReferences(message), newConversationId);
+  }
+
+  /**
+   * @param messageId the Message-ID of the message, or null if it does not have one
+   * @param references the ids of the messages this message refers to, from the root of the conversation
+   *   to the message it replies to
+   * @param newConversationId supplies an id when the message does not belong to any known conversation
+   * @return the conversation id of the message
+   */
+  int assignConversation(String messageId, List<String> references, IntSupplier newConversationId) {
+    int conversation = (messageId == null) ? 0 : conversationsByMessageId.get(hash(messageId));
+    for(int i = 0; conversation == 0 && i < references.size(); i++) {
+      conversation = conversationsByMessageId.get(hash(references.get(i)));
+    }
+    if(conversation == 0) {
+      conversation = newConversationId.getAsInt();
+    }
+    if(messageId != null) {
+      conversationsByMessageId.putIfAbsent(hash(messageId), conversation);
+    }
+    for(String reference: references) {
+      conversationsByMessageId.putIfAbsent(hash(reference), conversation);
+    }
+    return conversation;
+  }
+
+  static String getMessageId(MimeMessage message) throws MessagingException {
+    final List<String> ids = parseMessageIds(message.getMessageID());
+    return ids.isEmpty() ? null : ids.get(0);
+  }
+
+  /**
+   * Returns the ids in the References header, followed by any id in In-Reply-To which is not
+   * already listed, as some clients send only In-Reply-To.
+   */
+  static List<String> getReferences(MimeMessage message) throws MessagingException {
+    final List<String> references = parseMessageIds(message.getHeader("References", " "));
+    for(String id: parseMessageIds(message.getHeader("In-Reply-To", " "))) {
+      if(!references.contains(id)) {
+        references.add(id);
+      }
+    }
+    return references;
+  }
+
+  static List<String> parseMessageIds(String header) {
+    final List<String> ids = new ArrayList<>();
+    if(header == null) {
+      return ids;
+    }
+    final Matcher matcher = MESSAGE_ID_PATTERN.matcher(header);
+    while(matcher.find()) {
+      ids.add(matcher.group());
+    }
+    return ids;
+  }
+
+  private static long hash(String messageId) {
+    return HASH_FUNCTION.hashString(messageId, Charsets.UTF_8).asLong();
+  }
+}
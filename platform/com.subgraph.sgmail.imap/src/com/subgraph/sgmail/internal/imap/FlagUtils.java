@@ -2,12 +2,15 @@ package com.subgraph.sgmail.internal.imap;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
 import com.subgraph.sgmail.messages.StoredMessage;
 
 import javax.mail.Flags;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 
+import java.util.Map;
+
 public class FlagUtils {
 
     static boolean isFlagBitSet(long flagBits, long flag) {
@@ -24,6 +27,30 @@ public class FlagUtils {
             .build();
 
 
+    private final static Map<Integer, String> systemFlagNames = new ImmutableMap.Builder<Integer, String>()
+            .put(StoredMessage.FLAG_ANSWERED, "\\Answered")
+            .put(StoredMessage.FLAG_DELETED, "\\Deleted")
+            .put(StoredMessage.FLAG_DRAFT, "\\Draft")
+            .put(StoredMessage.FLAG_FLAGGED, "\\Flagged")
+            .put(StoredMessage.FLAG_SEEN, "\\Seen")
+            .build();
+
+    /**
+     * Returns true if a client may change the IMAP flag for a flag bit.  The server alone sets
+     * the \Recent flag.
+     */
+    public static boolean isWritableFlagBit(int flagBit) {
+        return systemFlagNames.containsKey(flagBit);
+    }
+
+    /**
+     * Returns the name of the IMAP system flag for a flag bit as it is written in a command, or
+     * null if the flag bit cannot be changed by a client.
+     */
+    public static String getSystemFlagName(int flagBit) {
+        return systemFlagNames.get(flagBit);
+    }
+
     public static int getFlagsFromMessage(Message message) throws MessagingException {
         return getFlagBitsFromFlags(message.getFlags());
     }
@@ -37,7 +37,9 @@ public class IMAPAccountImpl implements IMAPAccount, Storeable, Activatable {
     private int currentConversationId = 1;
     private TLongIntMap googleConversationMap = new TLongIntHashMap();
     private TLongIntMap googleMessageIdMap = new TLongIntHashMap();
+    private TLongIntMap conversationByMessageIdHash = new TLongIntHashMap();
     private Map<String, LocalIMAPFolder> folderMap = new HashMap<>();
+    private IMAPCommandQueueImpl commandQueue;
 
     private transient IMAPStore cachedStore;
 	private transient Activator activator;
@@ -63,6 +65,7 @@ public class IMAPAccountImpl implements IMAPAccount, Storeable, Activatable {
         return imapServerDetails;
     }
 
+    private final static String GMAIL_ALL_MAIL = "[Gmail]/All Mail";
     private final static List<String> GMAIL_DOMAINS = ImmutableList.of("gmail.com", "googlemail.com");
 
     @Override
@@ -94,6 +97,60 @@ public class IMAPAccountImpl implements IMAPAccount, Storeable, Activatable {
         }
     }
 
+    /**
+     * Returns the queue of local changes waiting to be written back to the server.
+     */
+    public synchronized IMAPCommandQueue getCommandQueue() {
+        activate(ActivationPurpose.READ);
+        if(commandQueue == null) {
+            activate(ActivationPurpose.WRITE);
+            commandQueue = new IMAPCommandQueueImpl();
+            database.store(commandQueue);
+            database.commit();
+        }
+        return commandQueue;
+    }
+
+    @Override
+    public boolean queueFlagChange(StoredMessage message, int flag, boolean isSet) {
+        if(!FlagUtils.isWritableFlagBit(flag) || getMailAccount().getMessageById(message.getMessageId()) == null) {
+            return false;
+        }
+        final String folderName = findFolderForFlagChange(message);
+        if(folderName == null) {
+            return false;
+        }
+        final long uid = getFolderByName(folderName).getUIDForMessage(message);
+        getCommandQueue().queueCommand(new IMAPFlagChangedCommand(folderName, uid, flag, isSet));
+        database.commit();
+        return true;
+    }
+
+    /**
+     * Returns the name of a folder containing <code>message</code>.  Flags belong to the message
+     * rather than to the folder on Gmail, so a change is sent to the All Mail folder when it
+     * contains the message.
+     */
+    private String findFolderForFlagChange(StoredMessage message) {
+        activate(ActivationPurpose.READ);
+        synchronized (folderMap) {
+            if(isGmailAccount() && folderContains(GMAIL_ALL_MAIL, message)) {
+                return GMAIL_ALL_MAIL;
+            }
+            for(Map.Entry<String, LocalIMAPFolder> entry: folderMap.entrySet()) {
+                if(entry.getValue().getUIDForMessage(message) != -1) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+    }
+
+    private boolean folderContains(String folderName, StoredMessage message) {
+        final LocalIMAPFolder folder = folderMap.get(folderName);
+        return folder != null && folder.getUIDForMessage(message) != -1;
+    }
+
     @Override
     public MailAccount getMailAccount() {
         activate(ActivationPurpose.READ);
@@ -113,7 +170,19 @@ public class IMAPAccountImpl implements IMAPAccount, Storeable, Activatable {
             }
             return googleConversationMap.get(threadId);
         }
-        throw new UnsupportedOperationException("Generation of conversation id only supported for gmail for now");
+        activate(ActivationPurpose.WRITE);
+        if(conversationByMessageIdHash == null) {
+            conversationByMessageIdHash = new TLongIntHashMap();
+        }
+        final int conversationId = new ConversationThreader(conversationByMessageIdHash).assignConversation(message, this::nextConversationId);
+        database.commit();
+        return conversationId;
+    }
+
+    private int nextConversationId() {
+        final int id = currentConversationId;
+        currentConversationId += 1;
+        return id;
     }
 
     @Override
@@ -141,7 +210,7 @@ public class IMAPAccountImpl implements IMAPAccount, Storeable, Activatable {
             }
             return googleMessageIdMap.get(messageId);
         }
-        throw new UnsupportedOperationException("Generation of message id only supported for gmail for now");
+        return model.getNextUniqueId();
     }
 
     @Override
@@ -1,9 +1,22 @@
 package com.subgraph.sgmail.internal.imap;
 
 /**
- *
+ * A change made locally which must be written back to the server.  Commands are queued per
+ * folder, and a queued command is replaced by a later command for the same folder with the same
+ * key.
  */
 public interface IMAPCommand {
     String getFolderName();
-}
 
+    /**
+     * Returns a value which identifies what this command changes within its folder, such as one
+     * flag of one message.
+     */
+    long getKey();
+
+    /**
+     * Returns true if performing <code>previous</code> and then this command leaves the server
+     * unchanged, so that neither needs to be sent.
+     */
+    boolean cancels(IMAPCommand previous);
+}
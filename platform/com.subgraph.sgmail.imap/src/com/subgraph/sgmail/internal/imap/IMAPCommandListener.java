@@ -1,5 +1,5 @@
 package com.subgraph.sgmail.internal.imap;
 
 public interface IMAPCommandListener {
-    void commandAdded(LocalIMAPFolderImpl folder, IMAPCommand command);
+    void commandAdded(String folderName, IMAPCommand command);
 }
@@ -1,5 +1,8 @@
 package com.subgraph.sgmail.internal.imap;
 
+import java.util.List;
+import java.util.Set;
+
 public interface IMAPCommandQueue {
     int getPendingCommandCount();
     IMAPCommand peekNextCommand();
@@ -7,4 +10,19 @@ public interface IMAPCommandQueue {
     void queueCommand(IMAPCommand command);
     void addCommandListener(IMAPCommandListener listener);
     void removeCommandListener(IMAPCommandListener listener);
+
+    Set<String> getFolderNamesWithPendingCommands();
+
+    /**
+     * Returns the commands queued for a folder and marks them as being sent.  A command which is
+     * being sent is never cancelled by a later command, since the server may already have
+     * performed it.  Every call must be followed by a call to {@link #completeCommands}.
+     */
+    List<IMAPCommand> takePendingCommands(String folderName);
+
+    /**
+     * Finishes sending commands returned by {@link #takePendingCommands}, removing them from the
+     * queue if they were performed by the server or keeping them to be sent again if not.
+     */
+    void completeCommands(String folderName, List<IMAPCommand> commands, boolean isPerformed);
 }
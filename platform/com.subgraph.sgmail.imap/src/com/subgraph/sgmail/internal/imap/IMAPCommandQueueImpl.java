@@ -2,27 +2,45 @@ package com.subgraph.sgmail.internal.imap;
 
 import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
-import com.db4o.collections.ActivatableLinkedList;
+import com.db4o.collections.ActivatableHashMap;
 import com.db4o.ta.Activatable;
 
 import java.util.*;
-
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Persistent queue of commands waiting to be written back to the server.  Commands are kept in a
+ * map for each folder keyed by {@link IMAPCommand#getKey()}, so queueing a command takes constant
+ * time and the commands for a folder can be collected and sent together.  A command which changes
+ * the same thing as a queued command replaces it, or removes it if the two cancel out.
+ */
 public class IMAPCommandQueueImpl implements IMAPCommandQueue, Activatable {
 
-    private final Queue<IMAPCommand> commandQueue = new ActivatableLinkedList<>();//new ArrayDeque<>();
-    
+    private final Map<String, Map<Long, IMAPCommand>> folderCommands = new ActivatableHashMap<>();
+
+    private transient Set<IMAPCommand> sendingCommands;
+    private transient List<IMAPCommandListener> listeners;
 	private transient Activator activator;
 
     @Override
     public synchronized int getPendingCommandCount() {
         activate(ActivationPurpose.READ);
-        return commandQueue.size();
+        int count = 0;
+        for(Map<Long, IMAPCommand> commands: folderCommands.values()) {
+            count += commands.size();
+        }
+        return count;
     }
 
     @Override
     public synchronized IMAPCommand peekNextCommand() {
         activate(ActivationPurpose.READ);
-        return commandQueue.peek();
+        for(Map<Long, IMAPCommand> commands: folderCommands.values()) {
+            for(IMAPCommand c: commands.values()) {
+                return c;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -31,87 +49,101 @@ public class IMAPCommandQueueImpl implements IMAPCommandQueue, Activatable {
         if(command == null) {
             throw new NullPointerException("argument to removeCommand() must not be null");
         }
-        commandQueue.remove(command);
+        final Map<Long, IMAPCommand> commands = folderCommands.get(command.getFolderName());
+        if(commands == null) {
+            return;
+        }
+        final Long key = command.getKey();
+        if(commands.get(key) == command) {
+            commands.remove(key);
+            removeIfEmpty(command.getFolderName(), commands);
+        }
     }
 
     @Override
-    public void addCommandListener(IMAPCommandListener listener) {
-    	throw new UnsupportedOperationException("Not implemented yet...");
+    public synchronized void addCommandListener(IMAPCommandListener listener) {
+        getListeners().add(listener);
     }
 
     @Override
-    public void removeCommandListener(IMAPCommandListener listener) {
-    	throw new UnsupportedOperationException("Not implemented yet...");
+    public synchronized void removeCommandListener(IMAPCommandListener listener) {
+        getListeners().remove(listener);
     }
 
     @Override
-    public synchronized void queueCommand(IMAPCommand command) {
-        activate(ActivationPurpose.WRITE);
-
-        if(queueContainsFolder(command)) {
-            insertCommandGroupedByFolder(command);
-        } else {
-            commandQueue.add(command);
+    public void queueCommand(IMAPCommand command) {
+        final List<IMAPCommandListener> currentListeners;
+        synchronized (this) {
+            activate(ActivationPurpose.WRITE);
+            final String folderName = command.getFolderName();
+            Map<Long, IMAPCommand> commands = folderCommands.get(folderName);
+            if(commands == null) {
+                commands = new ActivatableHashMap<>();
+                folderCommands.put(folderName, commands);
+            }
+            final Long key = command.getKey();
+            final IMAPCommand previous = commands.get(key);
+            if(previous != null && !getSendingCommands().contains(previous) && command.cancels(previous)) {
+                commands.remove(key);
+                removeIfEmpty(folderName, commands);
+                return;
+            }
+            commands.put(key, command);
+            currentListeners = getListeners();
+        }
+        for(IMAPCommandListener listener: currentListeners) {
+            listener.commandAdded(command.getFolderName(), command);
         }
     }
 
-    private void insertCommandGroupedByFolder(IMAPCommand command) {
-        final List<IMAPCommand> commands = new ArrayList<>(commandQueue);
-        commandQueue.clear();
+    @Override
+    public synchronized Set<String> getFolderNamesWithPendingCommands() {
+        activate(ActivationPurpose.READ);
+        return new HashSet<>(folderCommands.keySet());
+    }
 
-        for(Iterator<IMAPCommand> it = commands.iterator(); it.hasNext();) {
-            IMAPCommand c = it.next();
-            commandQueue.add(c);
-            if(haveSameFolder(c, command)) {
-                appendFromFolderMatch(it, command);
-                return;
-            }
+    @Override
+    public synchronized List<IMAPCommand> takePendingCommands(String folderName) {
+        activate(ActivationPurpose.READ);
+        final Map<Long, IMAPCommand> commands = folderCommands.get(folderName);
+        if(commands == null) {
+            return Collections.emptyList();
         }
-        // Shouldn't happen...
-        commandQueue.add(command);
+        final List<IMAPCommand> result = new ArrayList<>(commands.values());
+        getSendingCommands().addAll(result);
+        return result;
     }
 
-    /**
-     * Append remaining items to Queue after an element with a matching folderName is discovered.
-     *
-     * @param it An iterator positioned at the element following the first element with a matching folder name
-     * @param command The command to be inserted
-     */
-    private void appendFromFolderMatch(Iterator<IMAPCommand> it, IMAPCommand command) {
-        final IMAPCommand next = skipMatchingFolderName(it, command.getFolderName());
-        commandQueue.add(command);
-        if(next != null) {
-            commandQueue.add(next);
-        }
-        while(it.hasNext()) {
-            commandQueue.add(it.next());
+    @Override
+    public synchronized void completeCommands(String folderName, List<IMAPCommand> commands, boolean isPerformed) {
+        getSendingCommands().removeAll(commands);
+        if(isPerformed) {
+            for(IMAPCommand c: commands) {
+                removeCommand(c);
+            }
         }
     }
 
-    private IMAPCommand skipMatchingFolderName(Iterator<IMAPCommand> it, String folderName) {
-        while(it.hasNext()) {
-            IMAPCommand next = it.next();
-            if(!next.getFolderName().equals(folderName)) {
-               return next;
-            }
-            commandQueue.add(next);
+    private void removeIfEmpty(String folderName, Map<Long, IMAPCommand> commands) {
+        if(commands.isEmpty()) {
+            folderCommands.remove(folderName);
         }
-        return null;
     }
 
-    private boolean queueContainsFolder(IMAPCommand command) {
-        for(IMAPCommand c: commandQueue) {
-            if(haveSameFolder(c, command)) {
-                return true;
-            }
+    private Set<IMAPCommand> getSendingCommands() {
+        if(sendingCommands == null) {
+            sendingCommands = Collections.newSetFromMap(new IdentityHashMap<IMAPCommand, Boolean>());
         }
-        return false;
+        return sendingCommands;
     }
 
-    private boolean haveSameFolder(IMAPCommand c1, IMAPCommand c2) {
-        return c1.getFolderName().equals(c2.getFolderName());
+    private List<IMAPCommandListener> getListeners() {
+        if(listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+        }
+        return listeners;
     }
-    
+
 	@Override
 	public void activate(ActivationPurpose activationPurpose) {
 		if(activator != null) {
@@ -4,6 +4,9 @@ import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
 
+/**
+ * Sets or clears one flag of one message.
+ */
 public class IMAPFlagChangedCommand implements IMAPCommand, Activatable {
     private final String folderName;
     private final long messageUID;
@@ -12,7 +15,7 @@ public class IMAPFlagChangedCommand implements IMAPCommand, Activatable {
     
 	private transient Activator activator;
 
-    IMAPFlagChangedCommand(String folderName, long messageUID, int flag, boolean isSet) {
+    public IMAPFlagChangedCommand(String folderName, long messageUID, int flag, boolean isSet) {
         this.folderName = folderName;
         this.messageUID = messageUID;
         this.flag = flag;
@@ -39,6 +42,21 @@ public class IMAPFlagChangedCommand implements IMAPCommand, Activatable {
         activate(ActivationPurpose.READ);
         return folderName;
     }
+
+    @Override
+    public long getKey() {
+        activate(ActivationPurpose.READ);
+        return (messageUID << 5) | Integer.numberOfTrailingZeros(flag);
+    }
+
+    @Override
+    public boolean cancels(IMAPCommand previous) {
+        if(!(previous instanceof IMAPFlagChangedCommand)) {
+            return false;
+        }
+        final IMAPFlagChangedCommand other = (IMAPFlagChangedCommand) previous;
+        return other.getMessageUID() == getMessageUID() && other.getFlag() == getFlag() && other.isSet() != isSet();
+    }
     
 	@Override
 	public void activate(ActivationPurpose activationPurpose) {
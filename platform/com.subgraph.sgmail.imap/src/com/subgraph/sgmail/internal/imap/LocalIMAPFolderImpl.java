@@ -6,20 +6,24 @@ import ca.odell.glazedlists.EventList;
 import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
-import com.google.common.collect.Lists;
 import com.subgraph.sgmail.database.Database;
 import com.subgraph.sgmail.database.Storeable;
 import com.subgraph.sgmail.imap.LocalIMAPFolder;
 import com.subgraph.sgmail.messages.StoredFolder;
 import com.subgraph.sgmail.messages.StoredMessage;
 
+import gnu.trove.list.TIntList;
 import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.TLongSet;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.logging.Logger;
 
 public class LocalIMAPFolderImpl implements LocalIMAPFolder, Storeable, Activatable {
+  private final static Logger logger = Logger.getLogger(LocalIMAPFolderImpl.class.getName());
 
   private final IMAPAccountImpl account;
   private final StoredFolder storageFolder;
@@ -28,6 +32,7 @@ public class LocalIMAPFolderImpl implements LocalIMAPFolder, Storeable, Activata
   private long highestModSeq;
   private TLongArrayList uidMap = new TLongArrayList();
 
+  private transient MessageUIDIndex uidIndex;
   private transient Database database;
   private transient Activator activator;
 
@@ -82,9 +87,16 @@ public class LocalIMAPFolderImpl implements LocalIMAPFolder, Storeable, Activata
   public void clearFolder() {
     activate(ActivationPurpose.WRITE);
     uidNext = uidValidity = highestModSeq = 0;
-    uidMap.clear();
-    ;
-    storageFolder.clearFolder();
+    final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
+    eventList.getReadWriteLock().writeLock().lock();
+    try {
+      uidMap.clear();
+      database.store(uidMap);
+      storageFolder.clearFolder();
+      uidIndex = null;
+    } finally {
+      eventList.getReadWriteLock().writeLock().unlock();
+    }
   }
 
   @Override
@@ -107,14 +119,78 @@ public class LocalIMAPFolderImpl implements LocalIMAPFolder, Storeable, Activata
     }
   }
 
+  @Override
+  public StoredMessage getMessageByUID(long uid) {
+    final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
+    eventList.getReadWriteLock().readLock().lock();
+    try {
+      return getUIDIndex().get(uid);
+    } finally {
+      eventList.getReadWriteLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public long getUIDForMessage(StoredMessage message) {
+    final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
+    eventList.getReadWriteLock().readLock().lock();
+    try {
+      return getUIDIndex().getUID(message);
+    } finally {
+      eventList.getReadWriteLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean containsUID(long uid) {
+    return getMessageByUID(uid) != null;
+  }
+
+  @Override
+  public TLongList getUIDsInRange(long start, long end) {
+    final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
+    eventList.getReadWriteLock().readLock().lock();
+    try {
+      return getUIDIndex().getUIDsInRange(start, end);
+    } finally {
+      eventList.getReadWriteLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<StoredMessage> getMessagesInRange(long start, long end) {
+    final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
+    eventList.getReadWriteLock().readLock().lock();
+    try {
+      return getUIDIndex().getMessagesInRange(start, end);
+    } finally {
+      eventList.getReadWriteLock().readLock().unlock();
+    }
+  }
+
+  private synchronized MessageUIDIndex getUIDIndex() {
+    activate(ActivationPurpose.READ);
+    if (uidIndex == null) {
+      uidIndex = new MessageUIDIndex(uidMap, storageFolder.getMessageEventList());
+    }
+    return uidIndex;
+  }
+
   @Override
   public void appendMessage(StoredMessage message, long messageUID) {
     activate(ActivationPurpose.WRITE);
     final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
     eventList.getReadWriteLock().writeLock().lock();
     try {
+      final MessageUIDIndex index = getUIDIndex();
+      if (index.contains(messageUID)) {
+        logger.warning("Not adding message with UID " + messageUID + " which is already in folder " + storageFolder.getName());
+        return;
+      }
       storageFolder.addMessage(message);
       uidMap.add(messageUID);
+      index.add(messageUID, message);
+      database.store(uidMap);
       database.commit();
     } finally {
       eventList.getReadWriteLock().writeLock().unlock();
@@ -128,42 +204,58 @@ public class LocalIMAPFolderImpl implements LocalIMAPFolder, Storeable, Activata
     return uidMap.size();
   }
 
+  /**
+   * Removes only the expunged positions from the folder list and the UID map rather than
+   * rebuilding either of them.
+   */
   @Override
-  public void expungeMessagesByUID(Set<Long> uids) {
+  public List<StoredMessage> expungeMessagesByUID(TLongSet uids) {
     activate(ActivationPurpose.WRITE);
     final EventList<StoredMessage> eventList = storageFolder.getMessageEventList();
-    final List<StoredMessage> savedMessages = Lists.newArrayList();
-    final List<StoredMessage> removedMessages = Lists.newArrayList();
-    final TLongList savedUIDMap = new TLongArrayList();
-
     eventList.getReadWriteLock().writeLock().lock();
     try {
-      sortExpungedMessages(uids, eventList, savedUIDMap, savedMessages, removedMessages);
-      uidMap.clear(savedUIDMap.size());
-      uidMap.addAll(savedUIDMap);
-      eventList.clear();
-      eventList.addAll(savedMessages);
-      for (StoredMessage msg : removedMessages) {
-        msg.decrementReferenceCount();
+      final TIntList positions = findExpungedPositions(uids);
+      if (positions.isEmpty()) {
+        return Collections.emptyList();
       }
-      account.getMailAccount().removeDeletedMessages();
+      storageFolder.removeMessagesAt(positions);
+      removeUIDMapPositions(positions);
+      getUIDIndex().removeAll(uids);
+      database.store(uidMap);
+      return account.getMailAccount().removeDeletedMessages();
     } finally {
       eventList.getReadWriteLock().writeLock().unlock();
     }
   }
 
-  private void sortExpungedMessages(Set<Long> expungeUIDs, List<StoredMessage> sourceList, TLongList savedUIDMap,
-      List<StoredMessage> savedMessages, List<StoredMessage> removedMessages) {
-    for (int i = 0; i < sourceList.size(); i++) {
-      final StoredMessage msg = sourceList.get(i);
-      Long uid = uidMap.get(i);
-      if (expungeUIDs.contains(uid)) {
-        removedMessages.add(msg);
+  private TIntList findExpungedPositions(TLongSet uids) {
+    final TIntList positions = new TIntArrayList();
+    if (!containsAny(getUIDIndex(), uids)) {
+      return positions;
+    }
+    for (int i = 0; i < uidMap.size(); i++) {
+      if (uids.contains(uidMap.getQuick(i))) {
+        positions.add(i);
+      }
+    }
+    return positions;
+  }
+
+  private static boolean containsAny(MessageUIDIndex index, TLongSet uids) {
+    return !uids.forEach(uid -> !index.contains(uid));
+  }
+
+  private void removeUIDMapPositions(TIntList positions) {
+    int out = 0;
+    int next = 0;
+    for (int i = 0; i < uidMap.size(); i++) {
+      if (next < positions.size() && positions.get(next) == i) {
+        next++;
       } else {
-        savedMessages.add(msg);
-        savedUIDMap.add(uid);
+        uidMap.setQuick(out++, uidMap.getQuick(i));
       }
     }
+    uidMap.remove(out, uidMap.size() - out);
   }
 
   @Override
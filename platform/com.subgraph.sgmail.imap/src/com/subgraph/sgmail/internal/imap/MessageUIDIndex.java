@@ -0,0 +1,125 @@
+package com.subgraph.sgmail.internal.imap;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.subgraph.sgmail.messages.StoredMessage;
+
+/**
+ * In memory index from IMAP UID to stored message for a single folder.  Lookup by UID uses a
+ * primitive hash map, as is lookup of the UID of a message, and UID range queries use binary search over a sorted array of UIDs.  The
+ * index is never stored in the database but rebuilt from the persisted UID map when a folder is
+ * first used.
+ */
+class MessageUIDIndex {
+
+  private final TLongObjectHashMap<StoredMessage> messagesByUID;
+  private final TIntLongHashMap uidsByMessageId;
+  private final TLongArrayList sortedUIDs;
+
+  MessageUIDIndex(TLongList uids, List<StoredMessage> messages) {
+    if (uids.size() != messages.size()) {
+      throw new IllegalArgumentException("UID map has " + uids.size() + " entries but folder contains "
+          + messages.size() + " messages");
+    }
+    messagesByUID = new TLongObjectHashMap<>(Math.max(16, uids.size() * 2));
+    uidsByMessageId = new TIntLongHashMap(Math.max(16, uids.size() * 2), 0.5f, 0, -1);
+    sortedUIDs = new TLongArrayList(uids);
+    sortedUIDs.sort();
+    for (int i = 0; i < uids.size(); i++) {
+      messagesByUID.put(uids.get(i), messages.get(i));
+      uidsByMessageId.put(messages.get(i).getMessageId(), uids.get(i));
+    }
+  }
+
+  int size() {
+    return sortedUIDs.size();
+  }
+
+  boolean contains(long uid) {
+    return messagesByUID.containsKey(uid);
+  }
+
+  StoredMessage get(long uid) {
+    return messagesByUID.get(uid);
+  }
+
+  /**
+   * Returns the UID of <code>message</code> in this folder, or -1 if the folder does not contain it.
+   */
+  long getUID(StoredMessage message) {
+    return uidsByMessageId.get(message.getMessageId());
+  }
+
+  void add(long uid, StoredMessage message) {
+    messagesByUID.put(uid, message);
+    uidsByMessageId.put(message.getMessageId(), uid);
+    final int n = sortedUIDs.size();
+    if (n == 0 || sortedUIDs.get(n - 1) < uid) {
+      sortedUIDs.add(uid);
+    } else {
+      sortedUIDs.insert(lowerBound(uid), uid);
+    }
+  }
+
+  /**
+   * Returns the UIDs which fall in the range from <code>start</code> to <code>end</code> inclusive, in ascending order.
+   * An <code>end</code> value of -1 means no upper limit.
+   */
+  TLongList getUIDsInRange(long start, long end) {
+    final int from = lowerBound(start);
+    final int to = (end == -1) ? sortedUIDs.size() : lowerBound(end + 1);
+    if (from >= to) {
+      return new TLongArrayList(0);
+    }
+    return sortedUIDs.subList(from, to);
+  }
+
+  List<StoredMessage> getMessagesInRange(long start, long end) {
+    final TLongList uids = getUIDsInRange(start, end);
+    final List<StoredMessage> result = new ArrayList<>(uids.size());
+    for (int i = 0; i < uids.size(); i++) {
+      result.add(messagesByUID.get(uids.get(i)));
+    }
+    return result;
+  }
+
+  /**
+   * Remove every UID in <code>uids</code> from the index with a single pass over the sorted array.
+   */
+  void removeAll(TLongSet uids) {
+    int out = 0;
+    for (int i = 0; i < sortedUIDs.size(); i++) {
+      final long uid = sortedUIDs.getQuick(i);
+      if (uids.contains(uid)) {
+        final StoredMessage message = messagesByUID.remove(uid);
+        if (message != null && uidsByMessageId.get(message.getMessageId()) == uid) {
+          uidsByMessageId.remove(message.getMessageId());
+        }
+      } else {
+        sortedUIDs.setQuick(out++, uid);
+      }
+    }
+    sortedUIDs.remove(out, sortedUIDs.size() - out);
+  }
+
+  private int lowerBound(long uid) {
+    int lo = 0;
+    int hi = sortedUIDs.size();
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (sortedUIDs.getQuick(mid) < uid) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -7,6 +7,7 @@ import java.util.logging.Logger;
 
 import javax.mail.MessagingException;
 
+import com.subgraph.sgmail.ExecutorRegistry;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.database.Preferences;
@@ -20,14 +21,18 @@ public class AccountSynchronizer {
   private final Logger logger = Logger.getLogger(AccountSynchronizer.class
       .getName());
 
+  private final static int DEFAULT_MAX_CONNECTIONS = 4;
+
   private final MessageFactory basicMessageFactory;
   private final Model model;
   private final JavamailUtils javamailUtils;
   private final NymsAgent nymsAgent;
   private final MessageSearchIndex searchIndex;
   private final ExecutorService executor;
+  private final ExecutorService processingExecutor;
   private final IMAPAccount account;
   private final Preferences rootPreferences;
+  private final ServerConnectionLimiter connectionLimiter;
   private boolean isTorEnabled;
 
   private IMAPStore remoteStore;
@@ -36,10 +41,12 @@ public class AccountSynchronizer {
   private SynchronizeTask runningTask;
 
   public AccountSynchronizer(Preferences rootPreferences,
-      ExecutorService executor, MessageFactory basicMessageFactory,
+      ExecutorRegistry executorRegistry, MessageFactory basicMessageFactory,
       Model model, JavamailUtils javamailUtils, NymsAgent nymsAgent,
-      MessageSearchIndex searchIndex, IMAPAccount account) {
-    this.executor = executor;
+      MessageSearchIndex searchIndex, IMAPAccount account,
+      ServerConnectionLimiter connectionLimiter) {
+    this.executor = executorRegistry.getExecutor(ExecutorRegistry.Workload.SYNC);
+    this.processingExecutor = executorRegistry.getExecutor(ExecutorRegistry.Workload.CRYPTO);
     this.basicMessageFactory = basicMessageFactory;
     this.model = model;
     this.javamailUtils = javamailUtils;
@@ -47,6 +54,7 @@ public class AccountSynchronizer {
     this.searchIndex = searchIndex;
     this.account = account;
     this.rootPreferences = rootPreferences;
+    this.connectionLimiter = connectionLimiter;
     this.isTorEnabled = rootPreferences.getBoolean(Preferences.TOR_ENABLED);
     this.remoteStore = account.getRemoteStore(
         javamailUtils.getSessionInstance(), isTorEnabled);
@@ -81,18 +89,26 @@ public class AccountSynchronizer {
           isTorEnabled);
     }
 
+    final boolean preferOnionAddress = isTorEnabled;
     runningTask = new SynchronizeTask(basicMessageFactory, model,
-        javamailUtils, nymsAgent, searchIndex, remoteStore, account);
+        javamailUtils, nymsAgent, searchIndex, remoteStore, account, executor,
+        processingExecutor, () -> createAdditionalStore(preferOnionAddress), connectionLimiter,
+        getMaxConnections());
     executor.execute(runningTask);
 
     isRunning = true;
   }
 
-  /*
-   * public void updateFlags(StoredIMAPMessage message, Flag flag, boolean
-   * isSet) { final UpdateFlagsTask task = new UpdateFlagsTask(remoteStore,
-   * message, flag, isSet); model.getExecutor().execute(task); }
-   */
+  private IMAPStore createAdditionalStore(boolean preferOnionAddress) {
+    return (IMAPStore) account.getIMAPServerDetails().createRemoteStore(
+        javamailUtils.getSessionInstance(), preferOnionAddress);
+  }
+
+  private int getMaxConnections() {
+    final int value = rootPreferences
+        .getInteger(Preferences.IMAP_MAX_CONNECTIONS);
+    return (value > 0) ? value : DEFAULT_MAX_CONNECTIONS;
+  }
 
   IMAPStore getRemoteStore() {
     return remoteStore;
@@ -1,22 +1,103 @@
 package com.subgraph.sgmail.internal.imap.sync;
 
-import com.subgraph.sgmail.imap.LocalIMAPFolder;
-import com.subgraph.sgmail.internal.imap.LocalIMAPFolderImpl;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.mail.MessagingException;
+
+import com.subgraph.sgmail.internal.imap.FlagUtils;
+import com.subgraph.sgmail.internal.imap.IMAPCommand;
+import com.subgraph.sgmail.internal.imap.IMAPCommandQueue;
+import com.subgraph.sgmail.internal.imap.IMAPFlagChangedCommand;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
 import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.UIDSet;
 
-public class ClientToServerSynchronize implements Runnable {
+/**
+ * Writes the changes queued for a folder back to the server.  Flag changes are grouped by flag and
+ * by whether the flag is set or cleared, and each group is sent as a single
+ * <code>UID STORE</code> command over a UID set, so that any number of changes costs at most two
+ * commands for each flag.  If sending fails the changes stay queued and are sent again the next
+ * time the folder is synchronized, which is usually after reconnecting.
+ */
+class ClientToServerSynchronize {
 
-	private final LocalIMAPFolder localFolder;
+	private final IMAPCommandQueue commandQueue;
 	private final IMAPFolder remoteFolder;
 	
-	ClientToServerSynchronize(LocalIMAPFolder localFolder, IMAPFolder remoteFolder) {
-		this.localFolder = localFolder;
+	ClientToServerSynchronize(IMAPCommandQueue commandQueue, IMAPFolder remoteFolder) {
+		this.commandQueue = commandQueue;
 		this.remoteFolder = remoteFolder;
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Sends the queued changes for the folder, which must be open for writing.
+	 */
+	void synchronize() throws MessagingException {
+		final String folderName = remoteFolder.getFullName();
+		final List<IMAPCommand> commands = commandQueue.takePendingCommands(folderName);
+		if(commands.isEmpty()) {
+			return;
+		}
+		boolean isPerformed = false;
+		try {
+			final List<String> storeCommands = createStoreCommands(commands);
+			remoteFolder.doCommand(p -> {
+				for(String command: storeCommands) {
+					runCommand(p, command);
+				}
+				return null;
+			});
+			isPerformed = true;
+		} finally {
+			commandQueue.completeCommands(folderName, commands, isPerformed);
+		}
+	}
 
+	private static void runCommand(IMAPProtocol protocol, String command) throws ProtocolException {
+		final Response[] responses = protocol.command(command, null);
+		protocol.notifyResponseHandlers(responses);
+		protocol.handleResult(responses[responses.length - 1]);
 	}
 
+	/**
+	 * Returns the <code>UID STORE</code> commands which perform the flag changes among
+	 * <code>commands</code>.  The <code>.SILENT</code> form is used since the local flags
+	 * already have the new values.
+	 */
+	static List<String> createStoreCommands(List<IMAPCommand> commands) {
+		final Map<String, TLongList> uidsByItem = new TreeMap<>();
+		for(IMAPCommand c: commands) {
+			if(!(c instanceof IMAPFlagChangedCommand)) {
+				continue;
+			}
+			final IMAPFlagChangedCommand flagCommand = (IMAPFlagChangedCommand) c;
+			final String flagName = FlagUtils.getSystemFlagName(flagCommand.getFlag());
+			if(flagName == null) {
+				continue;
+			}
+			final String item = (flagCommand.isSet() ? "+" : "-") + "FLAGS.SILENT (" + flagName + ")";
+			TLongList uids = uidsByItem.get(item);
+			if(uids == null) {
+				uids = new TLongArrayList();
+				uidsByItem.put(item, uids);
+			}
+			uids.add(flagCommand.getMessageUID());
+		}
+		final List<String> storeCommands = new ArrayList<>(uidsByItem.size());
+		for(Map.Entry<String, TLongList> entry: uidsByItem.entrySet()) {
+			final long[] uids = entry.getValue().toArray();
+			Arrays.sort(uids);
+			storeCommands.add("UID STORE " + UIDSet.toString(UIDSet.createUIDSets(uids)) + " " + entry.getKey());
+		}
+		return storeCommands;
+	}
 }
@@ -0,0 +1,231 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+
+import com.google.common.collect.ImmutableList;
+import com.subgraph.sgmail.imap.IMAPAccount;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+
+/**
+ * Synchronizes the folders of one account over a bounded set of IMAP connections.  The connection
+ * the account already holds is always used, and further connections are opened only as far as the
+ * {@link ServerConnectionLimiter} allows.  Each connection drains a shared queue of folder names
+ * in which INBOX and "[Gmail]/All Mail" are ordered first.
+ */
+class FolderSyncScheduler {
+  private final static Logger logger = Logger.getLogger(FolderSyncScheduler.class.getName());
+
+  private final static List<String> PRIORITY_FOLDERS = ImmutableList.of("INBOX", "[Gmail]/All Mail");
+
+  interface FolderSynchronizer {
+    void synchronizeFolder(IMAPFolder remoteFolder) throws MessagingException;
+  }
+
+  private final IMAPAccount account;
+  private final ExecutorService executor;
+  private final Supplier<IMAPStore> storeFactory;
+  private final ServerConnectionLimiter connectionLimiter;
+  private final int maxConnections;
+  private final AtomicBoolean stopFlag;
+  private final List<IMAPStore> openStores = new ArrayList<>();
+
+  FolderSyncScheduler(IMAPAccount account, ExecutorService executor, Supplier<IMAPStore> storeFactory,
+      ServerConnectionLimiter connectionLimiter, int maxConnections, AtomicBoolean stopFlag) {
+    this.account = account;
+    this.executor = executor;
+    this.storeFactory = storeFactory;
+    this.connectionLimiter = connectionLimiter;
+    this.maxConnections = Math.max(1, maxConnections);
+    this.stopFlag = stopFlag;
+  }
+
+  void synchronizeFolders(IMAPStore primaryStore, List<IMAPFolder> folders, FolderSynchronizer synchronizer) {
+    final long startTime = System.nanoTime();
+    final FolderSyncStatistics statistics = new FolderSyncStatistics(account.getMailAccount().getEmailAddress());
+    final BlockingQueue<String> pendingFolders = new LinkedBlockingQueue<>(getPrioritizedFolderNames(folders));
+    final String hostname = account.getIMAPServerDetails().getHostname();
+    final int extraConnections = connectionLimiter.tryAcquire(hostname, maxConnections,
+        Math.min(maxConnections, pendingFolders.size()) - 1);
+
+    final List<SecondaryWorker> workers = new ArrayList<>();
+    for(int i = 0; i < extraConnections; i++) {
+      final SecondaryWorker worker = new SecondaryWorker(hostname, pendingFolders, synchronizer, statistics);
+      worker.future = executor.submit(worker);
+      workers.add(worker);
+    }
+    runWorker(primaryStore, pendingFolders, synchronizer, statistics);
+    waitForWorkers(workers);
+
+    statistics.logSummary(System.nanoTime() - startTime, extraConnections + 1);
+  }
+
+  void stop() {
+    final List<IMAPStore> stores;
+    synchronized (openStores) {
+      stores = new ArrayList<>(openStores);
+    }
+    for(IMAPStore store: stores) {
+      closeStore(store);
+    }
+  }
+
+  private List<String> getPrioritizedFolderNames(List<IMAPFolder> folders) {
+    final List<String> names = new ArrayList<>();
+    for(String priorityName: PRIORITY_FOLDERS) {
+      for(IMAPFolder f: folders) {
+        if(f.getFullName().equals(priorityName)) {
+          names.add(priorityName);
+        }
+      }
+    }
+    for(IMAPFolder f: folders) {
+      if(!names.contains(f.getFullName())) {
+        names.add(f.getFullName());
+      }
+    }
+    return names;
+  }
+
+  /**
+   * A worker which opens an additional connection.  The sync pool is shared and bounded, so a
+   * worker may still be queued when the primary connection has synchronized every folder.  Such a
+   * worker is claimed by the waiting thread and never runs, rather than being waited for.
+   */
+  private class SecondaryWorker implements Runnable {
+    private final String hostname;
+    private final BlockingQueue<String> pendingFolders;
+    private final FolderSynchronizer synchronizer;
+    private final FolderSyncStatistics statistics;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private Future<?> future;
+
+    SecondaryWorker(String hostname, BlockingQueue<String> pendingFolders, FolderSynchronizer synchronizer, FolderSyncStatistics statistics) {
+      this.hostname = hostname;
+      this.pendingFolders = pendingFolders;
+      this.synchronizer = synchronizer;
+      this.statistics = statistics;
+    }
+
+    @Override
+    public void run() {
+      if(claimed.compareAndSet(false, true)) {
+        runSecondaryWorker(hostname, pendingFolders, synchronizer, statistics);
+      }
+    }
+
+    /** Returns true if the worker had not started, in which case it will never run. */
+    boolean cancelIfNotStarted() {
+      if(!claimed.compareAndSet(false, true)) {
+        return false;
+      }
+      future.cancel(false);
+      connectionLimiter.release(hostname, 1);
+      return true;
+    }
+  }
+
+  private void runSecondaryWorker(String hostname, BlockingQueue<String> pendingFolders, FolderSynchronizer synchronizer, FolderSyncStatistics statistics) {
+    IMAPStore store = null;
+    try {
+      store = openSecondaryStore();
+      if(store != null) {
+        runWorker(store, pendingFolders, synchronizer, statistics);
+      }
+    } finally {
+      if(store != null) {
+        closeStore(store);
+      }
+      connectionLimiter.release(hostname, 1);
+    }
+  }
+
+  private IMAPStore openSecondaryStore() {
+    if(stopFlag.get()) {
+      return null;
+    }
+    final IMAPStore store = storeFactory.get();
+    if(store == null) {
+      return null;
+    }
+    synchronized (openStores) {
+      openStores.add(store);
+    }
+    try {
+      store.connect();
+      return store;
+    } catch (MessagingException e) {
+      logger.warning("Could not open additional connection for folder synchronization: "+ e.getMessage());
+      closeStore(store);
+      return null;
+    }
+  }
+
+  private void runWorker(IMAPStore store, BlockingQueue<String> pendingFolders, FolderSynchronizer synchronizer, FolderSyncStatistics statistics) {
+    String folderName;
+    while(!stopFlag.get() && (folderName = pendingFolders.poll()) != null) {
+      if(!synchronizeFolder(store, folderName, synchronizer, statistics) && !store.isConnected()) {
+        logger.warning("Connection lost while synchronizing "+ folderName +", stopping worker");
+        return;
+      }
+    }
+  }
+
+  private boolean synchronizeFolder(IMAPStore store, String folderName, FolderSynchronizer synchronizer, FolderSyncStatistics statistics) {
+    final int countBefore = account.getFolderByName(folderName).getMessageCount();
+    final long start = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      synchronizer.synchronizeFolder((IMAPFolder) store.getFolder(folderName));
+      succeeded = true;
+    } catch (MessagingException e) {
+      if(!stopFlag.get()) {
+        logger.warning("Error synchronizing folder "+ folderName +": "+ e.getMessage());
+      }
+    }
+    final int countAfter = account.getFolderByName(folderName).getMessageCount();
+    statistics.recordFolder(folderName, System.nanoTime() - start, Math.max(0, countAfter - countBefore), succeeded);
+    return succeeded;
+  }
+
+  private void waitForWorkers(List<SecondaryWorker> workers) {
+    for(SecondaryWorker worker: workers) {
+      if(worker.cancelIfNotStarted()) {
+        continue;
+      }
+      try {
+        worker.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        logger.log(Level.WARNING, "Folder synchronization worker failed: "+ e.getCause(), e.getCause());
+      }
+    }
+  }
+
+  private void closeStore(IMAPStore store) {
+    synchronized (openStores) {
+      openStores.remove(store);
+    }
+    try {
+      if(store.isConnected()) {
+        store.close();
+      }
+    } catch (MessagingException e) {
+      logger.warning("Error closing folder synchronization connection: "+ e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Per-folder wall clock timings collected during one pass of the folder synchronization scheduler,
+ * which are logged as each folder finishes and summarized at the end of the pass.
+ */
+class FolderSyncStatistics {
+  private final static Logger logger = Logger.getLogger(FolderSyncStatistics.class.getName());
+
+  private final String accountName;
+  private final Map<String, Long> folderMillis = new LinkedHashMap<>();
+
+  FolderSyncStatistics(String accountName) {
+    this.accountName = accountName;
+  }
+
+  void recordFolder(String folderName, long elapsedNanos, int newMessageCount, boolean succeeded) {
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    synchronized (folderMillis) {
+      folderMillis.put(folderName, elapsedMillis);
+    }
+    logger.info("Synchronized folder "+ folderName + " for "+ accountName +" in "+ elapsedMillis +
+        " ms ("+ newMessageCount + " new messages"+ (succeeded ? "" : ", failed") + ")");
+  }
+
+  void logSummary(long wallClockNanos, int connectionCount) {
+    long totalFolderMillis = 0;
+    int folderCount;
+    synchronized (folderMillis) {
+      folderCount = folderMillis.size();
+      for(long millis: folderMillis.values()) {
+        totalFolderMillis += millis;
+      }
+    }
+    logger.info("Synchronized "+ folderCount +" folders for "+ accountName +" over "+ connectionCount +
+        " connections in "+ TimeUnit.NANOSECONDS.toMillis(wallClockNanos) +" ms (sum of folder times "+ totalFolderMillis +" ms)");
+  }
+}
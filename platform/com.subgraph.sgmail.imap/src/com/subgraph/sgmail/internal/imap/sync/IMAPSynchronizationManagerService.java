@@ -4,13 +4,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.google.common.eventbus.Subscribe;
-import com.google.common.util.concurrent.ListeningExecutorService;
+import com.subgraph.sgmail.ExecutorRegistry;
 import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.database.Preferences;
 import com.subgraph.sgmail.events.AccountAddedEvent;
 import com.subgraph.sgmail.events.DatabaseOpenedEvent;
+import com.subgraph.sgmail.events.MessageFlagChangedEvent;
 import com.subgraph.sgmail.imap.IMAPAccount;
 import com.subgraph.sgmail.imap.IMAPAccountList;
 import com.subgraph.sgmail.imap.IMAPSynchronizationManager;
@@ -21,9 +22,10 @@ import com.subgraph.sgmail.search.MessageSearchIndex;
 public class IMAPSynchronizationManagerService implements IMAPSynchronizationManager {
 
   private final Map<IMAPAccount, AccountSynchronizer> synchronizers = new HashMap<>();
+  private final ServerConnectionLimiter connectionLimiter = new ServerConnectionLimiter();
   private MessageSearchIndex messageSearchIndex;
   private IEventBus eventBus;
-  private ListeningExecutorService executorService;
+  private ExecutorRegistry executorRegistry;
   private Model model;
   private JavamailUtils javamailUtils;
   private NymsAgent nymsAgent;
@@ -43,8 +45,8 @@ public class IMAPSynchronizationManagerService implements IMAPSynchronizationMan
     this.messageSearchIndex = searchIndex;
   }
 
-  public void setExecutor(ListeningExecutorService executorService) {
-    this.executorService = executorService;
+  public void setExecutorRegistry(ExecutorRegistry executorRegistry) {
+    this.executorRegistry = executorRegistry;
   }
 
   public void setModel(Model model) {
@@ -72,6 +74,24 @@ public class IMAPSynchronizationManagerService implements IMAPSynchronizationMan
     refreshSyncronizers();
   }
 
+  /**
+   * Queues a flag changed by the user to be written back to the server by the account which
+   * contains the message.  The queue is stored in the database, so changes made while offline are
+   * sent once the account is next synchronized.
+   */
+  @Subscribe
+  public void onMessageFlagChanged(MessageFlagChangedEvent event) {
+    final IMAPAccountList imapAccountList = model.getDatabase().getSingleton(IMAPAccountList.class);
+    if(imapAccountList == null) {
+      return;
+    }
+    for (IMAPAccount account : imapAccountList.getAccounts()) {
+      if (account.queueFlagChange(event.getMessage(), event.getFlag(), event.isSet())) {
+        return;
+      }
+    }
+  }
+
   private void refreshSyncronizers() {
     final IMAPAccountList imapAccountList = model.getDatabase().getSingleton(IMAPAccountList.class);
     if(imapAccountList == null) {
@@ -88,22 +108,10 @@ public class IMAPSynchronizationManagerService implements IMAPSynchronizationMan
 
   private AccountSynchronizer createSynchronizer(IMAPAccount account) {
     final Preferences prefs = model.getRootPreferences();
-    return new AccountSynchronizer(prefs, executorService, messageFactory, model, javamailUtils, nymsAgent,
-        messageSearchIndex, account);
+    return new AccountSynchronizer(prefs, executorRegistry, messageFactory, model, javamailUtils, nymsAgent,
+        messageSearchIndex, account, connectionLimiter);
   }
 
-  /*
-  	public void updateFlag(IMAPAccount account, StoredIMAPMessage message, Flag flag, boolean isSet) {
-  		synchronized(synchronizers) {
-  			if(synchronizers.containsKey(account)) {
-  				synchronizers.get(account).updateFlags(message, flag, isSet);
-  			} else {
-  				throw new IllegalStateException("No entry found in synchronization manager for account");
-  			}
-  		}
-  	}
-  	*/
-
   @Override
   public synchronized void start() {
     if (isRunning) {
@@ -0,0 +1,68 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import javax.mail.MessagingException;
+
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODY;
+import com.sun.mail.imap.protocol.FetchResponse;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.UID;
+import com.sun.mail.imap.protocol.UIDSet;
+
+/**
+ * Downloads complete RFC822 message bodies for a set of UIDs with a single
+ * <code>UID FETCH (UID BODY.PEEK[])</code> command.  The bodies are returned
+ * directly rather than loaded into the folder's cached <code>IMAPMessage</code>
+ * objects so that they can be released as soon as they have been stored.
+ */
+class MessageBodyFetcher {
+
+  private final IMAPFolder remoteFolder;
+
+  MessageBodyFetcher(IMAPFolder remoteFolder) {
+    this.remoteFolder = remoteFolder;
+  }
+
+  TLongObjectMap<byte[]> fetchBodies(final long[] uids) throws MessagingException {
+    final TLongObjectMap<byte[]> bodies = new TLongObjectHashMap<>(uids.length);
+    if(uids.length == 0) {
+      return bodies;
+    }
+    remoteFolder.doCommand(p -> {
+      fetchBodies(p, uids, bodies);
+      return null;
+    });
+    return bodies;
+  }
+
+  private void fetchBodies(IMAPProtocol protocol, long[] uids, TLongObjectMap<byte[]> bodies) throws ProtocolException {
+    final String uidSet = UIDSet.toString(UIDSet.createUIDSets(uids));
+    final Response[] responses = protocol.command("UID FETCH " + uidSet + " (UID BODY.PEEK[])", null);
+    for(int i = 0; i < responses.length; i++) {
+      if(responses[i] instanceof FetchResponse && extractBody((FetchResponse) responses[i], bodies)) {
+        responses[i] = null;
+      }
+    }
+    protocol.notifyResponseHandlers(responses);
+    protocol.handleResult(responses[responses.length - 1]);
+  }
+
+  private boolean extractBody(FetchResponse response, TLongObjectMap<byte[]> bodies) {
+    final UID uid = response.getItem(UID.class);
+    final BODY body = response.getItem(BODY.class);
+    if(uid == null || body == null || body.getByteArray() == null) {
+      return false;
+    }
+    final ByteArray data = body.getByteArray();
+    final byte[] bytes = new byte[data.getCount()];
+    System.arraycopy(data.getBytes(), data.getStart(), bytes, 0, data.getCount());
+    bodies.put(uid.uid, bytes);
+    return true;
+  }
+}
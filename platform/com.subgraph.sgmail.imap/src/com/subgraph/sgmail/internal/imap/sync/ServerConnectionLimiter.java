@@ -0,0 +1,49 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks how many IMAP connections the synchronization engine currently holds open to each server so that
+ * accounts sharing a server together stay below a configured connection cap.
+ */
+class ServerConnectionLimiter {
+
+  private final Map<String, Integer> connectionCounts = new HashMap<>();
+
+  /**
+   * Registers the primary connection of an account.  The primary connection is always granted since
+   * an account cannot synchronize at all without it.
+   */
+  synchronized void acquirePrimary(String hostname) {
+    connectionCounts.put(hostname, getCount(hostname) + 1);
+  }
+
+  /**
+   * Attempts to reserve up to <code>requested</code> additional connections to <code>hostname</code>.
+   *
+   * @return the number of connections actually reserved, which may be zero.
+   */
+  synchronized int tryAcquire(String hostname, int connectionCap, int requested) {
+    final int available = connectionCap - getCount(hostname);
+    final int granted = Math.max(0, Math.min(requested, available));
+    if(granted > 0) {
+      connectionCounts.put(hostname, getCount(hostname) + granted);
+    }
+    return granted;
+  }
+
+  synchronized void release(String hostname, int count) {
+    final int remaining = getCount(hostname) - count;
+    if(remaining <= 0) {
+      connectionCounts.remove(hostname);
+    } else {
+      connectionCounts.put(hostname, remaining);
+    }
+  }
+
+  private int getCount(String hostname) {
+    final Integer count = connectionCounts.get(hostname);
+    return (count == null) ? 0 : count;
+  }
+}
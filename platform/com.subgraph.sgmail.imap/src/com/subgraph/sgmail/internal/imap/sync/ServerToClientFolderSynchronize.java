@@ -1,27 +1,35 @@
 package com.subgraph.sgmail.internal.imap.sync;
 
-import gnu.trove.iterator.TLongIterator;
 import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.mail.FetchProfile;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.UIDFolder;
+import javax.mail.event.MailEvent;
+import javax.mail.event.MessageChangedEvent;
 import javax.mail.event.MessageCountEvent;
 import javax.mail.event.MessageCountListener;
 
 import com.subgraph.sgmail.JavamailUtils;
+import com.subgraph.sgmail.database.Database;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.imap.IMAPAccount;
 import com.subgraph.sgmail.imap.LocalIMAPFolder;
@@ -35,12 +43,18 @@ import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPFolder.FetchProfileItem;
 import com.sun.mail.imap.IMAPMessage;
 import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.MessageVanishedEvent;
 import com.sun.mail.imap.ModifiedSinceTerm;
 
 public class ServerToClientFolderSynchronize {
   private final static Logger logger = Logger
       .getLogger(ServerToClientFolderSynchronize.class.getName());
 
+  private final static int BODY_FETCH_BATCH_COUNT = 50;
+  private final static long BODY_FETCH_BATCH_BYTES = 8 * 1024 * 1024;
+  private final static int MAX_BODY_BATCHES_IN_FLIGHT = 2;
+  private final static int STORE_WAIT_SECONDS = 120;
+
   private final MessageSearchIndex messageSearchIndex;
   private final IMAPAccount account;
   private final IMAPFolder remoteFolder;
@@ -49,12 +63,15 @@ public class ServerToClientFolderSynchronize {
   private final StoredIMAPMessageFactory imapMessageFactory;
   private final JavamailUtils javamailUtils;
   private final NymsAgent nymsAgent;
+  private final MessageBodyFetcher bodyFetcher;
+  private final Database database;
+  private final ExecutorService processingExecutor;
 
   public ServerToClientFolderSynchronize(MessageFactory basicMessageFactory,
       Model model, JavamailUtils javamailUtils, NymsAgent nymsAgent,
       MessageSearchIndex messageSearchIndex, IMAPAccount account,
       IMAPFolder remoteFolder, LocalIMAPFolder localFolder,
-      AtomicBoolean stopFlag) {
+      ExecutorService processingExecutor, AtomicBoolean stopFlag) {
     this.nymsAgent = nymsAgent;
     this.javamailUtils = javamailUtils;
     this.messageSearchIndex = messageSearchIndex;
@@ -64,15 +81,97 @@ public class ServerToClientFolderSynchronize {
     this.stopFlag = stopFlag;
     this.imapMessageFactory = new StoredIMAPMessageFactory(model,
         javamailUtils, basicMessageFactory);
+    this.bodyFetcher = new MessageBodyFetcher(remoteFolder);
+    this.database = model.getDatabase();
+    this.processingExecutor = processingExecutor;
   }
 
   public void synchronize() {
+    database.beginBatch();
     try {
       processUidValidity(remoteFolder.getUIDValidity());
       runSynchronize();
     } catch (MessagingException e) {
       logger.warning("Error occurred while synchronizing folder " + e);
+    } finally {
+      database.endBatch();
+    }
+  }
+
+  /**
+   * Synchronize a folder which was opened with QRESYNC.  The expunges and flag
+   * changes since the last synchronization were reported by the server as
+   * VANISHED (EARLIER) and FETCH responses while opening the folder, so only
+   * messages with UIDs above the previous UIDNEXT need to be requested.  If the
+   * message counts do not agree after applying the events the full UID mapping
+   * is loaded as usual.
+   *
+   * @param resyncEvents the events returned by IMAPFolder.open(int, ResyncData)
+   */
+  public void synchronizeWithQresync(List<MailEvent> resyncEvents) {
+    database.beginBatch();
+    try {
+      if (localFolder.getUIDValidity() != remoteFolder.getUIDValidity()) {
+        processUidValidity(remoteFolder.getUIDValidity());
+        runSynchronize();
+      } else {
+        runQresyncSynchronize(resyncEvents);
+      }
+    } catch (MessagingException e) {
+      logger.warning("Error occurred while synchronizing folder " + e);
+    } finally {
+      database.endBatch();
+    }
+  }
+
+  private void runQresyncSynchronize(List<MailEvent> resyncEvents)
+      throws MessagingException {
+    final TLongSet vanished = new TLongHashSet();
+    int changedCount = 0;
+    for (MailEvent event : resyncEvents) {
+      if (stopFlag.get()) {
+        return;
+      }
+      if (event instanceof MessageVanishedEvent) {
+        vanished.addAll(((MessageVanishedEvent) event).getUIDs());
+      } else if (event instanceof MessageChangedEvent) {
+        synchronizeMessageFlags(((MessageChangedEvent) event).getMessage());
+        changedCount += 1;
+      }
+    }
+    if (!vanished.isEmpty()) {
+      expungeLocalMessages(vanished);
+    }
+
+    final long rUidNext = remoteFolder.getUIDNext();
+    final long lUidNext = localFolder.getUIDNext();
+    if (rUidNext > lUidNext) {
+      appendMessagesToLocal(getMessagesNotStored(remoteFolder.getMessagesByUID(lUidNext, UIDFolder.LASTUID)));
+    }
+    if (remoteFolder.getMessageCount() != localFolder.getMessageCount()) {
+      logger.warning("Message count differs after QRESYNC of " + remoteFolder.getFullName()
+          + ", loading full UID mapping");
+      loadFullUIDMapping();
+    }
+    logger.fine("QRESYNC of " + remoteFolder.getFullName() + ": " + vanished.size() + " vanished, "
+        + changedCount + " changed");
+    localFolder.setHighestModSeq(remoteFolder.getHighestModSeq());
+    localFolder.setUIDNext(rUidNext);
+    localFolder.commit();
+  }
+
+  private Message[] getMessagesNotStored(Message[] messages)
+      throws MessagingException {
+    final FetchProfile fp = new FetchProfile();
+    fp.add(UIDFolder.FetchProfileItem.UID);
+    remoteFolder.fetch(messages, fp);
+    final List<Message> result = new ArrayList<>(messages.length);
+    for (Message m : messages) {
+      if (!localFolder.containsUID(remoteFolder.getUID(m))) {
+        result.add(m);
+      }
     }
+    return result.toArray(new Message[result.size()]);
   }
 
   private void processUidValidity(long uidValidity) {
@@ -99,7 +198,7 @@ public class ServerToClientFolderSynchronize {
 
     if (rUidNext < 0) {
       processUnknownUidNext();
-    } else if (lUidNext > lUidNext) {
+    } else if (lUidNext > rUidNext) {
       processDecreasedUidNext(lUidNext, rUidNext);
     } else if (lUidNext == rUidNext) {
       processUnchangedUidNext();
@@ -156,72 +255,185 @@ public class ServerToClientFolderSynchronize {
   }
 
   private void loadFullUIDMapping() throws MessagingException {
-    final TLongList localUIDs = localFolder.getUIDMap();
     final Message[] messages = loadRemoteUIDMapping();
-    final List<Long> remoteUIDs = getMessageUIDs(messages);
+    final TLongList remoteUIDs = getMessageUIDs(messages);
 
-    final List<Long> newUIDs = expungeMissingLocal(localUIDs, remoteUIDs);
+    final TLongList newUIDs = expungeMissingLocal(remoteUIDs);
 
     final Message[] newMessages = remoteFolder
-        .getMessagesByUID(getUIDArrayFromList(newUIDs));
+        .getMessagesByUID(newUIDs.toArray());
     appendMessagesToLocal(newMessages);
   }
 
+  /**
+   * Bodies are fetched on this thread while earlier batches are stored.  Batches
+   * are stored one after another in fetch order on the shared processing pool,
+   * which also decrypts and stores the messages of each batch.  Storing never
+   * waits on the sync pool, so the permits this thread waits for are released
+   * however many sync pool threads are busy.
+   */
   private void appendMessagesToLocal(Message[] messages)
       throws MessagingException {
     fetchDetails(messages);
-    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    final TaskTracker storeTasks = new TaskTracker();
+    final Semaphore batchesInFlight = new Semaphore(MAX_BODY_BATCHES_IN_FLIGHT);
+    CompletableFuture<Void> storing = CompletableFuture.completedFuture(null);
     try {
-      for (Message m : messages) {
+      for (BodyFetchBatch batch : createBodyFetchBatches(messages)) {
         if (stopFlag.get()) {
           return;
         }
-        if (!(m instanceof IMAPMessage)) {
-          logger.warning("Message is not an LocalIMAPMessage " + m);
-        } else {
-          storeNewMessage(executor, (IMAPMessage) m);
+        // a permit is taken before fetching so that at most MAX_BODY_BATCHES_IN_FLIGHT
+        // fetched batches are held in memory, counting the one being downloaded
+        if (!acquireBatchPermit(batchesInFlight, storing)) {
+          return;
         }
+        batch.bodies = bodyFetcher.fetchBodies(batch.getFetchUIDs());
+        storing = storing.thenRunAsync(() -> {
+          try {
+            storeBatch(storeTasks, batch);
+          } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Unexpected exception storing fetched messages: "+ e, e);
+          } finally {
+            batchesInFlight.release();
+          }
+        }, processingExecutor);
       }
-    } catch (IOException e) {
-      // TODO fix
-      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     } finally {
-      shutdownExecutor(executor);
-      messageSearchIndex.commit();
+      waitForStoreTasks(storing, storeTasks);
     }
   }
 
-  private void shutdownExecutor(ExecutorService executor) {
-    final int WAIT_SECONDS = 120;
-    executor.shutdown();
-    try {
-      if (!executor.awaitTermination(WAIT_SECONDS, TimeUnit.SECONDS)) {
-        logger.warning("Search index executor didn't finish processing after "
-            + WAIT_SECONDS + " seconds.");
+  /**
+   * Waits for a batch permit, giving up if synchronization is stopped or if a
+   * batch could not be handed to the processing pool, since the permit held by
+   * that batch would then never be released.
+   */
+  private boolean acquireBatchPermit(Semaphore batchesInFlight, CompletableFuture<Void> storing)
+      throws InterruptedException {
+    while (!batchesInFlight.tryAcquire(1, TimeUnit.SECONDS)) {
+      if (stopFlag.get() || storing.isCompletedExceptionally()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Split messages into batches bounded both by message count and by the
+   * total RFC822.SIZE of the bodies which must be downloaded.  Messages which
+   * are already stored locally (Gmail labels) are carried in a batch so that
+   * ordering is preserved but no body is requested for them.
+   */
+  private List<BodyFetchBatch> createBodyFetchBatches(Message[] messages)
+      throws MessagingException {
+    final List<BodyFetchBatch> batches = new ArrayList<>();
+    BodyFetchBatch current = new BodyFetchBatch();
+    for (Message m : messages) {
+      if (!(m instanceof IMAPMessage)) {
+        logger.warning("Message is not an LocalIMAPMessage " + m);
+        continue;
+      }
+      final IMAPMessage message = (IMAPMessage) m;
+      final StoredMessage storedMessage = account.getMessageForMimeMessage(message);
+      if (storedMessage == null && current.isFull(message.getSize())) {
+        batches.add(current);
+        current = new BodyFetchBatch();
+      }
+      current.add(message, remoteFolder.getUID(message), storedMessage);
+    }
+    if (!current.messages.isEmpty()) {
+      batches.add(current);
+    }
+    return batches;
+  }
+
+  private void storeBatch(TaskTracker storeTasks, BodyFetchBatch batch) {
+    for (int i = 0; i < batch.messages.size(); i++) {
+      if (stopFlag.get()) {
         return;
       }
-    } catch (InterruptedException e) {
-      executor.shutdownNow();
-      Thread.currentThread().interrupt();
+      try {
+        storeNewMessage(storeTasks, batch, i);
+      } catch (MessagingException | IOException e) {
+        logger.warning("Error storing message with UID "+ batch.uids.get(i) +": "+ e.getMessage());
+      }
     }
   }
 
-  private void storeNewMessage(ExecutorService executor, IMAPMessage message)
+  private void storeNewMessage(TaskTracker storeTasks, BodyFetchBatch batch, int index)
       throws MessagingException, IOException {
-    final long messageUID = remoteFolder.getUID(message);
+    final long messageUID = batch.uids.get(index);
 
-    StoredMessage storedMessage = account.getMessageForMimeMessage(message);
+    StoredMessage storedMessage = batch.storedMessages.get(index);
     final boolean alreadyStored = (storedMessage != null);
     if(storedMessage == null) {
-      storedMessage = imapMessageFactory.createFromJavamailMessage(account, message);
+      final byte[] body = batch.bodies.remove(messageUID);
+      if(body == null) {
+        logger.warning("No message body received for UID "+ messageUID);
+        return;
+      }
+      storedMessage = imapMessageFactory.createFromJavamailMessage(account, batch.messages.get(index), body);
     }
-    executor.submit(new StoreMessageTask(storedMessage, messageUID,
+    storeTasks.execute(processingExecutor, new StoreMessageTask(storedMessage, messageUID,
         localFolder, messageSearchIndex, javamailUtils, nymsAgent, alreadyStored));
   }
 
+  private static class BodyFetchBatch {
+    private final List<IMAPMessage> messages = new ArrayList<>();
+    private final TLongList uids = new TLongArrayList();
+    private final List<StoredMessage> storedMessages = new ArrayList<>();
+    private final TLongList fetchUIDs = new TLongArrayList();
+    private long fetchSize;
+    private TLongObjectMap<byte[]> bodies;
+
+    boolean isFull(int nextMessageSize) {
+      if (fetchUIDs.isEmpty()) {
+        return false;
+      }
+      return fetchUIDs.size() >= BODY_FETCH_BATCH_COUNT ||
+          (fetchSize + Math.max(0, nextMessageSize)) > BODY_FETCH_BATCH_BYTES;
+    }
+
+    void add(IMAPMessage message, long uid, StoredMessage storedMessage) throws MessagingException {
+      messages.add(message);
+      uids.add(uid);
+      storedMessages.add(storedMessage);
+      if (storedMessage == null) {
+        fetchUIDs.add(uid);
+        fetchSize += Math.max(0, message.getSize());
+      }
+    }
+
+    long[] getFetchUIDs() {
+      return fetchUIDs.toArray();
+    }
+  }
+
+  private void waitForStoreTasks(CompletableFuture<Void> storing, TaskTracker storeTasks) {
+    try {
+      storing.get(STORE_WAIT_SECONDS, TimeUnit.SECONDS);
+      if (!storeTasks.awaitCompletion(STORE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        logger.warning("Storing fetched messages didn't finish after "
+            + STORE_WAIT_SECONDS + " seconds.");
+      }
+    } catch (TimeoutException e) {
+      logger.warning("Storing fetched batches didn't finish after "
+          + STORE_WAIT_SECONDS + " seconds.");
+    } catch (ExecutionException e) {
+      logger.log(Level.WARNING, "Unexpected exception storing fetched messages: "+ e.getCause(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void fetchDetails(Message[] messages) throws MessagingException {
     final FetchProfile fp = new FetchProfile();
     fp.add(IMAPFolder.FetchProfileItem.FLAGS);
+    fp.add(UIDFolder.FetchProfileItem.UID);
+    fp.add(FetchProfile.Item.SIZE);
     if (remoteFolder instanceof GmailFolder) {
       fp.add(GmailFolder.FetchProfileItem.MSGID);
       fp.add(GmailFolder.FetchProfileItem.THRID);
@@ -230,39 +442,35 @@ public class ServerToClientFolderSynchronize {
     remoteFolder.fetch(messages, fp);
   }
 
-  private long[] getUIDArrayFromList(List<Long> uids) {
-    final long[] result = new long[uids.size()];
-    for (int i = 0; i < result.length; i++) {
-      result[i] = uids.get(i);
-    }
-    return result;
-  }
-
-  private List<Long> expungeMissingLocal(TLongList localUIDs,
-      List<Long> remoteUIDs) {
-    final Set<Long> expungeUIDs = new HashSet<>();
-    final List<Long> newUIDs = new ArrayList<>();
-    final TLongIterator it = localUIDs.iterator();
-
-    long localUID;
-    for (long uid : remoteUIDs) {
-      while (it.hasNext() && (localUID = it.next()) != uid) {
-        expungeUIDs.add(localUID);
-      }
-      if (!it.hasNext()) {
-        newUIDs.add(uid);
+  /**
+   * Expunge local messages whose UID is not present on the server and
+   * return the remote UIDs which are not present locally.
+   */
+  private TLongList expungeMissingLocal(TLongList remoteUIDs) {
+    final TLongSet remoteSet = new TLongHashSet(remoteUIDs);
+    final TLongSet expungeUIDs = new TLongHashSet();
+    final TLongList localUIDs = localFolder.getUIDsInRange(0, -1);
+    for (int i = 0; i < localUIDs.size(); i++) {
+      if (!remoteSet.contains(localUIDs.get(i))) {
+        expungeUIDs.add(localUIDs.get(i));
       }
     }
     if (!expungeUIDs.isEmpty()) {
-      localFolder.expungeMessagesByUID(expungeUIDs);
+      expungeLocalMessages(expungeUIDs);
     }
 
+    final TLongList newUIDs = new TLongArrayList();
+    for (int i = 0; i < remoteUIDs.size(); i++) {
+      if (!localFolder.containsUID(remoteUIDs.get(i))) {
+        newUIDs.add(remoteUIDs.get(i));
+      }
+    }
     return newUIDs;
   }
 
-  private List<Long> getMessageUIDs(Message[] messages)
+  private TLongList getMessageUIDs(Message[] messages)
       throws MessagingException {
-    final List<Long> result = new ArrayList<>();
+    final TLongList result = new TLongArrayList(messages.length);
     for (Message m : messages) {
       result.add(remoteFolder.getUID(m));
     }
@@ -279,6 +487,11 @@ public class ServerToClientFolderSynchronize {
 
   private void synchronizeFlags() throws MessagingException {
     if (localFolder.getUIDNext() == 0) {
+      // Record the mod-sequence reported when the folder was selected so that
+      // the next synchronization can use CONDSTORE or QRESYNC.
+      if (remoteSupportsCondstore()) {
+        localFolder.setHighestModSeq(remoteFolder.getHighestModSeq());
+      }
       return;
     }
     if (remoteSupportsCondstore()) {
@@ -295,6 +508,7 @@ public class ServerToClientFolderSynchronize {
     Message[] msgs = remoteFolder.getMessagesByUID(0, maxUid);
     FetchProfile fp = new FetchProfile();
     fp.add(FetchProfileItem.FLAGS);
+    fp.add(UIDFolder.FetchProfileItem.UID);
     remoteFolder.fetch(msgs, fp);
     for (Message m : msgs) {
       if (stopFlag.get()) {
@@ -309,6 +523,7 @@ public class ServerToClientFolderSynchronize {
     final Message[] msgs = remoteFolder.search(new ModifiedSinceTerm(modseq));
     FetchProfile fp = new FetchProfile();
     fp.add(FetchProfileItem.FLAGS);
+    fp.add(UIDFolder.FetchProfileItem.UID);
     remoteFolder.fetch(msgs, fp);
     for (Message m : msgs) {
       if (stopFlag.get()) {
@@ -320,11 +535,10 @@ public class ServerToClientFolderSynchronize {
   }
 
   private void synchronizeMessageFlags(Message m) throws MessagingException {
-    if (localFolder.getMessageCount() < m.getMessageNumber()) {
+    final StoredMessage localMessage = localFolder.getMessageByUID(remoteFolder.getUID(m));
+    if (localMessage == null) {
       return;
     }
-    final StoredMessage localMessage = localFolder.getMessageByMessageNumber(m
-        .getMessageNumber());
     final int flagBits = FlagUtils.getFlagsFromMessage(m);
     if (localMessage.getFlags() != flagBits) {
       localMessage.setFlags(flagBits);
@@ -342,31 +556,48 @@ public class ServerToClientFolderSynchronize {
 
       @Override
       public void messagesRemoved(MessageCountEvent event) {
-        processMessagesRemoved(event.getMessages());
+        if (event instanceof MessageVanishedEvent) {
+          expungeLocalMessages(new TLongHashSet(((MessageVanishedEvent) event).getUIDs()));
+        } else {
+          processMessagesRemoved(event.getMessages());
+        }
       }
     };
   }
 
   private void processMessagesAdded(Message[] messages) {
+    database.beginBatch();
     try {
       appendMessagesToLocal(messages);
     } catch (MessagingException e) {
       logger.warning("Error processing added messages: " + e.getMessage());
+    } finally {
+      database.endBatch();
     }
   }
 
   private void processMessagesRemoved(Message[] messages) {
-    final Set<Long> uids = new HashSet<>();
+    final TLongSet uids = new TLongHashSet();
     try {
       for (Message m : messages) {
         uids.add(remoteFolder.getUID(m));
       }
-      localFolder.expungeMessagesByUID(uids);
+      expungeLocalMessages(uids);
     } catch (MessagingException e) {
       logger.warning("Error processing removed messages: " + e.getMessage());
     }
   }
 
+  private void expungeLocalMessages(TLongSet uids) {
+    for (StoredMessage deleted : localFolder.expungeMessagesByUID(uids)) {
+      try {
+        messageSearchIndex.removeMessage(deleted);
+      } catch (IOException e) {
+        logger.warning("Error removing deleted message from search index: " + e.getMessage());
+      }
+    }
+  }
+
   public void runIdle() throws MessagingException {
     final MessageCountListener listener = createMessageCountListener();
     remoteFolder.addMessageCountListener(listener);
@@ -15,11 +15,12 @@ import com.sun.mail.imap.IMAPMessage;
 import javax.mail.Address;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.Session;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -51,21 +52,41 @@ public class StoredIMAPMessageFactory {
     if (duplicate != null) {
       return duplicate;
     }
-    final int conversationId = imapAccount
-        .generateConversationIdForMessage(message);
+    return createFromJavamailMessage(imapAccount, message, readRawBytes(message));
+  }
+
+  /**
+   * Create a stored message from a body which has already been downloaded,
+   * for example by a bulk <code>UID FETCH</code>.  The raw bytes are stored
+   * as the message raw data and are also the backing buffer of the parsed
+   * message, so the body is neither fetched nor copied again.
+   */
+  public StoredMessage createFromJavamailMessage(IMAPAccount imapAccount,
+      MimeMessage message, byte[] rawBytes) throws MessagingException, IOException {
+    final StoredMessage duplicate = imapAccount
+        .getMessageForMimeMessage(message);
+    if (duplicate != null) {
+      return duplicate;
+    }
+    final MimeMessage parsed = parseRawMessage(message.getSession(), rawBytes);
+    // Gmail conversations come from the fetched THRID, other accounts are
+    // threaded on the headers of the parsed message, which would otherwise be
+    // fetched again from the server one message at a time
+    final int conversationId = imapAccount.generateConversationIdForMessage(
+        (message instanceof GmailMessage) ? message : parsed);
     final int messageId = imapAccount.generateUniqueMessageIdForMessage(
         message, model);
     final List<StoredMessageLabel> gmailLabels = getGmailLabels(imapAccount,
         message);
 
-    final MimeMessage reparsed = reparseMessage(message);
-    final StoredMessage sm = createFromJavamailMessage(reparsed, messageId,
-        conversationId, gmailLabels);
+    final StoredMessage sm = createFromJavamailMessage(parsed, rawBytes,
+        messageId, conversationId, gmailLabels);
 
-    addEncryptionFlags(getMultipartType(reparsed), sm);
+    addEncryptionFlags(getMultipartType(parsed), sm);
 
     return sm;
   }
+
   private final static String BEGIN_PGP = "-----BEGIN";
   private final static String BEGIN_PGP_ENCRYPTED = "-----BEGIN PGP MESSAGE-----";
   private final static String BEGIN_PGP_SIGNED = "-----BEGIN PGP SIGNED MESSAGE-----";
@@ -117,8 +138,15 @@ public class StoredIMAPMessageFactory {
   private StoredMessage createFromJavamailMessage(MimeMessage message,
       int messageId, int conversationId, List<StoredMessageLabel> labels)
       throws MessagingException, IOException {
+    return createFromJavamailMessage(message, readRawBytes(message),
+        messageId, conversationId, labels);
+  }
+
+  private StoredMessage createFromJavamailMessage(MimeMessage message,
+      byte[] rawBytes, int messageId, int conversationId,
+      List<StoredMessageLabel> labels) throws MessagingException, IOException {
     return basicMessageFactory
-        .createStoredMessageBuilder(readRawBytes(message))
+        .createStoredMessageBuilder(rawBytes)
         .conversationId(conversationId).messageId(messageId)
         .subject(getSubject(message))
         .bodyText(javamailUtils.getTextBody(message))
@@ -131,16 +159,14 @@ public class StoredIMAPMessageFactory {
         .attachments(javamailUtils.getAttachments(message)).build();
   }
 
-  private MimeMessage reparseMessage(MimeMessage message) throws IOException,
-      MessagingException {
-    if (message instanceof IMAPMessage) {
-      ((IMAPMessage) message).setPeek(true);
-    }
-    final ByteArrayOutputStream output = new ByteArrayOutputStream();
-    message.writeTo(output);
-    final ByteArrayInputStream input = new ByteArrayInputStream(
-        output.toByteArray());
-    return new MimeMessage(message.getSession(), input);
+  /**
+   * Parse a message without copying its content.  Since the input is a
+   * SharedInputStream the parsed message and all of its body parts refer to
+   * ranges of <code>rawBytes</code> rather than holding copies.
+   */
+  static MimeMessage parseRawMessage(Session session, byte[] rawBytes)
+      throws MessagingException {
+    return new MimeMessage(session, new SharedByteArrayInputStream(rawBytes));
   }
 
   private byte[] readRawBytes(MimeMessage message) throws MessagingException {
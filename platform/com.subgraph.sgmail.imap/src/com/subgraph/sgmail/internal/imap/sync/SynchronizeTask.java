@@ -1,19 +1,24 @@
 package com.subgraph.sgmail.internal.imap.sync;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import javax.mail.Folder;
 import javax.mail.MessagingException;
-import javax.mail.Store;
 import javax.mail.event.MailEvent;
 
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.imap.IMAPAccount;
 import com.subgraph.sgmail.imap.LocalIMAPFolder;
+import com.subgraph.sgmail.internal.imap.IMAPAccountImpl;
+import com.subgraph.sgmail.internal.imap.IMAPCommandListener;
+import com.subgraph.sgmail.internal.imap.IMAPCommandQueue;
 import com.subgraph.sgmail.messages.MessageFactory;
 import com.subgraph.sgmail.nyms.NymsAgent;
 import com.subgraph.sgmail.search.MessageSearchIndex;
@@ -30,12 +35,18 @@ public class SynchronizeTask implements Runnable {
 	private final MessageFactory basicMessageFactory;
 	private final MessageSearchIndex searchIndex;
 	private final IMAPAccount account;
-	private final Store remoteStore;
+	private final IMAPStore remoteStore;
+	private final ServerConnectionLimiter connectionLimiter;
+	private final ExecutorService executor;
+	private final ExecutorService processingExecutor;
+	private final FolderSyncScheduler folderScheduler;
+	private final IMAPCommandQueue commandQueue;
 	private final AtomicBoolean stopFlag = new AtomicBoolean();
 	
-	private IMAPFolder idleFolder;
+	private volatile IMAPFolder idleFolder;
 	
-	public SynchronizeTask(MessageFactory basicMessageFactory, Model model, JavamailUtils javamailUtils, NymsAgent nymsAgent, MessageSearchIndex searchIndex, Store remoteStore, IMAPAccount account) {
+	public SynchronizeTask(MessageFactory basicMessageFactory, Model model, JavamailUtils javamailUtils, NymsAgent nymsAgent, MessageSearchIndex searchIndex, IMAPStore remoteStore, IMAPAccount account,
+			ExecutorService executor, ExecutorService processingExecutor, Supplier<IMAPStore> storeFactory, ServerConnectionLimiter connectionLimiter, int maxConnections) {
 		this.model = model;
 		this.javamailUtils = javamailUtils;
 		this.nymsAgent = nymsAgent;
@@ -43,10 +54,16 @@ public class SynchronizeTask implements Runnable {
 		this.searchIndex = searchIndex;
 		this.account = account;
 		this.remoteStore = remoteStore;
+		this.connectionLimiter = connectionLimiter;
+		this.executor = executor;
+		this.processingExecutor = processingExecutor;
+		this.folderScheduler = new FolderSyncScheduler(account, executor, storeFactory, connectionLimiter, maxConnections, stopFlag);
+		this.commandQueue = ((IMAPAccountImpl) account).getCommandQueue();
 	}
 	
 	void stop() {
 		stopFlag.set(true);
+		folderScheduler.stop();
 		if(idleFolder != null) {
 			try {
 				idleFolder.close(false);
@@ -59,6 +76,8 @@ public class SynchronizeTask implements Runnable {
 
 	@Override
 	public void run() {
+		final String hostname = account.getIMAPServerDetails().getHostname();
+		connectionLimiter.acquirePrimary(hostname);
 		try {
 			synchronizeAccount();
 		} catch (MessagingException e) {
@@ -69,21 +88,25 @@ public class SynchronizeTask implements Runnable {
 			if(!stopFlag.get()) {
 				throw e;
 			}
+		} finally {
+			connectionLimiter.release(hostname, 1);
 		}
 	}
-	
+
 	private void synchronizeAccount() throws MessagingException {
 		if(!remoteStore.isConnected()) {
 			remoteStore.connect();
 		}
 
 		final List<IMAPFolder> folders = getFoldersToSynchronize();
-		
+		final List<IMAPFolder> messageFolders = new ArrayList<>();
 		for(IMAPFolder f: folders) {
             if((f.getType() & Folder.HOLDS_MESSAGES) != 0) {
-                synchronizeFolder(f);
+                messageFolders.add(f);
             }
 		}
+		folderScheduler.synchronizeFolders(remoteStore, messageFolders, this::synchronizeFolder);
+
         if(account.isGmailAccount()) {
 			idleFolderByName(folders, "[Gmail]/All Mail");
 		} else {
@@ -134,39 +157,93 @@ public class SynchronizeTask implements Runnable {
 	private void synchronizeFolder(IMAPFolder remoteFolder) throws MessagingException {
 		final LocalIMAPFolder localFolder = account.getFolderByName(remoteFolder.getFullName());
 
-		openRemote(remoteFolder);
-		final ClientToServerSynchronize c2s = new ClientToServerSynchronize(localFolder, remoteFolder);
-		c2s.run();
+		final List<MailEvent> resyncEvents = openRemote(remoteFolder, localFolder);
+		new ClientToServerSynchronize(commandQueue, remoteFolder).synchronize();
 		
-		final ServerToClientFolderSynchronize s2c = new ServerToClientFolderSynchronize(basicMessageFactory, model, javamailUtils, nymsAgent, searchIndex, account, remoteFolder, localFolder, stopFlag);
-		s2c.synchronize();
+		final ServerToClientFolderSynchronize s2c = new ServerToClientFolderSynchronize(basicMessageFactory, model, javamailUtils, nymsAgent, searchIndex, account, remoteFolder, localFolder, processingExecutor, stopFlag);
+		if(resyncEvents != null) {
+			s2c.synchronizeWithQresync(resyncEvents);
+		} else {
+			s2c.synchronize();
+		}
 		
 		if(remoteFolder.isOpen()) {
 			remoteFolder.close(false);
 		}
-		idleFolder = null;
 	}
 	
 	private void idleFolder(IMAPFolder remoteFolder) throws MessagingException {
 		final LocalIMAPFolder localFolder = account.getFolderByName(remoteFolder.getFullName());
-		openRemote(remoteFolder);
-		final ServerToClientFolderSynchronize s2c = new ServerToClientFolderSynchronize(basicMessageFactory, model, javamailUtils, nymsAgent, searchIndex, account, remoteFolder, localFolder, stopFlag);
+		final List<MailEvent> resyncEvents = openRemote(remoteFolder, localFolder);
+		final ServerToClientFolderSynchronize s2c = new ServerToClientFolderSynchronize(basicMessageFactory, model, javamailUtils, nymsAgent, searchIndex, account, remoteFolder, localFolder, processingExecutor, stopFlag);
+		if(resyncEvents != null) {
+			s2c.synchronizeWithQresync(resyncEvents);
+		}
+		final ClientToServerSynchronize c2s = new ClientToServerSynchronize(commandQueue, remoteFolder);
+		c2s.synchronize();
+		final IMAPCommandListener listener = createIdleCommandListener(c2s, remoteFolder.getFullName());
+		commandQueue.addCommandListener(listener);
 		idleFolder = remoteFolder;
-		s2c.runIdle();
+		try {
+			s2c.runIdle();
+		} finally {
+			commandQueue.removeCommandListener(listener);
+		}
 		if(remoteFolder.isOpen()) {
 			remoteFolder.close(false);
 		}
 		idleFolder = null;		
 	}
 
-	private void openRemote(IMAPFolder remoteFolder) throws MessagingException {
+	/**
+	 * Changes to the folder being idled are sent as soon as they are queued rather than when the
+	 * folder is next synchronized.  Sending a command over the connection ends the IDLE, which
+	 * {@link ServerToClientFolderSynchronize#runIdle()} then issues again.
+	 */
+	private IMAPCommandListener createIdleCommandListener(ClientToServerSynchronize c2s, String folderName) {
+		return (name, command) -> {
+			if(!name.equals(folderName)) {
+				return;
+			}
+			executor.execute(() -> {
+				try {
+					c2s.synchronize();
+				} catch (MessagingException e) {
+					logger.warning("Error sending changes to idle folder "+ folderName +": "+ e.getMessage());
+				}
+			});
+		};
+	}
+
+	/**
+	 * Open the remote folder, using QRESYNC when the server supports it and the local folder has
+	 * been synchronized before.
+	 *
+	 * @return the VANISHED and FETCH events reported while opening with QRESYNC, or null if the
+	 *         folder was not opened with QRESYNC and must be synchronized in full.
+	 */
+	private List<MailEvent> openRemote(IMAPFolder remoteFolder, LocalIMAPFolder localFolder) throws MessagingException {
 		if(remoteFolder.isOpen()) {
-			return;
-		} else if(remoteSupportsCondstore(remoteFolder)) {
+			return null;
+		} else if(canResync(remoteFolder, localFolder)) {
+			return openWithQresync(remoteFolder, localFolder);
+		} else if(remoteHasCapability(remoteFolder, "CONDSTORE")) {
 			openWithCondstore(remoteFolder);
 		} else {
 			remoteFolder.open(Folder.READ_WRITE);
 		}
+		return null;
+	}
+
+	private boolean canResync(IMAPFolder remoteFolder, LocalIMAPFolder localFolder) throws MessagingException {
+		return localFolder.getUIDValidity() != 0 && localFolder.getHighestModSeq() > 0 &&
+				localFolder.getUIDNext() > 0 && remoteHasCapability(remoteFolder, "QRESYNC");
+	}
+
+	private List<MailEvent> openWithQresync(IMAPFolder remoteFolder, LocalIMAPFolder localFolder) throws MessagingException {
+		final ResyncData resyncData = new ResyncData(localFolder.getUIDValidity(), localFolder.getHighestModSeq());
+		final List<MailEvent> events = remoteFolder.open(Folder.READ_WRITE, resyncData);
+		return (events == null) ? Collections.<MailEvent>emptyList() : events;
 	}
 	
 	private void openWithCondstore(IMAPFolder remoteFolder) throws MessagingException {
@@ -176,8 +253,8 @@ public class SynchronizeTask implements Runnable {
 		}
 	}
 
-	private boolean remoteSupportsCondstore(IMAPFolder remoteFolder) throws MessagingException {
+	private boolean remoteHasCapability(IMAPFolder remoteFolder, String capability) throws MessagingException {
 		final IMAPStore store = (IMAPStore) remoteFolder.getStore();
-		return store.hasCapability("CONDSTORE");
+		return store.hasCapability(capability);
 	}
 }
@@ -0,0 +1,55 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the tasks one caller has submitted to a shared executor so that the caller can wait for
+ * its own tasks to finish without shutting the executor down.
+ */
+class TaskTracker {
+  private int pendingCount;
+
+  void execute(Executor executor, Runnable task) {
+    synchronized (this) {
+      pendingCount += 1;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          task.run();
+        } finally {
+          taskFinished();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      taskFinished();
+      throw e;
+    }
+  }
+
+  private synchronized void taskFinished() {
+    pendingCount -= 1;
+    if (pendingCount == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Wait for every task submitted so far to finish.
+   *
+   * @return true if all tasks finished, false if the timeout expired first
+   */
+  synchronized boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (pendingCount > 0) {
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+}
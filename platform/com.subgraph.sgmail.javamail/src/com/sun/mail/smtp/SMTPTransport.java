@@ -104,6 +104,19 @@ public class SMTPTransport extends Transport {
     private MessagingException exception;
     // stream where message data is written
     private SMTPOutputStream dataStream;
+    // streams where message data is written when sent with BDAT
+    private BdatOutputStream bdatStream;
+    private ChunkOutputStream chunkStream;
+    // Are the envelope commands and BDAT chunks of this message pipelined?
+    private boolean pipelining;
+    // MAIL FROM command and address whose reply has not been read yet
+    private String pipelinedMailFrom;
+    private String pipelinedFrom;
+    // BDAT chunks sent whose replies have not been read yet
+    private int pendingChunkReplies;
+    // first failed BDAT reply, if any
+    private int failedChunkCode;
+    private String failedChunkResponse;
 
     // Map of SMTP service extensions supported by server, if EHLO used.
     private Hashtable extMap;
@@ -125,6 +138,8 @@ public class SMTPTransport extends Transport {
     private boolean requireStartTLS;	// require STARTTLS command
     private boolean useRset;		// use RSET instead of NOOP
     private boolean noopStrict = true;	// NOOP must return 250 for success
+    private boolean usePipelining;	// use PIPELINING if supported
+    private int chunkSize;		// BDAT chunk size, 0 to use DATA
 
     private MailLogger logger;		// debug logger
     private MailLogger traceLogger;	// protocol trace logger
@@ -141,6 +156,7 @@ public class SMTPTransport extends Transport {
     private static final String[] ignoreList = { "Bcc", "Content-Length" };
     private static final byte[] CRLF = { (byte)'\r', (byte)'\n' };
     private static final String UNKNOWN = "UNKNOWN";	// place holder
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
     private static final String[] UNKNOWN_SA = new String[0]; // place holder
 
     /**
@@ -199,6 +215,16 @@ public class SMTPTransport extends Transport {
 	noopStrict = PropUtil.getBooleanSessionProperty(session,
 				"mail." + name + ".noop.strict", true);
 
+	// mail.smtp.pipelining set to false disables RFC 2920 pipelining
+	// of the envelope commands and of BDAT chunks
+	usePipelining = PropUtil.getBooleanSessionProperty(session,
+				"mail." + name + ".pipelining", true);
+
+	// mail.smtp.chunksize is the size of the chunks the message is
+	// sent in with the RFC 3030 BDAT command, 0 to always use DATA
+	chunkSize = PropUtil.getIntSessionProperty(session,
+				"mail." + name + ".chunksize", DEFAULT_CHUNK_SIZE);
+
 	// check if SASL is enabled
 	enableSASL = PropUtil.getBooleanSessionProperty(session,
 	    "mail." + name + ".sasl.enable", false);
@@ -1128,11 +1154,20 @@ public class SMTPTransport extends Transport {
 	    }
 	}
 
+	// with PIPELINING the MAIL FROM and RCPT TO commands are sent
+	// together and their replies read together, so the envelope
+	// costs one round trip however many recipients there are
+	pipelining = usePipelining && supportsExtension("PIPELINING");
 	try {
 	    mailFrom();
 	    rcptTo();
-	    this.message.writeTo(data(), ignoreList);
-	    finishData();
+	    if (chunkSize > 0 && supportsExtension("CHUNKING")) {
+		this.message.writeTo(bdat(), ignoreList);
+		finishBdat();
+	    } else {
+		this.message.writeTo(data(), ignoreList);
+		finishData();
+	    }
 	    if (sendPartiallyFailed) {
 		// throw the exception,
 		// fire TransportEvent.MESSAGE_PARTIALLY_DELIVERED event
@@ -1189,6 +1224,10 @@ public class SMTPTransport extends Transport {
 	    this.exception = null;
 	    sendPartiallyFailed = false;
 	    notificationDone = false;	// reset for next send
+	    pipelining = false;
+	    pipelinedMailFrom = pipelinedFrom = null;
+	    bdatStream = null;
+	    chunkStream = null;
 	}
 	sendMessageEnd();
     }
@@ -1626,25 +1665,66 @@ public class SMTPTransport extends Transport {
 	if (ext != null && ext.length() > 0)
 	    cmd += " " + ext;
 
+	if (pipelining) {
+	    // sent with the RCPT TO commands, which read the reply
+	    bufferCommand(cmd);
+	    pipelinedMailFrom = cmd;
+	    pipelinedFrom = from;
+	    return;
+	}
 	try {
 	    issueSendCommand(cmd, 250);
 	} catch (SMTPSendFailedException ex) {
-	    int retCode = ex.getReturnCode();
-	    switch (retCode) {
-	    case 550: case 553: case 503: case 551: case 501:
-		// given address is invalid
-		try {
-		    ex.setNextException(new SMTPSenderFailedException(
-			new InternetAddress(from), cmd,
-			retCode, ex.getMessage()));
-		} catch (AddressException aex) {
-		    // oh well...
-		}
-		break;
-	    default:
-		break;
+	    throw senderFailed(ex, cmd, from);
+	}
+    }
+
+    /**
+     * Add the reason the sender address was refused to the exception
+     * thrown when the <code>MAIL FROM:</code> command failed.
+     */
+    private SMTPSendFailedException senderFailed(SMTPSendFailedException ex,
+				String cmd, String from) {
+	int retCode = ex.getReturnCode();
+	switch (retCode) {
+	case 550: case 553: case 503: case 551: case 501:
+	    // given address is invalid
+	    try {
+		ex.setNextException(new SMTPSenderFailedException(
+		    new InternetAddress(from), cmd,
+		    retCode, ex.getMessage()));
+	    } catch (AddressException aex) {
+		// oh well...
 	    }
-	    throw ex;
+	    break;
+	default:
+	    break;
+	}
+	return ex;
+    }
+
+    /**
+     * Read the reply to a pipelined <code>MAIL FROM:</code> command.
+     * If it failed, the replies to the RCPT TO commands sent after it
+     * are skipped before the connection is reset.
+     */
+    private void readPipelinedMailFrom(int pendingRcptCount)
+				throws MessagingException {
+	String cmd = pipelinedMailFrom;
+	String from = pipelinedFrom;
+	pipelinedMailFrom = pipelinedFrom = null;
+	int ret = readServerResponse();
+	if (ret == 250)
+	    return;
+	String _lsr = lastServerResponse;
+	int _lrc = lastReturnCode;
+	skipServerResponses(pendingRcptCount);
+	lastServerResponse = _lsr;
+	lastReturnCode = _lrc;
+	try {
+	    sendFailed(cmd, ret);
+	} catch (SMTPSendFailedException ex) {
+	    throw senderFailed(ex, cmd, from);
 	}
     }
 
@@ -1699,16 +1779,33 @@ public class SMTPTransport extends Transport {
 		dsn = true;
 	}
 
+	String[] cmds = new String[addresses.length];
+	for (int i = 0; i < addresses.length; i++) {
+	    InternetAddress ia = (InternetAddress)addresses[i];
+	    cmds[i] = "RCPT TO:" + normalizeAddress(ia.getAddress());
+	    if (dsn)
+		cmds[i] += " NOTIFY=" + notify;
+	}
+
+	// if pipelining, send every address after the MAIL FROM command
+	// before reading any reply
+	boolean pipelined = pipelinedMailFrom != null;
+	if (pipelined) {
+	    for (int i = 0; i < cmds.length; i++)
+		bufferCommand(cmds[i]);
+	    flushCommands();
+	    readPipelinedMailFrom(cmds.length);
+	}
+
 	// try the addresses one at a time
 	for (int i = 0; i < addresses.length; i++) {
 
 	    sfex = null;
 	    InternetAddress ia = (InternetAddress)addresses[i];
-	    String cmd = "RCPT TO:" + normalizeAddress(ia.getAddress());
-	    if (dsn)
-		cmd += " NOTIFY=" + notify;
+	    String cmd = cmds[i];
 	    // send the addresses to the SMTP server
-	    sendCommand(cmd);
+	    if (!pipelined)
+		sendCommand(cmd);
 	    // check the server's response for address validity
 	    retCode = readServerResponse();
 	    switch (retCode) {
@@ -1772,6 +1869,8 @@ public class SMTPTransport extends Transport {
 			    ", with response: " + lastServerResponse);
 		    String _lsr = lastServerResponse; // else rset will nuke it
 		    int _lrc = lastReturnCode;
+		    if (pipelined && serverSocket != null)
+			skipServerResponses(addresses.length - i - 1);
 		    if (serverSocket != null)	// hasn't already been closed
 			issueCommand("RSET", -1);
 		    lastServerResponse = _lsr;	// restore, for get
@@ -1912,6 +2011,129 @@ public class SMTPTransport extends Transport {
 	issueSendCommand(".", 250);
     }
 
+    /**
+     * Return an OutputStream to which the data is to be written, which
+     * sends it to the SMTP host with RFC 3030 <code>BDAT</code> commands.
+     * The data is sent as it is, without the dot stuffing DATA needs,
+     * in chunks of <code>mail.smtp.chunksize</code> bytes.  If pipelining,
+     * the replies to all chunks are read after the last chunk is sent.
+     */
+    private OutputStream bdat() {
+	assert Thread.holdsLock(this);
+	pendingChunkReplies = 0;
+	failedChunkCode = 0;
+	failedChunkResponse = null;
+	chunkStream = new ChunkOutputStream(chunkSize);
+	bdatStream = new BdatOutputStream(chunkStream);
+	return bdatStream;
+    }
+
+    /**
+     * Send the last chunk of the data and check the replies to every
+     * chunk.
+     */
+    private void finishBdat() throws IOException, MessagingException {
+	assert Thread.holdsLock(this);
+	bdatStream.ensureAtBOL();
+	chunkStream.finish();
+	if (failedChunkResponse != null) {
+	    lastServerResponse = failedChunkResponse;
+	    lastReturnCode = failedChunkCode;
+	    sendFailed("BDAT", failedChunkCode);
+	}
+    }
+
+    /**
+     * Send one chunk of the data.  Once a chunk has been refused the rest
+     * of the data is not sent.
+     */
+    private void sendChunk(byte[] data, int len, boolean last)
+				throws IOException {
+	if (failedChunkResponse != null)
+	    return;
+	String cmd = "BDAT " + len + (last ? " LAST" : "");
+	serverOutput.write(ASCIIUtility.getBytes(cmd));
+	serverOutput.write(CRLF);
+	serverOutput.write(data, 0, len);
+	pendingChunkReplies++;
+	if (last || !pipelining) {
+	    serverOutput.flush();
+	    readChunkReplies();
+	}
+    }
+
+    private void readChunkReplies() throws IOException {
+	try {
+	    while (pendingChunkReplies > 0) {
+		pendingChunkReplies--;
+		int ret = readServerResponse();
+		if (ret != 250 && failedChunkResponse == null) {
+		    failedChunkCode = ret;
+		    failedChunkResponse = lastServerResponse;
+		}
+	    }
+	} catch (MessagingException mex) {
+	    throw new IOException("Exception reading BDAT response", mex);
+	}
+    }
+
+    /**
+     * Collects the data in a buffer of the chunk size and sends each
+     * chunk when the buffer is full and more data follows, so that the
+     * last chunk sent by {@link #finish()} is never empty unless the
+     * message is.
+     */
+    private class ChunkOutputStream extends OutputStream {
+	private final byte[] buf;
+	private int count;
+
+	ChunkOutputStream(int size) {
+	    buf = new byte[size];
+	}
+
+	public void write(int b) throws IOException {
+	    if (count == buf.length)
+		sendBuffer(false);
+	    buf[count++] = (byte)b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+	    while (len > 0) {
+		if (count == buf.length)
+		    sendBuffer(false);
+		int n = Math.min(len, buf.length - count);
+		System.arraycopy(b, off, buf, count, n);
+		count += n;
+		off += n;
+		len -= n;
+	    }
+	}
+
+	void finish() throws IOException {
+	    sendBuffer(true);
+	}
+
+	private void sendBuffer(boolean last) throws IOException {
+	    sendChunk(buf, count, last);
+	    count = 0;
+	}
+    }
+
+    /**
+     * Converts lines into the canonical format like SMTPOutputStream,
+     * but without escaping "." at the beginning of a line.
+     */
+    private static class BdatOutputStream extends CRLFOutputStream {
+	BdatOutputStream(OutputStream os) {
+	    super(os);
+	}
+
+	void ensureAtBOL() throws IOException {
+	    if (!atBOL)
+		writeln();
+	}
+    }
+
     /**
      * Issue the <code>STARTTLS</code> command and switch the socket to
      * TLS mode if it succeeds.
@@ -2109,30 +2331,38 @@ public class SMTPTransport extends Transport {
 	// if server responded with an unexpected return code,
 	// throw the exception, notifying the client of the response
 	int ret;
-	if ((ret = readServerResponse()) != expect) {
-	    // assume message was not sent to anyone,
-	    // combine valid sent & unsent addresses
-	    int vsl = validSentAddr == null ? 0 : validSentAddr.length;
-	    int vul = validUnsentAddr == null ? 0 : validUnsentAddr.length;
-	    Address[] valid = new Address[vsl + vul];
-	    if (vsl > 0)
-		System.arraycopy(validSentAddr, 0, valid, 0, vsl);
-	    if (vul > 0)
-		System.arraycopy(validUnsentAddr, 0, valid, vsl, vul);
-	    validSentAddr = null;
-	    validUnsentAddr = valid;
-	    if (logger.isLoggable(Level.FINE))
-		logger.fine("got response code " + ret +
-		    ", with response: " + lastServerResponse);
-	    String _lsr = lastServerResponse; // else rset will nuke it
-	    int _lrc = lastReturnCode;
-	    if (serverSocket != null)	// hasn't already been closed
-		issueCommand("RSET", -1);
-	    lastServerResponse = _lsr;	// restore, for get
-	    lastReturnCode = _lrc;
-	    throw new SMTPSendFailedException(cmd, ret, lastServerResponse,
-			exception, validSentAddr, validUnsentAddr, invalidAddr);
-	}
+	if ((ret = readServerResponse()) != expect)
+	    sendFailed(cmd, ret);
+    }
+
+    /**
+     * A command that's part of sending a message got the unexpected
+     * reply <code>ret</code>.  Reset the connection and throw an
+     * exception describing the failure.
+     */
+    private void sendFailed(String cmd, int ret) throws MessagingException {
+	// assume message was not sent to anyone,
+	// combine valid sent & unsent addresses
+	int vsl = validSentAddr == null ? 0 : validSentAddr.length;
+	int vul = validUnsentAddr == null ? 0 : validUnsentAddr.length;
+	Address[] valid = new Address[vsl + vul];
+	if (vsl > 0)
+	    System.arraycopy(validSentAddr, 0, valid, 0, vsl);
+	if (vul > 0)
+	    System.arraycopy(validUnsentAddr, 0, valid, vsl, vul);
+	validSentAddr = null;
+	validUnsentAddr = valid;
+	if (logger.isLoggable(Level.FINE))
+	    logger.fine("got response code " + ret +
+		", with response: " + lastServerResponse);
+	String _lsr = lastServerResponse; // else rset will nuke it
+	int _lrc = lastReturnCode;
+	if (serverSocket != null)	// hasn't already been closed
+	    issueCommand("RSET", -1);
+	lastServerResponse = _lsr;	// restore, for get
+	lastReturnCode = _lrc;
+	throw new SMTPSendFailedException(cmd, ret, lastServerResponse,
+		    exception, validSentAddr, validUnsentAddr, invalidAddr);
     }
 
     /**
@@ -2169,6 +2399,36 @@ public class SMTPTransport extends Transport {
 	sendCommand(ASCIIUtility.getBytes(cmd));
     }
 
+    /**
+     * Write a pipelined command to the output buffer without sending it.
+     */
+    private void bufferCommand(String cmd) throws MessagingException {
+	assert Thread.holdsLock(this);
+	try {
+	    serverOutput.write(ASCIIUtility.getBytes(cmd));
+	    serverOutput.write(CRLF);
+	} catch (IOException ex) {
+	    throw new MessagingException("Can't send command to SMTP host", ex);
+	}
+    }
+
+    private void flushCommands() throws MessagingException {
+	try {
+	    serverOutput.flush();
+	} catch (IOException ex) {
+	    throw new MessagingException("Can't send command to SMTP host", ex);
+	}
+    }
+
+    /**
+     * Read and discard the replies to <code>count</code> pipelined
+     * commands.
+     */
+    private void skipServerResponses(int count) throws MessagingException {
+	for (int i = 0; i < count; i++)
+	    readServerResponse();
+    }
+
     private void sendCommand(byte[] cmdBytes) throws MessagingException {
 	assert Thread.holdsLock(this);
 	//if (logger.isLoggable(Level.FINE))
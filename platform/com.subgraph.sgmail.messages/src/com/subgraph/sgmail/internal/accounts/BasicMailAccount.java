@@ -12,14 +12,17 @@ import com.google.common.collect.ImmutableList;
 import com.subgraph.sgmail.accounts.MailAccount;
 import com.subgraph.sgmail.accounts.ServerDetails;
 import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Deletable;
 import com.subgraph.sgmail.database.Preferences;
 import com.subgraph.sgmail.database.Storeable;
 import com.subgraph.sgmail.internal.messages.StoredFolderImpl;
 import com.subgraph.sgmail.internal.messages.StoredMessageLabelCollectionImpl;
+import com.subgraph.sgmail.internal.messages.StoredMessageLabelIndexImpl;
 import com.subgraph.sgmail.messages.StoredFolder;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.messages.StoredMessageLabel;
 import com.subgraph.sgmail.messages.StoredMessageLabelCollection;
+import com.subgraph.sgmail.messages.StoredMessageLabelIndex;
 
 import gnu.trove.map.hash.TIntObjectHashMap;
 
@@ -32,7 +35,7 @@ import java.util.List;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
-public class BasicMailAccount implements MailAccount, Storeable, Activatable {
+public class BasicMailAccount implements MailAccount, Storeable, Activatable, Deletable {
 
     private final ServerDetails smtpAccount;
     private final String emailAddress;
@@ -49,6 +52,7 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
 
     private transient EventList<StoredMessage> messageEventList;
     private transient EventList<StoredMessage> readOnlyEventList;
+    private transient StoredMessageLabelIndexImpl labelIndex;
     private transient PropertyChangeSupport propertyChangeSupport;
     private transient Activator activator;
     private transient Database database;
@@ -90,6 +94,18 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
         }
     }
 
+    @Override
+    public StoredMessageLabelIndex getLabelIndex() {
+        return getLabelIndexImpl();
+    }
+
+    private synchronized StoredMessageLabelIndexImpl getLabelIndexImpl() {
+        if(labelIndex == null) {
+            labelIndex = new StoredMessageLabelIndexImpl(this);
+        }
+        return labelIndex;
+    }
+
     @Override
     public List<StoredFolder> getFolders() {
         activate(ActivationPurpose.READ);
@@ -168,6 +184,7 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
               if(!messagesById.contains(sm.getMessageId())) {
                 messageList.add(sm);
                 messagesById.put(sm.getMessageId(), sm);
+                getLabelIndexImpl().addMessage(sm);
               }
             }
             database.store(messagesById);
@@ -183,6 +200,7 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
             if(!messagesById.contains(message.getMessageId())) {
               messageList.add(message);
               messagesById.put(message.getMessageId(), message);
+              getLabelIndexImpl().addMessage(message);
               database.store(messagesById);
             }
         } finally {
@@ -193,25 +211,29 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
     }
 
     @Override
-    public void removeDeletedMessages() {
+    public List<StoredMessage> removeDeletedMessages() {
         final EventList<StoredMessage> eventList = getWritableMessageEventList();
         eventList.getReadWriteLock().writeLock().lock();
         try {
             final int count = countDeletedMessages(eventList);
             if(count == 0) {
-                return;
+                return ImmutableList.of();
             }
             final List<StoredMessage> retainedMessages = new ArrayList<>(eventList.size() - count);
+            final List<StoredMessage> deletedMessages = new ArrayList<>(count);
             for (StoredMessage msg : eventList) {
                 if(msg.getReferenceCount() > 0) {
                     retainedMessages.add(msg);
                 } else {
+                    deletedMessages.add(msg);
+                    getLabelIndexImpl().removeMessage(msg);
                     database.delete(msg);
                 }
             }
             eventList.clear();
             messagesById.clear();
             addMessages(retainedMessages);
+            return deletedMessages;
         } finally {
             eventList.getReadWriteLock().writeLock().unlock();
         }
@@ -230,6 +252,7 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
     public void removeMessage(StoredMessage message) {
         try {
             writeLockMessageEventList().remove(message);
+            getLabelIndexImpl().removeMessage(message);
         } finally {
             writeUnlockMessageEventList();
         }
@@ -239,6 +262,9 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
     public void removeMessages(Collection<StoredMessage> messages) {
         try {
             writeLockMessageEventList().removeAll(messages);
+            for(StoredMessage message: messages) {
+                getLabelIndexImpl().removeMessage(message);
+            }
         } finally {
             writeUnlockMessageEventList();
         }
@@ -320,6 +346,14 @@ public class BasicMailAccount implements MailAccount, Storeable, Activatable {
 		this.activator = activator;
 	}
 
+	@Override
+	public synchronized void onDelete(Database database) {
+		if(labelIndex != null) {
+			labelIndex.close();
+			labelIndex = null;
+		}
+	}
+
 	@Override
 	public void setDatabase(Database database) {
 		this.database = checkNotNull(database);
@@ -7,19 +7,26 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
 import com.subgraph.sgmail.JavamailUtils;
+import com.subgraph.sgmail.database.Database;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.MessageFactory;
 import com.subgraph.sgmail.messages.MessageUser;
+import com.subgraph.sgmail.messages.ParsedMessageCacheStatistics;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.messages.StoredMessage.Builder;
 
 public class MessageFactoryService implements MessageFactory {
 
 	private JavamailUtils javamailUtils;
+	private Database database;
 	
 	void setJavamailUtils(JavamailUtils javamailUtils) {
 		this.javamailUtils = javamailUtils;
 	}
+
+	void setDatabase(Database database) {
+		this.database = database;
+	}
 	
 	@Override
 	public MessageAttachment createMessageAttachment(List<Integer> mimePath,
@@ -42,7 +49,7 @@ public class MessageFactoryService implements MessageFactory {
 
 	@Override
 	public Builder createStoredMessageBuilder(byte[] rawBytes) {
-		return new StoredMessageBuilder(rawBytes);
+		return new StoredMessageBuilder(database.getBlobStore(), rawBytes);
 	}
 
 	@Override
@@ -67,6 +74,11 @@ public class MessageFactoryService implements MessageFactory {
 		
 	}
 	
+	@Override
+	public ParsedMessageCacheStatistics getParsedMessageCacheStatistics() {
+		return ParsedMessageCache.getInstance();
+	}
+
 	private DecryptableStoredMessage getDecryptable(StoredMessage message) {
 		if(!(message instanceof DecryptableStoredMessage)) {
 			throw new IllegalArgumentException("Message is not a DecryptableStoredMessage as expected "+ message.getClass().getName());
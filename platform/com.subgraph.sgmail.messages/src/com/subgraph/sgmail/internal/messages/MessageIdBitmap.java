@@ -0,0 +1,106 @@
+package com.subgraph.sgmail.internal.messages;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * A set of message ids stored as a bitmap which is split into fixed size chunks, with only the
+ * chunks which contain at least one id allocated.  Message ids are allocated sequentially, so
+ * the ids of an account or a label fall into a limited number of chunks and a set costs little
+ * more than a bit per id in the range it spans, however sparse it is overall.
+ */
+class MessageIdBitmap {
+
+    private final static int CHUNK_SHIFT = 12;
+    private final static int WORDS_PER_CHUNK = (1 << CHUNK_SHIFT) / 64;
+    private final static int OFFSET_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final TIntObjectHashMap<long[]> chunks = new TIntObjectHashMap<>();
+    private int cardinality;
+
+    boolean add(int id) {
+        final int key = id >>> CHUNK_SHIFT;
+        long[] words = chunks.get(key);
+        if(words == null) {
+            words = new long[WORDS_PER_CHUNK];
+            chunks.put(key, words);
+        }
+        final int offset = id & OFFSET_MASK;
+        final long bit = 1L << offset;
+        if((words[offset >>> 6] & bit) != 0) {
+            return false;
+        }
+        words[offset >>> 6] |= bit;
+        cardinality += 1;
+        return true;
+    }
+
+    boolean remove(int id) {
+        final int key = id >>> CHUNK_SHIFT;
+        final long[] words = chunks.get(key);
+        if(words == null) {
+            return false;
+        }
+        final int offset = id & OFFSET_MASK;
+        final long bit = 1L << offset;
+        if((words[offset >>> 6] & bit) == 0) {
+            return false;
+        }
+        words[offset >>> 6] &= ~bit;
+        cardinality -= 1;
+        if(isEmpty(words)) {
+            chunks.remove(key);
+        }
+        return true;
+    }
+
+    boolean contains(int id) {
+        final long[] words = chunks.get(id >>> CHUNK_SHIFT);
+        if(words == null) {
+            return false;
+        }
+        final int offset = id & OFFSET_MASK;
+        return (words[offset >>> 6] & (1L << offset)) != 0;
+    }
+
+    void clear() {
+        chunks.clear();
+        cardinality = 0;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the number of ids in both this set and <code>other</code>, visiting only the chunks
+     * of the set with fewer chunks.
+     */
+    int andCardinality(MessageIdBitmap other) {
+        final MessageIdBitmap smaller = (chunks.size() <= other.chunks.size()) ? this : other;
+        final MessageIdBitmap larger = (smaller == this) ? other : this;
+        int count = 0;
+        final TIntObjectIterator<long[]> it = smaller.chunks.iterator();
+        while(it.hasNext()) {
+            it.advance();
+            final long[] otherWords = larger.chunks.get(it.key());
+            if(otherWords == null) {
+                continue;
+            }
+            final long[] words = it.value();
+            for(int i = 0; i < WORDS_PER_CHUNK; i++) {
+                count += Long.bitCount(words[i] & otherWords[i]);
+            }
+        }
+        return count;
+    }
+
+    private static boolean isEmpty(long[] words) {
+        for(long w: words) {
+            if(w != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package com.subgraph.sgmail.internal.messages;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.subgraph.sgmail.messages.ParsedMessageCacheStatistics;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A single cache of parsed messages shared by all stored messages, bounded by the estimated
+ * number of bytes the cached messages hold rather than by the number of messages.  Replaces
+ * keeping the parsed message on each StoredMessageSummary for as long as it stays activated.
+ */
+class ParsedMessageCache implements ParsedMessageCacheStatistics {
+
+    private final static long MAX_WEIGHT_LIMIT = 64L * 1024 * 1024;
+
+    /** Estimated size of the parsed header structures and of the message object itself. */
+    private final static int ENTRY_OVERHEAD = 4096;
+
+    private final static ParsedMessageCache instance = new ParsedMessageCache(getDefaultMaximumWeight());
+
+    static ParsedMessageCache getInstance() {
+        return instance;
+    }
+
+    private static long getDefaultMaximumWeight() {
+        return Math.min(MAX_WEIGHT_LIMIT, Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    private final Cache<Integer, MimeMessage> cache;
+
+    ParsedMessageCache(long maximumWeight) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Integer id, MimeMessage message) -> estimateSize(message))
+                .recordStats()
+                .build();
+    }
+
+    MimeMessage get(int messageId, Callable<MimeMessage> parser) throws MessagingException {
+        try {
+            return cache.get(messageId, parser);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof MessagingException) {
+                throw (MessagingException) e.getCause();
+            }
+            throw new MessagingException("Error parsing message "+ messageId, (Exception) e.getCause());
+        }
+    }
+
+    void invalidate(int messageId) {
+        cache.invalidate(messageId);
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        final CacheStats stats = cache.stats();
+        return (stats.requestCount() == 0) ? 0 : stats.hitRate();
+    }
+
+    /**
+     * A message parsed from a shared stream refers to the stored data instead of copying it, but
+     * since it may also have been parsed from a heap copy the content size is always counted.
+     */
+    private static int estimateSize(MimeMessage message) {
+        try {
+            return ENTRY_OVERHEAD + Math.max(0, message.getSize());
+        } catch (MessagingException e) {
+            return ENTRY_OVERHEAD;
+        }
+    }
+}
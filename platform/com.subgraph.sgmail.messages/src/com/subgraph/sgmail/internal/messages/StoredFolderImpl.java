@@ -9,6 +9,7 @@ import java.util.List;
 import ca.odell.glazedlists.BasicEventList;
 import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.GlazedLists;
+import gnu.trove.list.TIntList;
 
 import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
@@ -144,6 +145,25 @@ public class StoredFolderImpl implements StoredFolder, Activatable, Storeable {
     }
   }
 
+  @Override
+  public List<StoredMessage> removeMessagesAt(TIntList positions) {
+    final EventList<StoredMessage> eventList = getWritableMessageEventList();
+    final List<StoredMessage> removed = new ArrayList<>(positions.size());
+    eventList.getReadWriteLock().writeLock().lock();
+    try {
+      for (int i = positions.size() - 1; i >= 0; i--) {
+        final StoredMessage msg = eventList.remove(positions.get(i));
+        msg.decrementReferenceCount();
+        removed.add(msg);
+      }
+      Collections.reverse(removed);
+      return removed;
+    } finally {
+      database.store(messages);
+      eventList.getReadWriteLock().writeLock().unlock();
+    }
+  }
+
   private static boolean hasDeletedMessages(List<StoredMessage> sourceList) {
     for (StoredMessage msg : sourceList) {
       if (msg.isFlagSet(StoredMessage.FLAG_DELETED)) {
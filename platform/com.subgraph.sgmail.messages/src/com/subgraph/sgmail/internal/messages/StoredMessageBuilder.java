@@ -1,10 +1,12 @@
 package com.subgraph.sgmail.internal.messages;
 
+import com.subgraph.sgmail.database.BlobStore;
 import com.subgraph.sgmail.messages.*;
 
 import java.util.List;
 
 public class StoredMessageBuilder implements StoredMessage.Builder {
+    final BlobStore blobStore;
     byte[] rawDataBytes;
     String subject;
     String bodySnippet;
@@ -20,6 +22,11 @@ public class StoredMessageBuilder implements StoredMessage.Builder {
     List<StoredMessageLabel> messageLabels;
 
     public StoredMessageBuilder(byte[] rawBytes) {
+        this(null, rawBytes);
+    }
+
+    StoredMessageBuilder(BlobStore blobStore, byte[] rawBytes) {
+        this.blobStore = blobStore;
         this.rawDataBytes = rawBytes;
     }
 
@@ -4,9 +4,11 @@ import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
 import com.google.common.base.Charsets;
+import com.subgraph.sgmail.database.Database;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.MessageUser;
 
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -21,15 +23,16 @@ public class StoredMessageContent implements Activatable {
 	private transient Activator activator;
 
     StoredMessageContent(StoredMessageBuilder builder) {
-        this(builder.bodyText.getBytes(Charsets.UTF_8), builder.getToRecipients(), builder.getCCRecipients(), builder.getAttachmentArray(), builder.rawDataBytes);
+        this(builder.bodyText.getBytes(Charsets.UTF_8), builder.getToRecipients(), builder.getCCRecipients(), builder.getAttachmentArray(),
+        		new StoredMessageRawData(builder.blobStore, builder.rawDataBytes));
     }
 
-    StoredMessageContent(byte[] bodyText, MessageUser[] toRecipients, MessageUser[] ccRecipients, MessageAttachment[] attachments, byte[] rawDataBytes) {
+    StoredMessageContent(byte[] bodyText, MessageUser[] toRecipients, MessageUser[] ccRecipients, MessageAttachment[] attachments, StoredMessageRawData rawData) {
         this.bodyText = bodyText;
         this.toRecipients = toRecipients;
         this.ccRecipients = ccRecipients;
         this.attachments = attachments;
-        this.rawData = new StoredMessageRawData(rawDataBytes);
+        this.rawData = rawData;
     }
 
     byte[] getRawMessageBytes(boolean decrypted) {
@@ -37,6 +40,11 @@ public class StoredMessageContent implements Activatable {
         return rawData.getMessageBytes(decrypted);
     }
 
+    InputStream getRawMessageStream(boolean decrypted) {
+        activate(ActivationPurpose.READ);
+        return rawData.getMessageStream(decrypted);
+    }
+
     String getBodyText() {
         activate(ActivationPurpose.READ);
         return new String(bodyText, Charsets.UTF_8);
@@ -72,6 +80,12 @@ public class StoredMessageContent implements Activatable {
     
 
     
+    void deleteStoredObjects(Database database) {
+        activate(ActivationPurpose.READ);
+        rawData.deleteReferences(database);
+        database.delete(rawData);
+    }
+
     void setDecryptedMessageDetails(byte[] decryptedRawBytes, String decryptedBody, List<MessageAttachment> decryptedAttachments) {
     	activate(ActivationPurpose.WRITE);
     	this.attachments = decryptedAttachments.toArray(new MessageAttachment[decryptedAttachments.size()]);
@@ -3,6 +3,8 @@ package com.subgraph.sgmail.internal.messages;
 import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
+import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Deletable;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.MessageUser;
 import com.subgraph.sgmail.messages.StoredMessage;
@@ -15,8 +17,9 @@ import javax.mail.internet.MimeMessage;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntConsumer;
 
-public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessage, Activatable {
+public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessage, Activatable, Deletable {
 
     private final int messageId;
     private final int conversationId;
@@ -61,6 +64,7 @@ public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessag
         } else {
             labelBits |= getLabelBit(label);
         }
+        StoredMessageLabelIndexImpl.onLabelChanged(messageId, label.getIndex(), true);
     }
 
     @Override
@@ -71,6 +75,7 @@ public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessag
         } else {
             labelBits &= ~getLabelBit(label);
         }
+        StoredMessageLabelIndexImpl.onLabelChanged(messageId, label.getIndex(), false);
     }
 
     @Override
@@ -84,6 +89,27 @@ public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessag
         }
     }
 
+    /**
+     * Calls <code>consumer</code> with the index of every label of this message.
+     */
+    void forEachLabelIndex(IntConsumer consumer) {
+        activate(ActivationPurpose.READ);
+        forEachBit(labelBits, 1, consumer);
+        if(extendedLabelBits != null) {
+            for(int i = 0; i < extendedLabelBits.length; i++) {
+                forEachBit(extendedLabelBits[i], 65 + (i * 64), consumer);
+            }
+        }
+    }
+
+    private static void forEachBit(long bits, int firstIndex, IntConsumer consumer) {
+        while(bits != 0) {
+            final int bit = Long.numberOfTrailingZeros(bits);
+            consumer.accept(firstIndex + bit);
+            bits &= bits - 1;
+        }
+    }
+
     private long getLabelBit(StoredMessageLabel label) {
         if(label.getIndex() > 64) {
             throw new IllegalArgumentException("Label has extended index: "+ label.getIndex());
@@ -231,6 +257,7 @@ public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessag
     public void setFlags(int value) {
         activate(ActivationPurpose.WRITE);
         this.flags = value;
+        StoredMessageLabelIndexImpl.onFlagsChanged(messageId, value);
     }
 
     @Override
@@ -288,6 +315,15 @@ public class StoredMessageImpl implements StoredMessage, DecryptableStoredMessag
 		activate(ActivationPurpose.WRITE);
 		flags |= StoredMessage.FLAG_DECRYPTED;
 		summary.setDecryptedMessageDetails(decryptedRawBytes, decryptedBody, decryptedAttachments);
+		ParsedMessageCache.getInstance().invalidate(messageId);
+	}
+
+	@Override
+	public void onDelete(Database database) {
+		activate(ActivationPurpose.READ);
+		ParsedMessageCache.getInstance().invalidate(messageId);
+		summary.deleteStoredObjects(database);
+		database.delete(summary);
 	}
 	
 	@Override
@@ -0,0 +1,202 @@
+package com.subgraph.sgmail.internal.messages;
+
+import ca.odell.glazedlists.EventList;
+import com.subgraph.sgmail.accounts.Account;
+import com.subgraph.sgmail.messages.StoredMessage;
+import com.subgraph.sgmail.messages.StoredMessageLabel;
+import com.subgraph.sgmail.messages.StoredMessageLabelIndex;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Label index of a single account, holding a bitmap of message ids for each label index and a
+ * bitmap of the unread messages of the account.  The index is not stored in the database.  It is
+ * built by reading the label bits and flags of every message of the account the first time it is
+ * queried, and from then on is kept up to date as messages are added to or removed from the
+ * account and as their labels and flags change.
+ */
+public class StoredMessageLabelIndexImpl implements StoredMessageLabelIndex {
+
+    /**
+     * Indexes which have been built and must be told about label and flag changes.  An index is
+     * removed when it is closed, and is only weakly held so that the index of an account instance
+     * which the database has let go of does not stay registered.
+     */
+    private final static Set<StoredMessageLabelIndexImpl> builtIndexes = Collections.newSetFromMap(new WeakHashMap<>());
+
+    static void onLabelChanged(int messageId, int labelIndex, boolean isAdded) {
+        for(StoredMessageLabelIndexImpl index: getBuiltIndexes()) {
+            index.updateLabel(messageId, labelIndex, isAdded);
+        }
+    }
+
+    static void onFlagsChanged(int messageId, int flags) {
+        for(StoredMessageLabelIndexImpl index: getBuiltIndexes()) {
+            index.updateFlags(messageId, flags);
+        }
+    }
+
+    private static List<StoredMessageLabelIndexImpl> getBuiltIndexes() {
+        synchronized (builtIndexes) {
+            return new ArrayList<>(builtIndexes);
+        }
+    }
+
+    private final Account account;
+    private final MessageIdBitmap messages = new MessageIdBitmap();
+    private final MessageIdBitmap unreadMessages = new MessageIdBitmap();
+    private final TIntObjectHashMap<MessageIdBitmap> labelBitmaps = new TIntObjectHashMap<>();
+    private volatile boolean isBuilt;
+
+    public StoredMessageLabelIndexImpl(Account account) {
+        this.account = account;
+    }
+
+    /**
+     * Called with the write lock of the account message list held.
+     */
+    public synchronized void addMessage(StoredMessage message) {
+        if(isBuilt) {
+            indexMessage(message);
+        }
+    }
+
+    public synchronized void removeMessage(StoredMessage message) {
+        if(!isBuilt) {
+            return;
+        }
+        final int id = message.getMessageId();
+        if(!messages.remove(id)) {
+            return;
+        }
+        unreadMessages.remove(id);
+        labelBitmaps.forEachValue(bitmap -> {
+            bitmap.remove(id);
+            return true;
+        });
+    }
+
+    /**
+     * Stops tracking label and flag changes and discards the index.  The index is built again if
+     * it is queried after being closed.
+     */
+    public synchronized void close() {
+        synchronized (builtIndexes) {
+            builtIndexes.remove(this);
+        }
+        isBuilt = false;
+        messages.clear();
+        unreadMessages.clear();
+        labelBitmaps.clear();
+    }
+
+    @Override
+    public boolean containsLabel(StoredMessage message, StoredMessageLabel label) {
+        ensureBuilt();
+        final int id = message.getMessageId();
+        synchronized (this) {
+            final MessageIdBitmap bitmap = labelBitmaps.get(label.getIndex());
+            return bitmap != null && bitmap.contains(id);
+        }
+    }
+
+    @Override
+    public int getMessageCount(StoredMessageLabel label) {
+        ensureBuilt();
+        synchronized (this) {
+            final MessageIdBitmap bitmap = labelBitmaps.get(label.getIndex());
+            return (bitmap == null) ? 0 : bitmap.cardinality();
+        }
+    }
+
+    @Override
+    public int getUnreadMessageCount(StoredMessageLabel label) {
+        ensureBuilt();
+        synchronized (this) {
+            final MessageIdBitmap bitmap = labelBitmaps.get(label.getIndex());
+            return (bitmap == null) ? 0 : bitmap.andCardinality(unreadMessages);
+        }
+    }
+
+    /**
+     * The message list lock is always taken before the index lock, as it is when messages are
+     * added to the account.
+     */
+    private void ensureBuilt() {
+        if(isBuilt) {
+            return;
+        }
+        final EventList<StoredMessage> list = account.getMessageEventList();
+        list.getReadWriteLock().readLock().lock();
+        try {
+            synchronized (this) {
+                if(isBuilt) {
+                    return;
+                }
+                for(StoredMessage message: list) {
+                    indexMessage(message);
+                }
+                isBuilt = true;
+                synchronized (builtIndexes) {
+                    builtIndexes.add(this);
+                }
+            }
+        } finally {
+            list.getReadWriteLock().readLock().unlock();
+        }
+    }
+
+    private void indexMessage(StoredMessage message) {
+        final int id = message.getMessageId();
+        messages.add(id);
+        if((message.getFlags() & StoredMessage.FLAG_SEEN) == 0) {
+            unreadMessages.add(id);
+        }
+        if(message instanceof StoredMessageImpl) {
+            ((StoredMessageImpl) message).forEachLabelIndex(labelIndex -> getLabelBitmap(labelIndex).add(id));
+        } else {
+            for(StoredMessageLabel label: account.getMessageLabels()) {
+                if(message.containsLabel(label)) {
+                    getLabelBitmap(label.getIndex()).add(id);
+                }
+            }
+        }
+    }
+
+    private MessageIdBitmap getLabelBitmap(int labelIndex) {
+        MessageIdBitmap bitmap = labelBitmaps.get(labelIndex);
+        if(bitmap == null) {
+            bitmap = new MessageIdBitmap();
+            labelBitmaps.put(labelIndex, bitmap);
+        }
+        return bitmap;
+    }
+
+    private synchronized void updateLabel(int messageId, int labelIndex, boolean isAdded) {
+        if(!messages.contains(messageId)) {
+            return;
+        }
+        if(isAdded) {
+            getLabelBitmap(labelIndex).add(messageId);
+        } else if(labelBitmaps.containsKey(labelIndex)) {
+            labelBitmaps.get(labelIndex).remove(messageId);
+        }
+    }
+
+    private synchronized void updateFlags(int messageId, int flags) {
+        if(!messages.contains(messageId)) {
+            return;
+        }
+        if((flags & StoredMessage.FLAG_SEEN) == 0) {
+            unreadMessages.add(messageId);
+        } else {
+            unreadMessages.remove(messageId);
+        }
+    }
+}
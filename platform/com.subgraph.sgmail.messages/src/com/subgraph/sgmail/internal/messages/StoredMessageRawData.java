@@ -1,34 +1,138 @@
 package com.subgraph.sgmail.internal.messages;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
 import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
+import com.subgraph.sgmail.database.BlobBacked;
+import com.subgraph.sgmail.database.BlobReference;
+import com.subgraph.sgmail.database.BlobStore;
+import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Storeable;
 
-public class StoredMessageRawData implements Activatable {
+/**
+ * The raw bytes of a message are kept in the {@link BlobStore} and only a {@link BlobReference} is
+ * stored in the object database.  The byte array fields hold the data of messages stored before the
+ * blob store existed, or stored without a blob store, until they are migrated.
+ */
+public class StoredMessageRawData implements Activatable, Storeable, BlobBacked {
 
-    private final byte[] messageBytes;
+    private byte[] messageBytes;
     private byte[] decryptedMessageBytes;
-    
+    private BlobReference messageRef;
+    private BlobReference decryptedRef;
+
+	private transient BlobStore blobStore;
 	private transient Activator activator;
 
     public StoredMessageRawData(byte[] messageBytes) {
-        this.messageBytes = messageBytes;
+        this(null, messageBytes);
+    }
+
+    StoredMessageRawData(BlobStore blobStore, byte[] messageBytes) {
+        this.blobStore = blobStore;
+        this.messageRef = storeBlob(messageBytes);
+        this.messageBytes = (messageRef == null) ? messageBytes : null;
     }
 
     byte[] getMessageBytes(boolean decrypted) {
         activate(ActivationPurpose.READ);
-        if(decrypted && decryptedMessageBytes != null) {
-        	return decryptedMessageBytes;
+        if(decrypted && hasDecrypted()) {
+        	return readBytes(decryptedRef, decryptedMessageBytes);
         } else {
-        	return messageBytes;
+        	return readBytes(messageRef, messageBytes);
+        }
+    }
+
+    /**
+     * Returns a stream reading the message directly from the blob store when possible, which a
+     * MimeMessage can parse without copying the message into the heap.
+     */
+    InputStream getMessageStream(boolean decrypted) {
+        activate(ActivationPurpose.READ);
+        final BlobReference ref = (decrypted && hasDecrypted()) ? decryptedRef : messageRef;
+        if(ref != null && blobStore != null) {
+        	try {
+        		return blobStore.openStream(ref);
+        	} catch (IOException e) {
+        		throw new UncheckedIOException("Error reading message from blob store", e);
+        	}
         }
+        return new ByteArrayInputStream(getMessageBytes(decrypted));
     }
-    
+
     void setDecryptedMessageBytes(byte[] decryptedBytes) {
     	activate(ActivationPurpose.WRITE);
-    	decryptedMessageBytes = decryptedBytes;
+    	decryptedRef = storeBlob(decryptedBytes);
+    	decryptedMessageBytes = (decryptedRef == null) ? decryptedBytes : null;
     }
-    
+
+	@Override
+	public synchronized boolean migrateToBlobStore(BlobStore store) throws IOException {
+		activate(ActivationPurpose.READ);
+		if(messageBytes == null && decryptedMessageBytes == null) {
+			return false;
+		}
+		activate(ActivationPurpose.WRITE);
+		if(messageBytes != null) {
+			messageRef = store.store(messageBytes);
+			messageBytes = null;
+		}
+		if(decryptedMessageBytes != null) {
+			decryptedRef = store.store(decryptedMessageBytes);
+			decryptedMessageBytes = null;
+		}
+		return true;
+	}
+
+	@Override
+	public void setDatabase(Database database) {
+		blobStore = database.getBlobStore();
+	}
+
+	void deleteReferences(Database database) {
+		activate(ActivationPurpose.READ);
+		if(messageRef != null) {
+			database.delete(messageRef);
+		}
+		if(decryptedRef != null) {
+			database.delete(decryptedRef);
+		}
+	}
+
+    private boolean hasDecrypted() {
+    	return decryptedRef != null || decryptedMessageBytes != null;
+    }
+
+    private BlobReference storeBlob(byte[] data) {
+    	if(blobStore == null || data == null) {
+    		return null;
+    	}
+    	try {
+    		return blobStore.store(data);
+    	} catch (IOException e) {
+    		throw new UncheckedIOException("Error writing message to blob store", e);
+    	}
+    }
+
+    private byte[] readBytes(BlobReference ref, byte[] inlineBytes) {
+    	if(ref == null) {
+    		return inlineBytes;
+    	}
+    	if(blobStore == null) {
+    		throw new IllegalStateException("Message data is in the blob store but no blob store is available");
+    	}
+    	try {
+    		return blobStore.read(ref);
+    	} catch (IOException e) {
+    		throw new UncheckedIOException("Error reading message from blob store", e);
+    	}
+    }
+
 	@Override
 	public void activate(ActivationPurpose activationPurpose) {
 		if(activator != null) {
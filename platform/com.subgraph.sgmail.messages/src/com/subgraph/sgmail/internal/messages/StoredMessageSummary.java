@@ -4,6 +4,7 @@ import com.db4o.activation.ActivationPurpose;
 import com.db4o.activation.Activator;
 import com.db4o.ta.Activatable;
 import com.google.common.base.Charsets;
+import com.subgraph.sgmail.database.Database;
 import com.subgraph.sgmail.messages.LocalMimeMessage;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.MessageUser;
@@ -13,7 +14,6 @@ import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.List;
 
@@ -27,7 +27,6 @@ public class StoredMessageSummary implements Activatable {
   private int signatureStatus;
   private String signatureKeyId;
 
-  private transient MimeMessage cachedMimeMessage;
   private transient Activator activator;
 
   StoredMessageSummary(StoredMessageBuilder builder, StoredMessageContent content) {
@@ -83,24 +82,28 @@ public class StoredMessageSummary implements Activatable {
   }
 
   InputStream getRawMessageStream(boolean decrypted) {
-    return new ByteArrayInputStream(getRawMessageBytes(decrypted));
+    activate(ActivationPurpose.READ);
+    return content.getRawMessageStream(decrypted);
+  }
+
+  void deleteStoredObjects(Database database) {
+    activate(ActivationPurpose.READ);
+    content.deleteStoredObjects(database);
+    database.delete(content);
   }
 
   void setDecryptedMessageDetails(byte[] decryptedRawBytes, String decryptedBody,
       List<MessageAttachment> decryptedAttachments) {
     activate(ActivationPurpose.WRITE);
-    cachedMimeMessage = null;
     final String snippet = StoredMessageBuilder.createSnippetFromBody(decryptedBody);
     bodySnippet = snippet.getBytes(Charsets.UTF_8);
     content.setDecryptedMessageDetails(decryptedRawBytes, decryptedBody, decryptedAttachments);
   }
 
-  synchronized MimeMessage toMimeMessage(StoredMessage msg, Session session) throws MessagingException {
+  MimeMessage toMimeMessage(StoredMessage msg, Session session) throws MessagingException {
     activate(ActivationPurpose.READ);
-    if (cachedMimeMessage == null) {
-      cachedMimeMessage = new LocalMimeMessage(msg, session, getRawMessageStream(true));
-    }
-    return cachedMimeMessage;
+    return ParsedMessageCache.getInstance().get(msg.getMessageId(),
+        () -> new LocalMimeMessage(msg, session, getRawMessageStream(true)));
   }
 
   synchronized int incrementReferenceCount() {
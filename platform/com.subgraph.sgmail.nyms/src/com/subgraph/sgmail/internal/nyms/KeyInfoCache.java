@@ -0,0 +1,160 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.subgraph.sgmail.database.Model;
+import com.subgraph.sgmail.nyms.NymsKeyInfo;
+
+/**
+ * Caches key info lookups in memory and in the database, so that they survive a restart.  Lookups
+ * which found a key expire after {@link #KEY_TTL_MILLIS}, and lookups which found no key expire
+ * sooner after {@link #NO_KEY_TTL_MILLIS} so that a key imported later is noticed.
+ *
+ * The in memory entries hold the same {@link NymsKeyInfo} instances which are returned to callers,
+ * so state such as an unlocked secret key is kept until the entry expires.
+ */
+class KeyInfoCache {
+  private final static Logger logger = Logger.getLogger(KeyInfoCache.class.getName());
+
+  final static long KEY_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  final static long NO_KEY_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  static class Entry {
+    private final NymsKeyInfo keyInfo;
+    private final long lookupTime;
+
+    Entry(NymsKeyInfo keyInfo, long lookupTime) {
+      this.keyInfo = keyInfo;
+      this.lookupTime = lookupTime;
+    }
+
+    /** Returns the cached key info, or null if the lookup found no key */
+    NymsKeyInfo getKeyInfo() {
+      return keyInfo;
+    }
+
+    boolean isExpired(long now) {
+      return now - lookupTime > ((keyInfo == null) ? NO_KEY_TTL_MILLIS : KEY_TTL_MILLIS);
+    }
+  }
+
+  static String addressKey(String emailAddress) {
+    return "address:"+ emailAddress.toLowerCase(Locale.ENGLISH);
+  }
+
+  static String keyIdKey(String keyId) {
+    return "keyid:"+ keyId.toUpperCase(Locale.ENGLISH);
+  }
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final NymsRequestStatistics statistics;
+  private Model model;
+  private StoredKeyInfoCache store;
+
+  KeyInfoCache(NymsRequestStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  synchronized void setModel(Model model) {
+    this.model = model;
+    this.store = null;
+  }
+
+  /**
+   * Returns the unexpired entry for <code>key</code>, or null if the key must be looked up.
+   */
+  Entry get(String key) {
+    final Entry entry = getEntry(key);
+    if(entry == null) {
+      statistics.keyInfoCacheMiss();
+    } else {
+      statistics.keyInfoCacheHit();
+    }
+    return entry;
+  }
+
+  /**
+   * Returns true if <code>key</code> has an unexpired entry, without counting a cache hit or miss.
+   */
+  boolean contains(String key) {
+    return getEntry(key) != null;
+  }
+
+  private Entry getEntry(String key) {
+    final long now = System.currentTimeMillis();
+    final Entry entry = entries.get(key);
+    if(entry != null && !entry.isExpired(now)) {
+      return entry;
+    }
+    final StoredKeyInfoCache store = getStore();
+    if(store == null) {
+      return null;
+    }
+    final StoredKeyInfo stored = store.get(key);
+    if(stored == null) {
+      return null;
+    }
+    final Entry storedEntry = new Entry(stored.toKeyInfo(), stored.getLookupTime());
+    if(storedEntry.isExpired(now)) {
+      return null;
+    }
+    entries.put(key, storedEntry);
+    return storedEntry;
+  }
+
+  void put(String key, NymsKeyInfo info) {
+    putEntry(key, info, System.currentTimeMillis());
+    commit();
+  }
+
+  /**
+   * Add the result of several lookups with a single database commit.
+   */
+  void putAll(Map<String, NymsKeyInfo> results) {
+    final long now = System.currentTimeMillis();
+    for(Map.Entry<String, NymsKeyInfo> entry: results.entrySet()) {
+      putEntry(entry.getKey(), entry.getValue(), now);
+    }
+    commit();
+  }
+
+  void invalidate(String key) {
+    entries.remove(key);
+    final StoredKeyInfoCache store = getStore();
+    if(store != null) {
+      store.remove(key);
+      store.commit();
+    }
+  }
+
+  private void putEntry(String key, NymsKeyInfo info, long now) {
+    entries.put(key, new Entry(info, now));
+    final StoredKeyInfoCache store = getStore();
+    if(store != null) {
+      store.put(key, new StoredKeyInfo(info, now));
+    }
+  }
+
+  private void commit() {
+    final StoredKeyInfoCache store = getStore();
+    if(store != null) {
+      store.commit();
+    }
+  }
+
+  private synchronized StoredKeyInfoCache getStore() {
+    if(store == null && model != null) {
+      try {
+        store = model.getDatabase().getSingleton(StoredKeyInfoCache.class);
+      } catch (IllegalStateException e) {
+        // database is not opened yet, use only the in memory cache for now
+        logger.fine("Key info cache database not available: "+ e.getMessage());
+      }
+    }
+    return store;
+  }
+}
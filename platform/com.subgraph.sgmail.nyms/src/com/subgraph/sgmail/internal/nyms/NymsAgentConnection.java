@@ -1,34 +1,111 @@
 package com.subgraph.sgmail.internal.nyms;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
 
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
 
-import com.google.common.base.Charsets;
+import com.subgraph.sgmail.internal.nyms.NymsResponseDecoder.DecodedResponse;
 import com.subgraph.sgmail.nyms.NymsAgentException;
 import com.subgraph.sgmail.nyms.NymsIncomingProcessingResult;
 import com.subgraph.sgmail.nyms.NymsKeyInfo;
 import com.subgraph.sgmail.nyms.NymsOutgoingProcessingResult;
 
+/**
+ * A pool of nymsd agent processes.  Each request is sent to the process with the fewest requests
+ * in flight, and a new process is started when every running process is busy, up to a limit
+ * based on the number of processors.  Processes which exit are dropped from the pool and replaced
+ * on demand.
+ *
+ * Processes are started and sent requests without holding the monitor of the connection, since
+ * responses are completed on the reader thread of each process, which may need the monitor.
+ */
 public class NymsAgentConnection {
 
+  private final static Logger logger = Logger.getLogger(NymsAgentConnection.class.getName());
   private final static boolean debugLogging = true;
-  
-  private Process process;
-  private int currentId;
+  private final static int MAXIMUM_PROCESS_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private final static int MAXIMUM_KEY_INFO_IN_FLIGHT = 4 * MAXIMUM_PROCESS_COUNT;
+
+  private final NymsRequestStatistics statistics;
+  private final AtomicInteger currentId = new AtomicInteger();
+  private final List<NymsProcess> processes = new ArrayList<>();
+  private final Set<NymsProcess> retiredProcesses = ConcurrentHashMap.newKeySet();
+  /**
+   * Private keys are unlocked separately in each process, so unlocked keys are replayed to new
+   * processes.  The passphrases are only kept until the pool has started every process it may
+   * run, and a process started after that, such as one replacing a process which exited, asks
+   * for the passphrase again.
+   */
+  private final Map<String, String> unlockedKeys = new LinkedHashMap<>();
+  private String agentPath;
+  private int processCounter;
+  private int startingCount;
+
+  NymsAgentConnection(NymsRequestStatistics statistics) {
+    this.statistics = statistics;
+  }
 
   void start() throws IOException, NymsAgentException {
-    final String agentPath = findNymsAgentPath();
-    final ProcessBuilder pb = new ProcessBuilder(agentPath, "-pipe", "-debug");
-    process = pb.start();
+    agentPath = findNymsAgentPath();
+    final NymsProcess process = createProcess();
+    process.start();
+    synchronized (this) {
+      processes.add(process);
+    }
+  }
+
+  private synchronized NymsProcess createProcess() {
+    return new NymsProcess(agentPath, ++processCounter);
+  }
+
+  /**
+   * Start a process and unlock in it every key unlocked so far, including keys unlocked while it
+   * was starting, then add it to the pool.  Called without holding the monitor.
+   */
+  private NymsProcess startProcess() throws IOException {
+    final NymsProcess process = createProcess();
+    process.start();
+    final Map<String, String> replayed = new HashMap<>();
+    while(true) {
+      final Map<String, String> pending = new LinkedHashMap<>();
+      synchronized (this) {
+        for(Map.Entry<String, String> entry: unlockedKeys.entrySet()) {
+          if(!replayed.containsKey(entry.getKey())) {
+            pending.put(entry.getKey(), entry.getValue());
+          }
+        }
+        if(pending.isEmpty()) {
+          processes.add(process);
+          return process;
+        }
+      }
+      for(Map.Entry<String, String> entry: pending.entrySet()) {
+        try {
+          sendUnlock(process, entry.getKey(), entry.getValue());
+        } catch (NymsAgentException e) {
+          logger.warning("Failed to unlock key "+ entry.getKey() +" in new nyms agent process: "+ e.getMessage());
+        }
+      }
+      replayed.putAll(pending);
+    }
   }
 
   private static String findNymsAgentPath() throws NymsAgentException {
@@ -51,17 +128,106 @@ public class NymsAgentConnection {
     throw new NymsAgentException("No /nyms directory found in any parent directory of "+ syspath);
 
   }
-  private int getMessageId() {
-    currentId += 1;
-    return currentId;
-  }
-  
+
   private NymsRequest newRequest(String methodName) {
-    return new NymsRequest(process, methodName, getMessageId(), debugLogging);
+    return new NymsRequest(this, methodName, currentId.incrementAndGet(), debugLogging);
   }
 
   boolean isConnected() {
-    return process != null && process.isAlive();
+    return agentPath != null;
+  }
+
+  synchronized int getProcessCount() {
+    return processes.size();
+  }
+
+  synchronized void close() {
+    for(NymsProcess process: processes) {
+      process.close();
+    }
+    processes.clear();
+    unlockedKeys.clear();
+  }
+
+  DecodedResponse execute(NymsRequest request) throws NymsAgentException {
+    return NymsProcess.waitForResponse(executeAsync(request));
+  }
+
+  DecodedResponse executeOn(NymsProcess process, NymsRequest request) throws NymsAgentException {
+    return NymsProcess.waitForResponse(executeAsyncOn(process, request));
+  }
+
+  CompletableFuture<DecodedResponse> executeAsync(NymsRequest request) throws NymsAgentException {
+    return executeAsyncOn(chooseProcess(), request);
+  }
+
+  private CompletableFuture<DecodedResponse> executeAsyncOn(NymsProcess process, NymsRequest request) {
+    statistics.requestStarted();
+    final long start = System.nanoTime();
+    return process.sendAsync(request).whenComplete((response, error) -> {
+      statistics.requestFinished(System.nanoTime() - start, error == null);
+      closeIfRetired(process);
+    });
+  }
+
+  private NymsProcess chooseProcess() throws NymsAgentException {
+    NymsProcess best = null;
+    synchronized (this) {
+      processes.removeIf(p -> !p.isAlive());
+      for(NymsProcess p: processes) {
+        if(best == null || p.getPendingCount() < best.getPendingCount()) {
+          best = p;
+        }
+      }
+      if(best != null && (best.getPendingCount() == 0 || processes.size() + startingCount >= MAXIMUM_PROCESS_COUNT)) {
+        return best;
+      }
+      startingCount += 1;
+    }
+    try {
+      return startProcess();
+    } catch (IOException e) {
+      if(best == null) {
+        throw new NymsAgentException("Error launching nyms process: "+ e.getMessage(), e);
+      }
+      logger.warning("Error launching additional nyms process: "+ e.getMessage());
+      return best;
+    } finally {
+      synchronized (this) {
+        startingCount -= 1;
+        forgetPassphrasesIfPoolFull();
+      }
+    }
+  }
+
+  /** Once no further process can be started the passphrases are no longer needed. */
+  private void forgetPassphrasesIfPoolFull() {
+    if(startingCount == 0 && processes.size() >= MAXIMUM_PROCESS_COUNT) {
+      unlockedKeys.clear();
+    }
+  }
+
+  /**
+   * Stop sending requests to every process except <code>keep</code>, and close them once their
+   * outstanding requests complete.  Processes started later will load the current keyring.
+   */
+  private synchronized void retireOtherProcesses(NymsProcess keep) {
+    for(NymsProcess p: processes) {
+      if(p != keep) {
+        retiredProcesses.add(p);
+      }
+    }
+    processes.retainAll(Collections.singleton(keep));
+    for(NymsProcess p: new ArrayList<>(retiredProcesses)) {
+      closeIfRetired(p);
+    }
+  }
+
+  /** Runs on the reader thread of <code>process</code>, so must not take the monitor. */
+  private void closeIfRetired(NymsProcess process) {
+    if(process.getPendingCount() == 0 && retiredProcesses.remove(process)) {
+      process.close();
+    }
   }
 
   int version() throws NymsAgentException {
@@ -77,6 +243,40 @@ public class NymsAgentConnection {
         .send());
   }
   
+  /**
+   * Look up several addresses at once.  Up to MAXIMUM_KEY_INFO_IN_FLIGHT requests are sent before
+   * waiting for the oldest response, so they are processed concurrently by the pool of agent
+   * processes without queueing an unbounded number of requests on them.
+   *
+   * @return a map from each address to its key, or to null if there is no key for the address
+   */
+  Map<String, NymsKeyInfo> getKeyInfo(Collection<String> addresses) throws NymsAgentException {
+    final Map<String, NymsKeyInfo> result = new LinkedHashMap<>();
+    final Map<String, NymsRequest> requests = new LinkedHashMap<>();
+    final Map<String, CompletableFuture<DecodedResponse>> responses = new HashMap<>();
+    for(String address: addresses) {
+      if(requests.size() >= MAXIMUM_KEY_INFO_IN_FLIGHT) {
+        readOldestKeyInfo(requests, responses, result);
+      }
+      final NymsRequest request = newRequest("Protocol.GetKeyInfo")
+          .addArgument("Address", address)
+          .addArgument("Lookup", false);
+      requests.put(address, request);
+      responses.put(address, request.sendAsync());
+    }
+    while(!requests.isEmpty()) {
+      readOldestKeyInfo(requests, responses, result);
+    }
+    return result;
+  }
+
+  private void readOldestKeyInfo(Map<String, NymsRequest> requests, Map<String, CompletableFuture<DecodedResponse>> responses, Map<String, NymsKeyInfo> result) throws NymsAgentException {
+    final String address = requests.keySet().iterator().next();
+    final NymsRequest request = requests.remove(address);
+    final DecodedResponse response = NymsProcess.waitForResponse(responses.remove(address));
+    result.put(address, getKeyInfoFromResponse(request.createResponse(response)));
+  }
+
   NymsKeyInfo getKeyInfoByKeyId(String keyId) throws NymsAgentException {
     return getKeyInfoFromResponse(newRequest("Protocol.GetKeyInfo")
         .addArgument("KeyId", keyId)
@@ -106,9 +306,8 @@ public class NymsAgentConnection {
   }
   
   NymsIncomingProcessingResult processIncoming(MimeMessage message, String passphrase) throws NymsAgentException {
-    final String messageText = renderMessage(message);
     NymsRequest request = newRequest("Protocol.ProcessIncoming");
-    request.addArgument("EmailBody", messageText);
+    request.addArgument("EmailBody", message);
     if(passphrase != null) {
       request.addArgument("Passphrase", passphrase);
     }
@@ -118,7 +317,6 @@ public class NymsAgentConnection {
   private NymsIncomingProcessingResult extractIncomingProcessingResult(NymsResponse r, Session session) throws NymsAgentException {
     final int verifyCode = r.getInt("VerifyResult");
     final int decryptCode = r.getInt("DecryptResult");
-    final String emailBody = r.getString("EmailBody");
     if(decryptCode == NymsIncomingProcessingResultImpl.DECRYPT_PASSPHRASE_NEEDED) {
       final List<String> encryptedKeyIds = r.getStringArray("EncryptedKeyIds");
       return NymsIncomingProcessingResultImpl.createPassphraseNeeded(encryptedKeyIds);
@@ -129,9 +327,9 @@ public class NymsAgentConnection {
     }
     final String signerKeyId = r.getString("SignerKeyId");
 
-    if(emailBody != null && !emailBody.isEmpty()) {
-      final byte[] rawBody = emailBody.getBytes(Charsets.ISO_8859_1);
-      return NymsIncomingProcessingResultImpl.create(verifyCode, decryptCode, rawBody, parseMessage(emailBody, session), signerKeyId);
+    final byte[] rawBody = r.getBytes("EmailBody");
+    if(rawBody.length > 0) {
+      return NymsIncomingProcessingResultImpl.create(verifyCode, decryptCode, rawBody, parseMessage(rawBody, session), signerKeyId);
     } else {
       return NymsIncomingProcessingResultImpl.create(verifyCode, decryptCode, null, null, signerKeyId);
     }
@@ -139,9 +337,8 @@ public class NymsAgentConnection {
   
   
   NymsOutgoingProcessingResult processOutgoing(MimeMessage message, boolean sign, boolean encrypt, String passphrase) throws NymsAgentException {
-    final String messageText = renderMessage(message);
     return extractOutgoingProcessingResult(newRequest("Protocol.ProcessOutgoing")
-        .addArgument("EmailBody", messageText)
+        .addArgument("EmailBody", message)
         .addArgument("Sign", sign)
         .addArgument("Encrypt", encrypt)
         .addArgument("Passphrase", passphrase)
@@ -174,8 +371,8 @@ public class NymsAgentConnection {
   }
   
   private MimeMessage extractOutgoingMessage(NymsResponse r, Session session) throws NymsAgentException {
-    final String emailBody = r.getString("EmailBody");
-    if(emailBody == null || emailBody.isEmpty()) {
+    final byte[] emailBody = r.getBytes("EmailBody");
+    if(emailBody.length == 0) {
       return null;
     }
     return parseMessage(emailBody, session);
@@ -187,34 +384,57 @@ public class NymsAgentConnection {
   }
   
   NymsKeyInfo generateKeys(String emailAddress, String realName, String comment) throws NymsAgentException {
-    return getKeyInfoFromResponse(newRequest("Protocol.GenerateKeys")
+    final NymsProcess process = chooseProcess();
+    final NymsKeyInfo info = getKeyInfoFromResponse(newRequest("Protocol.GenerateKeys")
         .addArgument("Email", emailAddress)
         .addArgument("RealName", realName)
         .addArgument("Comment", comment)
-        .send());
+        .sendTo(process));
+    retireOtherProcesses(process);
+    return info;
   }
 
   boolean unlockPrivateKey(String keyId, String passphrase) throws NymsAgentException {
+    final List<NymsProcess> targets;
+    synchronized (this) {
+      processes.removeIf(p -> !p.isAlive());
+      targets = new ArrayList<>(processes);
+      // recorded before sending so that a process which is starting now replays it
+      unlockedKeys.put(keyId, passphrase);
+    }
+    boolean unlocked = false;
+    try {
+      if(targets.isEmpty()) {
+        targets.add(chooseProcess());
+      }
+      for(NymsProcess process: targets) {
+        if(!sendUnlock(process, keyId, passphrase)) {
+          return false;
+        }
+      }
+      unlocked = true;
+      return true;
+    } finally {
+      synchronized (this) {
+        if(!unlocked) {
+          unlockedKeys.remove(keyId, passphrase);
+        }
+        forgetPassphrasesIfPoolFull();
+      }
+    }
+  }
+
+  private boolean sendUnlock(NymsProcess process, String keyId, String passphrase) throws NymsAgentException {
     return newRequest("Protocol.UnlockPrivateKey")
         .addArgument("KeyId", keyId)
         .addArgument("Passphrase", passphrase)
-        .send()
+        .sendTo(process)
         .getBooleanResult();
   }
 
-  private static String renderMessage(MimeMessage message) throws NymsAgentException {
-    final ByteArrayOutputStream out = new ByteArrayOutputStream();
-    try {
-      message.writeTo(out);
-      return new String(out.toByteArray(), Charsets.ISO_8859_1);
-    } catch (IOException | MessagingException e) {
-      throw new NymsAgentException("Error converting message to string: "+ e.getMessage(), e);
-    }
-  }
-
-  private static MimeMessage parseMessage(String messageText, Session session) throws NymsAgentException {
-    final ByteArrayInputStream in = new ByteArrayInputStream(
-        messageText.getBytes(Charsets.ISO_8859_1));
+  private static MimeMessage parseMessage(byte[] messageBytes, Session session) throws NymsAgentException {
+    // a shared input stream lets the message content refer to the array rather than copy it
+    final SharedByteArrayInputStream in = new SharedByteArrayInputStream(messageBytes);
     try {
       return new MimeMessage(session, in);
     } catch (final MessagingException e) {
@@ -1,18 +1,19 @@
 package com.subgraph.sgmail.internal.nyms;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.MimeMessage;
 
 import com.subgraph.sgmail.JavamailUtils;
+import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.nyms.NymsAgent;
 import com.subgraph.sgmail.nyms.NymsAgentException;
+import com.subgraph.sgmail.nyms.NymsAgentStatistics;
 import com.subgraph.sgmail.nyms.NymsAgentStatus;
 import com.subgraph.sgmail.nyms.NymsIncomingProcessingResult;
 import com.subgraph.sgmail.nyms.NymsIncomingProcessingResult.DecryptionResult;
@@ -29,15 +30,17 @@ public class NymsAgentService implements NymsAgent {
   private JavamailUtils javamailUtils;
   private NymsAgentStatus status;
   private NymsAgentConnection connection;
-  private final Set<String> addressesWithoutKeys = new HashSet<>();
-  private final Set<String> keyIdsWithoutKeys = new HashSet<>();
-  private final Map<String,NymsKeyInfo> cachedKeyInfo = new HashMap<>();
-  private final Map<String, NymsKeyInfo> cachedKeyInfoByKeyId = new HashMap<>();
+  private final NymsRequestStatistics statistics = new NymsRequestStatistics(this::getProcessCount);
+  private final KeyInfoCache keyInfoCache = new KeyInfoCache(statistics);
 
   
   public void setJavamailUtils(JavamailUtils javamailUtils) {
     this.javamailUtils = javamailUtils;
   }
+
+  public void setModel(Model model) {
+    keyInfoCache.setModel(model);
+  }
   
   @Override
   public synchronized NymsAgentStatus getStatus() {
@@ -77,36 +80,48 @@ public class NymsAgentService implements NymsAgent {
 
   @Override
   public NymsKeyInfo getKeyInfo(String emailAddress) throws NymsAgentException {
-    if(addressesWithoutKeys.contains(emailAddress)) {
-      return null;
-    } else if(cachedKeyInfo.containsKey(emailAddress)) {
-      return cachedKeyInfo.get(emailAddress);
+    final String key = KeyInfoCache.addressKey(emailAddress);
+    final KeyInfoCache.Entry entry = keyInfoCache.get(key);
+    if(entry != null) {
+      return entry.getKeyInfo();
     }
     final NymsKeyInfo info = getConnection().getKeyInfo(emailAddress);
-    if(info == null) {
-      addressesWithoutKeys.add(emailAddress);
-    } else {
-      cachedKeyInfo.put(emailAddress, info);
-    }
+    keyInfoCache.put(key, info);
     return info;
   }
 
   @Override
   public NymsKeyInfo getKeyInfoByKeyId(String keyId) throws NymsAgentException {
-    if(keyIdsWithoutKeys.contains(keyId)) {
-      return null;
-    } else if(cachedKeyInfoByKeyId.containsKey(keyId)) {
-      return cachedKeyInfoByKeyId.get(keyId);
+    final String key = KeyInfoCache.keyIdKey(keyId);
+    final KeyInfoCache.Entry entry = keyInfoCache.get(key);
+    if(entry != null) {
+      return entry.getKeyInfo();
     }
     final NymsKeyInfo info = getConnection().getKeyInfoByKeyId(keyId);
-    if(info == null) {
-      keyIdsWithoutKeys.add(keyId);
-    } else {
-      cachedKeyInfoByKeyId.put(keyId, info);
-    }
+    keyInfoCache.put(key, info);
     return info;
   }
 
+  @Override
+  public void prefetchKeyInfo(Collection<String> emailAddresses) throws NymsAgentException {
+    final Map<String, String> missing = new HashMap<>();
+    for(String address: emailAddresses) {
+      final String key = KeyInfoCache.addressKey(address);
+      if(!missing.containsKey(key) && !keyInfoCache.contains(key)) {
+        missing.put(key, address);
+      }
+    }
+    if(missing.isEmpty()) {
+      return;
+    }
+    final Map<String, NymsKeyInfo> found = getConnection().getKeyInfo(missing.values());
+    final Map<String, NymsKeyInfo> results = new HashMap<>();
+    for(Map.Entry<String, String> entry: missing.entrySet()) {
+      results.put(entry.getKey(), found.get(entry.getValue()));
+    }
+    keyInfoCache.putAll(results);
+  }
+
   @Override
   public NymsOutgoingProcessingResult processOutgoingMessage(MimeMessage outgoingMessage, boolean requestSigning, boolean requestEncryption, String passphrase) throws NymsAgentException {
     if (!doesOutgoingMessageNeedProcessing(outgoingMessage)) {
@@ -117,7 +132,7 @@ public class NymsAgentService implements NymsAgent {
 
   private synchronized NymsAgentConnection getConnection() throws NymsAgentException {
     if (connection == null || !connection.isConnected()) {
-      connection = new NymsAgentConnection();
+      connection = new NymsAgentConnection(statistics);
       try {
         connection.start();
       } catch (final IOException e) {
@@ -128,6 +143,15 @@ public class NymsAgentService implements NymsAgent {
     return connection;
   }
 
+  private synchronized int getProcessCount() {
+    return (connection == null) ? 0 : connection.getProcessCount();
+  }
+
+  @Override
+  public NymsAgentStatistics getStatistics() {
+    return statistics;
+  }
+
   private boolean doesOutgoingMessageNeedProcessing(MimeMessage message) {
     return true;
   }
@@ -158,10 +182,13 @@ public class NymsAgentService implements NymsAgent {
 
   @Override
   public NymsKeyInfo generateKeys(NymsKeyGenerationParameters parameters) throws NymsAgentException {
-    return getConnection().generateKeys(
+    final NymsKeyInfo info = getConnection().generateKeys(
         parameters.getEmailAddress(), 
         parameters.getRealName(), 
         parameters.getComment());
+    // an earlier lookup may have cached that this address has no key
+    keyInfoCache.invalidate(KeyInfoCache.addressKey(parameters.getEmailAddress()));
+    return info;
   }
 
   @Override
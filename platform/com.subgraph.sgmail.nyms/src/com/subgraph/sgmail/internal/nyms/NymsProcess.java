@@ -0,0 +1,227 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.JsonException;
+
+import com.google.common.base.Charsets;
+import com.subgraph.sgmail.internal.nyms.NymsResponseDecoder.DecodedResponse;
+import com.subgraph.sgmail.nyms.NymsAgentException;
+
+/**
+ * A single nymsd child process which may have several requests in flight at once.  Requests are
+ * written to the process under a lock, and a reader thread matches each response to the waiting
+ * request by its JSON-RPC id, so responses may arrive in any order.  The agent writes each
+ * response as a single line, which is decoded with a streaming parser as it is read.
+ */
+class NymsProcess {
+  private final static Logger logger = Logger.getLogger(NymsProcess.class.getName());
+
+  private final String agentPath;
+  private final int number;
+  private final Map<Integer, CompletableFuture<DecodedResponse>> pendingRequests = new ConcurrentHashMap<>();
+  private final Object writeLock = new Object();
+  private Process process;
+  private volatile boolean isClosed;
+
+  NymsProcess(String agentPath, int number) {
+    this.agentPath = agentPath;
+    this.number = number;
+  }
+
+  void start() throws IOException {
+    final ProcessBuilder pb = new ProcessBuilder(agentPath, "-pipe", "-debug");
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    process = pb.start();
+    final Thread reader = new Thread(this::runResponseReader, "Nyms agent reader "+ number);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  boolean isAlive() {
+    return !isClosed && process != null && process.isAlive();
+  }
+
+  int getPendingCount() {
+    return pendingRequests.size();
+  }
+
+  /**
+   * Write a request to the agent and return a future which completes when the response to it
+   * is read.
+   */
+  CompletableFuture<DecodedResponse> sendAsync(NymsRequest request) {
+    final int id = request.getId();
+    final CompletableFuture<DecodedResponse> future = new CompletableFuture<>();
+    pendingRequests.put(id, future);
+    future.whenComplete((response, error) -> pendingRequests.remove(id));
+    try {
+      synchronized (writeLock) {
+        final OutputStream out = process.getOutputStream();
+        request.writeTo(out);
+      }
+    } catch (IOException e) {
+      // a partially written request leaves the agent unable to parse anything which follows
+      close();
+      future.completeExceptionally(new NymsAgentException("Error sending request to nyms agent: "+ e.getMessage(), e));
+    }
+    return future;
+  }
+
+  static DecodedResponse waitForResponse(CompletableFuture<DecodedResponse> future) throws NymsAgentException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NymsAgentException("Interrupted waiting for response from nyms agent", e);
+    } catch (ExecutionException e) {
+      if(e.getCause() instanceof NymsAgentException) {
+        throw (NymsAgentException) e.getCause();
+      }
+      throw new NymsAgentException("Error reading response from nyms agent: "+ e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  void close() {
+    isClosed = true;
+    if(process != null) {
+      process.destroy();
+    }
+  }
+
+  private void runResponseReader() {
+    final ResponseReader reader = new ResponseReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+    try {
+      while(reader.nextResponse()) {
+        try {
+          processResponse(NymsResponseDecoder.decode(reader));
+        } catch (JsonException e) {
+          logger.warning("Could not parse response from nyms agent: "+ e.getMessage());
+        }
+        reader.skipToLineEnd();
+      }
+    } catch (IOException | JsonException e) {
+      if(!isClosed) {
+        logger.log(Level.WARNING, "Error reading from nyms agent: "+ e.getMessage(), e);
+      }
+    } finally {
+      failPendingRequests();
+    }
+  }
+
+  private void processResponse(DecodedResponse response) {
+    final int id = response.getId();
+    if(id == -1) {
+      logger.warning("Response from nyms agent has no id: "+ response.getResponseObject());
+      return;
+    }
+    final CompletableFuture<DecodedResponse> future = pendingRequests.get(id);
+    if(future == null) {
+      logger.warning("Response from nyms agent for unknown request id "+ id);
+      return;
+    }
+    future.complete(response);
+  }
+
+  private void failPendingRequests() {
+    isClosed = true;
+    final IOException exception = new IOException("Nyms agent process exited");
+    for(CompletableFuture<DecodedResponse> future: pendingRequests.values()) {
+      future.completeExceptionally(exception);
+    }
+  }
+
+  /**
+   * Presents one line of agent output at a time as a stream, so that a streaming parser reading
+   * a response cannot consume any of the response which follows it.
+   */
+  static class ResponseReader extends Reader {
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private boolean atLineEnd;
+
+    ResponseReader(Reader in) {
+      this.in = in;
+    }
+
+    /**
+     * Skip blank lines and position the reader at the start of the next response.
+     *
+     * @return false at the end of the stream
+     */
+    boolean nextResponse() throws IOException {
+      while(true) {
+        if(position == limit && !fillBuffer()) {
+          return false;
+        }
+        if(!Character.isWhitespace(buffer[position])) {
+          atLineEnd = false;
+          return true;
+        }
+        position += 1;
+      }
+    }
+
+    /** Discard anything remaining on the current line */
+    void skipToLineEnd() throws IOException {
+      final char[] discard = new char[1024];
+      while(read(discard, 0, discard.length) != -1) {
+        // discard
+      }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if(atLineEnd) {
+        return -1;
+      }
+      if(position == limit && !fillBuffer()) {
+        atLineEnd = true;
+        return -1;
+      }
+      final int end = Math.min(limit, position + len);
+      int i = position;
+      while(i < end && buffer[i] != '\n') {
+        i++;
+      }
+      final int n = i - position;
+      System.arraycopy(buffer, position, cbuf, off, n);
+      position = i;
+      if(i < end) {
+        // consume the newline
+        position += 1;
+        atLineEnd = true;
+        if(n == 0) {
+          return -1;
+        }
+      }
+      return n;
+    }
+
+    private boolean fillBuffer() throws IOException {
+      final int n = in.read(buffer, 0, buffer.length);
+      if(n <= 0) {
+        return false;
+      }
+      position = 0;
+      limit = n;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -1,79 +1,203 @@
 package com.subgraph.sgmail.internal.nyms;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonReader;
-import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
 
 import com.google.common.base.Charsets;
+import com.subgraph.sgmail.internal.nyms.NymsResponseDecoder.DecodedResponse;
 import com.subgraph.sgmail.nyms.NymsAgentException;
 
+/**
+ * A JSON-RPC request to the nyms agent.  The request is written with a streaming generator, and
+ * message arguments are rendered directly into the request as an escaped JSON string rather than
+ * first being converted to a string in memory.
+ */
 public class NymsRequest {
-  private final Process process;
+
+  /** Source of a string argument which is written directly to the agent as ISO-8859-1 text */
+  interface StreamedArgument {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  private final static String[] CONTROL_ESCAPES = createControlEscapes();
+
+  private final NymsAgentConnection connection;
   private final String method;
   private final int id;
   private final boolean debugLogging;
-  private final JsonObjectBuilder argsBuilder;
+  private final Map<String, Object> arguments = new LinkedHashMap<>();
+  private final Map<String, StreamedArgument> streamedArguments = new LinkedHashMap<>();
 
-  NymsRequest(Process process, String method, int id, boolean debugLogging) {
-    this.process = process;
+  NymsRequest(NymsAgentConnection connection, String method, int id, boolean debugLogging) {
+    this.connection = connection;
     this.method = method;
     this.id = id;
     this.debugLogging = debugLogging;
-    this.argsBuilder = Json.createObjectBuilder();
+  }
+
+  int getId() {
+    return id;
   }
 
   NymsRequest addArgument(String name, String value) {
-    argsBuilder.add(name, value);
+    arguments.put(name, value);
     return this;
   }
 
   NymsRequest addArgument(String name, boolean value) {
-    argsBuilder.add(name, value);
+    arguments.put(name, value);
     return this;
   }
 
-  JsonObject getRequestObject() {
-    final JsonArray params = Json.createArrayBuilder().add(argsBuilder.build())
-        .build();
-    return Json.createObjectBuilder().add("jsonrpc", "2.0")
-        .add("method", method).add("params", params).add("id", id).build();
+  NymsRequest addArgument(String name, MimeMessage message) {
+    streamedArguments.put(name, out -> {
+      try {
+        message.writeTo(out);
+      } catch (MessagingException e) {
+        throw new IOException("Error rendering message: "+ e.getMessage(), e);
+      }
+    });
+    return this;
   }
 
-  void writeTo(OutputStream out) {
-    final JsonWriter writer = Json.createWriter(out);
-    final JsonObject msg = getRequestObject();
+  void writeTo(OutputStream out) throws IOException {
     if(debugLogging) {
-      System.out.println("Sending: " + msg);
+      System.out.println("Sending: "+ method +" id="+ id +" "+ arguments.keySet() + streamedArguments.keySet());
     }
-    writer.writeObject(msg);
-    try {
-      out.flush();
-    } catch (final IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+    final JsonGenerator generator = Json.createGenerator(writer);
+    generator.writeStartObject()
+      .write("jsonrpc", "2.0")
+      .write("method", method)
+      .write("id", id)
+      .writeStartArray("params")
+      .writeStartObject();
+    for(Map.Entry<String, Object> entry: arguments.entrySet()) {
+      if(entry.getValue() instanceof Boolean) {
+        generator.write(entry.getKey(), (Boolean) entry.getValue());
+      } else {
+        generator.write(entry.getKey(), (String) entry.getValue());
+      }
     }
+    generator.flush();
+    // The generator has no way to write a string value from a stream, so streamed
+    // arguments are written directly as the last members of the params object
+    boolean needsComma = !arguments.isEmpty();
+    for(Map.Entry<String, StreamedArgument> entry: streamedArguments.entrySet()) {
+      if(needsComma) {
+        writer.write(',');
+      }
+      writer.write('"');
+      writeEscaped(writer, entry.getKey());
+      writer.write("\":\"");
+      final JsonStringOutputStream valueOut = new JsonStringOutputStream(writer);
+      entry.getValue().writeTo(valueOut);
+      valueOut.flush();
+      writer.write('"');
+      needsComma = true;
+    }
+    generator.writeEnd().writeEnd().writeEnd();
+    generator.flush();
+    writer.write('\n');
+    writer.flush();
   }
-  
+
+  /**
+   * Send this request to the least busy agent process and wait for the response.
+   */
   NymsResponse send() throws NymsAgentException {
-    synchronized(process) {
-    writeTo(process.getOutputStream());
-    final Reader r = new InputStreamReader(process.getInputStream(), Charsets.UTF_8);
-    final JsonReader reader = Json.createReader(r);
-    final JsonObject response = reader.readObject();
+    return createResponse(connection.execute(this));
+  }
+
+  /**
+   * Send this request to a specific agent process and wait for the response.
+   */
+  NymsResponse sendTo(NymsProcess process) throws NymsAgentException {
+    return createResponse(connection.executeOn(process, this));
+  }
+
+  /**
+   * Send this request to the least busy agent process without waiting for the response.
+   */
+  CompletableFuture<DecodedResponse> sendAsync() throws NymsAgentException {
+    return connection.executeAsync(this);
+  }
+
+  NymsResponse createResponse(DecodedResponse response) throws NymsAgentException {
     if(debugLogging) {
-      System.out.println("response: "+ response);
+      System.out.println("response: "+ response.getResponseObject() + response.getLargeValues().keySet());
     }
-    final NymsResponse nr = new NymsResponse(method, response);
+    final NymsResponse nr = new NymsResponse(method, response.getResponseObject(), response.getLargeValues());
     nr.testErrorResponse();
     return nr;
+  }
+
+  private static void writeEscaped(Writer writer, String s) throws IOException {
+    for(int i = 0; i < s.length(); i++) {
+      writeEscaped(writer, s.charAt(i));
+    }
+  }
+
+  private static void writeEscaped(Writer writer, char c) throws IOException {
+    if(c < CONTROL_ESCAPES.length) {
+      writer.write(CONTROL_ESCAPES[c]);
+    } else if(c == '"') {
+      writer.write("\\\"");
+    } else if(c == '\\') {
+      writer.write("\\\\");
+    } else {
+      writer.write(c);
+    }
+  }
+
+  private static String[] createControlEscapes() {
+    final String[] escapes = new String[0x20];
+    for(int i = 0; i < escapes.length; i++) {
+      escapes[i] = String.format("\\u%04x", i);
+    }
+    escapes['\n'] = "\\n";
+    escapes['\r'] = "\\r";
+    escapes['\t'] = "\\t";
+    return escapes;
+  }
+
+  /**
+   * Writes each byte as the ISO-8859-1 character of the same value, escaped for use inside a
+   * JSON string.
+   */
+  private static class JsonStringOutputStream extends OutputStream {
+    private final Writer writer;
+
+    JsonStringOutputStream(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      writeEscaped(writer, (char) (b & 0xFF));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for(int i = off; i < off + len; i++) {
+        writeEscaped(writer, (char) (b[i] & 0xFF));
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writer.flush();
     }
   }
 }
@@ -0,0 +1,100 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import com.subgraph.sgmail.nyms.NymsAgentStatistics;
+
+class NymsRequestStatistics implements NymsAgentStatistics {
+  private final IntSupplier processCount;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+  private final AtomicLong keyInfoCacheHits = new AtomicLong();
+  private final AtomicLong keyInfoCacheMisses = new AtomicLong();
+
+  NymsRequestStatistics(IntSupplier processCount) {
+    this.processCount = processCount;
+  }
+
+  void requestStarted() {
+    pending.incrementAndGet();
+  }
+
+  void requestFinished(long elapsedNanos, boolean success) {
+    pending.decrementAndGet();
+    (success ? completed : failed).incrementAndGet();
+    totalLatencyNanos.addAndGet(elapsedNanos);
+    maxLatencyNanos.accumulateAndGet(elapsedNanos, Math::max);
+  }
+
+  void keyInfoCacheHit() {
+    keyInfoCacheHits.incrementAndGet();
+  }
+
+  void keyInfoCacheMiss() {
+    keyInfoCacheMisses.incrementAndGet();
+  }
+
+  @Override
+  public int getProcessCount() {
+    return processCount.getAsInt();
+  }
+
+  @Override
+  public int getPendingRequestCount() {
+    return pending.get();
+  }
+
+  @Override
+  public long getCompletedRequestCount() {
+    return completed.get();
+  }
+
+  @Override
+  public long getFailedRequestCount() {
+    return failed.get();
+  }
+
+  @Override
+  public double getAverageLatencyMillis() {
+    final long count = completed.get() + failed.get();
+    if(count == 0) {
+      return 0;
+    }
+    return (totalLatencyNanos.get() / (double) count) / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public long getMaximumLatencyMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+  }
+
+  @Override
+  public long getKeyInfoCacheHitCount() {
+    return keyInfoCacheHits.get();
+  }
+
+  @Override
+  public long getKeyInfoCacheMissCount() {
+    return keyInfoCacheMisses.get();
+  }
+
+  @Override
+  public double getKeyInfoCacheHitRate() {
+    final long hits = keyInfoCacheHits.get();
+    final long total = hits + keyInfoCacheMisses.get();
+    return (total == 0) ? 0 : hits / (double) total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("processes=%d pending=%d completed=%d failed=%d avgLatency=%.1fms maxLatency=%dms keyCacheHitRate=%.2f",
+        getProcessCount(), getPendingRequestCount(), getCompletedRequestCount(), getFailedRequestCount(),
+        getAverageLatencyMillis(), getMaximumLatencyMillis(), getKeyInfoCacheHitRate());
+  }
+}
@@ -1,7 +1,9 @@
 package com.subgraph.sgmail.internal.nyms;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.json.JsonArray;
 import javax.json.JsonNumber;
@@ -10,17 +12,24 @@ import javax.json.JsonString;
 import javax.json.JsonValue;
 import javax.json.JsonValue.ValueType;
 
+import com.google.common.base.Charsets;
 import com.subgraph.sgmail.nyms.NymsAgentException;
 
 public class NymsResponse {
   private final String methodName;
   private final JsonObject responseObject;
   private final JsonObject resultObject;
+  private final Map<String, byte[]> largeValues;
   
   NymsResponse(String methodName, JsonObject responseObject) {
+    this(methodName, responseObject, Collections.<String, byte[]>emptyMap());
+  }
+
+  NymsResponse(String methodName, JsonObject responseObject, Map<String, byte[]> largeValues) {
     this.methodName = methodName;
     this.responseObject = responseObject;
     this.resultObject = getResultObject(responseObject);
+    this.largeValues = largeValues;
   }
   
   private static JsonObject getResultObject(JsonObject response) {
@@ -51,6 +60,10 @@ public class NymsResponse {
   }
   
   String getString(String name) throws NymsAgentException {
+    final byte[] largeValue = largeValues.get(name);
+    if(largeValue != null) {
+      return new String(largeValue, Charsets.ISO_8859_1);
+    }
     final JsonValue val = getResultValue(name);
     if(val == null || val.getValueType() != ValueType.STRING) {
       throw new NymsAgentException("No string result field '"+ name +"' in response to "+ methodName);
@@ -58,6 +71,18 @@ public class NymsResponse {
     return ((JsonString)val).getString();
   }
   
+  /**
+   * Returns a string result field as ISO-8859-1 bytes.  Large fields are already held as bytes and
+   * are returned without copying.
+   */
+  byte[] getBytes(String name) throws NymsAgentException {
+    final byte[] largeValue = largeValues.get(name);
+    if(largeValue != null) {
+      return largeValue;
+    }
+    return getString(name).getBytes(Charsets.ISO_8859_1);
+  }
+  
   boolean getBoolean(String name) throws NymsAgentException {
     final JsonValue val = getResultValue(name);
     if(val == null) {
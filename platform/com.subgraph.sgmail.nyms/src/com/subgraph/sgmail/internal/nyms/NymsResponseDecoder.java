@@ -0,0 +1,355 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reads a JSON-RPC response from the nyms agent as a stream.  String values are decoded directly
+ * into ISO-8859-1 bytes, and large string fields of the result object such as a decrypted message
+ * body are kept as bytes rather than ever being held as a string.  Everything else is returned as
+ * a javax.json object.
+ *
+ * The javax.json streaming parser is not used because it can only return a string value as a
+ * String, after first collecting the whole value in its own character buffer.
+ */
+class NymsResponseDecoder {
+
+  final static int LARGE_VALUE_LENGTH = 64 * 1024;
+
+  static class DecodedResponse {
+    private final JsonObject responseObject;
+    private final Map<String, byte[]> largeValues;
+
+    DecodedResponse(JsonObject responseObject, Map<String, byte[]> largeValues) {
+      this.responseObject = responseObject;
+      this.largeValues = largeValues;
+    }
+
+    JsonObject getResponseObject() {
+      return responseObject;
+    }
+
+    Map<String, byte[]> getLargeValues() {
+      return largeValues;
+    }
+
+    /** Returns the JSON-RPC id of the response, or -1 if it does not have a numeric id */
+    int getId() {
+      final JsonValue id = responseObject.get("id");
+      if(id == null || id.getValueType() != ValueType.NUMBER) {
+        return -1;
+      }
+      return ((JsonNumber) id).intValue();
+    }
+  }
+
+  private final static Object NULL_VALUE = new Object();
+
+  private final Reader in;
+  private final char[] buffer = new char[8192];
+  private int position;
+  private int limit;
+  private byte[] stringBytes = new byte[256];
+
+  private NymsResponseDecoder(Reader in) {
+    this.in = in;
+  }
+
+  static DecodedResponse decode(Reader reader) throws IOException {
+    return new NymsResponseDecoder(reader).readResponse();
+  }
+
+  private DecodedResponse readResponse() throws IOException {
+    final Map<String, byte[]> largeValues = new HashMap<>();
+    final JsonObjectBuilder builder = Json.createObjectBuilder();
+    expect('{');
+    if(!consumeIf('}')) {
+      do {
+        final String name = readName();
+        if(name.equals("result") && peek() == '{') {
+          next();
+          builder.add(name, readObject(largeValues));
+        } else {
+          addValue(builder, name, readValue());
+        }
+      } while(consumeIf(','));
+      expect('}');
+    }
+    return new DecodedResponse(builder.build(), largeValues);
+  }
+
+  /**
+   * Read the members of an object following the opening brace.  If <code>largeValues</code> is not
+   * null, string members at least {@link #LARGE_VALUE_LENGTH} long are added to it as bytes instead.
+   */
+  private JsonObject readObject(Map<String, byte[]> largeValues) throws IOException {
+    final JsonObjectBuilder builder = Json.createObjectBuilder();
+    if(consumeIf('}')) {
+      return builder.build();
+    }
+    do {
+      final String name = readName();
+      final Object value = readValue();
+      if(largeValues != null && value instanceof byte[] && ((byte[]) value).length >= LARGE_VALUE_LENGTH) {
+        largeValues.put(name, (byte[]) value);
+      } else {
+        addValue(builder, name, value);
+      }
+    } while(consumeIf(','));
+    expect('}');
+    return builder.build();
+  }
+
+  private JsonArray readArray() throws IOException {
+    final JsonArrayBuilder builder = Json.createArrayBuilder();
+    if(consumeIf(']')) {
+      return builder.build();
+    }
+    do {
+      final Object value = readValue();
+      if(value == NULL_VALUE) {
+        builder.addNull();
+      } else if(value instanceof byte[]) {
+        builder.add(new String((byte[]) value, Charsets.ISO_8859_1));
+      } else if(value instanceof String) {
+        builder.add((String) value);
+      } else if(value instanceof Boolean) {
+        builder.add((Boolean) value);
+      } else if(value instanceof Long) {
+        builder.add((Long) value);
+      } else if(value instanceof BigDecimal) {
+        builder.add((BigDecimal) value);
+      } else {
+        builder.add((JsonValue) value);
+      }
+    } while(consumeIf(','));
+    expect(']');
+    return builder.build();
+  }
+
+  private static void addValue(JsonObjectBuilder builder, String name, Object value) {
+    if(value == NULL_VALUE) {
+      builder.addNull(name);
+    } else if(value instanceof byte[]) {
+      builder.add(name, new String((byte[]) value, Charsets.ISO_8859_1));
+    } else if(value instanceof String) {
+      builder.add(name, (String) value);
+    } else if(value instanceof Boolean) {
+      builder.add(name, (Boolean) value);
+    } else if(value instanceof Long) {
+      builder.add(name, (Long) value);
+    } else if(value instanceof BigDecimal) {
+      builder.add(name, (BigDecimal) value);
+    } else {
+      builder.add(name, (JsonValue) value);
+    }
+  }
+
+  private String readName() throws IOException {
+    final Object name = readValue();
+    if(!(name instanceof byte[] || name instanceof String)) {
+      throw new JsonException("Expecting object member name in response from nyms agent");
+    }
+    expect(':');
+    return (name instanceof String) ? (String) name : new String((byte[]) name, Charsets.ISO_8859_1);
+  }
+
+  private Object readValue() throws IOException {
+    final char c = peek();
+    switch(c) {
+    case '{':
+      next();
+      return readObject(null);
+    case '[':
+      next();
+      return readArray();
+    case '"':
+      next();
+      return readString();
+    case 't':
+      expectLiteral("true");
+      return Boolean.TRUE;
+    case 'f':
+      expectLiteral("false");
+      return Boolean.FALSE;
+    case 'n':
+      expectLiteral("null");
+      return NULL_VALUE;
+    default:
+      if(c == '-' || (c >= '0' && c <= '9')) {
+        return readNumber();
+      }
+      throw new JsonException("Unexpected character '"+ c +"' in response from nyms agent");
+    }
+  }
+
+  /**
+   * Read a string following the opening quote.  The string is returned as ISO-8859-1 bytes unless
+   * it contains a character outside of that range, in which case it is returned as a String.
+   */
+  private Object readString() throws IOException {
+    int length = 0;
+    while(true) {
+      if(position == limit && !fillBuffer()) {
+        throw new JsonException("Unterminated string in response from nyms agent");
+      }
+      final char c = buffer[position++];
+      final char decoded;
+      if(c == '"') {
+        return Arrays.copyOf(stringBytes, length);
+      } else if(c == '\\') {
+        decoded = readEscape();
+      } else {
+        decoded = c;
+      }
+      if(decoded > 0xFF) {
+        return readWideString(length, decoded);
+      }
+      if(length == stringBytes.length) {
+        stringBytes = Arrays.copyOf(stringBytes, length * 2);
+      }
+      stringBytes[length++] = (byte) decoded;
+    }
+  }
+
+  private String readWideString(int length, char first) throws IOException {
+    final StringBuilder sb = new StringBuilder(length + 16);
+    sb.append(new String(stringBytes, 0, length, Charsets.ISO_8859_1));
+    sb.append(first);
+    while(true) {
+      final char c = next();
+      if(c == '"') {
+        return sb.toString();
+      }
+      sb.append((c == '\\') ? readEscape() : c);
+    }
+  }
+
+  private char readEscape() throws IOException {
+    final char c = next();
+    switch(c) {
+    case '"':
+    case '\\':
+    case '/':
+      return c;
+    case 'b':
+      return '\b';
+    case 'f':
+      return '\f';
+    case 'n':
+      return '\n';
+    case 'r':
+      return '\r';
+    case 't':
+      return '\t';
+    case 'u':
+      int value = 0;
+      for(int i = 0; i < 4; i++) {
+        final int digit = Character.digit(next(), 16);
+        if(digit == -1) {
+          throw new JsonException("Invalid unicode escape in response from nyms agent");
+        }
+        value = (value << 4) | digit;
+      }
+      return (char) value;
+    default:
+      throw new JsonException("Invalid escape character '"+ c +"' in response from nyms agent");
+    }
+  }
+
+  private Object readNumber() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    boolean isIntegral = true;
+    while((position < limit || fillBuffer()) && isNumberCharacter(buffer[position])) {
+      final char c = buffer[position++];
+      if(c == '.' || c == 'e' || c == 'E') {
+        isIntegral = false;
+      }
+      sb.append(c);
+    }
+    try {
+      return isIntegral ? (Object) Long.valueOf(sb.toString()) : new BigDecimal(sb.toString());
+    } catch (NumberFormatException e) {
+      throw new JsonException("Invalid number '"+ sb +"' in response from nyms agent");
+    }
+  }
+
+  private static boolean isNumberCharacter(char c) {
+    return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+  }
+
+  private void expectLiteral(String literal) throws IOException {
+    for(int i = 0; i < literal.length(); i++) {
+      if(next() != literal.charAt(i)) {
+        throw new JsonException("Invalid literal in response from nyms agent, expecting "+ literal);
+      }
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    final char c = skipWhitespace();
+    if(c != expected) {
+      throw new JsonException("Expecting '"+ expected +"' but found '"+ c +"' in response from nyms agent");
+    }
+    position++;
+  }
+
+  private boolean consumeIf(char expected) throws IOException {
+    if(skipWhitespace() == expected) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  /** Returns the next character which is not whitespace without consuming it */
+  private char peek() throws IOException {
+    return skipWhitespace();
+  }
+
+  private char skipWhitespace() throws IOException {
+    while(true) {
+      if(position == limit && !fillBuffer()) {
+        throw new JsonException("Unexpected end of response from nyms agent");
+      }
+      final char c = buffer[position];
+      if(c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+        return c;
+      }
+      position++;
+    }
+  }
+
+  private char next() throws IOException {
+    if(position == limit && !fillBuffer()) {
+      throw new JsonException("Unexpected end of response from nyms agent");
+    }
+    return buffer[position++];
+  }
+
+  private boolean fillBuffer() throws IOException {
+    final int n = in.read(buffer, 0, buffer.length);
+    if(n <= 0) {
+      return false;
+    }
+    position = 0;
+    limit = n;
+    return true;
+  }
+}
@@ -0,0 +1,91 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import java.util.Arrays;
+
+import com.db4o.activation.ActivationPurpose;
+import com.db4o.activation.Activator;
+import com.db4o.ta.Activatable;
+import com.subgraph.sgmail.nyms.NymsKeyInfo;
+
+/**
+ * The result of a key info lookup as stored in the database.  A lookup which found no key is
+ * stored as well so that it is not repeated until it expires.  Secret key material is never
+ * stored.
+ */
+public class StoredKeyInfo implements Activatable {
+  private long lookupTime;
+  private boolean hasKey;
+  private boolean hasSecretKey;
+  private boolean isSecretKeyEncrypted;
+  private String fingerprint;
+  private String keyId;
+  private String summary;
+  private String[] uids;
+  private byte[] imageData;
+  private String rawPublicKey;
+
+  private transient Activator activator;
+
+  StoredKeyInfo(NymsKeyInfo info, long lookupTime) {
+    this.lookupTime = lookupTime;
+    this.hasKey = (info != null);
+    if(info != null) {
+      this.hasSecretKey = info.hasSecretKey();
+      this.isSecretKeyEncrypted = info.isSecretKeyEncrypted();
+      this.fingerprint = info.getFingerprint();
+      this.keyId = info.getKeyId();
+      this.summary = info.getSummary();
+      this.uids = info.getUIDs().toArray(new String[0]);
+      this.imageData = info.getUserImageData();
+      this.rawPublicKey = info.getRawPublicKey();
+    }
+  }
+
+  long getLookupTime() {
+    activate(ActivationPurpose.READ);
+    return lookupTime;
+  }
+
+  boolean hasKey() {
+    activate(ActivationPurpose.READ);
+    return hasKey;
+  }
+
+  /**
+   * Returns the stored key info, or null if the lookup found no key.
+   */
+  NymsKeyInfo toKeyInfo() {
+    activate(ActivationPurpose.READ);
+    if(!hasKey) {
+      return null;
+    }
+    return new NymsKeyInfoImpl.Builder()
+      .fingerprint(fingerprint)
+      .keyId(keyId)
+      .summary(summary)
+      .uids(Arrays.asList(uids))
+      .hasSecretKey(hasSecretKey)
+      .isEncrypted(isSecretKeyEncrypted)
+      .imageData(imageData)
+      .rawPublicKey(rawPublicKey)
+      .build();
+  }
+
+  @Override
+  public void activate(ActivationPurpose activationPurpose) {
+    if(activator != null) {
+      activator.activate(activationPurpose);
+    }
+  }
+
+  @Override
+  public void bind(Activator activator) {
+    if(this.activator == activator) {
+      return;
+    }
+    if(activator != null && this.activator != null) {
+      throw new IllegalStateException("Object can only be bound one to an activator");
+    }
+    this.activator = activator;
+  }
+}
@@ -0,0 +1,75 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import com.db4o.activation.ActivationPurpose;
+import com.db4o.activation.Activator;
+import com.db4o.collections.ActivatableHashMap;
+import com.db4o.ta.Activatable;
+import com.subgraph.sgmail.database.Database;
+import com.subgraph.sgmail.database.Storeable;
+
+/**
+ * Database singleton holding the key info lookups made by {@link KeyInfoCache}.
+ */
+public class StoredKeyInfoCache implements Storeable, Activatable {
+  private final Map<String, StoredKeyInfo> entries = new ActivatableHashMap<>();
+
+  private transient Activator activator;
+  private transient Database database;
+
+  synchronized StoredKeyInfo get(String key) {
+    activate(ActivationPurpose.READ);
+    return entries.get(key);
+  }
+
+  /**
+   * Store an entry, replacing any existing entry for the same key.  The caller is
+   * responsible for committing the database.
+   */
+  synchronized void put(String key, StoredKeyInfo entry) {
+    activate(ActivationPurpose.WRITE);
+    database.store(entry);
+    final StoredKeyInfo old = entries.put(key, entry);
+    if(old != null) {
+      database.delete(old);
+    }
+  }
+
+  synchronized void remove(String key) {
+    activate(ActivationPurpose.WRITE);
+    final StoredKeyInfo old = entries.remove(key);
+    if(old != null) {
+      database.delete(old);
+    }
+  }
+
+  void commit() {
+    database.commit();
+  }
+
+  @Override
+  public void activate(ActivationPurpose activationPurpose) {
+    if(activator != null) {
+      activator.activate(activationPurpose);
+    }
+  }
+
+  @Override
+  public void bind(Activator activator) {
+    if(this.activator == activator) {
+      return;
+    }
+    if(activator != null && this.activator != null) {
+      throw new IllegalStateException("Object can only be bound one to an activator");
+    }
+    this.activator = activator;
+  }
+
+  @Override
+  public void setDatabase(Database database) {
+    this.database = checkNotNull(database);
+  }
+}
@@ -0,0 +1,70 @@
+package com.subgraph.sgmail.internal.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wraps a collector to abandon a search once it has been cancelled.  The cancellation flag is
+ * checked when the search moves to each segment and after every few hits, and the search is ended
+ * by throwing SearchCancelledException out of IndexSearcher.search().
+ *
+ * Searches are not cancelled by interrupting the searching thread since FSDirectory.open() may
+ * return an NIOFSDirectory, where an interrupt during a read closes the file for every other reader
+ * of the index.
+ */
+class CancellableCollector extends Collector {
+    private final static int CHECK_INTERVAL = 256;
+
+    static class SearchCancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SearchCancelledException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Collector collector;
+    private final BooleanSupplier isCancelled;
+    private int untilCheck = CHECK_INTERVAL;
+
+    CancellableCollector(Collector collector, BooleanSupplier isCancelled) {
+        this.collector = collector;
+        this.isCancelled = isCancelled;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+        collector.setScorer(scorer);
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        checkCancelled();
+        collector.setNextReader(context);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        untilCheck -= 1;
+        if(untilCheck == 0) {
+            untilCheck = CHECK_INTERVAL;
+            checkCancelled();
+        }
+        collector.collect(doc);
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return collector.acceptsDocsOutOfOrder();
+    }
+
+    void checkCancelled() {
+        if(isCancelled.getAsBoolean()) {
+            throw new SearchCancelledException();
+        }
+    }
+}
@@ -4,13 +4,25 @@ import com.subgraph.sgmail.messages.StoredMessage;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 
 import java.io.IOException;
 import java.util.Objects;
 
+/**
+ * Reuses a single Document for every message it indexes and so must only be used by one thread at a time.
+ */
 class IMAPMessageDocumentWriter {
+    final static String ID_FIELD = "id";
+    final static String UID_FIELD = "uid";
 
+    static Term createIdTerm(int messageId) {
+        return new Term(ID_FIELD, Integer.toString(messageId));
+    }
+
+    private final Field idField;
     private final Field uidField;
+    private final Field uidValueField;
     private final Field subjectField;
     private final Field bodyField;
     private final Document document;
@@ -18,10 +30,14 @@ class IMAPMessageDocumentWriter {
     IMAPMessageDocumentWriter() {
         this.document = new Document();
         final FieldType offsetsType = createOffsetsType();
-        this.uidField = new IntField("uid", 0, Field.Store.YES);
+        this.idField = new StringField(ID_FIELD, "", Field.Store.NO);
+        this.uidField = new IntField(UID_FIELD, 0, Field.Store.YES);
+        this.uidValueField = new NumericDocValuesField(UID_FIELD, 0);
         this.subjectField = new Field("subject", "", offsetsType);
         this.bodyField = new Field("body", "", offsetsType);
+        document.add(idField);
         document.add(uidField);
+        document.add(uidValueField);
         document.add(subjectField);
         document.add(bodyField);
     }
@@ -32,10 +48,16 @@ class IMAPMessageDocumentWriter {
         return offsetsType;
     }
 
-    synchronized void indexMessage(IndexWriter writer, StoredMessage message) throws IOException {
-        uidField.setIntValue(message.getMessageId());
+    /**
+     * Adds the message to the index, replacing any document previously indexed for the same message id.
+     */
+    void indexMessage(IndexWriter writer, StoredMessage message) throws IOException {
+        final int messageId = message.getMessageId();
+        idField.setStringValue(Integer.toString(messageId));
+        uidField.setIntValue(messageId);
+        uidValueField.setLongValue(messageId);
         subjectField.setStringValue(Objects.requireNonNull(message.getSubject()));
         bodyField.setStringValue(Objects.requireNonNull(message.getBodyText()));
-        writer.addDocument(document);
+        writer.updateDocument(createIdTerm(messageId), document);
     }
 }
@@ -0,0 +1,140 @@
+package com.subgraph.sgmail.internal.search;
+
+import ca.odell.glazedlists.EventList;
+import com.subgraph.sgmail.accounts.Account;
+import com.subgraph.sgmail.database.Model;
+import com.subgraph.sgmail.messages.StoredMessage;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Compares the message ids present in the search index with the messages stored in the database and
+ * repairs any difference.  Documents for messages which no longer exist are deleted, messages which
+ * were never indexed are queued for indexing, and messages indexed more than once are reindexed.
+ */
+class IndexReconciler {
+    private final static Logger logger = Logger.getLogger(IndexReconciler.class.getName());
+
+    private final Model model;
+    private final MessageIndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final MessageIndexingPipeline indexingPipeline;
+
+    IndexReconciler(Model model, MessageIndexWriter writer, SearcherManager searcherManager, MessageIndexingPipeline indexingPipeline) {
+        this.model = model;
+        this.writer = writer;
+        this.searcherManager = searcherManager;
+        this.indexingPipeline = indexingPipeline;
+    }
+
+    void reconcile() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        final BitSet indexed = new BitSet();
+        final BitSet duplicated = new BitSet();
+        readIndexedIds(indexed, duplicated);
+
+        final List<Account> accounts = getAccounts();
+        final BitSet stored = readStoredIds(accounts);
+
+        final BitSet stale = (BitSet) indexed.clone();
+        stale.andNot(stored);
+        duplicated.and(stored);
+        final BitSet missing = (BitSet) stored.clone();
+        missing.andNot(indexed);
+
+        if(stale.isEmpty() && duplicated.isEmpty() && missing.isEmpty()) {
+            return;
+        }
+        logger.info("Search index reconciliation: "+ stale.cardinality() + " stale, "+
+                duplicated.cardinality() + " duplicated, "+ missing.cardinality() +" missing messages");
+
+        final BitSet remove = (BitSet) stale.clone();
+        remove.or(duplicated);
+        final BitSet reindex = (BitSet) missing.clone();
+        reindex.or(duplicated);
+        writer.removeMessagesById(remove);
+        queueForIndexing(accounts, reindex);
+    }
+
+    private void readIndexedIds(BitSet indexed, BitSet duplicated) throws IOException {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for(AtomicReaderContext context: searcher.getIndexReader().leaves()) {
+                readIndexedIds(context.reader(), indexed, duplicated);
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private void readIndexedIds(AtomicReader reader, BitSet indexed, BitSet duplicated) throws IOException {
+        final FieldCache.Ints ids = FieldCache.DEFAULT.getInts(reader, IMAPMessageDocumentWriter.UID_FIELD, FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+        final Bits hasId = FieldCache.DEFAULT.getDocsWithField(reader, IMAPMessageDocumentWriter.UID_FIELD);
+        final Bits liveDocs = reader.getLiveDocs();
+        for(int doc = 0; doc < reader.maxDoc(); doc++) {
+            if((liveDocs == null || liveDocs.get(doc)) && hasId.get(doc)) {
+                final int id = ids.get(doc);
+                if(indexed.get(id)) {
+                    duplicated.set(id);
+                } else {
+                    indexed.set(id);
+                }
+            }
+        }
+    }
+
+    private List<Account> getAccounts() {
+        final EventList<Account> accounts = model.getAccountList().getAccounts();
+        accounts.getReadWriteLock().readLock().lock();
+        try {
+            return new ArrayList<>(accounts);
+        } finally {
+            accounts.getReadWriteLock().readLock().unlock();
+        }
+    }
+
+    private BitSet readStoredIds(List<Account> accounts) {
+        final BitSet stored = new BitSet();
+        for(Account account: accounts) {
+            final EventList<StoredMessage> messages = account.getMessageEventList();
+            messages.getReadWriteLock().readLock().lock();
+            try {
+                for(StoredMessage message: messages) {
+                    stored.set(message.getMessageId());
+                }
+            } finally {
+                messages.getReadWriteLock().readLock().unlock();
+            }
+        }
+        return stored;
+    }
+
+    private void queueForIndexing(List<Account> accounts, BitSet messageIds) throws IOException {
+        for(int id = messageIds.nextSetBit(0); id >= 0; id = messageIds.nextSetBit(id + 1)) {
+            final StoredMessage message = findMessage(accounts, id);
+            if(message != null) {
+                indexingPipeline.enqueue(message);
+            }
+        }
+    }
+
+    private StoredMessage findMessage(List<Account> accounts, int messageId) {
+        for(Account account: accounts) {
+            final StoredMessage message = account.getMessageById(messageId);
+            if(message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.subgraph.sgmail.internal.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.OpenBitSet;
+
+import java.io.IOException;
+
+/**
+ * Collects the message ids of all matching documents into a bitset without scoring, sorting or
+ * loading stored fields.  Ids are read from the numeric doc values of the uid field, falling back
+ * to the field cache for segments written before doc values were added.
+ *
+ * The matching documents of each segment are also kept so that a later query which refines this
+ * one can be restricted to them while the same index reader is current.
+ */
+class MessageIdCollector extends Collector {
+
+    private final OpenBitSet messageIds = new OpenBitSet();
+    private final FixedBitSet[] segmentDocs;
+    private FixedBitSet currentDocs;
+    private NumericDocValues docValues;
+    private FieldCache.Ints cachedIds;
+    private int hitCount;
+
+    MessageIdCollector(int segmentCount) {
+        this.segmentDocs = new FixedBitSet[segmentCount];
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        final AtomicReader reader = context.reader();
+        docValues = reader.getNumericDocValues(IMAPMessageDocumentWriter.UID_FIELD);
+        cachedIds = (docValues == null) ?
+                FieldCache.DEFAULT.getInts(reader, IMAPMessageDocumentWriter.UID_FIELD, FieldCache.NUMERIC_UTILS_INT_PARSER, false) :
+                null;
+        currentDocs = new FixedBitSet(reader.maxDoc());
+        segmentDocs[context.ord] = currentDocs;
+    }
+
+    @Override
+    public void collect(int doc) {
+        final int id = (docValues != null) ? (int) docValues.get(doc) : cachedIds.get(doc);
+        messageIds.set(id);
+        currentDocs.set(doc);
+        hitCount += 1;
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+
+    OpenBitSet getMessageIds() {
+        return messageIds;
+    }
+
+    /** The matching documents of each segment of the searched reader, indexed by segment ordinal */
+    FixedBitSet[] getSegmentDocs() {
+        return segmentDocs;
+    }
+
+    int getHitCount() {
+        return hitCount;
+    }
+}
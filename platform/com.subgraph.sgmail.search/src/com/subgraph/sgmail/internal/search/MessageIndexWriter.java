@@ -5,17 +5,22 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 class MessageIndexWriter {
 
     private final static Logger logger = Logger.getLogger(MessageIndexWriter.class.getName());
+    private final static double RAM_BUFFER_SIZE_MB = 48.0;
 
     static MessageIndexWriter openIndexWriter(File indexDirectory, boolean create) throws IOException {
         final Directory dir = FSDirectory.open(indexDirectory);
@@ -24,18 +29,17 @@ class MessageIndexWriter {
         iwc.setOpenMode((create) ?
                 (IndexWriterConfig.OpenMode.CREATE) :
                 (IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        iwc.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
 
         return new MessageIndexWriter(new IndexWriter(dir, iwc));
     }
 
     private final IndexWriter indexWriter;
-    private final IMAPMessageDocumentWriter messageWriter;
-    private final Object lock = new Object();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private boolean isClosed;
 
     private MessageIndexWriter(IndexWriter indexWriter) {
         this.indexWriter = indexWriter;
-        this.messageWriter = new IMAPMessageDocumentWriter();
     }
 
     public IndexWriter getIndexWriter() {
@@ -43,40 +47,73 @@ class MessageIndexWriter {
     }
 
     public void commitIndex() throws IOException {
-        indexWriter.commit();
+        lock.readLock().lock();
+        try {
+            if(!isClosed && indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void closeIndex() {
+        lock.writeLock().lock();
         try {
+            isClosed = true;
             indexWriter.commit();
-            synchronized (lock) {
-                isClosed = true;
-                indexWriter.close();
-            }
+            indexWriter.close();
         } catch (IOException e) {
             logger.warning("IOException closing search index writer: " + e);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    public void indexMessage(StoredMessage message) {
+    /**
+     * May be called concurrently from several threads as long as each thread passes its own
+     * <code>documentWriter</code>.
+     */
+    public void indexMessage(IMAPMessageDocumentWriter documentWriter, StoredMessage message) {
+        lock.readLock().lock();
         try {
-            synchronized (lock) {
-                if(!isClosed) {
-                    messageWriter.indexMessage(indexWriter, message);
-                }
+            if(!isClosed) {
+                documentWriter.indexMessage(indexWriter, message);
             }
         } catch (IOException e) {
             logger.warning("IOException writing to search index: " + e);
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     public void removeMessage(StoredMessage message) {
-        synchronized (lock) {
+        lock.readLock().lock();
+        try {
             if(!isClosed) {
-                //indexWriter.deleteDocuments(new Term("uid", ""));
-                //indexWriter.commit();
+                indexWriter.deleteDocuments(IMAPMessageDocumentWriter.createIdTerm(message.getMessageId()));
             }
+        } catch (IOException e) {
+            logger.warning("IOException removing message from search index: " + e);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
+    /**
+     * Remove every document stored with one of the given message ids.  Unlike {@link #removeMessage(StoredMessage)}
+     * this matches on the numeric uid field and so also finds documents written before the id term was added.
+     */
+    public void removeMessagesById(BitSet messageIds) {
+        lock.readLock().lock();
+        try {
+            for(int id = messageIds.nextSetBit(0); id >= 0 && !isClosed; id = messageIds.nextSetBit(id + 1)) {
+                indexWriter.deleteDocuments(NumericRangeQuery.newIntRange(IMAPMessageDocumentWriter.UID_FIELD, id, id, true, true));
+            }
+        } catch (IOException e) {
+            logger.warning("IOException removing messages from search index: " + e);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 }
@@ -0,0 +1,97 @@
+package com.subgraph.sgmail.internal.search;
+
+import com.subgraph.sgmail.messages.StoredMessage;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Indexes messages on the shared indexing pool, whose threads all feed the same IndexWriter.  The
+ * pool has a bounded queue and runs a task on the submitting thread when the queue is full, so that
+ * a fast producer such as the IMAP synchronization is slowed down to the rate at which messages can
+ * be indexed rather than filling the heap.  Every thread which indexes owns its own
+ * IMAPMessageDocumentWriter and therefore its own Document.
+ */
+class MessageIndexingPipeline {
+    private final static Logger logger = Logger.getLogger(MessageIndexingPipeline.class.getName());
+
+    private final static int SHUTDOWN_WAIT_SECONDS = 60;
+
+    private final MessageIndexWriter writer;
+    private final Executor executor;
+    private final ThreadLocal<IMAPMessageDocumentWriter> documentWriters = ThreadLocal.withInitial(IMAPMessageDocumentWriter::new);
+    private final Object pendingLock = new Object();
+    private int pendingCount;
+    private volatile boolean isClosing;
+
+    MessageIndexingPipeline(MessageIndexWriter writer, Executor executor) {
+        this.writer = writer;
+        this.executor = executor;
+    }
+
+    void enqueue(StoredMessage message) throws IOException {
+        if(isClosing) {
+            throw new IOException("Indexing pipeline has been closed");
+        }
+        synchronized (pendingLock) {
+            pendingCount += 1;
+        }
+        try {
+            executor.execute(() -> runIndexer(message));
+        } catch (RejectedExecutionException e) {
+            indexerFinished();
+            throw new IOException("Indexing pool is not accepting messages", e);
+        }
+    }
+
+    int getQueuedCount() {
+        synchronized (pendingLock) {
+            return pendingCount;
+        }
+    }
+
+    /**
+     * Stop accepting messages and wait for every message already queued to be indexed.
+     */
+    void close() {
+        isClosing = true;
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_WAIT_SECONDS);
+        synchronized (pendingLock) {
+            try {
+                while(pendingCount > 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0) {
+                        logger.warning("Indexing did not finish after "+ SHUTDOWN_WAIT_SECONDS + " seconds, "+ pendingCount +" messages not indexed");
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(pendingLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runIndexer(StoredMessage message) {
+        try {
+            writer.indexMessage(documentWriters.get(), message);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Unexpected exception indexing message: "+ e, e);
+        } finally {
+            indexerFinished();
+        }
+    }
+
+    private void indexerFinished() {
+        synchronized (pendingLock) {
+            pendingCount -= 1;
+            if(pendingCount == 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+}
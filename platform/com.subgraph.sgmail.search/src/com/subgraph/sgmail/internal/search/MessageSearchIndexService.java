@@ -1,19 +1,23 @@
 package com.subgraph.sgmail.internal.search;
 
+import com.subgraph.sgmail.ExecutorRegistry;
+import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.search.MessageSearchIndex;
 import com.subgraph.sgmail.search.SearchResult;
+import com.subgraph.sgmail.search.SearchStatistics;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.*;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.util.Version;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,43 +25,76 @@ public class MessageSearchIndexService implements MessageSearchIndex {
     private final static Logger logger = Logger.getLogger(MessageSearchIndexService.class.getName());
 
     private File indexDirectory;
+    private Model model;
+    private ExecutorRegistry executorRegistry;
     private final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_47);
+    private final SearchLatencyStatistics statistics = new SearchLatencyStatistics();
+
+    private final static long COMMIT_INTERVAL_SECONDS = 30;
+    private final static long REFRESH_INTERVAL_MILLIS = 1000;
+    private final static long RECONCILE_INITIAL_DELAY_MINUTES = 2;
+    private final static long RECONCILE_INTERVAL_MINUTES = 60;
 
     private MessageIndexWriter writer;
+    private MessageIndexingPipeline indexingPipeline;
     private SearcherManager searcherManager;
+    private ScheduledExecutorService maintenanceExecutor;
     private boolean isClosed;
 
+    void setModel(Model model) {
+        this.model = model;
+    }
+
+    void setExecutorRegistry(ExecutorRegistry executorRegistry) {
+        this.executorRegistry = executorRegistry;
+    }
+
+    /**
+     * Opens the index in <code>indexDirectory</code> and starts committing it and refreshing
+     * its searcher in the background, whether or not any messages are added in this session.
+     */
     public void setIndexDirectory(File indexDirectory) {
     	this.indexDirectory = indexDirectory;
+        try {
+            getWriter();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error opening search index: "+ e.getMessage(), e);
+        }
     }
     
     public void addMessage(StoredMessage message) throws IOException {
-        getWriter().indexMessage(message);
+        getIndexingPipeline().enqueue(message);
     }
 
-    public void removeMessage(StoredMessage message) {
-        logger.warning("removeMessage called but not yet implemented");
+    public void removeMessage(StoredMessage message) throws IOException {
+        getWriter().removeMessage(message);
     }
 
     public SearchResult search(String queryString) throws IOException {
-        getSearcherManager().maybeRefresh();
-        final Query query = createQuery(queryString);
-        return SearchResultImpl.runQuery(queryString, query, getSearcherManager());
+        return search(queryString, null, () -> false);
     }
 
-    private Query createQuery(String input) {
+    public SearchResult search(String queryString, SearchResult previousResult, BooleanSupplier isCancelled) throws IOException {
+        final long start = System.nanoTime();
+        final SearchQuery query = SearchQuery.create(queryString, analyzer);
+        final SearchResultImpl previous = (previousResult instanceof SearchResultImpl) ? (SearchResultImpl) previousResult : null;
+        final SearchResultImpl result;
         try {
-            return createQueryParser().parse(input);
-        } catch (ParseException e) {
-            final BooleanQuery query = new BooleanQuery();
-            query.add(new TermQuery(new Term("body", input.toLowerCase())), BooleanClause.Occur.SHOULD);
-            query.add(new TermQuery(new Term("subject", input.toLowerCase())), BooleanClause.Occur.SHOULD);
-            return query;
+            result = SearchResultImpl.runQuery(query, previous, getSearcherManager(), isCancelled);
+        } catch (CancellationException e) {
+            statistics.searchCancelled();
+            throw e;
+        }
+        final long elapsed = System.nanoTime() - start;
+        statistics.searchCompleted(elapsed, result.isRefined());
+        if(logger.isLoggable(Level.FINE)) {
+            logger.fine("Search matched "+ result.getMatchCount() + " messages in "+ TimeUnit.NANOSECONDS.toMicros(elapsed) + " us"+ (result.isRefined() ? " (refined)" : ""));
         }
+        return result;
     }
 
-    private QueryParser createQueryParser() {
-        return new MultiFieldQueryParser(Version.LUCENE_47, new String[] { "body", "subject" }, analyzer);
+    public SearchStatistics getSearchStatistics() {
+        return statistics;
     }
 
     public void commit() {
@@ -74,6 +111,12 @@ public class MessageSearchIndexService implements MessageSearchIndex {
         } else {
             isClosed = true;
         }
+        if(maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        if(indexingPipeline != null) {
+            indexingPipeline.close();
+        }
         if(writer != null) {
             writer.closeIndex();
         }
@@ -95,16 +138,58 @@ public class MessageSearchIndexService implements MessageSearchIndex {
         }
         if(writer == null) {
             writer = MessageIndexWriter.openIndexWriter(indexDirectory, false);
+            startMaintenance();
         }
         return writer;
     }
 
+    private synchronized MessageIndexingPipeline getIndexingPipeline() throws IOException {
+        getWriter();
+        return indexingPipeline;
+    }
+
+    /**
+     * Commits, near real time searcher refreshes and reconciliation with the database run on
+     * their own schedule so that neither the producers of messages nor search() have to wait for
+     * them.  They start as soon as the writer is opened, since deletions must also become visible
+     * to searches and reconciliation must run even if no message is indexed in this session.
+     */
+    private void startMaintenance() throws IOException {
+        final SearcherManager manager = getSearcherManager();
+        indexingPipeline = new MessageIndexingPipeline(writer, executorRegistry.getExecutor(ExecutorRegistry.Workload.INDEXING));
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "Search index maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::commit, COMMIT_INTERVAL_SECONDS, COMMIT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        maintenanceExecutor.scheduleWithFixedDelay(() -> refreshSearcher(manager), REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        final IndexReconciler reconciler = new IndexReconciler(model, writer, manager, indexingPipeline);
+        maintenanceExecutor.scheduleWithFixedDelay(() -> reconcileIndex(reconciler), RECONCILE_INITIAL_DELAY_MINUTES, RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private void reconcileIndex(IndexReconciler reconciler) {
+        try {
+            reconciler.reconcile();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Error reconciling search index with message database: "+ e.getMessage(), e);
+        }
+    }
+
+    private void refreshSearcher(SearcherManager manager) {
+        try {
+            manager.maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Error refreshing searcher: "+ e.getMessage(), e);
+        }
+    }
+
     private synchronized SearcherManager getSearcherManager() throws IOException {
         if(isClosed) {
             throw new IOException("Index has been closed");
         }
         if(searcherManager == null) {
-            searcherManager = new SearcherManager(getWriter().getIndexWriter(), false, null);
+            searcherManager = new SearcherManager(getWriter().getIndexWriter(), true, null);
         }
         return searcherManager;
     }
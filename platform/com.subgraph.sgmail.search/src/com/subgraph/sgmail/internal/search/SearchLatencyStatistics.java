@@ -0,0 +1,84 @@
+package com.subgraph.sgmail.internal.search;
+
+import com.subgraph.sgmail.search.SearchStatistics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts searches and keeps the latencies of the most recent completed searches so that
+ * percentiles reflect the current size of the index rather than the whole session.
+ */
+class SearchLatencyStatistics implements SearchStatistics {
+    private final static int LATENCY_WINDOW_SIZE = 1024;
+
+    /** A ring of the most recent latencies. */
+    private static class LatencyWindow {
+        private final long[] latencies = new long[LATENCY_WINDOW_SIZE];
+        private long count;
+
+        synchronized void add(long nanos) {
+            latencies[(int) (count % latencies.length)] = nanos;
+            count += 1;
+        }
+
+        double getPercentileMillis(double percentile) {
+            final long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(latencies, (int) Math.min(count, latencies.length));
+            }
+            if(sorted.length == 0) {
+                return 0;
+            }
+            Arrays.sort(sorted);
+            final double p = Math.max(0, Math.min(100, percentile));
+            final int rank = (int) Math.ceil(p / 100 * sorted.length);
+            return sorted[Math.max(rank - 1, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong refined = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final LatencyWindow allLatencies = new LatencyWindow();
+    private final LatencyWindow refinedLatencies = new LatencyWindow();
+
+    void searchCompleted(long elapsedNanos, boolean isRefined) {
+        completed.incrementAndGet();
+        allLatencies.add(elapsedNanos);
+        if(isRefined) {
+            refined.incrementAndGet();
+            refinedLatencies.add(elapsedNanos);
+        }
+    }
+
+    void searchCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    @Override
+    public long getCompletedSearchCount() {
+        return completed.get();
+    }
+
+    @Override
+    public long getRefinedSearchCount() {
+        return refined.get();
+    }
+
+    @Override
+    public long getCancelledSearchCount() {
+        return cancelled.get();
+    }
+
+    @Override
+    public double getLatencyPercentileMillis(double percentile) {
+        return allLatencies.getPercentileMillis(percentile);
+    }
+
+    @Override
+    public double getRefinedLatencyPercentileMillis(double percentile) {
+        return refinedLatencies.getPercentileMillis(percentile);
+    }
+}
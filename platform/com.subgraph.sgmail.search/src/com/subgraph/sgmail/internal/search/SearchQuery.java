@@ -0,0 +1,195 @@
+package com.subgraph.sgmail.internal.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query typed into the search bar.  A query without any query syntax is a list of words which
+ * must all appear in the subject or body of a message, and the last word matches as a prefix
+ * unless it is followed by whitespace, so that results appear while the word is still being
+ * typed.  Any other query is parsed by the Lucene query parser.
+ *
+ * Since every clause of a word query must match, a word query can only match a subset of the
+ * messages matched by a previous word query when every clause of the previous query is implied by
+ * some clause of the new one.  Typing more of a query usually produces such a refinement, and the
+ * search can be restricted to the messages of the previous result.
+ */
+class SearchQuery {
+    private final static String[] SEARCH_FIELDS = { "body", "subject" };
+    private final static String QUERY_SYNTAX_CHARACTERS = "\"():*?~^[]{}\\";
+
+    /** A single character prefix expands to a large part of the term dictionary. */
+    final static int MIN_PREFIX_LENGTH = 2;
+
+    /**
+     * The highlighter only highlights terms found by rewriting the query, so prefixes are expanded
+     * to at most this many terms when highlighting.
+     */
+    private final static int MAX_HIGHLIGHT_PREFIX_TERMS = 64;
+
+    private final static Analyzer wordAnalyzer = new StandardAnalyzer(Version.LUCENE_47, CharArraySet.EMPTY_SET);
+
+    private static class Clause {
+        private final String text;
+        private final boolean isPrefix;
+
+        Clause(String text, boolean isPrefix) {
+            this.text = text;
+            this.isPrefix = isPrefix;
+        }
+
+        /** Returns true if every message matched by <code>other</code> is matched by this clause. */
+        boolean implies(Clause other) {
+            if(isPrefix) {
+                return other.text.startsWith(text);
+            } else {
+                return !other.isPrefix && other.text.equals(text);
+            }
+        }
+    }
+
+    static SearchQuery create(String input, Analyzer analyzer) {
+        if(containsQuerySyntax(input)) {
+            return new SearchQuery(input, parseQuery(input, analyzer), null);
+        }
+        try {
+            return new SearchQuery(input, null, createClauses(input));
+        } catch (IOException e) {
+            return new SearchQuery(input, parseQuery(input, analyzer), null);
+        }
+    }
+
+    private final String queryText;
+    private final Query parsedQuery;
+    private final List<Clause> clauses;
+
+    private SearchQuery(String queryText, Query parsedQuery, List<Clause> clauses) {
+        this.queryText = queryText;
+        this.parsedQuery = parsedQuery;
+        this.clauses = clauses;
+    }
+
+    String getQueryText() {
+        return queryText;
+    }
+
+    Query getQuery() {
+        return (clauses == null) ? parsedQuery : createClauseQuery(MultiTermQuery.CONSTANT_SCORE_AUTO_REWRITE_DEFAULT);
+    }
+
+    /** A query for the highlighter, which must be rewritten against the searcher before use. */
+    Query getHighlightQuery() {
+        return (clauses == null) ? parsedQuery : createClauseQuery(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(MAX_HIGHLIGHT_PREFIX_TERMS));
+    }
+
+    /**
+     * Returns true if this query can only match messages which are also matched by
+     * <code>previous</code>.
+     */
+    boolean isRefinementOf(SearchQuery previous) {
+        if(clauses == null || previous.clauses == null || previous.clauses.isEmpty()) {
+            return false;
+        }
+        for(Clause previousClause: previous.clauses) {
+            if(!isImpliedByAnyClause(previousClause)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isImpliedByAnyClause(Clause previousClause) {
+        for(Clause c: clauses) {
+            if(previousClause.implies(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Query createClauseQuery(MultiTermQuery.RewriteMethod prefixRewriteMethod) {
+        final BooleanQuery query = new BooleanQuery();
+        for(Clause c: clauses) {
+            final BooleanQuery fieldQuery = new BooleanQuery();
+            for(String field: SEARCH_FIELDS) {
+                fieldQuery.add(createFieldQuery(field, c, prefixRewriteMethod), BooleanClause.Occur.SHOULD);
+            }
+            query.add(fieldQuery, BooleanClause.Occur.MUST);
+        }
+        return query;
+    }
+
+    private static Query createFieldQuery(String field, Clause clause, MultiTermQuery.RewriteMethod prefixRewriteMethod) {
+        final Term term = new Term(field, clause.text);
+        if(!clause.isPrefix) {
+            return new TermQuery(term);
+        }
+        final PrefixQuery query = new PrefixQuery(term);
+        query.setRewriteMethod(prefixRewriteMethod);
+        return query;
+    }
+
+    /**
+     * Words are split as the index analyzer splits them, and stop words, which are not indexed, are
+     * dropped unless they are the last word and may be the start of a longer word.
+     */
+    private static List<Clause> createClauses(String input) throws IOException {
+        final List<Clause> clauses = new ArrayList<>();
+        try (TokenStream stream = wordAnalyzer.tokenStream(SEARCH_FIELDS[0], input)) {
+            final CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            final OffsetAttribute offsetAttribute = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while(stream.incrementToken()) {
+                final String word = termAttribute.toString();
+                final boolean isLast = offsetAttribute.endOffset() == input.length();
+                if(isLast && word.length() >= MIN_PREFIX_LENGTH) {
+                    clauses.add(new Clause(word, true));
+                } else if(!StandardAnalyzer.STOP_WORDS_SET.contains(word)) {
+                    clauses.add(new Clause(word, false));
+                }
+            }
+            stream.end();
+        }
+        return Collections.unmodifiableList(clauses);
+    }
+
+    private static boolean containsQuerySyntax(String input) {
+        for(int i = 0; i < input.length(); i++) {
+            if(QUERY_SYNTAX_CHARACTERS.indexOf(input.charAt(i)) != -1) {
+                return true;
+            }
+        }
+        for(String word: input.trim().split("\\s+")) {
+            if(word.startsWith("+") || word.startsWith("-") || word.equals("AND") || word.equals("OR") || word.equals("NOT")
+                    || word.equals("&&") || word.equals("||")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Query parseQuery(String input, Analyzer analyzer) {
+        try {
+            return new MultiFieldQueryParser(Version.LUCENE_47, SEARCH_FIELDS, analyzer).parse(input);
+        } catch (ParseException e) {
+            final BooleanQuery query = new BooleanQuery();
+            query.add(new TermQuery(new Term("body", input.toLowerCase())), BooleanClause.Occur.SHOULD);
+            query.add(new TermQuery(new Term("subject", input.toLowerCase())), BooleanClause.Occur.SHOULD);
+            return query;
+        }
+    }
+}
@@ -2,46 +2,69 @@ package com.subgraph.sgmail.internal.search;
 
 import com.subgraph.sgmail.search.HighlightedString;
 import com.subgraph.sgmail.search.SearchResult;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.OpenBitSet;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 class SearchResultImpl implements SearchResult {
     private final static Logger logger = Logger.getLogger(SearchResultImpl.class.getName());
 
-    public static SearchResultImpl runQuery(String queryInput, Query query, SearcherManager searcherManager) throws IOException {
+    /**
+     * Run <code>searchQuery</code>, searching only the documents matched by <code>previous</code> if
+     * the query refines the previous query and the previous result was collected from the index
+     * reader which is still current.
+     */
+    public static SearchResultImpl runQuery(SearchQuery searchQuery, SearchResultImpl previous, SearcherManager searcherManager, BooleanSupplier isCancelled) throws IOException {
         final IndexSearcher searcher = searcherManager.acquire();
         try {
-            final TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-            final Map<Integer, Integer> documentIdMap = new HashMap<>();
-            final boolean[] bitset = populate(searcher, topDocs, documentIdMap);
-            return new SearchResultImpl(queryInput, query, searcher, searcherManager, documentIdMap, bitset);
+            final IndexReader reader = searcher.getIndexReader();
+            final boolean isRefined = previous != null && previous.canBeRefinedBy(searchQuery, reader);
+            final Query query = isRefined ?
+                    new FilteredQuery(searchQuery.getQuery(), previous.createResultFilter()) :
+                    searchQuery.getQuery();
+            final MessageIdCollector collector = new MessageIdCollector(reader.leaves().size());
+            final CancellableCollector cancellable = new CancellableCollector(collector, isCancelled);
+            cancellable.checkCancelled();
+            searcher.search(query, cancellable);
+            return new SearchResultImpl(searchQuery, searcher, searcherManager, collector, isRefined);
+        } catch (CancellableCollector.SearchCancelledException e) {
+            searcherManager.release(searcher);
+            throw new CancellationException("Search cancelled");
         } catch (Exception e) {
            searcherManager.release(searcher);
            throw e;
         }
     }
 
-    private static boolean[] populate(IndexSearcher searcher, TopDocs topDocs, Map<Integer, Integer> documentIdMap) throws IOException {
-        int highest = 0;
-        for(ScoreDoc sd: topDocs.scoreDocs) {
-            Document document = searcher.doc(sd.doc);
-            int uid = document.getField("uid").numericValue().intValue();
-            if(uid > highest) {
-                highest = uid;
-            }
-            documentIdMap.put(uid, sd.doc);
+    /** Matches the documents of each segment which were matched by a previous query. */
+    private static class ResultFilter extends Filter {
+        private final FixedBitSet[] segmentDocs;
+
+        ResultFilter(FixedBitSet[] segmentDocs) {
+            this.segmentDocs = segmentDocs;
         }
-        boolean[] bitset = new boolean[highest + 1];
-        for(Integer n: documentIdMap.keySet()) {
-            bitset[n] = true;
+
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) {
+            final FixedBitSet docs = (context.ord < segmentDocs.length) ? segmentDocs[context.ord] : null;
+            return (docs == null) ? null : BitsFilteredDocIdSet.wrap(docs, acceptDocs);
         }
-        return bitset;
     }
 
     private final static ResultHighlighter highlighter = new ResultHighlighter();
@@ -49,37 +72,62 @@ class SearchResultImpl implements SearchResult {
 
     private final static String[] highlightFields = { "subject", "body" };
 
-    private final String queryText;
-    private final Query query;
+    private final static int HIGHLIGHT_CACHE_SIZE = 512;
+
+    private final SearchQuery searchQuery;
     private final SearcherManager searcherManager;
+    private final IndexReader reader;
     private IndexSearcher searcher;
+    private Query highlightQuery;
+
+    private final OpenBitSet messageIds;
+    private final FixedBitSet[] segmentDocs;
+    private final int hitCount;
+    private final boolean isRefined;
+    private final Map<Integer, HighlightedString[]> highlightMap = new LinkedHashMap<Integer, HighlightedString[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, HighlightedString[]> eldest) {
+            return size() > HIGHLIGHT_CACHE_SIZE;
+        }
+    };
 
-    private final Map<Integer, Integer> documentIdMap;
-    private final boolean[] bitset;
-    private final Map<Integer, HighlightedString[]> highlightMap = new HashMap<>();
-
-    public SearchResultImpl(String queryText, Query query, IndexSearcher searcher, SearcherManager searcherManager, Map<Integer, Integer> documentIdMap, boolean[] bitset) {
-        this.queryText = queryText;
-        this.query = query;
+    private SearchResultImpl(SearchQuery searchQuery, IndexSearcher searcher, SearcherManager searcherManager, MessageIdCollector collector, boolean isRefined) {
+        this.searchQuery = searchQuery;
         this.searcherManager = searcherManager;
+        this.reader = searcher.getIndexReader();
         this.searcher = searcher;
-        this.documentIdMap = documentIdMap;
-        this.bitset = bitset;
+        this.messageIds = collector.getMessageIds();
+        this.segmentDocs = collector.getSegmentDocs();
+        this.hitCount = collector.getHitCount();
+        this.isRefined = isRefined;
     }
 
     public String getQueryText() {
-        return queryText;
+        return searchQuery.getQueryText();
+    }
+
+    boolean isRefined() {
+        return isRefined;
+    }
+
+    /**
+     * The reader is compared rather than the searcher since this result may have been disposed,
+     * in which case the reader is only still open if the new query holds it.
+     */
+    private boolean canBeRefinedBy(SearchQuery newQuery, IndexReader newReader) {
+        return reader == newReader && newQuery.isRefinementOf(searchQuery);
+    }
+
+    private Filter createResultFilter() {
+        return new ResultFilter(segmentDocs);
     }
 
     public int getMatchCount() {
-        return bitset.length;
+        return hitCount;
     }
 
     public boolean resultContainsMessageId(int uid) {
-        if(uid >= bitset.length) {
-            return false;
-        }
-        return bitset[uid];
+        return uid >= 0 && messageIds.get((long) uid);
     }
 
     public HighlightedString getHighlightedSubject(int uid) {
@@ -90,6 +138,25 @@ class SearchResultImpl implements SearchResult {
         return getHighlightsByUID(uid)[1];
     }
 
+    @Override
+    public void prefetchHighlights(int[] uids) {
+        final List<Integer> pending = new ArrayList<>();
+        synchronized (highlightMap) {
+            for(int uid: uids) {
+                if(resultContainsMessageId(uid) && !highlightMap.containsKey(uid) && !pending.contains(uid)) {
+                    pending.add(uid);
+                }
+            }
+        }
+        if(pending.isEmpty()) {
+            return;
+        }
+        final Map<Integer, HighlightedString[]> highlights = generateHighlights(pending);
+        synchronized (highlightMap) {
+            highlightMap.putAll(highlights);
+        }
+    }
+
     @Override
     public void dispose() {
         try {
@@ -102,34 +169,87 @@ class SearchResultImpl implements SearchResult {
 
     private HighlightedString[] getHighlightsByUID(int uid) {
         synchronized (highlightMap) {
-            if (!highlightMap.containsKey(uid)) {
-                highlightMap.put(uid, generateHightlight(uid));
+            final HighlightedString[] cached = highlightMap.get(uid);
+            if(cached != null) {
+                return cached;
             }
-            return highlightMap.get(uid);
         }
-    }
-
-    private HighlightedString[] generateHightlight(int uid) {
-        if(!documentIdMap.containsKey(uid)) {
-            logger.warning("No document id found for UID = "+ uid);
-            return EMPTY_HIGHLIGHTS;
+        final HighlightedString[] highlights = generateHighlights(Collections.singletonList(uid)).get(uid);
+        synchronized (highlightMap) {
+            highlightMap.put(uid, highlights);
         }
-        final int docid = documentIdMap.get(uid);
+        return highlights;
+    }
 
+    /**
+     * Highlights a page of results with a single pass of the highlighter.
+     */
+    private Map<Integer, HighlightedString[]> generateHighlights(List<Integer> uids) {
+        final Map<Integer, HighlightedString[]> result = new HashMap<>();
+        final List<Integer> foundUids = new ArrayList<>();
+        final List<Integer> docids = new ArrayList<>();
         try {
-            final Map<String, String[]> highlights = highlighter.highlightFields(highlightFields, query, searcher, new int[]{docid}, new int[]{2, 2});
-            final HighlightedStringImpl[] result = new HighlightedStringImpl[2];
-            result[0] = getHighlightedString(highlights, "subject");
-            result[1] = getHighlightedString(highlights, "body");
-            return result;
+            for(int uid: uids) {
+                final int docid = findDocumentId(uid);
+                if(docid < 0) {
+                    logger.warning("No document id found for UID = "+ uid);
+                    result.put(uid, EMPTY_HIGHLIGHTS);
+                } else {
+                    foundUids.add(uid);
+                    docids.add(docid);
+                }
+            }
+            if(docids.isEmpty()) {
+                return result;
+            }
+            final int[] sortedDocids = sortDocids(docids);
+            final int[] maxPassages = new int[highlightFields.length];
+            Arrays.fill(maxPassages, 2);
+            final Map<String, String[]> highlights = highlighter.highlightFields(highlightFields, getHighlightQuery(), searcher, sortedDocids, maxPassages);
+            for(int i = 0; i < foundUids.size(); i++) {
+                final int index = Arrays.binarySearch(sortedDocids, docids.get(i));
+                final HighlightedStringImpl[] hs = new HighlightedStringImpl[2];
+                hs[0] = getHighlightedString(highlights, "subject", index);
+                hs[1] = getHighlightedString(highlights, "body", index);
+                result.put(foundUids.get(i), hs);
+            }
         } catch (IOException e) {
             logger.log(Level.WARNING, "IOException highlighting result "+ e, e);
-            return EMPTY_HIGHLIGHTS;
+            for(int uid: uids) {
+                result.put(uid, EMPTY_HIGHLIGHTS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The highlighter rewrites the query against an empty reader, so prefix queries are expanded
+     * to terms against the searcher here first.
+     */
+    private synchronized Query getHighlightQuery() throws IOException {
+        if(highlightQuery == null) {
+            highlightQuery = searcher.rewrite(searchQuery.getHighlightQuery());
+        }
+        return highlightQuery;
+    }
+
+    private int findDocumentId(int uid) throws IOException {
+        final Query idQuery = NumericRangeQuery.newIntRange(IMAPMessageDocumentWriter.UID_FIELD, uid, uid, true, true);
+        final TopDocs topDocs = searcher.search(idQuery, 1);
+        return (topDocs.scoreDocs.length == 0) ? -1 : topDocs.scoreDocs[0].doc;
+    }
+
+    private static int[] sortDocids(List<Integer> docids) {
+        final int[] result = new int[docids.size()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = docids.get(i);
         }
+        Arrays.sort(result);
+        return result;
     }
 
-    private static HighlightedStringImpl getHighlightedString(Map<String, String[]> highlights, String key) {
-        final String tagged = highlights.get(key)[0];
+    private static HighlightedStringImpl getHighlightedString(Map<String, String[]> highlights, String key, int index) {
+        final String tagged = highlights.get(key)[index];
         return HighlightedStringImpl.createFromTaggedString(tagged);
     }
 }
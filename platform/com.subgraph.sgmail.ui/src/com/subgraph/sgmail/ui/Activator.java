@@ -8,6 +8,7 @@ import org.osgi.util.tracker.ServiceTracker;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.JavamailUtils;
+import com.subgraph.sgmail.MailOutbox;
 import com.subgraph.sgmail.accounts.AccountFactory;
 import com.subgraph.sgmail.autoconf.MailserverAutoconfig;
 import com.subgraph.sgmail.database.Database;
@@ -34,6 +35,7 @@ public class Activator implements BundleActivator {
 	private ServiceTracker<JavamailUtils,JavamailUtils> javamailUtilsTracker;
 	private ServiceTracker<MessageSearchIndex,MessageSearchIndex> messageSearchIndexTracker;
 	private ServiceTracker<NymsAgent, NymsAgent> nymsAgentTracker;
+	private ServiceTracker<MailOutbox, MailOutbox> mailOutboxTracker;
 	
 	
 	private static Activator _INSTANCE;
@@ -65,6 +67,7 @@ public class Activator implements BundleActivator {
 		javamailUtilsTracker = openTracker(bundleContext, JavamailUtils.class);
 		messageSearchIndexTracker = openTracker(bundleContext, MessageSearchIndex.class);
 		nymsAgentTracker = openTracker(bundleContext, NymsAgent.class);
+		mailOutboxTracker = openTracker(bundleContext, MailOutbox.class);
 	}
 	
 	private <T> ServiceTracker<T,T> openTracker(BundleContext ctx, Class<T> clazz) {
@@ -128,4 +131,8 @@ public class Activator implements BundleActivator {
 	public MessageSearchIndex getMessageSearchIndex() {
 		return messageSearchIndexTracker.getService();
 	}
+
+	public MailOutbox getMailOutbox() {
+		return mailOutboxTracker.getService();
+	}
 }
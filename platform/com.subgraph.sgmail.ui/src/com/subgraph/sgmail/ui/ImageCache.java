@@ -5,16 +5,44 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.subgraph.sgmail.ui.utils.ImageScaler;
+
+/**
+ * Icons loaded from the bundle are kept for the life of the application.
+ *
+ * Images decoded from messages and identities, such as attachment previews and avatars, are
+ * decoded and downscaled on a background thread by {@link #loadImage}.  The downscaled image data
+ * is kept in a memory cache bounded by size and, for images which may be written to disk, in a
+ * directory of thumbnails which outlives the session.  Image handles are shared by every control
+ * showing the same image and are disposed once no control uses them and they are among the least
+ * recently used.
+ */
 public class ImageCache {
+	private final static Logger logger = Logger.getLogger(ImageCache.class.getName());
+
+	private final static long MAX_THUMBNAIL_BYTES = 32 * 1024 * 1024;
+	private final static int MAX_UNUSED_IMAGE_HANDLES = 64;
+
 	public final static String USER_IMAGE = "user_64x64.png";
 	public final static String INBOX_IMAGE = "inbox_16x16.png";
 	public final static String FOLDER_IMAGE = "folder_16x16.png";
@@ -49,32 +77,142 @@ public class ImageCache {
 	
 	private final Map<String, Image> imageMap = new HashMap<>();
 	private final Map<String, Image> disabledMap = new HashMap<>();
-	private final Map<String, Image> avatarMap = new HashMap<>();
-	
-	/*
-	public Image getAvatarImage(String email, List<PublicIdentity> identities) {
-		if(!avatarMap.containsKey(email)) {
-			avatarMap.put(email, createAvatarImage(email, identities));
+
+	private static class SharedImage {
+		private final Image image;
+		private int references;
+
+		SharedImage(Image image) {
+			this.image = image;
+		}
+	}
+
+	/** Thrown by an image source which has no image to decode. */
+	private static class NoImageException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final Cache<String, ImageData> thumbnails = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_THUMBNAIL_BYTES)
+			.weigher((String key, ImageData data) -> getSize(data))
+			.build();
+
+	/** Accessed only from the display thread, in order of use */
+	private final Map<String, SharedImage> sharedImages = new LinkedHashMap<>(16, 0.75f, true);
+
+	private volatile ThumbnailStore thumbnailStore;
+	private volatile Executor decodeExecutor = MoreExecutors.sameThreadExecutor();
+
+	/**
+	 * Sets the directory where thumbnails are stored between sessions and the executor on which
+	 * images are decoded.  Until this is called images are decoded on the calling thread and only
+	 * kept in memory.
+	 */
+	public void configure(File thumbnailDirectory, Executor executor) {
+		this.thumbnailStore = new ThumbnailStore(thumbnailDirectory);
+		this.decodeExecutor = executor;
+	}
+
+	/**
+	 * Decodes an image scaled down to fit the given size on a background thread and passes it to
+	 * <code>consumer</code> on the display thread, unless <code>owner</code> has been disposed by
+	 * then.  The image belongs to the cache and stays valid until <code>owner</code> is disposed.
+	 *
+	 * @param key identifies the image, such as a message id and MIME part path
+	 * @param source opens the encoded image, or returns null if there is no image
+	 * @param isStoredOnDisk true if the scaled image may be written to the thumbnail directory
+	 */
+	public void loadImage(Control owner, String key, Callable<InputStream> source, int maxWidth, int maxHeight, boolean isStoredOnDisk, Consumer<Image> consumer) {
+		final Display display = owner.getDisplay();
+		final String cacheKey = key + "@" + maxWidth + "x" + maxHeight;
+		decodeExecutor.execute(() -> {
+			final ImageData data = getImageData(cacheKey, source, maxWidth, maxHeight, isStoredOnDisk);
+			if(data == null || display.isDisposed()) {
+				return;
+			}
+			display.asyncExec(() -> {
+				if(!owner.isDisposed()) {
+					consumer.accept(acquireImage(owner, cacheKey, data));
+				}
+			});
+		});
+	}
+
+	private ImageData getImageData(String cacheKey, Callable<InputStream> source, int maxWidth, int maxHeight, boolean isStoredOnDisk) {
+		final ThumbnailStore store = isStoredOnDisk ? thumbnailStore : null;
+		try {
+			return thumbnails.get(cacheKey, () -> {
+				final ImageData stored = (store == null) ? null : store.load(cacheKey);
+				if(stored != null) {
+					return stored;
+				}
+				final ImageData scaled = decodeImage(source, maxWidth, maxHeight);
+				if(store != null) {
+					store.store(cacheKey, scaled);
+				}
+				return scaled;
+			});
+		} catch (ExecutionException e) {
+			if(!(e.getCause() instanceof NoImageException)) {
+				logger.warning("Could not decode image "+ cacheKey +": "+ e.getCause());
+			}
+			return null;
 		}
-		return avatarMap.get(email);
 	}
 
-	private Image createAvatarImage(String email, List<PublicIdentity> identities) {
-		for(PublicIdentity id: identities) {
-			byte[] imageBytes = id.getImageData();
-			if(imageBytes != null && imageBytes.length > 0) {
-				return createAvatarImage(imageBytes);
+	private static ImageData decodeImage(Callable<InputStream> source, int maxWidth, int maxHeight) throws Exception {
+		try(InputStream in = source.call()) {
+			if(in == null) {
+				throw new NoImageException();
 			}
+			return ImageScaler.scaleToFit(new ImageData(in), maxWidth, maxHeight);
 		}
-		return getDisabledImage(USER_IMAGE);
 	}
 
-*/
-	public Image getAvatarImage(String email, byte[] imageBytes) {
-	  if(!avatarMap.containsKey(email) && imageBytes != null && imageBytes.length > 0) {
-	    return createAvatarImage(imageBytes);
-	  }
-	  return getDisabledImage(USER_IMAGE);
+	private static int getSize(ImageData data) {
+		final int alphaSize = (data.alphaData == null) ? 0 : data.alphaData.length;
+		return data.data.length + alphaSize;
+	}
+
+	private Image acquireImage(Control owner, String cacheKey, ImageData data) {
+		SharedImage shared = sharedImages.get(cacheKey);
+		if(shared == null) {
+			shared = new SharedImage(new Image(owner.getDisplay(), data));
+			sharedImages.put(cacheKey, shared);
+		}
+		shared.references += 1;
+		owner.addDisposeListener(e -> releaseImage(cacheKey));
+		disposeUnusedImages();
+		return shared.image;
+	}
+
+	private void releaseImage(String cacheKey) {
+		final SharedImage shared = sharedImages.get(cacheKey);
+		if(shared != null) {
+			shared.references -= 1;
+			disposeUnusedImages();
+		}
+	}
+
+	/**
+	 * Dispose the least recently used images which are not shown by any control until no more than
+	 * MAX_UNUSED_IMAGE_HANDLES unused images remain.
+	 */
+	private void disposeUnusedImages() {
+		int unused = 0;
+		for(SharedImage shared: sharedImages.values()) {
+			if(shared.references == 0) {
+				unused += 1;
+			}
+		}
+		for(Iterator<SharedImage> it = sharedImages.values().iterator(); it.hasNext() && unused > MAX_UNUSED_IMAGE_HANDLES;) {
+			final SharedImage shared = it.next();
+			if(shared.references == 0) {
+				shared.image.dispose();
+				it.remove();
+				unused -= 1;
+			}
+		}
 	}
 
 	public Image createAvatarImage(byte[] imageBytes) {
@@ -205,6 +205,7 @@ public class MainWindow extends ApplicationWindow {
     final File sgos = new File(home, ".sgos");
     final File index = new File(sgos, "index");
     database.open(sgos);
+    ImageCache.getInstance().configure(new File(sgos, "thumbnails"), globalExecutor);
     messageSearchIndex.setIndexDirectory(index);
 
     final MainWindow w = new MainWindow(model, eventBus, nymsAgent, javamailUtils, globalExecutor, messageSearchIndex);
@@ -43,6 +43,7 @@ public class SearchBar {
     private final ListeningExecutorService globalExecutor;
     private ScheduledFuture<?> launchSearchFuture;
     private ListenableFuture<SearchResult> pendingSearchFuture;
+    private SearchTask pendingSearchTask;
     private boolean isPendingSearchValid;
     private SearchResult lastResult;
 
@@ -89,8 +90,10 @@ public class SearchBar {
                 launchSearchFuture = null;
             }
             if(pendingSearchFuture != null) {
+                pendingSearchTask.cancel();
                 pendingSearchFuture.cancel(false);
                 pendingSearchFuture = null;
+                pendingSearchTask = null;
                 isPendingSearchValid = false;
             }
         }
@@ -116,10 +119,15 @@ public class SearchBar {
         eventBus.post(SearchFilterEvent.createFilterClearEvent());
     }
 
+    /**
+     * The last result is passed to the search so that a query which extends it only searches the
+     * messages it matched.
+     */
     private void launchSearch(String searchText) {
-        final SearchTask task = new SearchTask(messageSearchIndex, searchText);
         synchronized (lock) {
+            final SearchTask task = new SearchTask(messageSearchIndex, searchText, lastResult);
             isPendingSearchValid = true;
+            pendingSearchTask = task;
             pendingSearchFuture = globalExecutor.submit(task);
             Futures.addCallback(pendingSearchFuture, searchCompletedCallback);
         }
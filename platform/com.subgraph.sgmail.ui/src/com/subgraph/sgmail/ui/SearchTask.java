@@ -9,14 +9,22 @@ class SearchTask implements Callable<SearchResult> {
 
     private final MessageSearchIndex messageSearchIndex;
     private final String queryString;
+    private final SearchResult previousResult;
+    private volatile boolean isCancelled;
 
-    public SearchTask(MessageSearchIndex messageSearchIndex, String queryString) {
+    public SearchTask(MessageSearchIndex messageSearchIndex, String queryString, SearchResult previousResult) {
         this.messageSearchIndex = messageSearchIndex;
         this.queryString= queryString;
+        this.previousResult = previousResult;
+    }
+
+    /** Stop the search at the next point the index checks for cancellation. */
+    void cancel() {
+        isCancelled = true;
     }
 
     @Override
     public SearchResult call() throws Exception {
-        return messageSearchIndex.search(queryString);
+        return messageSearchIndex.search(queryString, previousResult, () -> isCancelled);
     }
 }
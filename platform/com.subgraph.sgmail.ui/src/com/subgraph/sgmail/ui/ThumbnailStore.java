@@ -0,0 +1,156 @@
+package com.subgraph.sgmail.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores downscaled images as PNG files so that they do not have to be extracted from a message
+ * and decoded again in a later session.  Files are named by a hash of the cache key and are
+ * written to a temporary file first, so a reader never sees a partly written file.
+ *
+ * Thumbnails are not deleted along with their messages.  Instead the total size of the directory
+ * is bounded: when a write takes it over the limit the least recently used files, by modification
+ * time, are deleted until it is back to three quarters of the limit.  Reading a file updates its
+ * modification time.
+ */
+class ThumbnailStore {
+	private final static Logger logger = Logger.getLogger(ThumbnailStore.class.getName());
+	private final static long MAX_DIRECTORY_BYTES = 64 * 1024 * 1024;
+
+	/** A thumbnail file with its size and modification time read once, for sorting. */
+	private static class StoredFile {
+		private final File file;
+		private final long length;
+		private final long lastModified;
+
+		StoredFile(File file) {
+			this.file = file;
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+	}
+
+	private final File directory;
+	private final long maxDirectoryBytes;
+
+	/** Guarded by this, and -1 until the directory has been scanned */
+	private long directoryBytes = -1;
+
+	ThumbnailStore(File directory) {
+		this(directory, MAX_DIRECTORY_BYTES);
+	}
+
+	ThumbnailStore(File directory, long maxDirectoryBytes) {
+		this.directory = directory;
+		this.maxDirectoryBytes = maxDirectoryBytes;
+	}
+
+	/**
+	 * Returns the stored image for <code>key</code>, or null if there is none.
+	 */
+	ImageData load(String key) {
+		final File file = getFile(key);
+		if(!file.exists()) {
+			return null;
+		}
+		try(InputStream in = Files.newInputStream(file.toPath())) {
+			final ImageData data = new ImageData(in);
+			file.setLastModified(System.currentTimeMillis());
+			return data;
+		} catch (IOException | SWTException e) {
+			logger.warning("Could not read thumbnail "+ file +": "+ e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	void store(String key, ImageData data) {
+		if(!directory.exists() && !directory.mkdirs()) {
+			logger.warning("Could not create thumbnail directory "+ directory);
+			return;
+		}
+		final File file = getFile(key);
+		final File tmp = new File(directory, file.getName() + ".tmp");
+		final ImageLoader loader = new ImageLoader();
+		loader.data = new ImageData[] { data };
+		try {
+			try(OutputStream out = Files.newOutputStream(tmp.toPath())) {
+				loader.save(out, SWT.IMAGE_PNG);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | SWTException e) {
+			logger.warning("Could not write thumbnail "+ file +": "+ e.getMessage());
+			tmp.delete();
+			return;
+		}
+		addStoredBytes(file.length());
+	}
+
+	/**
+	 * The directory is scanned on the first write of a session, which also counts the file just
+	 * written, so that space used in earlier sessions is counted.
+	 */
+	private synchronized void addStoredBytes(long length) {
+		if(directoryBytes < 0) {
+			directoryBytes = 0;
+			for(StoredFile sf: listStoredFiles()) {
+				directoryBytes += sf.length;
+			}
+		} else {
+			directoryBytes += length;
+		}
+		if(directoryBytes > maxDirectoryBytes) {
+			prune();
+		}
+	}
+
+	private void prune() {
+		final List<StoredFile> files = listStoredFiles();
+		files.sort(Comparator.comparingLong(sf -> sf.lastModified));
+		long total = 0;
+		for(StoredFile sf: files) {
+			total += sf.length;
+		}
+		final long target = maxDirectoryBytes / 4 * 3;
+		for(StoredFile sf: files) {
+			if(total <= target) {
+				break;
+			}
+			if(sf.file.delete()) {
+				total -= sf.length;
+			}
+		}
+		directoryBytes = total;
+	}
+
+	private List<StoredFile> listStoredFiles() {
+		final List<StoredFile> result = new ArrayList<>();
+		final File[] files = directory.listFiles((dir, name) -> name.endsWith(".png"));
+		if(files != null) {
+			for(File f: files) {
+				result.add(new StoredFile(f));
+			}
+		}
+		return result;
+	}
+
+	private File getFile(String key) {
+		return new File(directory, Hashing.sha1().hashString(key, Charsets.UTF_8).toString() + ".png");
+	}
+}
@@ -1,9 +1,10 @@
 package com.subgraph.sgmail.ui.attachments;
 
-import com.subgraph.sgmail.AttachmentExtractionException;
+import com.google.common.base.Joiner;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.StoredMessage;
+import com.subgraph.sgmail.ui.ImageCache;
 import com.subgraph.sgmail.ui.Resources;
 
 import org.eclipse.jface.resource.JFaceResources;
@@ -13,46 +14,44 @@ import org.eclipse.swt.events.ControlEvent;
 import org.eclipse.swt.graphics.*;
 import org.eclipse.swt.widgets.Composite;
 
-import java.io.InputStream;
-
+/**
+ * Shows an image attachment below a header with its file name.  The image is decoded and scaled
+ * down to at most MAX_IMAGE_SIZE pixels on each side in the background, and until it arrives only the
+ * header is painted.  Previews of encrypted messages are not stored on disk.
+ */
 public class ImageAttachmentRenderer extends Composite {
 
     private final static int MARGIN_WIDTH = 20;
     private final static int MARGIN_HEIGHT = 30;
     private final static int HEADER_SPACING = 10;
+    private final static int MAX_IMAGE_SIZE = 1024;
 
     public static ImageAttachmentRenderer createForAttachment(Composite parent, StoredMessage message, JavamailUtils javamailUtils, MessageAttachment attachment) {
-        try {
-            final InputStream stream = javamailUtils.extractAttachment(attachment, message);
-            final Image image = new Image(parent.getDisplay(), new ImageData(stream));
-            return new ImageAttachmentRenderer(parent, image, attachment.getFilename());
-        } catch (AttachmentExtractionException e) {
-            e.printStackTrace();
-        }
-        return null;
+        final ImageAttachmentRenderer renderer = new ImageAttachmentRenderer(parent, attachment.getFilename());
+        final String key = message.getMessageId() + ":" + Joiner.on('.').join(attachment.getMimePath()) + ":" + attachment.getFileLength();
+        final boolean isStoredOnDisk = !message.isFlagSet(StoredMessage.FLAG_ENCRYPTED);
+        ImageCache.getInstance().loadImage(renderer, key, () -> javamailUtils.extractAttachment(attachment, message),
+                MAX_IMAGE_SIZE, MAX_IMAGE_SIZE, isStoredOnDisk, renderer::setImage);
+        return renderer;
     }
 
-    private final Image image;
     private final String label;
     private final Point labelSize;
+    private Image image;
 
-    public ImageAttachmentRenderer(Composite parent, Image image, String label) {
+    public ImageAttachmentRenderer(Composite parent, String label) {
         super(parent, SWT.NONE);
-        this.image = image;
         this.label = "  "+ label + "  ";
         GC gc = new GC(getDisplay());
         gc.setFont(JFaceResources.getFont(Resources.FONT_HEADER));
         this.labelSize = gc.textExtent(label);
         gc.dispose();
         setBackground(JFaceResources.getColorRegistry().get(Resources.COLOR_WHITE));
-        addDisposeListener(e -> {
-            if(image != null) {
-                image.dispose();
-            }
-        });
         addPaintListener(e -> {
             paintHeader(e.gc);
-            paintImage(e.gc);
+            if(image != null) {
+                paintImage(e.gc);
+            }
         });
         addControlListener(new ControlAdapter() {
             @Override
@@ -62,11 +61,22 @@ public class ImageAttachmentRenderer extends Composite {
         });
     }
 
+    /** Sets the decoded image, which belongs to the image cache. */
+    public void setImage(Image image) {
+        this.image = image;
+        getParent().layout();
+        redraw();
+    }
+
     @Override
     public Point computeSize(int wHint, int hHint, boolean changed) {
         final int clientWidth = getClientArea().width;
-        final int imageWidth = image.getImageData().width;
-        final int imageHeight = image.getImageData().height;
+        if(image == null) {
+            return new Point(clientWidth, labelSize.y + HEADER_SPACING + 2 * MARGIN_HEIGHT);
+        }
+        final Rectangle imageBounds = image.getBounds();
+        final int imageWidth = imageBounds.width;
+        final int imageHeight = imageBounds.height;
         final int extraHeight = labelSize.y + HEADER_SPACING + 2 * MARGIN_HEIGHT;
 
         if(clientWidth == 0) {
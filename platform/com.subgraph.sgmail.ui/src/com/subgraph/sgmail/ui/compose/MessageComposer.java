@@ -21,16 +21,20 @@ import org.eclipse.swt.events.SelectionListener;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Layout;
 
 import com.google.common.base.Splitter;
+import com.google.common.eventbus.Subscribe;
 import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.accounts.MailAccount;
 import com.subgraph.sgmail.database.Model;
+import com.subgraph.sgmail.events.OutgoingMessageEvent;
 import com.subgraph.sgmail.messages.MessageUser;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.nyms.NymsAgent;
+import com.subgraph.sgmail.ui.Activator;
 
 public class MessageComposer extends Composite {
 
@@ -39,7 +43,11 @@ public class MessageComposer extends Composite {
 	private final ComposeCloseListener closeListener;
 	private final ComposerButtons buttonSection;
 	private final ComposerHeader headerSection;
+	private final Display display;
 	private StyledText bodyText;
+
+	/** Outbox id of the message being sent, accessed only from the display thread */
+	private int outboxId = -1;
 	
 	MessageComposer(Composite parent, JavamailUtils javamailUtils, IEventBus eventBus, NymsAgent nymsAgent, Model model, ComposeCloseListener closeListener) {
 		this(parent, javamailUtils, eventBus, nymsAgent, model, null, false, closeListener);
@@ -49,6 +57,7 @@ public class MessageComposer extends Composite {
 		super(parent, SWT.NONE);
         this.state = new MessageCompositionState(eventBus, nymsAgent, model.getContactManager(), this, replyMessage);
 		this.closeListener = closeListener;
+		this.display = parent.getDisplay();
 		setLayout(createLayout());
 		
 		buttonSection = new ComposerButtons(this, createSendListener(), createCancelListener());
@@ -68,6 +77,8 @@ public class MessageComposer extends Composite {
 		buttonSection.setSendButtonEnabled(headerSection.isHeaderValid());
         headerSection.updateOpenPGPButtons();
 		createDropTarget();
+		eventBus.register(this);
+		addDisposeListener(e -> eventBus.unregister(this));
 	}
 	
 	
@@ -159,32 +170,64 @@ public class MessageComposer extends Composite {
         transmitMessage(msg, state.getSelectedAccount());
 	}
 
+	/**
+	 * The message is stored in the outbox, which keeps trying to send it after this window has
+	 * been closed if the first attempt fails.
+	 */
 	private void transmitMessage(MimeMessage message, MailAccount account) {
 		buttonSection.setProgressVisible(true);
 		buttonSection.setProgressMessage("Sending...");
-		new Thread(new SendMailTask(this, message, account)).start();
+		buttonSection.setSendButtonEnabled(false);
+		try {
+			outboxId = Activator.getInstance().getMailOutbox().queueMessage(account, message);
+		} catch (MessagingException e) {
+			onMailSendFailed(e.getMessage());
+		}
 	}
-	
-	void onMailSendProgress(final String message) {
-		getDisplay().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				buttonSection.setProgressMessage(message);
+
+	@Subscribe
+	public void onOutgoingMessage(OutgoingMessageEvent event) {
+		if(display.isDisposed()) {
+			return;
+		}
+		display.asyncExec(() -> {
+			if(!isDisposed() && event.getOutboxId() == outboxId) {
+				onOutgoingMessageStateChanged(event);
 			}
 		});
 	}
 
+	private void onOutgoingMessageStateChanged(OutgoingMessageEvent event) {
+		switch(event.getState()) {
+		case SENDING:
+			onMailSendProgress("Sending...");
+			break;
+		case SENT:
+			onMailSendSuccess();
+			break;
+		case WAITING_TO_RETRY:
+			onMailSendProgress("Not sent yet, will retry from the outbox: "+ event.getErrorMessage());
+			break;
+		case FAILED:
+			onMailSendFailed(event.getErrorMessage());
+			break;
+		default:
+			break;
+		}
+	}
+
+	void onMailSendProgress(String message) {
+		buttonSection.setProgressMessage(message);
+	}
+
 	void onMailSendSuccess() {
-		getDisplay().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				closeListener.closeEvent();
-			}
-		});
+		closeListener.closeEvent();
 	}
 	
 	void onMailSendFailed(String errorMessage) {
-		
+		outboxId = -1;
+		buttonSection.setProgressMessage("Sending failed: "+ errorMessage);
+		buttonSection.setSendButtonEnabled(headerSection.isHeaderValid());
 	}
 	
 	void attachFile(File file) {
@@ -0,0 +1,203 @@
+package com.subgraph.sgmail.ui.panes.left;
+
+import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.TransformedList;
+import ca.odell.glazedlists.event.ListEvent;
+import com.subgraph.sgmail.messages.StoredMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups a list of messages into conversations by conversation id, keeping an index from
+ * conversation id to the messages of the conversation which is maintained incrementally as the
+ * source list changes.  Conversations are ordered by ascending conversation id and the messages of
+ * a conversation are in the order they appear in the source list.
+ *
+ * Unlike a GroupingList, which keeps the source sorted by a comparator, a message appended to the
+ * source is added to its conversation without any sorting, and a message for a new conversation is
+ * appended to the list of conversations since conversation ids are assigned in increasing order.
+ */
+class ConversationList extends TransformedList<StoredMessage, List<StoredMessage>> {
+
+    private static class Conversation {
+        private final int id;
+        private final List<StoredMessage> messages = new ArrayList<>();
+        private final List<StoredMessage> view = Collections.unmodifiableList(messages);
+
+        Conversation(int id) {
+            this.id = id;
+        }
+
+        int indexOfMessage(StoredMessage message) {
+            for(int i = messages.size() - 1; i >= 0; i--) {
+                if(messages.get(i) == message) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** A copy of the source list, needed to know which message was removed or replaced by a change. */
+    private final List<StoredMessage> sourceMessages = new ArrayList<>();
+    private final Map<Integer, Conversation> conversationsById = new HashMap<>();
+    private final List<Conversation> conversations = new ArrayList<>();
+
+    ConversationList(EventList<StoredMessage> source) {
+        super(source);
+        for(StoredMessage message: source) {
+            sourceMessages.add(message);
+            addMessage(message, sourceMessages.size() - 1, false);
+        }
+        source.addListEventListener(this);
+    }
+
+    @Override
+    protected boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return conversations.size();
+    }
+
+    @Override
+    public List<StoredMessage> get(int index) {
+        return conversations.get(index).view;
+    }
+
+    @Override
+    public void listChanged(ListEvent<StoredMessage> listChanges) {
+        updates.beginEvent(true);
+        if(listChanges.isReordering()) {
+            rebuild();
+        } else {
+            while(listChanges.next()) {
+                final int index = listChanges.getIndex();
+                switch (listChanges.getType()) {
+                    case ListEvent.INSERT:
+                        sourceMessages.add(index, source.get(index));
+                        addMessage(sourceMessages.get(index), index, true);
+                        break;
+                    case ListEvent.DELETE:
+                        removeMessage(sourceMessages.remove(index));
+                        break;
+                    case ListEvent.UPDATE:
+                        updateMessage(index);
+                        break;
+                }
+            }
+        }
+        updates.commitEvent();
+    }
+
+    private void updateMessage(int index) {
+        final StoredMessage oldMessage = sourceMessages.get(index);
+        final StoredMessage newMessage = source.get(index);
+        sourceMessages.set(index, newMessage);
+        final Conversation conversation = conversationsById.get(oldMessage.getConversationId());
+        if(newMessage.getConversationId() == conversation.id) {
+            conversation.messages.set(conversation.indexOfMessage(oldMessage), newMessage);
+            final int conversationIndex = indexOfConversation(conversation.id);
+            updates.elementUpdated(conversationIndex, conversation.view, conversation.view);
+        } else {
+            removeMessage(oldMessage);
+            addMessage(newMessage, index, true);
+        }
+    }
+
+    /**
+     * Add the message at <code>sourceIndex</code> of the source to its conversation.  A message
+     * which was appended to the source is appended to the conversation, otherwise it is placed
+     * after the closest message before it in the source which belongs to the same conversation.
+     */
+    private void addMessage(StoredMessage message, int sourceIndex, boolean fireEvents) {
+        final int id = message.getConversationId();
+        Conversation conversation = conversationsById.get(id);
+        if(conversation == null) {
+            conversation = new Conversation(id);
+            conversation.messages.add(message);
+            conversationsById.put(id, conversation);
+            final int conversationIndex = indexOfConversation(id);
+            conversations.add(conversationIndex, conversation);
+            if(fireEvents) {
+                updates.elementInserted(conversationIndex, conversation.view);
+            }
+            return;
+        }
+        if(sourceIndex == sourceMessages.size() - 1) {
+            conversation.messages.add(message);
+        } else {
+            conversation.messages.add(positionInConversation(conversation, sourceIndex), message);
+        }
+        if(fireEvents) {
+            updates.elementUpdated(indexOfConversation(id), conversation.view, conversation.view);
+        }
+    }
+
+    private int positionInConversation(Conversation conversation, int sourceIndex) {
+        for(int i = sourceIndex - 1; i >= 0; i--) {
+            final StoredMessage previous = sourceMessages.get(i);
+            if(previous.getConversationId() == conversation.id) {
+                return conversation.indexOfMessage(previous) + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void removeMessage(StoredMessage message) {
+        final Conversation conversation = conversationsById.get(message.getConversationId());
+        conversation.messages.remove(conversation.indexOfMessage(message));
+        final int conversationIndex = indexOfConversation(conversation.id);
+        if(conversation.messages.isEmpty()) {
+            conversationsById.remove(conversation.id);
+            conversations.remove(conversationIndex);
+            updates.elementDeleted(conversationIndex, conversation.view);
+        } else {
+            updates.elementUpdated(conversationIndex, conversation.view, conversation.view);
+        }
+    }
+
+    private void rebuild() {
+        for(Conversation conversation: conversations) {
+            updates.elementDeleted(0, conversation.view);
+        }
+        conversations.clear();
+        conversationsById.clear();
+        sourceMessages.clear();
+        for(StoredMessage message: source) {
+            sourceMessages.add(message);
+            addMessage(message, sourceMessages.size() - 1, false);
+        }
+        for(int i = 0; i < conversations.size(); i++) {
+            updates.elementInserted(i, conversations.get(i).view);
+        }
+    }
+
+    /**
+     * Binary search for the position of conversation <code>id</code>, or the position to insert it.
+     * New conversations usually have the highest id so the last position is checked first.
+     */
+    private int indexOfConversation(int id) {
+        final int n = conversations.size();
+        if(n == 0 || conversations.get(n - 1).id < id) {
+            return n;
+        }
+        int lo = 0;
+        int hi = n;
+        while(lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if(conversations.get(mid).id < id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
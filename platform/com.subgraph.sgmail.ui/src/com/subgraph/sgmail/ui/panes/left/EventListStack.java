@@ -2,7 +2,6 @@ package com.subgraph.sgmail.ui.panes.left;
 
 import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.FilterList;
-import ca.odell.glazedlists.GroupingList;
 import ca.odell.glazedlists.calculation.Calculation;
 import ca.odell.glazedlists.calculation.Calculations;
 import ca.odell.glazedlists.matchers.Matcher;
@@ -10,9 +9,9 @@ import com.subgraph.sgmail.accounts.Account;
 import com.subgraph.sgmail.messages.StoredFolder;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.messages.StoredMessageLabel;
+import com.subgraph.sgmail.messages.StoredMessageLabelIndex;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 public class EventListStack {
@@ -36,14 +35,14 @@ public class EventListStack {
         }
         els.addSearchFilter(searchMatcherEditor);
         els.addNewMessageCounter();
-        els.addGroupingList();
+        els.addConversationList();
         return els;
     }
 
     private final EventList<StoredMessage> baseList;
 
     private List<EventList<StoredMessage>> stack = new ArrayList<>();
-    private GroupingList<StoredMessage> groupingList;
+    private ConversationList conversationList;
     private Calculation<Integer> newMessageCounter;
     private Calculation<Integer> searchMatchCounter;
 
@@ -54,8 +53,8 @@ public class EventListStack {
     public void dispose() {
         baseList.getReadWriteLock().writeLock().lock();
         try {
-            if (groupingList != null) {
-                groupingList.dispose();
+            if (conversationList != null) {
+                conversationList.dispose();
             }
             if(newMessageCounter != null) {
                 newMessageCounter.dispose();
@@ -86,8 +85,8 @@ public class EventListStack {
         return newMessageCounter;
     }
 
-    public GroupingList<StoredMessage> getGroupingList() {
-        return groupingList;
+    public EventList<List<StoredMessage>> getConversationList() {
+        return conversationList;
     }
 
     public void addLabelFilter(StoredMessageLabel label) {
@@ -102,36 +101,23 @@ public class EventListStack {
 
     public Calculation<Integer> getSearchMatchCounter() { return searchMatchCounter; }
 
-    public GroupingList<StoredMessage> addGroupingList() {
-        if(groupingList == null) {
-            groupingList = new GroupingList<>(getTopList(), new ConversationGroupingComparator());
+    public EventList<List<StoredMessage>> addConversationList() {
+        if(conversationList == null) {
+            conversationList = new ConversationList(getTopList());
         }
-        return groupingList;
+        return conversationList;
     }
 
     private static class LabelMatcher implements Matcher<StoredMessage> {
         private final StoredMessageLabel label;
+        private final StoredMessageLabelIndex labelIndex;
         LabelMatcher(StoredMessageLabel label) {
             this.label = label;
+            this.labelIndex = label.getAccount().getLabelIndex();
         }
         @Override
         public boolean matches(StoredMessage message) {
-            return message.containsLabel(label);
-        }
-    }
-
-    private static class ConversationGroupingComparator implements Comparator<StoredMessage> {
-        @Override
-        public int compare(StoredMessage m1, StoredMessage m2) {
-            final long c1 = m1.getConversationId();
-            final long c2 = m2.getConversationId();
-            if(c1 == c2) {
-                return 0;
-            } else if (c1 < c2) {
-                return -1;
-            } else {
-                return 1;
-            }
+            return labelIndex.containsLabel(message, label);
         }
     }
 }
@@ -139,6 +139,10 @@ public class LabelProvider extends OwnerDrawLabelProvider {
 	}
 	
 	private int getNewMessageCount(Object element) {
+        if(element instanceof StoredMessageLabel) {
+            final StoredMessageLabel label = (StoredMessageLabel) element;
+            return label.getAccount().getLabelIndex().getUnreadMessageCount(label);
+        }
         return pane.getEventListStackFor(element).getNewMessageCounter().getValue();
 	}
 
@@ -1,6 +1,7 @@
 package com.subgraph.sgmail.ui.panes.left;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jface.resource.JFaceResources;
@@ -17,7 +18,7 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Label;
 
-import ca.odell.glazedlists.GroupingList;
+import ca.odell.glazedlists.EventList;
 
 import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.accounts.Account;
@@ -106,7 +107,7 @@ public class LeftPane extends Composite {
                 final Object ob = ss.getFirstElement();
                 if (ob != null) {
                 	final EventListStack els = getEventListStackFor(ob);
-                	eventBus.post(new ConversationSourceSelectedEvent(els.getGroupingList()));
+                	eventBus.post(new ConversationSourceSelectedEvent(els.getConversationList()));
                 }
             }
         });
@@ -114,8 +115,8 @@ public class LeftPane extends Composite {
 	}
 
     private void newEventListStack(EventListStack els) {
-        final GroupingList<StoredMessage> group = els.addGroupingList();
-        eventBus.post(new ConversationSourceSelectedEvent(group));
+        final EventList<List<StoredMessage>> conversations = els.addConversationList();
+        eventBus.post(new ConversationSourceSelectedEvent(conversations));
         if(currentStack != null) {
             currentStack.dispose();
         }
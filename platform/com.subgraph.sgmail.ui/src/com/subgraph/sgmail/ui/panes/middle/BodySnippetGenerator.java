@@ -6,24 +6,41 @@ import org.eclipse.swt.graphics.GC;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Breaks the start of a string into lines which fit a maximum width.  The longest prefix of the
+ * remaining text which fits on a line is found by searching outwards from an estimate and then by
+ * binary search, so each line costs a logarithmic number of text measurements rather than one per
+ * character.
+ */
 public class BodySnippetGenerator {
     private final static int DEFAULT_LINE_COUNT = 2;
+    private final static int ESTIMATE_SAMPLE_LENGTH = 16;
+
+    /** Measures the rendered width of a string in pixels. */
+    public interface TextMeasurer {
+        int getWidth(String s);
+    }
 
     private final int lineCount;
     private final String inputString;
     private final int maxWidth;
-    private final GC gc;
+    private final TextMeasurer measurer;
 
     private int currentOffset;
+    private int lastFitLength;
 
     public BodySnippetGenerator(String inputString, int maxWidth, GC gc) {
         this(inputString, maxWidth, gc, DEFAULT_LINE_COUNT);
     }
 
     public BodySnippetGenerator(String inputString, int maxWidth, GC gc, int lineCount) {
+        this(inputString, maxWidth, s -> gc.textExtent(s, 0).x, lineCount);
+    }
+
+    public BodySnippetGenerator(String inputString, int maxWidth, TextMeasurer measurer, int lineCount) {
         this.inputString = inputString;
         this.maxWidth = maxWidth;
-        this.gc = gc;
+        this.measurer = measurer;
         this.lineCount = lineCount;
     }
 
@@ -45,29 +62,87 @@ public class BodySnippetGenerator {
             return Range.closedOpen(0,0);
         }
         final int startIndex = currentOffset;
-        final StringBuilder sb = new StringBuilder();
-
-        sb.append(inputString.charAt(currentOffset));
-        currentOffset += 1;
+        final int fitEnd = findFitEnd(startIndex);
+        if(fitEnd == inputString.length()) {
+            currentOffset = fitEnd;
+            return Range.closedOpen(startIndex, fitEnd);
+        }
+        // break at the last whitespace up to and including the first character which did not fit
+        for(int i = fitEnd; i > startIndex; i--) {
+            if(Character.isWhitespace(inputString.charAt(i))) {
+                currentOffset = i + 1;
+                return Range.closedOpen(startIndex, i);
+            }
+        }
+        currentOffset = fitEnd;
+        return Range.closedOpen(startIndex, fitEnd);
+    }
 
-        int lastWhitespace= -1;
-        while(currentOffset < inputString.length()) {
-            char c = inputString.charAt(currentOffset);
-            if(Character.isWhitespace(c)) {
-                lastWhitespace = currentOffset;
+    /**
+     * Returns the end of the longest substring starting at <code>start</code> which fits in the
+     * maximum width, always including at least one character.  Characters are taken to be at least
+     * a pixel wide, so the search looks no further than <code>maxWidth</code> characters ahead.
+     *
+     * The search starts from an estimate of how many characters fit, taken from the previous line
+     * or from the width of a short sample, and widens by doubling steps until the end is bracketed
+     * so that most measurements are of strings close to the length of the line.
+     */
+    private int findFitEnd(int start) {
+        final int limit = (int) Math.min(inputString.length(), (long) start + Math.max(maxWidth, 1));
+        final int guess = Math.max(start + 1, Math.min(limit, start + estimateFitLength(start)));
+        int step = Math.max(2, (guess - start) / 8);
+        int lo;
+        int hi;
+        // invariant: substring(start, lo) fits or is a single character, substring(start, hi) does not fit
+        if(fits(start, guess)) {
+            lo = guess;
+            while(true) {
+                if(lo == limit) {
+                    return limit;
+                }
+                final int next = Math.min(limit, lo + step);
+                if(!fits(start, next)) {
+                    hi = next;
+                    break;
+                }
+                lo = next;
+                step *= 2;
             }
-            sb.append(inputString.charAt(currentOffset));
-            if(stringExceedsWidth(sb.toString())) {
-                if(lastWhitespace >= 0) {
-                    currentOffset = lastWhitespace + 1;
-                    return Range.closedOpen(startIndex, lastWhitespace);
-                } else {
-                    return Range.closedOpen(startIndex, currentOffset);
+        } else {
+            hi = guess;
+            while(true) {
+                final int next = Math.max(start + 1, hi - step);
+                if(next == start + 1 || fits(start, next)) {
+                    lo = next;
+                    break;
                 }
+                hi = next;
+                step *= 2;
+            }
+        }
+        while(hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if(fits(start, mid)) {
+                lo = mid;
+            } else {
+                hi = mid;
             }
-            currentOffset += 1;
         }
-        return Range.closedOpen(startIndex, currentOffset);
+        lastFitLength = lo - start;
+        return lo;
+    }
+
+    private int estimateFitLength(int start) {
+        if(lastFitLength > 0) {
+            return lastFitLength;
+        }
+        final int sampleEnd = Math.min(inputString.length(), start + ESTIMATE_SAMPLE_LENGTH);
+        final int sampleWidth = measurer.getWidth(inputString.substring(start, sampleEnd));
+        return (int) ((long) maxWidth * (sampleEnd - start) / Math.max(sampleWidth, 1));
+    }
+
+    private boolean fits(int start, int end) {
+        return measurer.getWidth(inputString.substring(start, end)) <= maxWidth;
     }
 
     private void skipWhitespace() {
@@ -75,8 +150,4 @@ public class BodySnippetGenerator {
            currentOffset += 1;
         }
     }
-
-    private boolean stringExceedsWidth(String s) {
-        return gc.textExtent(s, 0).x > maxWidth;
-    }
 }
@@ -31,10 +31,12 @@ public class ConversationRenderer {
         final String string;
         final RangeSet<Integer> highlightedRanges;
         final List<Range<Integer>> ranges;
-        HighlightCacheEntry(String string, RangeSet<Integer> highlightedRanges, List<Range<Integer>> ranges) {
+        final int width;
+        HighlightCacheEntry(String string, RangeSet<Integer> highlightedRanges, List<Range<Integer>> ranges, int width) {
             this.string = string;
             this.highlightedRanges = highlightedRanges;
             this.ranges = ranges;
+            this.width = width;
         }
     }
 
@@ -60,6 +62,7 @@ public class ConversationRenderer {
 	private final static int LEFT_MARGIN = 40;
 	private final static int RIGHT_MARGIN = 4;
 	private final static int LINE_SPACE = 4;
+	private final static int BODY_LINE_COUNT = 2;
 	
 	private enum Section {
         SENDER (Resources.FONT_SENDER, Resources.COLOR_SENDER_SECTION),
@@ -110,6 +113,7 @@ public class ConversationRenderer {
     private final Object searchLock = new Object();
     private SearchResult searchResult;
     private Map<Integer, HighlightCacheEntry> bodyHighlightCache = new HashMap<>();
+    private final SnippetLayoutCache snippetLayoutCache = new SnippetLayoutCache(BODY_LINE_COUNT);
 
 	/** Vertical offsets of each section, and Section.END is total height */
 	private final Map<Section, Integer> yMap = new HashMap<>();
@@ -150,7 +154,7 @@ public class ConversationRenderer {
 
         Section.BODY.setYValue(y);
 
-		y += bodyFontHeight * 2;
+		y += bodyFontHeight * BODY_LINE_COUNT;
 		y += BOTTOM_MARGIN;
 
         return y;
@@ -188,7 +192,7 @@ public class ConversationRenderer {
                    renderHighlightedBody(event, sm);
                } else {
                    renderSubject(event, sm.getSubject());
-                   renderBody(event, sm.getBodyText());
+                   renderBody(event, sm);
                }
            }
            renderSender(event, sm);
@@ -247,16 +251,20 @@ public class ConversationRenderer {
         }
     }
 
-    // XXX need to regen cache on resize
     HighlightCacheEntry getHighlightDetails(Event event, int uid) {
-        if(!bodyHighlightCache.containsKey(uid)) {
-            final HighlightedString highlightedBody = searchResult.getHighlightedBody(uid);
-            final int snippetStart = getSnippetStart(highlightedBody, 80);
-            final BodySnippetGenerator gen = new BodySnippetGenerator(highlightedBody.getString(), event.width - (LEFT_MARGIN + RIGHT_MARGIN), event.gc);
-            final List<Range<Integer>> ranges = gen.generateSnippetRanges(snippetStart);
-            bodyHighlightCache.put(uid, new HighlightCacheEntry(highlightedBody.getString(), highlightedBody.getHighlightedRanges(), ranges));
+        final int width = event.width - (LEFT_MARGIN + RIGHT_MARGIN);
+        final HighlightCacheEntry cached = bodyHighlightCache.get(uid);
+        if(cached != null && cached.width == width) {
+            return cached;
         }
-        return bodyHighlightCache.get(uid);
+        final HighlightedString highlightedBody = searchResult.getHighlightedBody(uid);
+        final int snippetStart = getSnippetStart(highlightedBody, 80);
+        event.gc.setFont(Section.BODY.getFont());
+        final BodySnippetGenerator gen = new BodySnippetGenerator(highlightedBody.getString(), width, event.gc, BODY_LINE_COUNT);
+        final List<Range<Integer>> ranges = gen.generateSnippetRanges(snippetStart);
+        final HighlightCacheEntry entry = new HighlightCacheEntry(highlightedBody.getString(), highlightedBody.getHighlightedRanges(), ranges, width);
+        bodyHighlightCache.put(uid, entry);
+        return entry;
     }
 
 
@@ -372,80 +380,22 @@ public class ConversationRenderer {
         drawText(event.gc, trimmed, x, y);
     }
 	
-	void renderBody(Event event, String body) {
+	void renderBody(Event event, StoredMessage message) {
         setFontAndColor(event, Section.BODY);
 		final int x = event.x + LEFT_MARGIN;
-		final int y1 = event.y + Section.BODY.getYValue();
-        final int y2 = y1 + Section.BODY.getFontHeight(event.gc);
-        final String[] lines = getLinesForBody(event, body);
-        drawText(event.gc, lines[0], x, y1);
-		if(!lines[1].isEmpty()) {
-            drawText(event.gc, lines[1], x, y2);
-		}
-	}
-
-	private String[] getLinesForBody(Event event, String body) {
-		
-		final String[] result = new String[] { "", "" };
-
-        final String trimmed = trimToMaxLength(body, 1000);
-
-		int maxWidth = event.width - (LEFT_MARGIN + RIGHT_MARGIN);
-		String[] words = trimmed.split("\\s+", 200);
-		if(words.length == 0) {
-			return result;
-		}
-		List<String> wordsList = new ArrayList<String>(Arrays.asList(words));
-		result[0] = getBodyLine(event.gc, wordsList, maxWidth, false);
-		result[1] = getBodyLine(event.gc, wordsList, maxWidth, true);
-		return result;
-	}
-
-	private String getBodyLine(GC gc, List<String> words, int maxWidth, boolean lastLine) {
-		if(words.isEmpty()) {
-			return "";
-		}
-		final String firstWord = words.get(0);
-		
-		if(stringWidth(gc, firstWord) > maxWidth) {
-			String trimmed = trimWordToMax(gc, firstWord, maxWidth, lastLine);
-			words.set(0, firstWord.substring(trimmed.length()));
-			return trimmed;
-		}
-		StringBuilder sb = new StringBuilder();
-		
-		sb.append(firstWord);
-		for(int i = 1; i < words.size(); i++) {
-			String testString = sb.toString() + " "+ words.get(i);
-			if(stringWidth(gc, testString) > maxWidth) {
-				words.subList(0, i).clear();
-				return sb.toString();
+		final int width = event.width - (LEFT_MARGIN + RIGHT_MARGIN);
+		final GC gc = event.gc;
+		final String[] lines = snippetLayoutCache.getLines(message.getMessageId(), message.getBodyText(), width, Section.BODY.getFont(), s -> gc.textExtent(s).x);
+		final int lineHeight = Section.BODY.getFontHeight(gc);
+		int y = event.y + Section.BODY.getYValue();
+		for(String line: lines) {
+			if(!line.isEmpty()) {
+				drawText(gc, line, x, y);
 			}
-			sb.append(" ");
-			sb.append(words.get(i));
+			y += lineHeight;
 		}
-		words.clear();
-		return sb.toString();
 	}
 
-	private String trimWordToMax(GC gc, String word, int maxWidth, boolean lastLine) {
-		int len = 1;
-		String last = "";
-		while(len <= word.length()) {
-			String s = word.substring(0, len);
-			if(gc.textExtent(s).x > maxWidth) {
-				return last;
-			}
-			len += 1;
-			last = s;
-		}
-		return word;
-	}
-
-	private int stringWidth(GC gc, String s) {
-		return gc.textExtent(s).x;
-	}
-	
 	private void renderDividerLine(Event event) {
 		GC gc = event.gc;
 		gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_GRAY));
@@ -468,12 +418,18 @@ public class ConversationRenderer {
 		if(getWidth(gc, str) < maxWidth) {
 			return str;
 		}
-		for(int i = 1; i < str.length(); i++) {
-			if(getWidth(gc, str.substring(0, i) + "...") > maxWidth) {
-				return str.substring(0, i - 1) + "...";
+		// binary search for the longest prefix which fits with the ellipsis appended
+		int lo = 0;
+		int hi = str.length();
+		while(lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if(getWidth(gc, str.substring(0, mid) + "...") > maxWidth) {
+				hi = mid - 1;
+			} else {
+				lo = mid;
 			}
 		}
-		return str;
+		return str.substring(0, lo) + "...";
 	}
 	
 	private static int getWidth(GC gc, String s) {
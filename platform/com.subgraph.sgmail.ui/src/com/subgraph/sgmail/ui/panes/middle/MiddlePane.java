@@ -11,6 +11,7 @@ import com.subgraph.sgmail.events.ConversationSourceSelectedEvent;
 import com.subgraph.sgmail.events.MessageStateChangedEvent;
 import com.subgraph.sgmail.events.SearchFilterEvent;
 import com.subgraph.sgmail.messages.StoredMessage;
+import com.subgraph.sgmail.ui.utils.DisplayBatcher;
 import com.subgraph.sgmail.ui.utils.glazed.ConversationEventTableViewer;
 
 import org.eclipse.jface.layout.TableColumnLayout;
@@ -31,6 +32,7 @@ public class MiddlePane extends Composite {
     private final TableColumnLayout tableColumnLayout;
     private final ConversationRenderer conversationRenderer;
     private final IEventBus eventBus;
+    private final DisplayBatcher<MessageStateChangedEvent> stateChangeBatcher;
 
     private final Color selectedBackground;
     private final Color selectedShadow;
@@ -57,6 +59,7 @@ public class MiddlePane extends Composite {
         this.selectedShadow = createGrey(219);
         this.selectedTopLine = createGrey(155);
         this.selectedBottomLine = createGrey(222);
+        this.stateChangeBatcher = new DisplayBatcher<>(getDisplay(), events -> redrawTable());
 
         eventBus.register(this);
     }
@@ -87,7 +90,13 @@ public class MiddlePane extends Composite {
     
     @Subscribe
     public void onMessageStateChanged(MessageStateChangedEvent event) {
-      getDisplay().asyncExec(() -> table.redraw());
+        stateChangeBatcher.add(event);
+    }
+
+    private void redrawTable() {
+        if(!table.isDisposed()) {
+            table.redraw();
+        }
     }
 
     private ConversationEventTableViewer<List<StoredMessage>> createEventTableViewer(EventList<List<StoredMessage>> sourceList) {
@@ -104,7 +113,8 @@ public class MiddlePane extends Composite {
     }
 
     private Table createTable(Composite tableComposite) {
-        final Table table = new Table(tableComposite, SWT.V_SCROLL);
+        // virtual so that table items are only filled in for rows which are scrolled into view
+        final Table table = new Table(tableComposite, SWT.V_SCROLL | SWT.VIRTUAL);
         final GridData gd = new GridData(SWT.FILL, SWT.FILL, true, true);
         table.setLayoutData(gd);
         final Listener listener = createEventListener();
@@ -174,6 +184,8 @@ public class MiddlePane extends Composite {
         event.width = table.getClientArea().width;
         @SuppressWarnings("unchecked")
 		final List<StoredMessage> messages = (List<StoredMessage>) event.item.getData();
-        conversationRenderer.renderAll(event, messages);
+        if(messages != null) {
+            conversationRenderer.renderAll(event, messages);
+        }
     }
 }
@@ -0,0 +1,117 @@
+package com.subgraph.sgmail.ui.panes.middle;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import org.eclipse.swt.graphics.Font;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Bounded cache of the body snippet lines laid out for each message, so that painting a row
+ * which has been painted before at the same width and font measures no text.  The cache only
+ * needs to hold the rows which are visible or were recently scrolled past.
+ */
+class SnippetLayoutCache {
+
+    private final static int DEFAULT_MAXIMUM_SIZE = 2048;
+
+    /** Only the start of a body can appear in a snippet, so the rest is never examined. */
+    private final static int MAX_SNIPPET_SOURCE_LENGTH = 1000;
+
+    private static class Key {
+        private final int messageId;
+        private final int bodyHash;
+        private final int width;
+        private final Font font;
+
+        Key(int messageId, int bodyHash, int width, Font font) {
+            this.messageId = messageId;
+            this.bodyHash = bodyHash;
+            this.width = width;
+            this.font = font;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return messageId == other.messageId && bodyHash == other.bodyHash && width == other.width && Objects.equals(font, other.font);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(messageId, bodyHash, width, font);
+        }
+    }
+
+    private final Cache<Key, String[]> cache;
+    private final int lineCount;
+
+    SnippetLayoutCache(int lineCount) {
+        this(lineCount, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    SnippetLayoutCache(int lineCount, int maximumSize) {
+        this.lineCount = lineCount;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * Returns the lines of the body snippet for a message laid out to fit <code>width</code> when
+     * measured in <code>font</code>.  The body text is included in the key by its hash since the
+     * body of a message changes once it is decrypted.
+     */
+    String[] getLines(int messageId, String body, int width, Font font, BodySnippetGenerator.TextMeasurer measurer) {
+        final Key key = new Key(messageId, body.hashCode(), width, font);
+        String[] lines = cache.getIfPresent(key);
+        if(lines == null) {
+            lines = layoutLines(body, width, measurer);
+            cache.put(key, lines);
+        }
+        return lines;
+    }
+
+    void clear() {
+        cache.invalidateAll();
+    }
+
+    private String[] layoutLines(String body, int width, BodySnippetGenerator.TextMeasurer measurer) {
+        final String text = collapseWhitespace(body);
+        final List<Range<Integer>> ranges = new BodySnippetGenerator(text, width, measurer, lineCount).generateSnippetRanges();
+        final String[] lines = new String[lineCount];
+        for(int i = 0; i < lineCount; i++) {
+            final Range<Integer> r = ranges.get(i);
+            lines[i] = text.substring(r.lowerEndpoint(), r.upperEndpoint());
+        }
+        return lines;
+    }
+
+    /**
+     * Replace each run of whitespace, including line breaks, with a single space so the snippet
+     * reads as a paragraph.
+     */
+    private static String collapseWhitespace(String body) {
+        final int length = Math.min(body.length(), MAX_SNIPPET_SOURCE_LENGTH);
+        final StringBuilder sb = new StringBuilder(length);
+        boolean lastWasSpace = false;
+        for(int i = 0; i < length; i++) {
+            final char c = body.charAt(i);
+            if(Character.isWhitespace(c)) {
+                if(!lastWasSpace) {
+                    sb.append(' ');
+                }
+                lastWasSpace = true;
+            } else {
+                sb.append(c);
+                lastWasSpace = false;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -162,7 +162,7 @@ public class MessageDecryptor {
     } catch (IOException e) {
       logger.warning("I/O error indexing decrypted message: "+ e);
     }
-    eventBus.post(new MessageStateChangedEvent(message));
+    eventBus.postAsync(new MessageStateChangedEvent(message));
   }
   
   private void maybeSetSignatureKeyId(StoredMessage message, NymsIncomingProcessingResult result) {
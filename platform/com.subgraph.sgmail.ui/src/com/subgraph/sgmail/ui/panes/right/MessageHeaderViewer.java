@@ -1,5 +1,6 @@
 package com.subgraph.sgmail.ui.panes.right;
 
+import java.io.ByteArrayInputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -13,7 +14,6 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
@@ -35,6 +35,7 @@ import com.subgraph.sgmail.ui.Resources;
 public class MessageHeaderViewer extends Composite {
   private final static Logger logger = Logger.getLogger(MessageHeaderViewer.class.getName());
 
+	private final static int AVATAR_SIZE = 64;
 	private final static long TIME_24_HOURS = (24 * 60 * 60 * 1000);
 	
 	private final static SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
@@ -77,7 +78,8 @@ public class MessageHeaderViewer extends Composite {
 		Label right = new Label(this, SWT.NONE);
 		right.setBackground(white);
 		right.setLayoutData(new GridData(SWT.FILL, SWT.FILL, false, false));
-		right.setImage(getAvatarImage());
+		right.setImage(ImageCache.getInstance().getDisabledImage(ImageCache.USER_IMAGE));
+		loadAvatarImage(right);
 		
 		Label fromLabel = new Label(middle, SWT.LEFT);
 		fromLabel.setBackground(white);
@@ -164,17 +166,25 @@ public class MessageHeaderViewer extends Composite {
         shell.open();
     }
 
-	private Image getAvatarImage() {
+	/**
+	 * The avatar is fetched from the nyms agent and decoded in the background, replacing the
+	 * default user image when it arrives.  Avatars are only cached in memory.
+	 */
+	private void loadAvatarImage(Label label) {
 		//final InternetAddress address = javamailUtils.getSenderAddress((MimeMessage) decryptedMessage);
-		MessageUser sender = message.getSender();
-		if(sender != null) {
-        final byte[] imageData = getImageDataForEmail(sender.getAddress());
-        if(imageData != null) {
-          return ImageCache.getInstance().getAvatarImage(sender.getAddress(), imageData);
-        }
+		final MessageUser sender = message.getSender();
+		if(sender == null || sender.getAddress() == null) {
+			return;
 		}
-		return ImageCache.getInstance().getDisabledImage(ImageCache.USER_IMAGE);
-	}	
+		final String address = sender.getAddress();
+		ImageCache.getInstance().loadImage(label, "avatar:"+ address, () -> {
+			final byte[] imageData = getImageDataForEmail(address);
+			return (imageData == null || imageData.length == 0) ? null : new ByteArrayInputStream(imageData);
+		}, AVATAR_SIZE, AVATAR_SIZE, false, image -> {
+			label.setImage(image);
+			layout();
+		});
+	}
 
 	private byte[] getImageDataForEmail(String emailAddress) {
 	  try {
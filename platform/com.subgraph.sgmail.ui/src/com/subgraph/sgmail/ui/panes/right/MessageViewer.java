@@ -26,6 +26,7 @@ import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.database.Preferences;
+import com.subgraph.sgmail.events.MessageFlagChangedEvent;
 import com.subgraph.sgmail.events.MessageStateChangedEvent;
 import com.subgraph.sgmail.messages.MessageAttachment;
 import com.subgraph.sgmail.messages.StoredMessage;
@@ -122,7 +123,7 @@ public class MessageViewer extends Composite {
 			updateHeaderViewer();
 		}
 		*/
-		if(message == event.getMessage()) {
+		if(event.containsMessage(message)) {
 			updateHeaderViewer();
 		}
 	}
@@ -196,7 +197,8 @@ public class MessageViewer extends Composite {
             message.addFlag(StoredMessage.FLAG_SEEN);
             model.getDatabase().commit();
 			headerViewer.updateNewMessageIndicator();
-			eventBus.post(new MessageStateChangedEvent(message));
+			eventBus.postAsync(new MessageStateChangedEvent(message));
+			eventBus.postAsync(new MessageFlagChangedEvent(message, StoredMessage.FLAG_SEEN, true));
 		}
 	}
 
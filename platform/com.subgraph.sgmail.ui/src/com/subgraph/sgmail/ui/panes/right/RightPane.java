@@ -2,9 +2,12 @@ package com.subgraph.sgmail.ui.panes.right;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
@@ -18,25 +21,33 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 
+import ca.odell.glazedlists.EventList;
+
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.subgraph.sgmail.IEventBus;
 import com.subgraph.sgmail.JavamailUtils;
 import com.subgraph.sgmail.database.Model;
 import com.subgraph.sgmail.events.ConversationSelectedEvent;
+import com.subgraph.sgmail.events.ConversationSourceSelectedEvent;
 import com.subgraph.sgmail.events.DeleteMessageEvent;
+import com.subgraph.sgmail.events.MessageFlagChangedEvent;
 import com.subgraph.sgmail.events.MessageStateChangedEvent;
 import com.subgraph.sgmail.events.NextConversationEvent;
 import com.subgraph.sgmail.events.NextMessageEvent;
 import com.subgraph.sgmail.events.PreviousMessageEvent;
 import com.subgraph.sgmail.events.ReplyMessageEvent;
 import com.subgraph.sgmail.events.SearchQueryChangedEvent;
+import com.subgraph.sgmail.messages.MessageUser;
 import com.subgraph.sgmail.messages.StoredMessage;
 import com.subgraph.sgmail.nyms.NymsAgent;
+import com.subgraph.sgmail.nyms.NymsAgentException;
 import com.subgraph.sgmail.search.MessageSearchIndex;
 import com.subgraph.sgmail.ui.compose.ComposeWindow;
 
 public class RightPane extends Composite {
+	private final static Logger logger = Logger.getLogger(RightPane.class.getName());
+	private final static int PREFETCH_CONVERSATION_COUNT = 100;
 	
 	private final NymsAgent nymsAgent;
 	private final Model model;
@@ -45,7 +56,8 @@ public class RightPane extends Composite {
 	private final JavamailUtils javamailUtils;
 	private final MessageDecryptor decryptor;
 	
-	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	/** Completes when the last conversation display task has finished */
+	private CompletableFuture<Void> displayQueue = CompletableFuture.completedFuture(null);
 	private Composite composite;
 	private ScrolledComposite scrolled;
 	
@@ -77,7 +89,9 @@ public class RightPane extends Composite {
 		addDisposeListener(new DisposeListener() {
 			@Override
 			public void widgetDisposed(DisposeEvent event) {
-				executor.shutdownNow();
+				if(currentTask != null) {
+					currentTask.cancel();
+				}
 			}
 		});
 	}
@@ -92,6 +106,39 @@ public class RightPane extends Composite {
 		scrolled.setMinSize(SWT.DEFAULT, size.y);
 	}
 
+	/**
+	 * Look up the keys of the senders of the first conversations in the newly selected folder
+	 * together, so that displaying its messages does not wait on the nyms agent for each sender
+	 * in turn.  Senders of later conversations are looked up when they are displayed.
+	 */
+	@Subscribe
+	public void onConversationSourceSelected(ConversationSourceSelectedEvent event) {
+		final EventList<List<StoredMessage>> source = event.getSelectedSource();
+		globalExecutor.execute(() -> prefetchSenderKeys(source));
+	}
+
+	private void prefetchSenderKeys(EventList<List<StoredMessage>> source) {
+		final Set<String> senders = new HashSet<>();
+		source.getReadWriteLock().readLock().lock();
+		try {
+			for(List<StoredMessage> conversation: source.subList(0, Math.min(PREFETCH_CONVERSATION_COUNT, source.size()))) {
+				for(StoredMessage message: conversation) {
+					final MessageUser sender = message.getSender();
+					if(sender != null && sender.getAddress() != null) {
+						senders.add(sender.getAddress());
+					}
+				}
+			}
+		} finally {
+			source.getReadWriteLock().readLock().unlock();
+		}
+		try {
+			nymsAgent.prefetchKeyInfo(senders);
+		} catch (NymsAgentException e) {
+			logger.log(Level.WARNING, "Error prefetching sender keys: "+ e.getMessage(), e);
+		}
+	}
+
 	@Subscribe
 	public void onDeleteMessage(DeleteMessageEvent event) {
 		synchronized(messageViewers) {
@@ -107,7 +154,8 @@ public class RightPane extends Composite {
 			messageViewers.remove(mv);
 			mv.dispose();
 			recomputeScrolledHeight(composite);
-			eventBus.post(new MessageStateChangedEvent(m));
+			eventBus.postAsync(new MessageStateChangedEvent(m));
+			eventBus.postAsync(new MessageFlagChangedEvent(m, StoredMessage.FLAG_DELETED, true));
 		}
 	}
 	
@@ -245,7 +293,21 @@ public class RightPane extends Composite {
 		scrolled.setContent(composite);
 		
 		currentTask = new DisplayConversationTask(c, composite);
-		executor.execute(currentTask);
+		queueDisplayTask(currentTask);
+	}
+
+	/**
+	 * Display tasks run on the shared background pool one after another in the order conversations
+	 * were selected, so a cancelled task has returned before the next one clears the viewers.
+	 */
+	private void queueDisplayTask(DisplayConversationTask task) {
+		displayQueue = displayQueue.thenRunAsync(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Error displaying conversation: "+ e.getMessage(), e);
+			}
+		}, globalExecutor);
 	}
 	
 	private class DisplayConversationTask implements Runnable {
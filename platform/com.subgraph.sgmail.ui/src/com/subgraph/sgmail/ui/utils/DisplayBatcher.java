@@ -0,0 +1,50 @@
+package com.subgraph.sgmail.ui.utils;
+
+import org.eclipse.swt.widgets.Display;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects events from any thread and passes them to a handler on the display thread in a single
+ * batch at most once per frame, so that a burst of events causes one update of the user interface
+ * rather than one for each event.
+ */
+public class DisplayBatcher<E> {
+    private final static int FRAME_MILLIS = 16;
+
+    private final Display display;
+    private final Consumer<List<E>> handler;
+
+    private List<E> pending = new ArrayList<>();
+    private boolean isScheduled;
+
+    public DisplayBatcher(Display display, Consumer<List<E>> handler) {
+        this.display = display;
+        this.handler = handler;
+    }
+
+    public void add(E event) {
+        synchronized (this) {
+            pending.add(event);
+            if(isScheduled) {
+                return;
+            }
+            isScheduled = true;
+        }
+        if(!display.isDisposed()) {
+            display.asyncExec(() -> display.timerExec(FRAME_MILLIS, this::deliver));
+        }
+    }
+
+    private void deliver() {
+        final List<E> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            isScheduled = false;
+        }
+        handler.accept(batch);
+    }
+}
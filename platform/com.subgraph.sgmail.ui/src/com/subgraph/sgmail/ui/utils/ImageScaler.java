@@ -0,0 +1,133 @@
+package com.subgraph.sgmail.ui.utils;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Downscales device independent image data by averaging every source pixel which falls in a
+ * destination pixel.  Since it needs no display or graphics context it can run on any thread, and
+ * unlike ImageData.scaledTo() it does not drop most of the source pixels when shrinking a large
+ * image.  Colors are weighted by alpha so that transparent pixels do not darken the edges of an
+ * image.
+ */
+public class ImageScaler {
+
+    /**
+     * Returns <code>source</code> scaled down to fit within the given size keeping its aspect
+     * ratio, or <code>source</code> itself if it already fits.
+     */
+    public static ImageData scaleToFit(ImageData source, int maxWidth, int maxHeight) {
+        if(source.width <= maxWidth && source.height <= maxHeight) {
+            return source;
+        }
+        final double scale = Math.min((double) maxWidth / source.width, (double) maxHeight / source.height);
+        final int width = Math.max(1, (int) Math.round(source.width * scale));
+        final int height = Math.max(1, (int) Math.round(source.height * scale));
+        return new ImageScaler(source, width, height).scale();
+    }
+
+    private final ImageData source;
+    private final int width;
+    private final int height;
+    private final RGB[] indexedColors;
+    private final boolean hasAlpha;
+
+    private final long[] redSums;
+    private final long[] greenSums;
+    private final long[] blueSums;
+    private final long[] alphaSums;
+    private final int[] counts;
+
+    private ImageScaler(ImageData source, int width, int height) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        this.indexedColors = source.palette.isDirect ? null : source.palette.getRGBs();
+        this.hasAlpha = source.alphaData != null || source.transparentPixel != -1 || source.alpha != -1;
+        this.redSums = new long[width];
+        this.greenSums = new long[width];
+        this.blueSums = new long[width];
+        this.alphaSums = new long[width];
+        this.counts = new int[width];
+    }
+
+    private ImageData scale() {
+        final ImageData result = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+        if(hasAlpha) {
+            result.alphaData = new byte[width * height];
+        }
+        final int[] sourceRow = new int[source.width];
+        final byte[] alphaRow = new byte[source.width];
+        final int[] resultRow = new int[width];
+        int currentRow = 0;
+        for(int sy = 0; sy < source.height; sy++) {
+            final int dy = (int) ((long) sy * height / source.height);
+            if(dy != currentRow) {
+                writeRow(result, currentRow, resultRow);
+                currentRow = dy;
+            }
+            source.getPixels(0, sy, source.width, sourceRow, 0);
+            if(source.alphaData != null) {
+                source.getAlphas(0, sy, source.width, alphaRow, 0);
+            }
+            for(int sx = 0; sx < source.width; sx++) {
+                addPixel((int) ((long) sx * width / source.width), sourceRow[sx], getAlpha(sourceRow[sx], alphaRow[sx]));
+            }
+        }
+        writeRow(result, currentRow, resultRow);
+        return result;
+    }
+
+    private int getAlpha(int pixel, byte alphaValue) {
+        if(source.alphaData != null) {
+            return alphaValue & 0xFF;
+        } else if(source.transparentPixel != -1 && pixel == source.transparentPixel) {
+            return 0;
+        } else if(source.alpha != -1) {
+            return source.alpha;
+        }
+        return 255;
+    }
+
+    private void addPixel(int dx, int pixel, int alpha) {
+        final int red, green, blue;
+        if(indexedColors != null) {
+            final RGB rgb = (pixel < indexedColors.length) ? indexedColors[pixel] : indexedColors[0];
+            red = rgb.red;
+            green = rgb.green;
+            blue = rgb.blue;
+        } else {
+            final PaletteData p = source.palette;
+            red = shift(pixel & p.redMask, p.redShift);
+            green = shift(pixel & p.greenMask, p.greenShift);
+            blue = shift(pixel & p.blueMask, p.blueShift);
+        }
+        redSums[dx] += red * alpha;
+        greenSums[dx] += green * alpha;
+        blueSums[dx] += blue * alpha;
+        alphaSums[dx] += alpha;
+        counts[dx] += 1;
+    }
+
+    private static int shift(int value, int shift) {
+        return (shift < 0) ? (value >>> -shift) : (value << shift);
+    }
+
+    private void writeRow(ImageData result, int dy, int[] resultRow) {
+        for(int dx = 0; dx < width; dx++) {
+            final long alphaSum = alphaSums[dx];
+            if(alphaSum > 0) {
+                resultRow[dx] = (int) (redSums[dx] / alphaSum) << 16 | (int) (greenSums[dx] / alphaSum) << 8 | (int) (blueSums[dx] / alphaSum);
+            } else {
+                resultRow[dx] = 0;
+            }
+            if(hasAlpha) {
+                result.alphaData[dy * width + dx] = (byte) ((counts[dx] == 0) ? 0 : alphaSum / counts[dx]);
+            }
+            redSums[dx] = greenSums[dx] = blueSums[dx] = alphaSums[dx] = 0;
+            counts[dx] = 0;
+        }
+        result.setPixels(0, dy, width, resultRow, 0);
+    }
+}
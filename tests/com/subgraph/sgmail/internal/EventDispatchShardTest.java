@@ -0,0 +1,51 @@
+package com.subgraph.sgmail.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.subgraph.sgmail.CoalescingEvent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventDispatchShardTest {
+
+	private static class CountEvent implements CoalescingEvent<CountEvent> {
+		private final int count;
+
+		CountEvent(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public CountEvent coalesce(CountEvent pending) {
+			return new CountEvent(pending.count + count);
+		}
+	}
+
+	@Test
+	public void testBurstIsDeliveredByOneTask() {
+		final List<Runnable> tasks = new ArrayList<>();
+		final List<Object> delivered = new ArrayList<>();
+		final EventDispatchShard shard = new EventDispatchShard(tasks::add, (event, postedAt) -> delivered.add(event));
+
+		assertFalse(shard.post("first"));
+		assertFalse(shard.post(new CountEvent(1)));
+		assertTrue(shard.post(new CountEvent(2)));
+		assertFalse(shard.post("second"));
+		assertTrue(shard.post(new CountEvent(3)));
+		assertEquals(1, tasks.size());
+
+		tasks.get(0).run();
+		assertEquals(3, delivered.size());
+		assertEquals("first", delivered.get(0));
+		assertEquals(6, ((CountEvent) delivered.get(1)).count);
+		assertEquals("second", delivered.get(2));
+
+		assertFalse(shard.post(new CountEvent(1)));
+		assertEquals(2, tasks.size());
+	}
+}
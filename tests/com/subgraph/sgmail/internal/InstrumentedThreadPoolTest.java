@@ -0,0 +1,68 @@
+package com.subgraph.sgmail.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedThreadPoolTest {
+
+	@Test
+	public void testFullQueueRunsOnCaller() throws InterruptedException {
+		final InstrumentedThreadPool pool = new InstrumentedThreadPool("Test", 1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		try {
+			pool.execute(() -> {
+				started.countDown();
+				awaitQuietly(release);
+			});
+			started.await();
+			pool.execute(() -> {});
+			assertEquals(1, pool.getQueueDepth());
+			assertEquals(1, pool.getActiveCount());
+
+			final AtomicReference<Thread> ranOn = new AtomicReference<>();
+			pool.execute(() -> ranOn.set(Thread.currentThread()));
+			assertSame(Thread.currentThread(), ranOn.get());
+			assertEquals(1, pool.getCallerRunsCount());
+		} finally {
+			release.countDown();
+			pool.shutdown();
+		}
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(2, pool.getCompletedTaskCount());
+		assertTrue(pool.getMaximumQueueMillis() >= 0);
+	}
+
+	@Test
+	public void testThreadsAreNamed() throws InterruptedException {
+		final InstrumentedThreadPool pool = new InstrumentedThreadPool("Test pool", 2, 4);
+		final AtomicReference<String> name = new AtomicReference<>();
+		pool.execute(() -> name.set(Thread.currentThread().getName()));
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals("Test pool 1", name.get());
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testSubmitAfterShutdownIsRejected() {
+		final InstrumentedThreadPool pool = new InstrumentedThreadPool("Test", 1, 1);
+		pool.shutdown();
+		pool.submit(() -> {});
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.subgraph.sgmail.internal.database;
+
+import com.db4o.ObjectContainer;
+import com.subgraph.sgmail.testutils.Db4oUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitterTest {
+    private final static int MAX_PENDING = 10;
+
+    private static class Item {
+        @SuppressWarnings("unused")
+        private final int value;
+        Item(int value) {
+            this.value = value;
+        }
+    }
+
+    private ScheduledExecutorService scheduler;
+    private AtomicInteger commitCount;
+
+    @Before
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        commitCount = new AtomicInteger();
+    }
+
+    @After
+    public void cleanup() {
+        scheduler.shutdownNow();
+    }
+
+    private GroupCommitter createCommitter(long maxDelayMillis) {
+        return new GroupCommitter(commitCount::incrementAndGet, MAX_PENDING, maxDelayMillis, scheduler);
+    }
+
+    @Test
+    public void testCommitOutsideBatchIsImmediate() {
+        final GroupCommitter committer = createCommitter(60000);
+        committer.commit();
+        committer.commit();
+        assertEquals(2, commitCount.get());
+    }
+
+    @Test
+    public void testCommitsCoalescedUntilBatchEnds() {
+        final GroupCommitter committer = createCommitter(60000);
+        committer.beginBatch();
+        for(int i = 0; i < MAX_PENDING - 1; i++) {
+            committer.commit();
+        }
+        assertEquals(0, commitCount.get());
+        committer.endBatch();
+        assertEquals(1, commitCount.get());
+        assertFalse(committer.isBatchOpen());
+    }
+
+    @Test
+    public void testSizeBoundedGroupCommit() {
+        final GroupCommitter committer = createCommitter(60000);
+        committer.beginBatch();
+        for(int i = 0; i < MAX_PENDING * 3; i++) {
+            committer.commit();
+        }
+        assertEquals(3, commitCount.get());
+        committer.endBatch();
+        assertEquals("no pending commits remain at end of batch", 3, commitCount.get());
+    }
+
+    @Test
+    public void testTimeBoundedGroupCommit() throws InterruptedException {
+        final GroupCommitter committer = createCommitter(50);
+        committer.beginBatch();
+        committer.commit();
+        assertEquals(0, commitCount.get());
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(commitCount.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, commitCount.get());
+        assertTrue(committer.isBatchOpen());
+        committer.endBatch();
+        assertEquals(1, commitCount.get());
+    }
+
+    @Test
+    public void testNestedBatches() {
+        final GroupCommitter committer = createCommitter(60000);
+        committer.beginBatch();
+        committer.beginBatch();
+        committer.commit();
+        committer.endBatch();
+        assertEquals(0, commitCount.get());
+        committer.endBatch();
+        assertEquals(1, commitCount.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalancedEndBatch() {
+        createCommitter(60000).endBatch();
+    }
+
+    @Test
+    public void testCrashLosesOnlyWorkSinceLastGroupCommit() {
+        final ObjectContainer db = Db4oUtils.openMemoryDatabase();
+        try {
+            final GroupCommitter committer = new GroupCommitter(db::commit, MAX_PENDING, 60000, scheduler);
+            committer.beginBatch();
+            final int stored = MAX_PENDING * 2 + 3;
+            for(int i = 0; i < stored; i++) {
+                db.store(new Item(i));
+                committer.commit();
+            }
+            // simulate abnormal exit before the batch is closed
+            db.rollback();
+            assertEquals(MAX_PENDING * 2, db.query(Item.class).size());
+        } finally {
+            db.close();
+        }
+    }
+}
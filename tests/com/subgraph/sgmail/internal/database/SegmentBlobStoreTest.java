@@ -0,0 +1,203 @@
+package com.subgraph.sgmail.internal.database;
+
+import com.db4o.ObjectContainer;
+import com.subgraph.sgmail.database.BlobReference;
+import com.subgraph.sgmail.testutils.Db4oUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentBlobStoreTest {
+    private final static long SEGMENT_SIZE = 4096;
+
+    private File directory;
+    private SegmentBlobStore store;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("blobstore").toFile();
+        store = openStore();
+    }
+
+    @After
+    public void cleanup() {
+        store.close();
+        final File[] files = directory.listFiles();
+        if(files != null) {
+            for(File f: files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private SegmentBlobStore openStore() throws IOException {
+        final SegmentBlobStore s = new SegmentBlobStore(directory, SEGMENT_SIZE);
+        s.open();
+        return s;
+    }
+
+    private static byte[] blob(int n, int size) {
+        final byte[] data = new byte[size];
+        for(int i = 0; i < size; i++) {
+            data[i] = (byte) (n + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void testStoreAndRead() throws IOException {
+        final byte[] data = "Subject: test\r\n\r\nbody".getBytes(StandardCharsets.US_ASCII);
+        final BlobReference ref = store.store(data);
+        assertArrayEquals(data, store.read(ref));
+        assertArrayEquals(data, readStream(store.openStream(ref)));
+    }
+
+    @Test
+    public void testDuplicateContentIsStoredOnce() throws IOException {
+        final BlobReference r1 = store.store(blob(1, 100));
+        final BlobReference r2 = store.store(blob(1, 100));
+        assertNotSame(r1, r2);
+        assertArrayEquals(r1.getDigest(), r2.getDigest());
+        assertEquals(1, store.getBlobCount());
+    }
+
+    private static class Holder {
+        private final BlobReference ref;
+        Holder(BlobReference ref) {
+            this.ref = ref;
+        }
+    }
+
+    @Test
+    public void testDeletingOneDuplicateKeepsTheOther() throws IOException {
+        final ObjectContainer db = Db4oUtils.openMemoryDatabase();
+        try {
+            final Holder first = new Holder(store.store(blob(1, 1000)));
+            final Holder second = new Holder(store.store(blob(1, 1000)));
+            for(int i = 10; i < 15; i++) {
+                store.store(blob(i, 1000));
+            }
+            db.store(first);
+            db.store(second);
+            db.commit();
+
+            db.delete(first.ref);
+            db.delete(first);
+            db.commit();
+
+            final BlobStoreMaintenance maintenance = new BlobStoreMaintenance(db, store, null);
+            maintenance.compact();
+            maintenance.compact();
+            final List<Holder> remaining = db.query(Holder.class);
+            assertEquals(1, remaining.size());
+            assertEquals(1, db.query(BlobReference.class).size());
+            assertArrayEquals(blob(1, 1000), store.read(remaining.get(0).ref));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void testIndexRebuiltOnOpen() throws IOException {
+        final BlobReference[] refs = new BlobReference[20];
+        for(int i = 0; i < refs.length; i++) {
+            refs[i] = store.store(blob(i, 1000));
+        }
+        assertTrue(store.getSegmentCount() > 1);
+        store.close();
+        store = openStore();
+        assertEquals(refs.length, store.getBlobCount());
+        for(int i = 0; i < refs.length; i++) {
+            assertArrayEquals(blob(i, 1000), store.read(refs[i]));
+        }
+    }
+
+    @Test
+    public void testIncompleteRecordTruncated() throws IOException {
+        final BlobReference ref = store.store(blob(1, 100));
+        store.store(blob(2, 100));
+        store.close();
+        final File segment = directory.listFiles()[0];
+        try(RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        store = openStore();
+        assertEquals(1, store.getBlobCount());
+        assertArrayEquals(blob(1, 100), store.read(ref));
+        store.store(blob(3, 100));
+        store.close();
+        store = openStore();
+        assertEquals(2, store.getBlobCount());
+    }
+
+    @Test
+    public void testCompactionRequiresTwoPasses() throws IOException {
+        final BlobReference kept = store.store(blob(1, 1000));
+        final BlobReference dropped1 = store.store(blob(2, 1000));
+        final BlobReference dropped2 = store.store(blob(3, 1000));
+        for(int i = 10; i < 15; i++) {
+            store.store(blob(i, 1000));
+        }
+        final Set<ByteBuffer> referenced = new HashSet<>(store.getDigests());
+        referenced.remove(ByteBuffer.wrap(dropped1.getDigest()));
+        referenced.remove(ByteBuffer.wrap(dropped2.getDigest()));
+
+        assertEquals(0, store.compact(referenced));
+        assertTrue(store.compact(referenced) > 0);
+        assertArrayEquals(blob(1, 1000), store.read(kept));
+        try {
+            store.read(dropped1);
+            fail("Expected dropped blob to be removed");
+        } catch (IOException e) {
+            // expected
+        }
+        store.close();
+        store = openStore();
+        assertEquals(referenced.size(), store.getBlobCount());
+        assertArrayEquals(blob(1, 1000), store.read(kept));
+    }
+
+    @Test
+    public void testStoringAgainProtectsFromCompaction() throws IOException {
+        final BlobReference ref = store.store(blob(1, 1000));
+        store.store(blob(2, 1000));
+        for(int i = 10; i < 15; i++) {
+            store.store(blob(i, 1000));
+        }
+        final Set<ByteBuffer> referenced = new HashSet<>(store.getDigests());
+        referenced.remove(ByteBuffer.wrap(ref.getDigest()));
+        store.compact(referenced);
+        store.store(blob(1, 1000));
+        store.compact(referenced);
+        assertArrayEquals(blob(1, 1000), store.read(ref));
+    }
+
+    private static byte[] readStream(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
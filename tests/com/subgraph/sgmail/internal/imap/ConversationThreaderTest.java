@@ -0,0 +1,66 @@
+package com.subgraph.sgmail.internal.imap;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ConversationThreaderTest {
+
+    private ConversationThreader threader;
+    private int nextId;
+    private final IntSupplier newId = () -> nextId++;
+
+    @Before
+    public void setup() {
+        threader = new ConversationThreader(new TLongIntHashMap());
+        nextId = 1;
+    }
+
+    private int assign(String messageId, String... references) {
+        return threader.assignConversation(messageId, Arrays.asList(references), newId);
+    }
+
+    @Test
+    public void testReplyJoinsConversation() {
+        final int root = assign("<a@x>");
+        assertEquals(root, assign("<b@x>", "<a@x>"));
+        assertEquals(root, assign("<c@x>", "<a@x>", "<b@x>"));
+        assertNotEquals(root, assign("<d@x>"));
+    }
+
+    @Test
+    public void testParentArrivingAfterReply() {
+        final int reply = assign("<b@x>", "<a@x>");
+        assertEquals(reply, assign("<a@x>"));
+        assertEquals(reply, assign("<c@x>", "<a@x>"));
+    }
+
+    @Test
+    public void testReplyToMissingIntermediateMessage() {
+        final int root = assign("<a@x>");
+        assertEquals(root, assign("<c@x>", "<a@x>", "<b@x>"));
+        assertEquals(root, assign("<b@x>"));
+    }
+
+    @Test
+    public void testMessageWithoutId() {
+        final int first = threader.assignConversation(null, Collections.<String>emptyList(), newId);
+        final int second = threader.assignConversation(null, Collections.<String>emptyList(), newId);
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void testParseMessageIds() {
+        final List<String> ids = ConversationThreader.parseMessageIds("<a@x>\r\n\t<b@x> (comment) <c@x>");
+        assertEquals(Arrays.asList("<a@x>", "<b@x>", "<c@x>"), ids);
+        assertEquals(0, ConversationThreader.parseMessageIds(null).size());
+    }
+}
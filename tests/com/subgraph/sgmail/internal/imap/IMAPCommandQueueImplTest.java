@@ -0,0 +1,66 @@
+package com.subgraph.sgmail.internal.imap;
+
+import com.subgraph.sgmail.messages.StoredMessage;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IMAPCommandQueueImplTest {
+
+    private static IMAPCommand seen(String folder, long uid, boolean isSet) {
+        return new IMAPFlagChangedCommand(folder, uid, StoredMessage.FLAG_SEEN, isSet);
+    }
+
+    @Test
+    public void testCoalescePerFolder() {
+        final IMAPCommandQueueImpl queue = new IMAPCommandQueueImpl();
+        queue.queueCommand(seen("INBOX", 1, true));
+        queue.queueCommand(seen("Archive", 1, true));
+        queue.queueCommand(seen("INBOX", 2, true));
+        queue.queueCommand(new IMAPFlagChangedCommand("INBOX", 1, StoredMessage.FLAG_FLAGGED, true));
+        final IMAPCommand repeated = seen("INBOX", 2, true);
+        queue.queueCommand(repeated);
+
+        assertEquals(4, queue.getPendingCommandCount());
+        final List<IMAPCommand> inbox = queue.takePendingCommands("INBOX");
+        assertEquals(3, inbox.size());
+        assertTrue(inbox.contains(repeated));
+        queue.completeCommands("INBOX", inbox, true);
+        assertEquals(1, queue.getPendingCommandCount());
+        assertEquals("Archive", queue.peekNextCommand().getFolderName());
+    }
+
+    @Test
+    public void testSetAndClearCancel() {
+        final IMAPCommandQueueImpl queue = new IMAPCommandQueueImpl();
+        queue.queueCommand(seen("INBOX", 7, true));
+        queue.queueCommand(seen("INBOX", 7, false));
+        assertEquals(0, queue.getPendingCommandCount());
+        assertTrue(queue.getFolderNamesWithPendingCommands().isEmpty());
+    }
+
+    @Test
+    public void testCommandBeingSentIsNotCancelled() {
+        final IMAPCommandQueueImpl queue = new IMAPCommandQueueImpl();
+        queue.queueCommand(seen("INBOX", 7, true));
+        final List<IMAPCommand> sending = queue.takePendingCommands("INBOX");
+        final IMAPCommand clear = seen("INBOX", 7, false);
+        queue.queueCommand(clear);
+        queue.completeCommands("INBOX", sending, true);
+
+        assertEquals(1, queue.getPendingCommandCount());
+        assertSame(clear, queue.peekNextCommand());
+    }
+
+    @Test
+    public void testFailedCommandsStayQueued() {
+        final IMAPCommandQueueImpl queue = new IMAPCommandQueueImpl();
+        queue.queueCommand(seen("INBOX", 7, true));
+        queue.completeCommands("INBOX", queue.takePendingCommands("INBOX"), false);
+        assertEquals(1, queue.getPendingCommandCount());
+    }
+}
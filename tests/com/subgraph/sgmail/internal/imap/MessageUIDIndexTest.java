@@ -0,0 +1,84 @@
+package com.subgraph.sgmail.internal.imap;
+
+import com.subgraph.sgmail.messages.StoredMessage;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageUIDIndexTest {
+
+    private static int nextMessageId = 1;
+
+    private static StoredMessage createMessage() {
+        final int messageId = nextMessageId++;
+        return (StoredMessage) Proxy.newProxyInstance(StoredMessage.class.getClassLoader(),
+                new Class<?>[] { StoredMessage.class },
+                (proxy, method, args) -> method.getName().equals("getMessageId") ? messageId : null);
+    }
+
+    private static MessageUIDIndex createIndex(long... uids) {
+        final List<StoredMessage> messages = new ArrayList<>();
+        for(int i = 0; i < uids.length; i++) {
+            messages.add(createMessage());
+        }
+        return new MessageUIDIndex(new TLongArrayList(uids), messages);
+    }
+
+    @Test
+    public void testLookup() {
+        final StoredMessage m1 = createMessage();
+        final StoredMessage m2 = createMessage();
+        final List<StoredMessage> messages = new ArrayList<>();
+        messages.add(m1);
+        messages.add(m2);
+        final MessageUIDIndex index = new MessageUIDIndex(new TLongArrayList(new long[] { 40, 7 }), messages);
+        assertSame(m1, index.get(40));
+        assertSame(m2, index.get(7));
+        assertNull(index.get(8));
+        assertFalse(index.contains(8));
+        assertEquals(40, index.getUID(m1));
+        assertEquals(-1, index.getUID(createMessage()));
+    }
+
+    @Test
+    public void testRange() {
+        final MessageUIDIndex index = createIndex(3, 5, 9, 10, 20);
+        assertArrayEquals(new long[] { 5, 9, 10 }, index.getUIDsInRange(4, 10).toArray());
+        assertArrayEquals(new long[] { 9, 10, 20 }, index.getUIDsInRange(9, -1).toArray());
+        assertEquals(0, index.getUIDsInRange(11, 19).size());
+        assertEquals(2, index.getMessagesInRange(0, 5).size());
+    }
+
+    @Test
+    public void testAddOutOfOrder() {
+        final MessageUIDIndex index = createIndex(10, 20);
+        index.add(30, createMessage());
+        index.add(15, createMessage());
+        assertArrayEquals(new long[] { 10, 15, 20, 30 }, index.getUIDsInRange(0, -1).toArray());
+        assertTrue(index.contains(15));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        final MessageUIDIndex index = createIndex(1, 2, 3, 4, 5, 6);
+        final StoredMessage removed = index.get(2);
+        index.removeAll(new TLongHashSet(new long[] { 2, 5, 99 }));
+        final TLongList remaining = index.getUIDsInRange(0, -1);
+        assertArrayEquals(new long[] { 1, 3, 4, 6 }, remaining.toArray());
+        assertFalse(index.contains(2));
+        assertEquals(4, index.size());
+        assertEquals(-1, index.getUID(removed));
+    }
+}
@@ -0,0 +1,31 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import com.subgraph.sgmail.internal.imap.IMAPCommand;
+import com.subgraph.sgmail.internal.imap.IMAPFlagChangedCommand;
+import com.subgraph.sgmail.messages.StoredMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClientToServerSynchronizeTest {
+
+    @Test
+    public void testStoreCommandsUseUIDSets() {
+        final List<IMAPCommand> commands = new ArrayList<>();
+        for(long uid: new long[] { 5, 3, 4, 10 }) {
+            commands.add(new IMAPFlagChangedCommand("INBOX", uid, StoredMessage.FLAG_SEEN, true));
+        }
+        commands.add(new IMAPFlagChangedCommand("INBOX", 8, StoredMessage.FLAG_SEEN, false));
+        commands.add(new IMAPFlagChangedCommand("INBOX", 8, StoredMessage.FLAG_FLAGGED, true));
+        commands.add(new IMAPFlagChangedCommand("INBOX", 8, StoredMessage.FLAG_ENCRYPTED, true));
+
+        final List<String> store = ClientToServerSynchronize.createStoreCommands(commands);
+        assertEquals(3, store.size());
+        assertEquals("UID STORE 8 +FLAGS.SILENT (\\Flagged)", store.get(0));
+        assertEquals("UID STORE 3:5,10 +FLAGS.SILENT (\\Seen)", store.get(1));
+        assertEquals("UID STORE 8 -FLAGS.SILENT (\\Seen)", store.get(2));
+    }
+}
@@ -0,0 +1,140 @@
+package com.subgraph.sgmail.internal.imap.sync;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares heap allocation of the old ingest path (serialize, reparse, serialize again) with
+ * the single pass path in which the parsed message shares the raw byte buffer.
+ */
+public class MessageIngestAllocationTest {
+    private final static int ATTACHMENT_SIZE = 2 * 1024 * 1024;
+    private final static int ITERATIONS = 20;
+
+    private Session session;
+    private byte[] wireBytes;
+
+    @Before
+    public void setup() throws MessagingException, IOException {
+        session = Session.getInstance(new Properties());
+        wireBytes = serialize(createLargeMessage());
+    }
+
+    @Test
+    public void testSinglePassParseMatchesRawBytes() throws Exception {
+        final MimeMessage parsed = StoredIMAPMessageFactory.parseRawMessage(session, wireBytes);
+        assertEquals("Large message", parsed.getSubject());
+        assertEquals(2, ((Multipart) parsed.getContent()).getCount());
+        assertArrayEquals(wireBytes, serialize(parsed));
+    }
+
+    @Test
+    public void testSinglePassAllocatesLess() throws Exception {
+        final com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        Assume.assumeTrue(threadBean != null);
+
+        // warm up class loading and JIT before measuring
+        for(int i = 0; i < 3; i++) {
+            doublePassIngest();
+            singlePassIngest();
+        }
+
+        final long doublePass = measureAllocation(threadBean, this::doublePassIngest);
+        final long singlePass = measureAllocation(threadBean, this::singlePassIngest);
+        System.out.println("Ingest allocation per message: double pass "+ (doublePass / ITERATIONS) +
+                " bytes, single pass "+ (singlePass / ITERATIONS) +" bytes");
+        assertTrue("single pass ingest should allocate less than half of double pass ingest",
+                singlePass * 2 < doublePass);
+    }
+
+    private interface Ingest {
+        void run() throws Exception;
+    }
+
+    private long measureAllocation(com.sun.management.ThreadMXBean threadBean, Ingest ingest) throws Exception {
+        final long threadId = Thread.currentThread().getId();
+        final long start = threadBean.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < ITERATIONS; i++) {
+            ingest.run();
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if(!bean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+        return bean;
+    }
+
+    /**
+     * The former StoredIMAPMessageFactory behaviour: the downloaded message is written out and
+     * parsed again, then written out a second time for the stored raw data.
+     */
+    private void doublePassIngest() throws Exception {
+        final MimeMessage downloaded = new MimeMessage(session, new ByteArrayInputStream(wireBytes));
+        final MimeMessage reparsed = new MimeMessage(session, new ByteArrayInputStream(serialize(downloaded)));
+        final byte[] raw = serialize(downloaded);
+        consume(reparsed, raw);
+    }
+
+    private void singlePassIngest() throws Exception {
+        final byte[] raw = Arrays.copyOf(wireBytes, wireBytes.length);
+        final MimeMessage parsed = StoredIMAPMessageFactory.parseRawMessage(session, raw);
+        consume(parsed, raw);
+    }
+
+    private void consume(MimeMessage message, byte[] raw) throws Exception {
+        assertEquals(wireBytes.length, raw.length);
+        assertEquals(2, ((Multipart) message.getContent()).getCount());
+    }
+
+    private MimeMessage createLargeMessage() throws MessagingException {
+        final MimeMultipart mp = new MimeMultipart();
+        final MimeBodyPart body = new MimeBodyPart();
+        body.setText("Message body");
+        mp.addBodyPart(body);
+        final MimeBodyPart attachment = new MimeBodyPart();
+        final byte[] data = new byte[ATTACHMENT_SIZE];
+        Arrays.fill(data, (byte) 'a');
+        attachment.setDisposition(Part.ATTACHMENT);
+        attachment.setFileName("attachment.txt");
+        attachment.setText(new String(data));
+        mp.addBodyPart(attachment);
+        final MimeMessage message = new MimeMessage(session);
+        message.setSubject("Large message");
+        message.setContent(mp);
+        message.saveChanges();
+        return message;
+    }
+
+    private static byte[] serialize(MimeMessage message) throws IOException, MessagingException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        message.writeTo(output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package com.subgraph.sgmail.internal.javamail;
+
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MimePartLocatorTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    private byte[] createMessage(byte[] attachment) throws MessagingException, IOException {
+        final MimeMessage message = new MimeMessage(session);
+        message.setSubject("test");
+        final MimeMultipart outer = new MimeMultipart("mixed");
+
+        final MimeBodyPart alternative = new MimeBodyPart();
+        final MimeMultipart inner = new MimeMultipart("alternative");
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText("plain body\r\n--not a boundary\r\n");
+        inner.addBodyPart(text);
+        final MimeBodyPart html = new MimeBodyPart();
+        html.setContent("<p>html body</p>", "text/html");
+        inner.addBodyPart(html);
+        alternative.setContent(inner);
+        outer.addBodyPart(alternative);
+
+        final MimeBodyPart file = new MimeBodyPart();
+        file.setContent(attachment, "application/octet-stream");
+        file.setFileName("data.bin");
+        file.setHeader("Content-Transfer-Encoding", "base64");
+        outer.addBodyPart(file);
+
+        message.setContent(outer);
+        message.saveChanges();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private InputStream open(byte[] raw, Integer... path) throws IOException, MessagingException {
+        return new MimePartLocator(new ByteArrayInputStream(raw)).openPart(Arrays.asList(path));
+    }
+
+    @Test
+    public void testBase64Attachment() throws Exception {
+        final byte[] data = new byte[200000];
+        new Random(1).nextBytes(data);
+        final byte[] raw = createMessage(data);
+        assertArrayEquals(data, readAll(open(raw, 1)));
+    }
+
+    @Test
+    public void testNestedPartMatchesJavamail() throws Exception {
+        final byte[] raw = createMessage(new byte[10]);
+        final MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(raw));
+        final MimeMultipart outer = (MimeMultipart) parsed.getContent();
+        final MimeMultipart inner = (MimeMultipart) outer.getBodyPart(0).getContent();
+        for(int i = 0; i < 2; i++) {
+            final byte[] expected = readAll(((MimeBodyPart) inner.getBodyPart(i)).getInputStream());
+            assertEquals(new String(expected, "UTF-8"), new String(readAll(open(raw, 0, i)), "UTF-8"));
+        }
+    }
+
+    @Test(expected = MessagingException.class)
+    public void testIndexBeyondPartCount() throws Exception {
+        open(createMessage(new byte[10]), 2);
+    }
+}
@@ -0,0 +1,50 @@
+package com.subgraph.sgmail.internal.messages;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIdBitmapTest {
+
+    private static MessageIdBitmap create(int... ids) {
+        final MessageIdBitmap bitmap = new MessageIdBitmap();
+        for(int id: ids) {
+            bitmap.add(id);
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void testAddRemoveContains() {
+        final MessageIdBitmap bitmap = create(1, 63, 64, 4095, 4096, 1000000);
+        assertEquals(6, bitmap.cardinality());
+        assertTrue(bitmap.contains(4096));
+        assertFalse(bitmap.contains(4097));
+        assertFalse(bitmap.add(64));
+        assertTrue(bitmap.remove(1000000));
+        assertFalse(bitmap.remove(1000000));
+        assertFalse(bitmap.contains(1000000));
+        assertEquals(5, bitmap.cardinality());
+    }
+
+    @Test
+    public void testAndCardinality() {
+        final MessageIdBitmap labelled = create(1, 2, 3, 5000, 9000, 200000);
+        final MessageIdBitmap unread = create(2, 5000, 5001, 300000);
+        assertEquals(2, labelled.andCardinality(unread));
+        assertEquals(2, unread.andCardinality(labelled));
+        assertEquals(0, labelled.andCardinality(new MessageIdBitmap()));
+    }
+
+    @Test
+    public void testClear() {
+        final MessageIdBitmap bitmap = create(1, 5000, 200000);
+        bitmap.clear();
+        assertEquals(0, bitmap.cardinality());
+        assertFalse(bitmap.contains(5000));
+        assertTrue(bitmap.add(5000));
+        assertEquals(1, bitmap.cardinality());
+    }
+}
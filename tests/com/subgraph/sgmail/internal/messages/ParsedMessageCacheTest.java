@@ -0,0 +1,43 @@
+package com.subgraph.sgmail.internal.messages;
+
+import java.util.Properties;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ParsedMessageCacheTest {
+
+    private final static Session SESSION = Session.getInstance(new Properties());
+
+    @Test
+    public void testHitsAndMissesAreCounted() throws MessagingException {
+        final ParsedMessageCache cache = new ParsedMessageCache(1024 * 1024);
+        assertEquals(0, cache.getHitRate(), 0);
+
+        final MimeMessage first = new MimeMessage(SESSION);
+        assertSame(first, cache.get(1, () -> first));
+        assertSame(first, cache.get(1, () -> new MimeMessage(SESSION)));
+        cache.get(2, () -> new MimeMessage(SESSION));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testEvictionsAreCounted() throws MessagingException {
+        // smaller than the weight of any entry, so every message is evicted as soon as it is added
+        final ParsedMessageCache cache = new ParsedMessageCache(1);
+        cache.get(1, () -> new MimeMessage(SESSION));
+        cache.get(2, () -> new MimeMessage(SESSION));
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(0, cache.getHitCount());
+    }
+}
@@ -0,0 +1,136 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonWriter;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import com.subgraph.sgmail.internal.nyms.NymsProcess.ResponseReader;
+import com.subgraph.sgmail.internal.nyms.NymsResponseDecoder.DecodedResponse;
+
+/**
+ * Measures the heap used to encode a request carrying a large message and to decode a response
+ * carrying the same message, comparing the streaming codec with building the whole request and
+ * response as strings.  Both the bytes allocated by each request and the growth in peak heap use
+ * are reported.  Peak heap includes garbage which has not been collected yet, so it is most
+ * meaningful with a young generation smaller than the message, for example -Xmn16m.
+ *
+ * Run with an optional message size in megabytes.
+ */
+public class NymsCodecBenchmark {
+
+  private final static OutputStream NULL_OUTPUT = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+    final int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+    final byte[] messageBytes = NymsCodecTest.createMessageBytes(megabytes * 1024 * 1024);
+    final Session session = Session.getInstance(new Properties());
+    final String responseLine = Json.createObjectBuilder()
+        .add("id", 1)
+        .add("result", Json.createObjectBuilder().add("EmailBody", new String(messageBytes, StandardCharsets.ISO_8859_1)))
+        .addNull("error")
+        .build().toString();
+
+    for (int i = 0; i < 3; i++) {
+      final MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(messageBytes));
+      report("string request", measure(() -> writeStringRequest(message)));
+      report("streaming request", measure(() -> new NymsRequest(null, "Protocol.ProcessIncoming", 1, false)
+          .addArgument("EmailBody", message).writeTo(NULL_OUTPUT)));
+      report("string response", measure(() -> readStringResponse(responseLine)));
+      report("streaming response", measure(() -> readStreamingResponse(responseLine)));
+    }
+  }
+
+  interface Task {
+    void run() throws Exception;
+  }
+
+  private static void writeStringRequest(MimeMessage message) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.writeTo(out);
+    final String text = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    final JsonObject request = Json.createObjectBuilder()
+        .add("method", "Protocol.ProcessIncoming")
+        .add("params", Json.createArrayBuilder().add(Json.createObjectBuilder().add("EmailBody", text)))
+        .add("id", 1).build();
+    try (JsonWriter writer = Json.createWriter(NULL_OUTPUT)) {
+      writer.writeObject(request);
+    }
+  }
+
+  private static void readStringResponse(String line) throws Exception {
+    // the whole line is read as a string before parsing
+    final String copy = new String(line.toCharArray());
+    try (JsonReader reader = Json.createReader(new StringReader(copy))) {
+      final JsonObject response = reader.readObject();
+      final byte[] body = response.getJsonObject("result").getString("EmailBody").getBytes(StandardCharsets.ISO_8859_1);
+      new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(body));
+    }
+  }
+
+  private static void readStreamingResponse(String line) throws Exception {
+    final ResponseReader reader = new ResponseReader(new StringReader(line));
+    reader.nextResponse();
+    final DecodedResponse decoded = NymsResponseDecoder.decode(reader);
+    final byte[] body = decoded.getLargeValues().get("EmailBody");
+    new MimeMessage(Session.getInstance(new Properties()), new SharedByteArrayInputStream(body));
+  }
+
+  private static long[] measure(Task task) throws Exception {
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long threadId = Thread.currentThread().getId();
+    System.gc();
+    final long baseline = heapUsed();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+    final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+    task.run();
+    final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return new long[] { allocated, peak - baseline };
+  }
+
+  private static long heapUsed() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        used += pool.getUsage().getUsed();
+      }
+    }
+    return used;
+  }
+
+  private static void report(String name, long[] result) {
+    System.out.printf("%-20s allocated %7.1f MB  peak heap %7.1f MB%n", name,
+        result[0] / (1024.0 * 1024.0), result[1] / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,119 @@
+package com.subgraph.sgmail.internal.nyms;
+
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import com.subgraph.sgmail.internal.nyms.NymsProcess.ResponseReader;
+import com.subgraph.sgmail.internal.nyms.NymsResponseDecoder.DecodedResponse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NymsCodecTest {
+
+  private final Session session = Session.getInstance(new Properties());
+
+  static byte[] createMessageBytes(int bodySize) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Subject: test \"quoted\" \\ \u00e9\r\n");
+    sb.append("Content-Type: text/plain; charset=ISO-8859-1\r\n");
+    sb.append("Content-Transfer-Encoding: 8bit\r\n\r\n");
+    for (int i = 0; sb.length() < bodySize; i++) {
+      sb.append("line ").append(i).append("\t\u00fc\u0001\r\n");
+    }
+    return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private MimeMessage createMessage(byte[] bytes) throws MessagingException {
+    return new MimeMessage(session, new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  public void testRequestEncodesMessageAsString() throws IOException, MessagingException {
+    final byte[] messageBytes = createMessageBytes(10000);
+    final NymsRequest request = new NymsRequest(null, "Protocol.ProcessIncoming", 7, false)
+        .addArgument("Passphrase", "secret")
+        .addArgument("Sign", true)
+        .addArgument("EmailBody", createMessage(messageBytes));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    request.writeTo(out);
+    final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(text.endsWith("}\n"));
+    assertEquals(1, text.split("\n").length);
+
+    try (JsonReader reader = Json.createReader(new StringReader(text))) {
+      final JsonObject object = reader.readObject();
+      assertEquals(7, object.getInt("id"));
+      assertEquals("Protocol.ProcessIncoming", object.getString("method"));
+      final JsonObject params = object.getJsonArray("params").getJsonObject(0);
+      assertEquals("secret", params.getString("Passphrase"));
+      assertTrue(params.getBoolean("Sign"));
+      assertArrayEquals(messageBytes, params.getString("EmailBody").getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  @Test
+  public void testStreamedArgumentAlone() throws IOException, MessagingException {
+    final byte[] messageBytes = createMessageBytes(100);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new NymsRequest(null, "Protocol.ProcessIncoming", 1, false)
+        .addArgument("EmailBody", createMessage(messageBytes))
+        .writeTo(out);
+    try (JsonReader reader = Json.createReader(new StringReader(new String(out.toByteArray(), StandardCharsets.UTF_8)))) {
+      final JsonObject params = reader.readObject().getJsonArray("params").getJsonObject(0);
+      assertEquals(1, params.size());
+    }
+  }
+
+  @Test
+  public void testDecodeConsecutiveResponses() throws Exception {
+    final byte[] body = createMessageBytes(NymsResponseDecoder.LARGE_VALUE_LENGTH * 2);
+    final String largeResponse = Json.createObjectBuilder()
+        .add("id", 2)
+        .add("result", Json.createObjectBuilder()
+            .add("VerifyResult", 1)
+            .add("EmailBody", new String(body, StandardCharsets.ISO_8859_1))
+            .add("EncryptedKeyIds", Json.createArrayBuilder().add("a").add("b")))
+        .addNull("error")
+        .build().toString();
+    final String input = "{\"id\":1,\"result\":true,\"error\":null}\n\n" + largeResponse + "\n{\"id\":3,\"result\":4,\"error\":null}\n";
+    final ResponseReader reader = new ResponseReader(new StringReader(input));
+
+    assertTrue(reader.nextResponse());
+    final DecodedResponse first = NymsResponseDecoder.decode(reader);
+    reader.skipToLineEnd();
+    assertEquals(1, first.getId());
+    assertTrue(new NymsResponse("test", first.getResponseObject()).getBooleanResult());
+
+    assertTrue(reader.nextResponse());
+    final DecodedResponse second = NymsResponseDecoder.decode(reader);
+    reader.skipToLineEnd();
+    assertEquals(2, second.getId());
+    assertTrue(second.getLargeValues().containsKey("EmailBody"));
+    final NymsResponse response = new NymsResponse("test", second.getResponseObject(), second.getLargeValues());
+    assertArrayEquals(body, response.getBytes("EmailBody"));
+    assertEquals(1, response.getInt("VerifyResult"));
+    assertEquals(2, response.getStringArray("EncryptedKeyIds").size());
+
+    assertTrue(reader.nextResponse());
+    final DecodedResponse third = NymsResponseDecoder.decode(reader);
+    reader.skipToLineEnd();
+    assertEquals(3, third.getId());
+    assertFalse(reader.nextResponse());
+  }
+}
@@ -0,0 +1,86 @@
+package com.subgraph.sgmail.internal.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchQueryTest {
+
+    private final static Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_47);
+
+    private static SearchQuery query(String input) {
+        return SearchQuery.create(input, analyzer);
+    }
+
+    @Test
+    public void testExtendingQueryIsRefinement() {
+        assertTrue(query("meet").isRefinementOf(query("me")));
+        assertTrue(query("meeting ").isRefinementOf(query("meet")));
+        assertTrue(query("meeting tom").isRefinementOf(query("meeting")));
+        assertTrue(query("meeting the").isRefinementOf(query("meeting ")));
+    }
+
+    @Test
+    public void testQueryWhichMayMatchMoreIsNotRefinement() {
+        // a single character is an exact term, not a prefix
+        assertFalse(query("me").isRefinementOf(query("m")));
+        // the completed stop word is dropped, leaving the query broader than the prefix
+        assertFalse(query("meeting the ").isRefinementOf(query("meeting th")));
+        assertFalse(query("meeting OR lunch").isRefinementOf(query("meeting")));
+        assertFalse(query("mea").isRefinementOf(query("meet")));
+        assertFalse(query("a").isRefinementOf(query("the ")));
+    }
+
+    @Test
+    public void testRefinedSearchMatchesFullSearch() throws IOException {
+        final SearcherManager manager = createIndex("quarterly meeting notes", "meeting moved to tuesday",
+                "lunch menu", "quarterly numbers", "memo about the meeting");
+        final SearchResultImpl me = SearchResultImpl.runQuery(query("me"), null, manager, () -> false);
+        assertEquals(4, me.getMatchCount());
+        final SearchResultImpl meeting = SearchResultImpl.runQuery(query("meeting "), me, manager, () -> false);
+        assertTrue(meeting.isRefined());
+        assertEquals(3, meeting.getMatchCount());
+        final SearchResultImpl quarterly = SearchResultImpl.runQuery(query("meeting quar"), meeting, manager, () -> false);
+        assertTrue(quarterly.isRefined());
+        assertEquals(1, quarterly.getMatchCount());
+        assertTrue(quarterly.resultContainsMessageId(0));
+        final SearchResultImpl full = SearchResultImpl.runQuery(query("meeting quar"), null, manager, () -> false);
+        assertFalse(full.isRefined());
+        assertEquals(1, full.getMatchCount());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancelledSearchThrows() throws IOException {
+        final SearcherManager manager = createIndex("quarterly meeting notes");
+        SearchResultImpl.runQuery(query("meeting"), null, manager, () -> true);
+    }
+
+    private static SearcherManager createIndex(String... bodies) throws IOException {
+        final IndexWriter writer = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(Version.LUCENE_47, analyzer));
+        for(int i = 0; i < bodies.length; i++) {
+            final Document document = new Document();
+            document.add(new NumericDocValuesField(IMAPMessageDocumentWriter.UID_FIELD, i));
+            document.add(new TextField("subject", "", Field.Store.NO));
+            document.add(new TextField("body", bodies[i], Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.commit();
+        return new SearcherManager(writer, true, null);
+    }
+}
@@ -0,0 +1,105 @@
+package com.subgraph.sgmail.internal.smtp;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Test;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StoredOutgoingMessageTest {
+
+	private static StoredOutgoingMessage createMessage(long queuedTime) {
+		final byte[] bytes = "Subject: test\r\n\r\nbody\r\n".getBytes();
+		return new StoredOutgoingMessage(1, null, bytes, new String[] { "a@example.com", "b@example.com" }, queuedTime);
+	}
+
+	@Test
+	public void testRetryDelayDoublesUpToLimit() {
+		assertEquals(TimeUnit.SECONDS.toMillis(30), StoredOutgoingMessage.getRetryDelay(1));
+		assertEquals(TimeUnit.SECONDS.toMillis(60), StoredOutgoingMessage.getRetryDelay(2));
+		assertEquals(TimeUnit.SECONDS.toMillis(120), StoredOutgoingMessage.getRetryDelay(3));
+		assertEquals(TimeUnit.HOURS.toMillis(1), StoredOutgoingMessage.getRetryDelay(8));
+		assertEquals(TimeUnit.HOURS.toMillis(1), StoredOutgoingMessage.getRetryDelay(1000));
+	}
+
+	@Test
+	public void testFailureDelaysNextAttempt() {
+		final StoredOutgoingMessage message = createMessage(1000);
+		assertTrue(message.isDue(1000));
+		assertTrue(message.recordFailure("Connection refused", 5000));
+		assertFalse(message.isDue(5000));
+		assertTrue(message.isDue(5000 + TimeUnit.SECONDS.toMillis(30)));
+		assertEquals("Connection refused", message.getLastError());
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() {
+		final StoredOutgoingMessage message = createMessage(0);
+		for(int i = 1; i < StoredOutgoingMessage.MAX_ATTEMPTS; i++) {
+			assertTrue(message.recordFailure("timeout", 0));
+		}
+		assertFalse(message.recordFailure("timeout", 0));
+	}
+
+	@Test
+	public void testMessageIsRestored() throws MessagingException {
+		final StoredOutgoingMessage message = createMessage(0);
+		final MimeMessage mime = message.createMimeMessage(Session.getInstance(new Properties()));
+		assertEquals("test", mime.getSubject());
+		assertArrayEquals(new Address[] { new InternetAddress("a@example.com"), new InternetAddress("b@example.com") },
+				message.getRecipientAddresses());
+	}
+
+	@Test
+	public void testPermanentFailures() throws MessagingException {
+		assertTrue(AccountSender.isPermanentFailure(new SMTPSendFailedException("DATA", 554, "554 rejected", null, null, null, null)));
+		assertFalse(AccountSender.isPermanentFailure(new SMTPSendFailedException("MAIL", 451, "451 try again", null, null, null, null)));
+		assertFalse(AccountSender.isPermanentFailure(new MessagingException("Connection reset")));
+
+		final SendFailedException invalidAddresses = new SendFailedException("Invalid Addresses");
+		invalidAddresses.setNextException(new SMTPAddressFailedException(new InternetAddress("a@example.com"), "RCPT", 550, "550 no such user"));
+		assertTrue(AccountSender.isPermanentFailure(invalidAddresses));
+	}
+
+	@Test
+	public void testRecipientFailures() throws MessagingException {
+		final Address good = new InternetAddress("a@example.com");
+		final Address bad = new InternetAddress("bad@example.com");
+		final SMTPAddressFailedException rejected = new SMTPAddressFailedException((InternetAddress) bad, "RCPT", 550, "550 no such user");
+
+		final SendFailedException partial = new SMTPSendFailedException(".", 250, "250 queued", rejected,
+				new Address[] { good }, new Address[0], new Address[] { bad });
+		assertTrue(AccountSender.isRecipientFailure(partial));
+
+		final SendFailedException noneSent = new SendFailedException("Invalid Addresses", rejected, null, new Address[] { good }, new Address[] { bad });
+		assertTrue(AccountSender.isRecipientFailure(noneSent));
+
+		final SendFailedException allRejected = new SendFailedException("Invalid Addresses", rejected, null, new Address[0], new Address[] { bad });
+		assertFalse(AccountSender.isRecipientFailure(allRejected));
+
+		final SendFailedException dataRejected = new SMTPSendFailedException("DATA", 554, "554 rejected", rejected,
+				null, new Address[] { good }, new Address[] { bad });
+		assertFalse(AccountSender.isRecipientFailure(dataRejected));
+	}
+
+	@Test
+	public void testRecipientsCanBeReplaced() throws MessagingException {
+		final StoredOutgoingMessage message = createMessage(0);
+		message.setRecipientAddresses(new Address[] { new InternetAddress("b@example.com") });
+		assertArrayEquals(new Address[] { new InternetAddress("b@example.com") }, message.getRecipientAddresses());
+	}
+}
@@ -0,0 +1,84 @@
+package com.subgraph.sgmail.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailStoreTest {
+
+	private final static ImageData IMAGE = new ImageData(16, 16, 24, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("thumbnails").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if(files != null) {
+			for(File f: files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testStoreAndLoad() {
+		final ThumbnailStore store = new ThumbnailStore(directory);
+		assertNull(store.load("a"));
+		store.store("a", IMAGE);
+		final ImageData loaded = store.load("a");
+		assertNotNull(loaded);
+		assertEquals(16, loaded.width);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedFilesArePruned() {
+		new ThumbnailStore(directory).store("a", IMAGE);
+		final long length = getFile("a").length();
+		setAge("a", 3);
+
+		// a store opened in a later session counts the file written by the earlier one
+		final ThumbnailStore store = new ThumbnailStore(directory, 3 * length);
+		store.store("b", IMAGE);
+		setAge("b", 2);
+		store.store("c", IMAGE);
+		setAge("c", 1);
+		assertNotNull(store.load("a"));
+		assertTrue(getFile("b").exists());
+
+		store.store("d", IMAGE);
+		assertFalse(getFile("b").exists());
+		assertFalse(getFile("c").exists());
+		assertTrue(getFile("a").exists());
+		assertTrue(getFile("d").exists());
+	}
+
+	private File getFile(String key) {
+		return new File(directory, Hashing.sha1().hashString(key, Charsets.UTF_8).toString() + ".png");
+	}
+
+	private void setAge(String key, int hours) {
+		assertTrue(getFile(key).setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours)));
+	}
+}
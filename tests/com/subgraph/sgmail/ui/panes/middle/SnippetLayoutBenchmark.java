@@ -0,0 +1,132 @@
+package com.subgraph.sgmail.ui.panes.middle;
+
+
+import java.util.Random;
+
+/**
+ * Measures the cost of laying out body snippets while painting a folder of 100,000 conversation
+ * rows.  Rendering needs a display, so text is measured by a stand in for GC.textExtent which
+ * sums per character widths and counts the calls and characters measured, the cost of a real
+ * measurement being roughly proportional to the length of the string.
+ *
+ * Three passes are reported: laying out every row by growing the line a character at a time as
+ * the renderer used to, laying out every row with binary search fitting, and scrolling through
+ * the folder a page at a time as a virtual table paints it, painting each page twice to show the
+ * cache absorbing repaints.
+ *
+ * Run with an optional row count and row width in pixels.
+ */
+public class SnippetLayoutBenchmark {
+
+    private final static int LINE_COUNT = 2;
+    private final static int VISIBLE_ROWS = 25;
+
+    private static class CountingMeasurer implements BodySnippetGenerator.TextMeasurer {
+        long calls;
+        long characters;
+
+        @Override
+        public int getWidth(String s) {
+            calls += 1;
+            characters += s.length();
+            int width = 0;
+            for(int i = 0; i < s.length(); i++) {
+                width += charWidth(s.charAt(i));
+            }
+            return width;
+        }
+
+        private static int charWidth(char c) {
+            if(c == ' ' || c == 'i' || c == 'l' || c == '.') {
+                return 3;
+            } else if(c == 'm' || c == 'w' || Character.isUpperCase(c)) {
+                return 9;
+            } else {
+                return 6;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        final int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        final int width = (args.length > 1) ? Integer.parseInt(args[1]) : 400;
+        final String[] bodies = createBodies(rows);
+
+        for(int i = 0; i < 3; i++) {
+            final CountingMeasurer linear = new CountingMeasurer();
+            long start = System.nanoTime();
+            for(String body: bodies) {
+                layoutLinear(body, width, linear);
+            }
+            report("character at a time", rows, System.nanoTime() - start, linear);
+
+            final CountingMeasurer binary = new CountingMeasurer();
+            start = System.nanoTime();
+            for(String body: bodies) {
+                new BodySnippetGenerator(body, width, binary, LINE_COUNT).generateSnippetRanges();
+            }
+            report("binary search", rows, System.nanoTime() - start, binary);
+
+            final CountingMeasurer painting = new CountingMeasurer();
+            final SnippetLayoutCache cache = new SnippetLayoutCache(LINE_COUNT);
+            start = System.nanoTime();
+            for(int top = 0; top < rows; top += VISIBLE_ROWS) {
+                paintPage(cache, bodies, top, width, painting);
+                paintPage(cache, bodies, top, width, painting);
+            }
+            report("scroll and repaint", rows * 2, System.nanoTime() - start, painting);
+        }
+    }
+
+    private static void paintPage(SnippetLayoutCache cache, String[] bodies, int top, int width, CountingMeasurer measurer) {
+        final int end = Math.min(bodies.length, top + VISIBLE_ROWS);
+        for(int row = top; row < end; row++) {
+            cache.getLines(row, bodies[row], width, null, measurer);
+        }
+    }
+
+    private static void report(String name, int rows, long nanos, CountingMeasurer measurer) {
+        System.out.printf("%-22s %8.1f ms  %6.2f us/row  %6.1f measurements/row  %8.1f chars measured/row%n",
+                name, nanos / 1e6, nanos / 1e3 / rows, (double) measurer.calls / rows, (double) measurer.characters / rows);
+    }
+
+    /** The previous layout, which measured the line again after appending each character. */
+    private static void layoutLinear(String body, int width, CountingMeasurer measurer) {
+        int offset = 0;
+        for(int line = 0; line < LINE_COUNT && offset < body.length(); line++) {
+            final StringBuilder sb = new StringBuilder();
+            int lastWhitespace = -1;
+            sb.append(body.charAt(offset++));
+            boolean broken = false;
+            while(offset < body.length() && !broken) {
+                final char c = body.charAt(offset);
+                if(Character.isWhitespace(c)) {
+                    lastWhitespace = offset;
+                }
+                sb.append(c);
+                if(measurer.getWidth(sb.toString()) > width) {
+                    offset = (lastWhitespace >= 0) ? lastWhitespace + 1 : offset;
+                    broken = true;
+                } else {
+                    offset += 1;
+                }
+            }
+        }
+    }
+
+    private static String[] createBodies(int rows) {
+        final String[] words = { "the", "message", "Meeting", "attached", "is", "will", "tomorrow", "review",
+                "Please", "find", "quarterly", "numbers", "and", "let", "me", "know", "if", "anything", "looks", "wrong." };
+        final Random random = new Random(1);
+        final String[] bodies = new String[rows];
+        for(int i = 0; i < rows; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = 200 + random.nextInt(800);
+            while(sb.length() < length) {
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            bodies[i] = sb.toString();
+        }
+        return bodies;
+    }
+}
@@ -0,0 +1,66 @@
+package com.subgraph.sgmail.ui.utils;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ImageScalerTest {
+
+    private final static PaletteData RGB_PALETTE = new PaletteData(0xFF0000, 0x00FF00, 0x0000FF);
+
+    @Test
+    public void testImageWhichFitsIsNotCopied() {
+        final ImageData data = new ImageData(10, 20, 24, RGB_PALETTE);
+        assertSame(data, ImageScaler.scaleToFit(data, 10, 20));
+    }
+
+    @Test
+    public void testScaleKeepsAspectRatio() {
+        final ImageData scaled = ImageScaler.scaleToFit(new ImageData(400, 100, 24, RGB_PALETTE), 100, 100);
+        assertEquals(100, scaled.width);
+        assertEquals(25, scaled.height);
+        assertNull(scaled.alphaData);
+    }
+
+    @Test
+    public void testPixelsAreAveraged() {
+        final ImageData data = new ImageData(2, 2, 24, RGB_PALETTE);
+        data.setPixel(0, 0, 0xFF0000);
+        data.setPixel(1, 0, 0x0000FF);
+        data.setPixel(0, 1, 0xFF0000);
+        data.setPixel(1, 1, 0x0000FF);
+        final ImageData scaled = ImageScaler.scaleToFit(data, 1, 1);
+        assertEquals(new RGB(127, 0, 127), scaled.palette.getRGB(scaled.getPixel(0, 0)));
+    }
+
+    @Test
+    public void testTransparentPixelsDoNotDarkenColor() {
+        final ImageData data = new ImageData(2, 1, 24, RGB_PALETTE);
+        data.setPixel(0, 0, 0xFFFFFF);
+        data.setPixel(1, 0, 0x000000);
+        data.alphaData = new byte[] { (byte) 255, 0 };
+        final ImageData scaled = ImageScaler.scaleToFit(data, 1, 1);
+        assertEquals(new RGB(255, 255, 255), scaled.palette.getRGB(scaled.getPixel(0, 0)));
+        assertNotNull(scaled.alphaData);
+        assertEquals(127, scaled.getAlpha(0, 0));
+    }
+
+    @Test
+    public void testIndexedImage() {
+        final PaletteData palette = new PaletteData(new RGB[] { new RGB(0, 0, 0), new RGB(0, 200, 0) });
+        final ImageData data = new ImageData(4, 4, 8, palette);
+        for(int y = 0; y < 4; y++) {
+            for(int x = 0; x < 4; x++) {
+                data.setPixel(x, y, 1);
+            }
+        }
+        final ImageData scaled = ImageScaler.scaleToFit(data, 2, 2);
+        assertEquals(new RGB(0, 200, 0), scaled.palette.getRGB(scaled.getPixel(1, 1)));
+    }
+}
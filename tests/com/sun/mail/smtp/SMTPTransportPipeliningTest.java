@@ -0,0 +1,400 @@
+package com.sun.mail.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.net.SocketFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends messages to a scripted SMTP server on the loopback interface and counts the round trips
+ * the client makes, a round trip being a read from the server after the client has written
+ * something since its previous read.
+ */
+public class SMTPTransportPipeliningTest {
+
+	private final static String BODY = "first line\n.line starting with a dot\n" + repeat("0123456789", 40) + "\nlast line\n";
+
+	/** Replies to the commands of one client connection, recording what it receives. */
+	private static class FakeSMTPServer implements Runnable {
+		private final ServerSocket serverSocket;
+		private final List<String> extensions;
+		private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+		private final Thread thread;
+		private volatile boolean rejectSender;
+
+		FakeSMTPServer(String... extensions) throws IOException {
+			this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			this.extensions = Arrays.asList(extensions);
+			this.thread = new Thread(this, "Fake SMTP server");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		int countCommands(String prefix) {
+			int count = 0;
+			synchronized (commands) {
+				for(String c: commands) {
+					if(c.startsWith(prefix)) {
+						count += 1;
+					}
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void run() {
+			try (Socket socket = serverSocket.accept()) {
+				final InputStream in = socket.getInputStream();
+				final OutputStream out = socket.getOutputStream();
+				reply(out, "220 fake.test ESMTP");
+				ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+				String line;
+				while((line = readLine(in)) != null) {
+					commands.add(line);
+					final String upper = line.toUpperCase();
+					if(upper.startsWith("EHLO")) {
+						final StringBuilder sb = new StringBuilder("250-fake.test\r\n");
+						for(String ext: extensions) {
+							sb.append("250-").append(ext).append("\r\n");
+						}
+						sb.append("250 SIZE 10000000");
+						reply(out, sb.toString());
+					} else if(upper.startsWith("MAIL FROM:")) {
+						reply(out, rejectSender ? "550 sender rejected" : "250 sender ok");
+					} else if(upper.startsWith("RCPT TO:")) {
+						reply(out, upper.contains("BAD") ? "550 no such user" : "250 recipient ok");
+					} else if(upper.equals("DATA")) {
+						reply(out, "354 go ahead");
+						messages.add(readDotTerminated(in));
+						reply(out, "250 queued");
+					} else if(upper.startsWith("BDAT ")) {
+						final String[] parts = line.split(" ");
+						chunks.write(readBytes(in, Integer.parseInt(parts[1])));
+						if(parts.length > 2 && parts[2].equalsIgnoreCase("LAST")) {
+							messages.add(new String(chunks.toByteArray(), StandardCharsets.US_ASCII));
+							chunks = new ByteArrayOutputStream();
+						}
+						reply(out, "250 chunk ok");
+					} else if(upper.equals("QUIT")) {
+						reply(out, "221 bye");
+						return;
+					} else {
+						reply(out, "250 ok");
+					}
+				}
+			} catch (IOException e) {
+				// client went away
+			}
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+
+		private static void reply(OutputStream out, String reply) throws IOException {
+			out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			final ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while((b = in.read()) != -1) {
+				if(b == '\n') {
+					final byte[] bytes = line.toByteArray();
+					final int length = (bytes.length > 0 && bytes[bytes.length - 1] == '\r') ? bytes.length - 1 : bytes.length;
+					return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+				}
+				line.write(b);
+			}
+			return null;
+		}
+
+		private static String readDotTerminated(InputStream in) throws IOException {
+			final StringBuilder sb = new StringBuilder();
+			String line;
+			while((line = readLine(in)) != null && !line.equals(".")) {
+				sb.append(line.startsWith(".") ? line.substring(1) : line).append("\r\n");
+			}
+			return sb.toString();
+		}
+
+		private static byte[] readBytes(InputStream in, int count) throws IOException {
+			final byte[] bytes = new byte[count];
+			int offset = 0;
+			while(offset < count) {
+				final int n = in.read(bytes, offset, count - offset);
+				if(n == -1) {
+					throw new IOException("EOF in BDAT chunk");
+				}
+				offset += n;
+			}
+			return bytes;
+		}
+	}
+
+	/** Counts the client's round trips on the sockets it creates. */
+	private static class RoundTripCountingSocketFactory extends SocketFactory {
+		private volatile int roundTrips;
+		private volatile boolean hasWritten;
+
+		@Override
+		public Socket createSocket() {
+			return new Socket() {
+				private InputStream in;
+				private OutputStream out;
+
+				@Override
+				public synchronized InputStream getInputStream() throws IOException {
+					if(in == null) {
+						in = new FilterInputStream(super.getInputStream()) {
+							@Override
+							public int read() throws IOException {
+								countRead();
+								return super.read();
+							}
+
+							@Override
+							public int read(byte[] b, int off, int len) throws IOException {
+								countRead();
+								return super.read(b, off, len);
+							}
+						};
+					}
+					return in;
+				}
+
+				@Override
+				public synchronized OutputStream getOutputStream() throws IOException {
+					if(out == null) {
+						out = new FilterOutputStream(super.getOutputStream()) {
+							@Override
+							public void write(int b) throws IOException {
+								hasWritten = true;
+								super.write(b);
+							}
+
+							@Override
+							public void write(byte[] b, int off, int len) throws IOException {
+								hasWritten = true;
+								// write through in one call rather than byte by byte
+								out.write(b, off, len);
+							}
+						};
+					}
+					return out;
+				}
+			};
+		}
+
+		private void countRead() {
+			if(hasWritten) {
+				hasWritten = false;
+				roundTrips += 1;
+			}
+		}
+
+		int takeRoundTrips() {
+			final int count = roundTrips;
+			roundTrips = 0;
+			return count;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final RoundTripCountingSocketFactory socketFactory = new RoundTripCountingSocketFactory();
+	private FakeSMTPServer server;
+	private SMTPTransport transport;
+
+	@After
+	public void tearDown() throws Exception {
+		if(transport != null) {
+			transport.close();
+		}
+		if(server != null) {
+			server.close();
+		}
+	}
+
+	private Session connect(int chunkSize, String... extensions) throws Exception {
+		server = new FakeSMTPServer(extensions);
+		final Properties properties = new Properties();
+		properties.put("mail.smtp.socketFactory", socketFactory);
+		properties.setProperty("mail.smtp.localhost", "client.test");
+		properties.setProperty("mail.smtp.chunksize", Integer.toString(chunkSize));
+		final Session session = Session.getInstance(properties);
+		transport = new SMTPTransport(session, null);
+		transport.connect("127.0.0.1", server.getPort(), null, null);
+		socketFactory.takeRoundTrips();
+		return session;
+	}
+
+	private static MimeMessage createMessage(Session session) throws MessagingException {
+		final MimeMessage message = new MimeMessage(session);
+		message.setFrom(new InternetAddress("sender@example.com"));
+		message.setSubject("test");
+		message.setText(BODY);
+		message.saveChanges();
+		return message;
+	}
+
+	private static Address[] recipients(String... addresses) throws MessagingException {
+		final Address[] result = new Address[addresses.length];
+		for(int i = 0; i < addresses.length; i++) {
+			result[i] = new InternetAddress(addresses[i]);
+		}
+		return result;
+	}
+
+	private static String repeat(String s, int count) {
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	private void assertBodyReceived() {
+		assertEquals(1, server.messages.size());
+		final String received = server.messages.get(0);
+		assertTrue(received.contains("\r\n.line starting with a dot\r\n"));
+		assertTrue(received.endsWith("last line\r\n"));
+	}
+
+	@Test
+	public void testLockStepWithoutExtensions() throws Exception {
+		final Session session = connect(64);
+		transport.sendMessage(createMessage(session), recipients("a@example.com", "b@example.com", "c@example.com"));
+		// MAIL, three RCPT, DATA and the terminating dot
+		assertEquals(6, socketFactory.takeRoundTrips());
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testPipelinedEnvelope() throws Exception {
+		final Session session = connect(64, "PIPELINING");
+		transport.sendMessage(createMessage(session), recipients("a@example.com", "b@example.com", "c@example.com"));
+		// envelope, DATA and the terminating dot
+		assertEquals(3, socketFactory.takeRoundTrips());
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testPipelinedChunks() throws Exception {
+		final Session session = connect(64, "PIPELINING", "CHUNKING");
+		transport.sendMessage(createMessage(session), recipients("a@example.com", "b@example.com", "c@example.com"));
+		// envelope and every chunk of the message
+		assertEquals(2, socketFactory.takeRoundTrips());
+		assertTrue(server.countCommands("BDAT ") > 2);
+		assertEquals(0, server.countCommands("DATA"));
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testChunksWithoutPipelining() throws Exception {
+		final Session session = connect(64, "CHUNKING");
+		transport.sendMessage(createMessage(session), recipients("a@example.com", "b@example.com"));
+		assertEquals(3 + server.countCommands("BDAT "), socketFactory.takeRoundTrips());
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testPipelinedRecipientFailureKeepsConnectionUsable() throws Exception {
+		final Session session = connect(64, "PIPELINING", "CHUNKING");
+		try {
+			transport.sendMessage(createMessage(session), recipients("a@example.com", "bad@example.com"));
+			fail("expected SendFailedException");
+		} catch (SendFailedException e) {
+			assertEquals(1, e.getInvalidAddresses().length);
+			assertEquals("bad@example.com", ((InternetAddress) e.getInvalidAddresses()[0]).getAddress());
+		}
+		assertEquals(0, server.messages.size());
+		transport.sendMessage(createMessage(session), recipients("a@example.com"));
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testPipelinedSenderFailureSkipsRecipientReplies() throws Exception {
+		final Session session = connect(64, "PIPELINING");
+		server.rejectSender = true;
+		try {
+			transport.sendMessage(createMessage(session), recipients("a@example.com", "b@example.com"));
+			fail("expected SMTPSendFailedException");
+		} catch (SMTPSendFailedException e) {
+			assertEquals(550, e.getReturnCode());
+			assertTrue(e.getNextException() instanceof SMTPSenderFailedException);
+		}
+		server.rejectSender = false;
+		transport.sendMessage(createMessage(session), recipients("a@example.com"));
+		assertBodyReceived();
+	}
+
+	@Test
+	public void testPipelinedPartialSendDeliversToValidRecipients() throws Exception {
+		final Session session = connect(64, "PIPELINING");
+		final SMTPMessage message = new SMTPMessage(createMessage(session));
+		message.setSendPartial(true);
+		try {
+			transport.sendMessage(message, recipients("a@example.com", "bad@example.com"));
+			fail("expected SMTPSendFailedException");
+		} catch (SMTPSendFailedException e) {
+			assertEquals(250, e.getReturnCode());
+			assertEquals(1, e.getValidSentAddresses().length);
+			assertEquals("a@example.com", ((InternetAddress) e.getValidSentAddresses()[0]).getAddress());
+			assertEquals(1, e.getInvalidAddresses().length);
+			assertEquals(0, e.getValidUnsentAddresses().length);
+		}
+		assertBodyReceived();
+	}
+}